@@ -0,0 +1,72 @@
+package com.example.keychainapp.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Utilitários comuns dos benchmarks: diretórios temporários e um KeychainService que não
+ * depende do keychain real do SO.
+ */
+final class BenchmarkSupport {
+    static final String KEYCHAIN_SERVICE = "JavaKeychainApp";
+    static final String KEYCHAIN_KEY = "keystore-password";
+
+    private BenchmarkSupport() { /* utilitário */ }
+
+    static File createTempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    /**
+     * KeychainService em um diretório temporário, com a senha do KeyStore em um InMemoryBackend.
+     */
+    static KeychainService newService(File dir) throws Exception {
+        InMemoryBackend backend = new InMemoryBackend();
+        backend.savePassword(KEYCHAIN_SERVICE, KEYCHAIN_KEY, CryptoUtils.encrypt("benchmark-keystore-password"));
+        SystemKeychain.setBackend(backend);
+        return new KeychainService(dir);
+    }
+
+    /**
+     * Copia um script dos recursos dos benchmarks para um arquivo executável.
+     */
+    static File extractScript(String resource, File dir) throws IOException {
+        File target = new File(dir, resource);
+        try (InputStream in = BenchmarkSupport.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Recurso não encontrado: " + resource);
+            }
+            Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (!target.setExecutable(true)) {
+            throw new IOException("Não foi possível tornar executável: " + target);
+        }
+        return target;
+    }
+
+    static void deleteRecursively(File dir) throws IOException {
+        if (dir == null || !dir.exists()) {
+            return;
+        }
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
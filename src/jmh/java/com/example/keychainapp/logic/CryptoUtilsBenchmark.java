@@ -0,0 +1,83 @@
+package com.example.keychainapp.logic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Ida e volta (cifrar + decifrar) pelo caminho antigo do CryptoUtils (SecretKeySpec e
+ * Cipher.getInstance a cada chamada, sempre via String e Base64) comparado com a API atual de
+ * String e com a API binária sem alocação. As subclasses repetem tudo com 1, 8 e 32 threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public abstract class CryptoUtilsBenchmark {
+    private static final byte[] LEGACY_KEY = "MinhaChaveFixa12".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"16", "256", "4096"})
+    public int size;
+
+    private String text;
+    private byte[] plain;
+    private byte[] encrypted;
+    private byte[] decrypted;
+
+    @Setup
+    public void setup() {
+        plain = new byte[size];
+        new Random(42).nextBytes(plain);
+        text = Base64.getEncoder().encodeToString(plain).substring(0, size);
+        encrypted = new byte[CryptoUtils.encryptedLength(size)];
+        decrypted = new byte[encrypted.length];
+    }
+
+    @Benchmark
+    public String legacyStringPath() throws Exception {
+        SecretKeySpec key = new SecretKeySpec(LEGACY_KEY, "AES");
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        String enc = Base64.getEncoder().encodeToString(cipher.doFinal(text.getBytes("UTF-8")));
+        SecretKeySpec key2 = new SecretKeySpec(LEGACY_KEY, "AES");
+        Cipher cipher2 = Cipher.getInstance("AES");
+        cipher2.init(Cipher.DECRYPT_MODE, key2);
+        return new String(cipher2.doFinal(Base64.getDecoder().decode(enc)), "UTF-8");
+    }
+
+    @Benchmark
+    public String stringApi() throws Exception {
+        return CryptoUtils.decrypt(CryptoUtils.encrypt(text));
+    }
+
+    @Benchmark
+    public int binaryApi() throws Exception {
+        int n = CryptoUtils.encrypt(plain, 0, plain.length, encrypted);
+        return CryptoUtils.decrypt(encrypted, 0, n, decrypted);
+    }
+
+    @Threads(1)
+    public static class OneThread extends CryptoUtilsBenchmark {
+    }
+
+    @Threads(8)
+    public static class EightThreads extends CryptoUtilsBenchmark {
+    }
+
+    @Threads(32)
+    public static class ThirtyTwoThreads extends CryptoUtilsBenchmark {
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.keychainapp.logic;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Custo de obter a chave AES: leitura completa do KeyStore JCEKS (o que toda operação fazia
+ * antes do cache) contra a chave em cache de getSecretKey().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeyStoreBenchmark {
+    private File dir;
+    private KeychainService service;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = BenchmarkSupport.createTempDir("keychain-bench");
+        service = BenchmarkSupport.newService(dir);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        service.close();
+        BenchmarkSupport.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public SecretKey loadFromKeyStore() throws Exception {
+        KeyRing ring = service.loadKeyRing();
+        ring.retire();
+        return ring.current();
+    }
+
+    @Benchmark
+    public SecretKey cachedKey() throws Exception {
+        return service.getSecretKey();
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.keychainapp.logic;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * save/retrieve do KeychainService no cofre padrão, por tamanho de valor, com 1 e 8 threads.
+ * A senha do KeyStore vem de um InMemoryBackend; o keychain do SO não participa.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public abstract class KeychainServiceBenchmark {
+    private static final int KEYS = 1024;
+
+    @Param({"64", "1024", "65536"})
+    public int valueSize;
+
+    private File dir;
+    private KeychainService service;
+    private byte[] value;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = BenchmarkSupport.createTempDir("keychain-bench");
+        service = BenchmarkSupport.newService(dir);
+        value = new byte[valueSize];
+        new Random(42).nextBytes(value);
+        for (int i = 0; i < KEYS; i++) {
+            service.save("key-" + i, value);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        service.close();
+        BenchmarkSupport.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void save(ThreadKeys keys) throws Exception {
+        service.save(keys.next(), value);
+    }
+
+    @Benchmark
+    public byte[] retrieve(ThreadKeys keys) throws Exception {
+        return service.retrieveBytes(keys.next());
+    }
+
+    /**
+     * Cada thread percorre as chaves a partir de um ponto diferente.
+     */
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        private int next = new Random().nextInt(KEYS);
+
+        String next() {
+            next = (next + 1) % KEYS;
+            return "key-" + next;
+        }
+    }
+
+    @Threads(1)
+    public static class OneThread extends KeychainServiceBenchmark {
+    }
+
+    @Threads(8)
+    public static class EightThreads extends KeychainServiceBenchmark {
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.keychainapp.logic;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * save/retrieve por streaming, de 1 KB a 1 GB, com heap pequeno: o uso de memória não pode
+ * crescer com o tamanho do valor. O destino de retrieve descarta os bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx64m")
+public class StreamingBenchmark {
+    private static final String KEY = "stream";
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long size;
+
+    private File dir;
+    private File source;
+    private KeychainService service;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = BenchmarkSupport.createTempDir("keychain-bench");
+        service = BenchmarkSupport.newService(dir);
+        source = new File(dir, "source.bin");
+        byte[] block = new byte[1 << 20];
+        new Random(42).nextBytes(block);
+        try (RandomAccessFile out = new RandomAccessFile(source, "rw")) {
+            long remaining = size;
+            while (remaining > 0) {
+                int n = (int) Math.min(block.length, remaining);
+                out.write(block, 0, n);
+                remaining -= n;
+            }
+        }
+        save();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        service.close();
+        BenchmarkSupport.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public long save() throws Exception {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            return service.save(KEY, in);
+        }
+    }
+
+    @Benchmark
+    public long retrieve() throws Exception {
+        DiscardChannel out = new DiscardChannel();
+        service.retrieve(KEY, out);
+        return out.written;
+    }
+
+    private static final class DiscardChannel implements WritableByteChannel {
+        long written;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            written += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.keychainapp.logic;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * savePassword/loadPassword por backend, sem tocar no keychain real do SO:
+ * <ul>
+ * <li>memory: InMemoryBackend, o piso (só o custo do SystemKeychain);</li>
+ * <li>fake-secret-tool: um processo por operação, como o secret-tool sem sessão;</li>
+ * <li>fake-secret-tool-cached: o mesmo atrás do KeychainCache;</li>
+ * <li>fake-session: um auxiliar persistente falando o protocolo do SecretServiceSession.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SystemKeychainBenchmark {
+    private static final String SERVICE = "KeychainBenchmark";
+    private static final String USER = "user";
+
+    @Param({"memory", "fake-secret-tool", "fake-secret-tool-cached", "fake-session"})
+    public String backend;
+
+    private File dir;
+    private SecretServiceSession session;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = BenchmarkSupport.createTempDir("keychain-bench");
+        KeychainBackend selected;
+        if ("memory".equals(backend)) {
+            selected = new InMemoryBackend();
+        } else if ("fake-secret-tool".equals(backend) || "fake-secret-tool-cached".equals(backend)) {
+            // o script guarda os valores em "store", ao lado dele
+            File script = BenchmarkSupport.extractScript("fake-secret-tool.sh", dir);
+            if (!new File(dir, "store").mkdir()) {
+                throw new IllegalStateException("Não foi possível criar " + new File(dir, "store"));
+            }
+            selected = new SecretToolBackend(null, script.getAbsolutePath());
+            if ("fake-secret-tool-cached".equals(backend)) {
+                selected = new KeychainCache(selected, 60000, 64);
+            }
+        } else if ("fake-session".equals(backend)) {
+            File helper = BenchmarkSupport.extractScript("fake_secret_service_helper.py", dir);
+            session = new SecretServiceSession(Arrays.asList("python3", "-u", helper.getAbsolutePath()), SystemKeychain.PROCESS_TIMEOUT_MS);
+            selected = new SecretToolBackend(session);
+        } else {
+            throw new IllegalArgumentException("Backend desconhecido: " + backend);
+        }
+        SystemKeychain.setBackend(selected);
+        SystemKeychain.savePassword(SERVICE, USER, "benchmark-password");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (session != null) {
+            session.close();
+        }
+        BenchmarkSupport.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public String loadPassword() throws Exception {
+        return SystemKeychain.loadPassword(SERVICE, USER);
+    }
+
+    @Benchmark
+    public void savePassword() throws Exception {
+        SystemKeychain.savePassword(SERVICE, USER, "benchmark-password");
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.keychainapp.logic;
+
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Vazão de cifrar e decifrar valores do KeychainService com várias threads: formato legado
+ * (AES/ECB sem cabeçalho) contra o formato GCM do ValueEnvelope, cujo nonce vem de um contador
+ * por thread. gcmSharedRandomSeal mostra a alternativa ingênua, com o nonce sorteado de um
+ * SecureRandom compartilhado a cada valor. As subclasses repetem tudo com 1, 8 e 32 threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public abstract class ValueFormatBenchmark {
+    private static final String KEY = "db/prod/password";
+    private static final SecureRandom SHARED_RANDOM = new SecureRandom();
+
+    @Param({"32", "1024"})
+    public int size;
+
+    private KeyRing ring;
+    private byte[] plain;
+    private byte[] legacy;
+    private byte[] gcm;
+    private byte[] nonce;
+
+    @Setup
+    public void setup() throws Exception {
+        char[] password = "benchmark".toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("JCEKS");
+        keyStore.load(null, null);
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        keyStore.setKeyEntry(KeyRing.aliasFor(0), keyGen.generateKey(), password, null);
+        ring = KeyRing.load(keyStore, password);
+        plain = new byte[size];
+        new Random(42).nextBytes(plain);
+        legacy = CryptoUtils.cipher(Cipher.ENCRYPT_MODE, ring.current()).doFinal(plain);
+        gcm = ValueEnvelope.seal(ring, KEY, plain, ValueEnvelope.FORMAT_GCM);
+        nonce = new byte[12];
+    }
+
+    @Benchmark
+    public byte[] legacyEcbSeal() throws Exception {
+        return CryptoUtils.cipher(Cipher.ENCRYPT_MODE, ring.current()).doFinal(plain);
+    }
+
+    @Benchmark
+    public byte[] gcmSeal() throws Exception {
+        return ValueEnvelope.seal(ring, KEY, plain, ValueEnvelope.FORMAT_GCM);
+    }
+
+    @Benchmark
+    public byte[] gcmSharedRandomSeal() throws Exception {
+        SHARED_RANDOM.nextBytes(nonce);
+        Cipher cipher = CryptoUtils.gcm(ring.current());
+        cipher.init(Cipher.ENCRYPT_MODE, ring.current(), new GCMParameterSpec(128, nonce));
+        return cipher.doFinal(plain);
+    }
+
+    @Benchmark
+    public byte[] legacyEcbOpen() throws Exception {
+        return ValueEnvelope.open(ring, KEY, legacy);
+    }
+
+    @Benchmark
+    public byte[] gcmOpen() throws Exception {
+        return ValueEnvelope.open(ring, KEY, gcm);
+    }
+
+    @Threads(1)
+    public static class OneThread extends ValueFormatBenchmark {
+    }
+
+    @Threads(8)
+    public static class EightThreads extends ValueFormatBenchmark {
+    }
+
+    @Threads(32)
+    public static class ThirtyTwoThreads extends ValueFormatBenchmark {
+    }
+}
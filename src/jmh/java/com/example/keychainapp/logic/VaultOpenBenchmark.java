@@ -0,0 +1,149 @@
+package com.example.keychainapp.logic;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Índice do cofre no heap (varredura do arquivo na abertura) contra o índice mapeado
+ * (keychain.vault.index=mapped), de mil a dez milhões de chaves:
+ *
+ * - openAndGet: abrir o cofre e ler uma chave (tempo médio).
+ * - get: leitura de uma chave aleatória com o cofre aberto, por amostragem (p50/p99/p99.9 na
+ *   saída do modo SampleTime).
+ * - heap ocupado pelo cofre aberto (índice incluído), medido com GC antes e depois da abertura
+ *   no setup de get e impresso na saída da execução ("[VaultOpenBenchmark] N chaves: X MB").
+ *   Um contador secundário do JMH somaria o valor das iterações.
+ *
+ * As propriedades são lidas na carga da classe VaultStore, por isso cada variante roda em sua
+ * própria JVM, com as mesmas opções fora a do índice. O índice mapeado exige
+ * keychain.vault.shared=false, e as duas variantes usam essa opção. Sem fsync, só para gerar o
+ * arquivo rápido; nenhuma das medições grava no cofre. Gerar os 10M de chaves (cerca de 1 GB)
+ * leva algumas dezenas de segundos por benchmark.
+ */
+public abstract class VaultOpenBenchmark {
+    private static final int VALUE_BYTES = 64;
+    private static final int BATCH = 10000;
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] openAndGet(VaultFile vault) throws Exception {
+        try (VaultStore store = new VaultStore(vault.file)) {
+            return store.get("key-" + (vault.entries / 2));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] get(OpenVault vault, Keys keys) throws Exception {
+        return vault.store.get(keys.next(vault.entries));
+    }
+
+    private static long usedHeapAfterGc(MemoryMXBean memory) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Cofre com entries chaves (valores de 64 bytes), gerado uma vez por benchmark.
+     */
+    @State(Scope.Benchmark)
+    public static class VaultFile {
+        @Param({"1000", "100000", "1000000", "10000000"})
+        public int entries;
+
+        File dir;
+        File file;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            dir = BenchmarkSupport.createTempDir("keychain-bench");
+            file = new File(dir, VaultStore.FILE_NAME);
+            byte[] value = new byte[VALUE_BYTES];
+            try (VaultStore vault = new VaultStore(file)) {
+                Map<String, byte[]> batch = new HashMap<>();
+                for (int i = 0; i < entries; i++) {
+                    batch.put("key-" + i, value);
+                    if (batch.size() == BATCH || i == entries - 1) {
+                        vault.putAll(batch);
+                        batch.clear();
+                    }
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            BenchmarkSupport.deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Cofre aberto para get, só nesse benchmark: em openAndGet um segundo VaultStore aberto no
+     * mesmo arquivo mudaria o que está sendo medido.
+     */
+    @State(Scope.Benchmark)
+    public static class OpenVault {
+        VaultStore store;
+        int entries;
+
+        @Setup(Level.Trial)
+        public void setup(VaultFile vault) throws Exception {
+            entries = vault.entries;
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            long before = usedHeapAfterGc(memory);
+            store = new VaultStore(vault.file);
+            long retained = usedHeapAfterGc(memory) - before;
+            System.out.printf("%n[VaultOpenBenchmark] %d chaves: %.1f MB de heap com o cofre aberto%n",
+                entries, retained / 1048576.0);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            store.close();
+        }
+    }
+
+    /**
+     * Chaves aleatórias, com uma sequência própria por thread.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random(42);
+
+        String next(int entries) {
+            return "key-" + random.nextInt(entries);
+        }
+    }
+
+    @Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Dkeychain.vault.shared=false", "-Dkeychain.vault.fsync=false",
+        "-Dkeychain.vault.index=heap"})
+    public static class HeapIndex extends VaultOpenBenchmark {
+    }
+
+    @Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Dkeychain.vault.shared=false", "-Dkeychain.vault.fsync=false",
+        "-Dkeychain.vault.index=mapped"})
+    public static class MappedIndex extends VaultOpenBenchmark {
+    }
+}
@@ -0,0 +1,20 @@
+#!/bin/sh
+# secret-tool falso para os benchmarks: guarda cada senha em um arquivo do diretório
+# FAKE_SECRET_TOOL_DIR (padrão: "store" ao lado do script). Aceita apenas as formas usadas pelo SecretToolBackend:
+#
+#   fake-secret-tool.sh store --label=<rótulo> service <service> key <key>   (senha na entrada padrão)
+#   fake-secret-tool.sh lookup service <service> key <key>
+#   fake-secret-tool.sh clear service <service> key <key>
+#
+# O custo medido é o de iniciar um processo por operação, como no secret-tool real.
+dir="${FAKE_SECRET_TOOL_DIR:-$(dirname "$0")/store}"
+op="$1"
+shift
+[ "$op" = "store" ] && shift
+file="$dir/$(printf '%s_%s' "$2" "$4" | tr '/' '_')"
+case "$op" in
+    store) cat > "$file" ;;
+    lookup) [ -f "$file" ] || exit 1; cat "$file" ;;
+    clear) rm -f "$file" ;;
+    *) exit 2 ;;
+esac
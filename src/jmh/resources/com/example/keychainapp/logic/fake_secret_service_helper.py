@@ -0,0 +1,28 @@
+# Auxiliar falso do SecretServiceSession para os benchmarks: fala o mesmo protocolo de
+# secret_service_helper.py, mas guarda as senhas em um dicionário em memória.
+import sys
+
+store = {}
+
+
+def out(line):
+    sys.stdout.write(line + '\n')
+    sys.stdout.flush()
+
+
+out('READY')
+for line in sys.stdin:
+    parts = line.split()
+    if len(parts) < 4:
+        continue
+    request_id, op, attrs = parts[0], parts[1], (parts[2], parts[3])
+    if op == 'LOOKUP':
+        value = store.get(attrs)
+        out(request_id + (' NOTFOUND' if value is None else ' OK ' + value))
+    elif op == 'STORE':
+        store[attrs] = parts[4]
+        out(request_id + ' OK')
+    elif op == 'CLEAR':
+        out(request_id + (' OK' if store.pop(attrs, None) is not None else ' NOTFOUND'))
+    else:
+        out(request_id + ' ERR')
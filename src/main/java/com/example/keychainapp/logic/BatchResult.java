@@ -0,0 +1,42 @@
+package com.example.keychainapp.logic;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resultado de uma operação em lote do KeychainService.
+ *
+ * Cada chave aparece em exatamente um dos dois mapas: em getValues() quando a operação deu certo
+ * (com o valor lido, ou null para chaves inexistentes e para gravações) ou em getErrors() com a
+ * exceção daquela chave. Uma chave com problema não impede as demais.
+ */
+public class BatchResult<T> {
+    private final Map<String, T> values = new LinkedHashMap<>();
+    private final Map<String, Exception> errors = new LinkedHashMap<>();
+
+    void succeed(String key, T value) {
+        values.put(key, value);
+    }
+
+    void fail(String key, Exception error) {
+        errors.put(key, error);
+    }
+
+    public Map<String, T> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    public Map<String, Exception> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+
+    public boolean isSuccess() {
+        return errors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult[ok=" + values.size() + ", erros=" + errors.size() + "]";
+    }
+}
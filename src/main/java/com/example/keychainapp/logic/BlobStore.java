@@ -0,0 +1,160 @@
+package com.example.keychainapp.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Valores grandes gravados por KeychainService.save(String, InputStream): um arquivo binário por
+ * chave no diretório keychain.blobs, com o nome derivado do SHA-256 da chave (a chave em si não
+ * aparece no disco).
+ *
+ * Como o ValueStore, não conhece a chave AES: só entrega canais e troca o arquivo temporário pelo
+ * definitivo de forma atômica, então um leitor nunca vê um valor gravado pela metade.
+ */
+final class BlobStore {
+    static final String DIR_NAME = "keychain.blobs";
+    private static final String SUFFIX = ".blob";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int STRIPES = 16;
+
+    private final File dir;
+    // Serializa a troca de arquivos do mesmo blob entre commit() e replace()
+    private final Object[] stripes = new Object[STRIPES];
+
+    BlobStore(File dir) {
+        this.dir = dir;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * Cria um arquivo temporário no diretório dos blobs, para ser preenchido e depois passado a commit().
+     */
+    Path createTemp() throws IOException {
+        Files.createDirectories(dir.toPath());
+        return Files.createTempFile(dir.toPath(), "blob", ".tmp");
+    }
+
+    void commit(Path temp, String key) throws IOException {
+        commit(temp, pathFor(key));
+    }
+
+    void commit(Path temp, Path target) throws IOException {
+        synchronized (lockFor(target)) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Troca o blob pelo temporário só se o arquivo ainda for o que foi lido (mesma identidade
+     * de stamp()), para a rotação de chaves não desfazer um save() concorrente.
+     *
+     * @return false se o blob foi regravado ou removido nesse meio tempo
+     */
+    boolean replace(Path temp, Path target, String expectedStamp) throws IOException {
+        synchronized (lockFor(target)) {
+            if (!expectedStamp.equals(stamp(target))) {
+                return false;
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+    }
+
+    /**
+     * Identidade do arquivo atual de um blob (inode quando disponível, data e tamanho), ou null se não existir.
+     */
+    static String stamp(Path path) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return attrs.fileKey() + ":" + attrs.lastModifiedTime().toMillis() + ":" + attrs.size();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return os arquivos de todos os blobs gravados
+     */
+    List<Path> list() {
+        List<Path> paths = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile() && f.getName().endsWith(SUFFIX)) {
+                    paths.add(f.toPath());
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return o canal de leitura, ou null se a chave não tiver blob
+     */
+    FileChannel openRead(String key) throws IOException {
+        return openRead(pathFor(key));
+    }
+
+    static FileChannel openRead(Path path) throws IOException {
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    boolean delete(String key) throws IOException {
+        return delete(pathFor(key));
+    }
+
+    boolean delete(Path target) throws IOException {
+        synchronized (lockFor(target)) {
+            return Files.deleteIfExists(target);
+        }
+    }
+
+    private Object lockFor(Path target) {
+        return stripes[(target.getFileName().hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    /**
+     * Caminho de um blob pelo nome do arquivo (como gravado em um snapshot).
+     *
+     * @throws IllegalArgumentException se o nome não for de um blob (hash SHA-256 em hexadecimal + .blob)
+     */
+    Path pathForFile(String name) {
+        if (!name.matches("[0-9a-f]{64}" + Pattern.quote(SUFFIX))) {
+            throw new IllegalArgumentException("Nome de blob inválido: " + name);
+        }
+        return new File(dir, name).toPath();
+    }
+
+    Path pathFor(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            char[] name = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                name[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                name[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new File(dir, new String(name) + SUFFIX).toPath();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponível", e);
+        }
+    }
+}
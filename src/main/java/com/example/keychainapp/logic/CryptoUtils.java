@@ -1,27 +1,213 @@
 package com.example.keychainapp.logic;
 
 import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
 
+/**
+ * Criptografia AES usada para a senha do KeyStore e pelos valores do KeychainService.
+ *
+ * A chave fixa é montada uma única vez, e cada thread reaproveita seus próprios objetos Cipher
+ * (Cipher.getInstance faz uma busca de provider lenta e um Cipher não pode ser compartilhado entre
+ * threads). O Cipher só é reinicializado quando a chave muda; depois de doFinal ele volta sozinho
+ * ao estado inicial.
+ *
+ * Um Cipher inicializado guarda a chave expandida; quando uma chave do KeyRing é apagada,
+ * forget() reinicializa com uma chave neutra os Ciphers de todas as threads que ainda a usam.
+ *
+ * A API binária (byte[] e ByteBuffer) não passa por String nem Base64; os métodos com String são
+ * apenas uma camada por cima dela.
+ */
 public class CryptoUtils {
     // Chave fixa de 16 bytes (128 bits) - nunca compartilhe em código real!
-    private static final String FIXED_KEY = "MinhaChaveFixa123"; // 16 chars
+    private static final String FIXED_KEY = "MinhaChaveFixa12"; // 16 chars
+    private static final String TRANSFORMATION = "AES";
+    private static final int BLOCK_SIZE = 16;
+    private static final SecretKeySpec KEY = new SecretKeySpec(FIXED_KEY.getBytes(StandardCharsets.UTF_8), "AES");
+    static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+    // chave zerada que substitui, nos Ciphers em cache, uma chave que foi apagada
+    private static final SecretKeySpec BLANK_KEY = new SecretKeySpec(new byte[BLOCK_SIZE], "AES");
+
+    // slots de todas as threads; o de uma thread que terminou sai sozinho do WeakHashMap
+    private static final Set<CipherSlot> SLOTS =
+        Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<CipherSlot, Boolean>()));
+
+    private static final ThreadLocal<CipherSlot> ENCRYPTORS = new ThreadLocal<CipherSlot>() {
+        @Override
+        protected CipherSlot initialValue() {
+            return CipherSlot.register(new CipherSlot(TRANSFORMATION, Cipher.ENCRYPT_MODE));
+        }
+    };
+    private static final ThreadLocal<CipherSlot> DECRYPTORS = new ThreadLocal<CipherSlot>() {
+        @Override
+        protected CipherSlot initialValue() {
+            return CipherSlot.register(new CipherSlot(TRANSFORMATION, Cipher.DECRYPT_MODE));
+        }
+    };
+
+    // AES/GCM: como cada mensagem tem o seu nonce, o Cipher é reinicializado a cada uso
+    private static final ThreadLocal<CipherSlot> GCM = new ThreadLocal<CipherSlot>() {
+        @Override
+        protected CipherSlot initialValue() {
+            return CipherSlot.register(new CipherSlot(GCM_TRANSFORMATION, Cipher.ENCRYPT_MODE));
+        }
+    };
+
+    private CryptoUtils() { /* utilitário */ }
 
     public static String encrypt(String plainText) throws Exception {
-        SecretKeySpec key = new SecretKeySpec(FIXED_KEY.getBytes("UTF-8"), "AES");
-        Cipher cipher = Cipher.getInstance("AES");
-        cipher.init(Cipher.ENCRYPT_MODE, key);
-        byte[] encrypted = cipher.doFinal(plainText.getBytes("UTF-8"));
-        return Base64.getEncoder().encodeToString(encrypted);
+        return Base64.getEncoder().encodeToString(encrypt(plainText.getBytes(StandardCharsets.UTF_8)));
     }
 
     public static String decrypt(String cipherText) throws Exception {
-        SecretKeySpec key = new SecretKeySpec(FIXED_KEY.getBytes("UTF-8"), "AES");
-        Cipher cipher = Cipher.getInstance("AES");
-        cipher.init(Cipher.DECRYPT_MODE, key);
-        byte[] decoded = Base64.getDecoder().decode(cipherText);
-        byte[] decrypted = cipher.doFinal(decoded);
-        return new String(decrypted, "UTF-8");
+        return new String(decrypt(Base64.getDecoder().decode(cipherText)), StandardCharsets.UTF_8);
+    }
+
+    public static byte[] encrypt(byte[] plain) throws GeneralSecurityException {
+        return cipher(Cipher.ENCRYPT_MODE, KEY).doFinal(plain);
+    }
+
+    public static byte[] decrypt(byte[] encrypted) throws GeneralSecurityException {
+        return cipher(Cipher.DECRYPT_MODE, KEY).doFinal(encrypted);
+    }
+
+    /**
+     * Cifra in[off, off+len) em out, sem alocar.
+     *
+     * @param out precisa ter ao menos encryptedLength(len) bytes
+     * @return bytes escritos em out
+     */
+    public static int encrypt(byte[] in, int off, int len, byte[] out) throws GeneralSecurityException {
+        return cipher(Cipher.ENCRYPT_MODE, KEY).doFinal(in, off, len, out, 0);
+    }
+
+    /**
+     * Decifra in[off, off+len) em out, sem alocar.
+     *
+     * @param out precisa ter ao menos len bytes
+     * @return bytes escritos em out
+     */
+    public static int decrypt(byte[] in, int off, int len, byte[] out) throws GeneralSecurityException {
+        return cipher(Cipher.DECRYPT_MODE, KEY).doFinal(in, off, len, out, 0);
+    }
+
+    /**
+     * Cifra os bytes restantes de in em out (buffers diretos evitam cópias para o heap).
+     *
+     * @return bytes escritos em out
+     */
+    public static int encrypt(ByteBuffer in, ByteBuffer out) throws GeneralSecurityException {
+        return cipher(Cipher.ENCRYPT_MODE, KEY).doFinal(in, out);
+    }
+
+    public static int decrypt(ByteBuffer in, ByteBuffer out) throws GeneralSecurityException {
+        return cipher(Cipher.DECRYPT_MODE, KEY).doFinal(in, out);
+    }
+
+    /**
+     * Tamanho do resultado de encrypt para len bytes de entrada (AES com padding PKCS#5).
+     */
+    public static int encryptedLength(int len) {
+        return (len / BLOCK_SIZE + 1) * BLOCK_SIZE;
+    }
+
+    /**
+     * Cipher AES desta thread para a chave informada, já inicializado. Usado também pelo
+     * KeychainService com a chave do KeyStore. O Cipher devolvido só pode ser usado pela
+     * thread chamadora e até a próxima chamada com o mesmo modo.
+     */
+    static Cipher cipher(int mode, SecretKey key) throws GeneralSecurityException {
+        return (mode == Cipher.ENCRYPT_MODE ? ENCRYPTORS : DECRYPTORS).get().forKey(key);
+    }
+
+    /**
+     * Cipher AES/GCM desta thread para a chave informada, que o chamador inicializa com init() e o
+     * nonce da mensagem. Mesma restrição de cipher(): só a thread chamadora pode usá-lo.
+     */
+    static Cipher gcm(Key key) throws GeneralSecurityException {
+        return GCM.get().willUse(key);
+    }
+
+    /**
+     * Reinicializa com uma chave neutra todo Cipher em cache, de qualquer thread, que ainda foi
+     * inicializado com key. Chamado antes de apagar a chave: nenhuma operação pode estar usando-a.
+     */
+    static void forget(Key key) {
+        List<CipherSlot> slots;
+        synchronized (SLOTS) {
+            slots = new ArrayList<>(SLOTS);
+        }
+        for (CipherSlot slot : slots) {
+            slot.forget(key);
+        }
+    }
+
+    /**
+     * Cipher de uma thread e a chave com que foi inicializado. Os métodos são synchronized só para
+     * que forget(), chamado por outra thread, não reinicialize o Cipher no meio de um forKey().
+     */
+    private static final class CipherSlot {
+        private final String transformation;
+        private final int mode;
+        private Cipher cipher;
+        private Key key;
+
+        CipherSlot(String transformation, int mode) {
+            this.transformation = transformation;
+            this.mode = mode;
+        }
+
+        static CipherSlot register(CipherSlot slot) {
+            SLOTS.add(slot);
+            return slot;
+        }
+
+        synchronized Cipher forKey(Key newKey) throws GeneralSecurityException {
+            if (cipher == null) {
+                cipher = Cipher.getInstance(transformation);
+            }
+            if (key != newKey) {
+                // comparação por identidade: a chave em cache do KeychainService é o mesmo objeto
+                // até ser recarregada, então equals() (que compara os bytes) não é necessário
+                key = null;
+                cipher.init(mode, newKey);
+                key = newKey;
+            }
+            return cipher;
+        }
+
+        /**
+         * Para o GCM: o chamador faz o init() com o nonce, aqui só se registra a chave.
+         */
+        synchronized Cipher willUse(Key newKey) throws GeneralSecurityException {
+            if (cipher == null) {
+                cipher = Cipher.getInstance(transformation);
+            }
+            key = newKey;
+            return cipher;
+        }
+
+        synchronized void forget(Key oldKey) {
+            if (key != oldKey || cipher == null) {
+                return;
+            }
+            key = null;
+            try {
+                cipher.init(mode, BLANK_KEY);
+            } catch (GeneralSecurityException e) {
+                // sem como sobrescrever: descarta o Cipher, o próximo uso cria outro
+                cipher = null;
+            }
+        }
     }
 }
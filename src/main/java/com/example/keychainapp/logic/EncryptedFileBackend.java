@@ -0,0 +1,387 @@
+package com.example.keychainapp.logic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * Backend para servidores sem sessão gráfica nem keychain do SO: todas as senhas ficam em um
+ * único arquivo cifrado com AES-GCM.
+ *
+ * A chave vem de uma frase secreta (propriedade keychain.file.passphrase ou variável de ambiente
+ * KEYCHAIN_FILE_PASSPHRASE, derivada com PBKDF2) ou, sem frase secreta, de um arquivo de chave
+ * aleatória ao lado do arquivo de senhas, legível apenas pelo dono (como uma chave SSH).
+ *
+ * Vários processos podem usar o mesmo arquivo: cada gravação relê o arquivo e o regrava segurando
+ * um lock em "arquivo.lock" (InterProcessLock), então nenhuma grava por cima da outra.
+ *
+ * <pre>
+ * magic "KSEC" (int) | versão (int) | salt (16) | iv (12) | AES-GCM(entradas)
+ * </pre>
+ */
+public class EncryptedFileBackend implements KeychainBackend {
+    static final String NAME = "file";
+    private static final Logger LOGGER = Logger.getLogger(EncryptedFileBackend.class.getName());
+    private static final int MAGIC = 0x4B534543; // "KSEC"
+    private static final int VERSION = 1;
+    private static final int SALT_BYTES = 16;
+    private static final int IV_BYTES = 12;
+    private static final int HEADER_BYTES = 8 + SALT_BYTES + IV_BYTES;
+    private static final int TAG_BITS = 128;
+    private static final int PBKDF2_ITERATIONS = 210000;
+    private static final int KEY_BYTES = 32;
+    // Espera por um arquivo de chave ainda sem os 32 bytes antes de tratá-lo como abandonado
+    private static final long KEY_FILE_WAIT_MS = 1000;
+
+    private final File file;
+    private final char[] passphrase;
+    private final SecureRandom random = new SecureRandom();
+    private Map<String, String> entries;
+    // Identidade (inode quando disponível), data e tamanho do arquivo lido por último
+    private String loadedStamp;
+    private InterProcessLock processLock;
+    private byte[] salt;
+    private SecretKey key;
+
+    /**
+     * @param passphrase frase secreta, ou null para usar um arquivo de chave ("arquivo.key")
+     */
+    public EncryptedFileBackend(File file, char[] passphrase) {
+        this.file = file;
+        this.passphrase = passphrase == null ? null : passphrase.clone();
+    }
+
+    static EncryptedFileBackend fromSystemProperties() {
+        String path = System.getProperty("keychain.file.path",
+            new File(System.getProperty("user.home"), ".keychain-secrets").getPath());
+        String pass = System.getProperty("keychain.file.passphrase");
+        if (pass == null || pass.isEmpty()) {
+            pass = System.getenv("KEYCHAIN_FILE_PASSPHRASE");
+        }
+        return new EncryptedFileBackend(new File(path), pass == null || pass.isEmpty() ? null : pass.toCharArray());
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public synchronized void savePassword(String service, String user, String password) throws KeychainException {
+        try {
+            InterProcessLock lock = processLock();
+            lock.lock();
+            try {
+                reload();
+                entries.put(entryKey(service, user), password);
+                persist();
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            throw new KeychainException("Falha ao salvar senha no arquivo cifrado " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized String loadPassword(String service, String user) throws KeychainException {
+        try {
+            load();
+        } catch (IOException | GeneralSecurityException e) {
+            throw new KeychainException("Falha ao ler o arquivo cifrado " + file, e);
+        }
+        String value = entries.get(entryKey(service, user));
+        if (value == null) {
+            throw new KeychainException("Senha não encontrada no arquivo cifrado para service='" + service + "', key='" + user + "'");
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized boolean deletePassword(String service, String user) throws KeychainException {
+        try {
+            InterProcessLock lock = processLock();
+            lock.lock();
+            try {
+                reload();
+                if (entries.remove(entryKey(service, user)) == null) {
+                    return false;
+                }
+                persist();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            throw new KeychainException("Falha ao remover senha do arquivo cifrado " + file, e);
+        }
+    }
+
+    private static String entryKey(String service, String user) {
+        return service + '\u0000' + user;
+    }
+
+    private InterProcessLock processLock() throws IOException {
+        if (processLock == null) {
+            processLock = InterProcessLock.forFile(new File(file.getPath() + ".lock"), true);
+        }
+        return processLock;
+    }
+
+    /**
+     * Carrega o arquivo se ele mudou desde a última leitura (outro processo pode tê-lo gravado).
+     * Toda gravação troca o arquivo por um novo, então a identidade do arquivo muda mesmo quando
+     * data e tamanho coincidem.
+     */
+    private void load() throws IOException, GeneralSecurityException {
+        if (entries != null && loadedStamp != null && loadedStamp.equals(stamp())) {
+            return;
+        }
+        reload();
+    }
+
+    /**
+     * Lê o arquivo sempre; usado pelas gravações, com o lock entre processos, antes de alterá-lo.
+     */
+    private void reload() throws IOException, GeneralSecurityException {
+        String stamp = stamp();
+        if (stamp == null) {
+            entries = new HashMap<>();
+            loadedStamp = null;
+            if (salt == null) {
+                salt = new byte[SALT_BYTES];
+                random.nextBytes(salt);
+            }
+            return;
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        ByteBuffer header = ByteBuffer.wrap(data);
+        if (data.length < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Arquivo de senhas inválido: " + file);
+        }
+        byte[] fileSalt = new byte[SALT_BYTES];
+        header.get(fileSalt);
+        byte[] iv = new byte[IV_BYTES];
+        header.get(iv);
+        if (key == null || !Arrays.equals(fileSalt, salt)) {
+            salt = fileSalt;
+            key = deriveKey(salt);
+        }
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(data, 0, HEADER_BYTES);
+        byte[] plain = cipher.doFinal(data, HEADER_BYTES, data.length - HEADER_BYTES);
+        Map<String, String> loaded = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                loaded.put(in.readUTF(), in.readUTF());
+            }
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+        entries = loaded;
+        loadedStamp = stamp;
+    }
+
+    /**
+     * @return identidade, data e tamanho do arquivo, ou null se ele não existir
+     */
+    private String stamp() throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attrs.fileKey() + ":" + attrs.lastModifiedTime().toMillis() + ":" + attrs.size();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Regrava o arquivo inteiro em um temporário e troca atomicamente. Chamado com o lock entre processos.
+     */
+    private void persist() throws IOException, GeneralSecurityException {
+        if (key == null) {
+            key = deriveKey(salt);
+        }
+        ByteArrayOutputStream plainBuf = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(plainBuf)) {
+            out.writeInt(entries.size());
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+        }
+        byte[] plain = plainBuf.toByteArray();
+        byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).put(salt).put(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(header.array());
+        byte[] encrypted;
+        try {
+            encrypted = cipher.doFinal(plain);
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + encrypted.length);
+        out.put(header.array()).put(encrypted);
+        // criado só para o dono (POSIX) e com nome único no mesmo diretório, para o move ser atômico
+        Path tmp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".tmp");
+        try {
+            Files.write(tmp, out.array());
+            restrictToOwner(tmp.toFile());
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        loadedStamp = stamp();
+    }
+
+    private SecretKey deriveKey(byte[] salt) throws IOException, GeneralSecurityException {
+        if (passphrase != null) {
+            PBEKeySpec spec = new PBEKeySpec(passphrase, salt, PBKDF2_ITERATIONS, 256);
+            try {
+                byte[] raw = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+                return new SecretKeySpec(raw, "AES");
+            } finally {
+                spec.clearPassword();
+            }
+        }
+        File keyFile = new File(file.getPath() + ".key");
+        long deadline = System.currentTimeMillis() + KEY_FILE_WAIT_MS;
+        while (true) {
+            if (!keyFile.exists()) {
+                createKeyFile(keyFile);
+            }
+            byte[] raw;
+            try {
+                raw = Files.readAllBytes(keyFile.toPath());
+            } catch (NoSuchFileException e) {
+                // outro processo trocando um arquivo de chave incompleto (replaceShortKeyFile)
+                continue;
+            }
+            if (raw.length == KEY_BYTES) {
+                return new SecretKeySpec(raw, "AES");
+            }
+            Arrays.fill(raw, (byte) 0);
+            if (raw.length > KEY_BYTES) {
+                throw new IOException("Arquivo de chave inválido: " + keyFile);
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                // a chave nova é criada inteira de uma vez: um arquivo curto que não cresce ficou
+                // de uma queda durante a criação em uma versão anterior
+                replaceShortKeyFile(keyFile);
+                deadline = System.currentTimeMillis() + KEY_FILE_WAIT_MS;
+                continue;
+            }
+            // versões anteriores criavam o arquivo vazio e só depois gravavam a chave
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrompido esperando o arquivo de chave " + keyFile);
+            }
+        }
+    }
+
+    /**
+     * Cria o arquivo de chave já completo: a chave é gravada em um temporário só do dono, no mesmo
+     * diretório, e ligada ao nome final com um hard link, que falha se o arquivo já existir. Assim
+     * ninguém lê um arquivo de chave pela metade e, se outro processo o criou primeiro, a chave
+     * dele é a que vale.
+     */
+    private void createKeyFile(File keyFile) throws IOException {
+        byte[] raw = new byte[KEY_BYTES];
+        random.nextBytes(raw);
+        Path tmp = Files.createTempFile(keyFile.getAbsoluteFile().getParentFile().toPath(), keyFile.getName(), ".tmp");
+        try {
+            restrictToOwner(tmp.toFile());
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(raw);
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                out.force(true);
+            } finally {
+                Arrays.fill(raw, (byte) 0);
+            }
+            try {
+                Files.createLink(keyFile.toPath(), tmp);
+            } catch (FileAlreadyExistsException e) {
+                return;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // sistema de arquivos sem hard links: o move atômico também publica o arquivo inteiro
+                if (keyFile.exists()) {
+                    return;
+                }
+                Files.move(tmp, keyFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        LOGGER.warning("[EncryptedFileBackend] Nenhuma frase secreta configurada. Chave aleatória criada em " + keyFile
+            + "; proteja este arquivo ou defina KEYCHAIN_FILE_PASSPHRASE.");
+    }
+
+    /**
+     * Troca um arquivo de chave que continua curto depois de KEY_FILE_WAIT_MS. Só é seguro enquanto
+     * o arquivo de senhas não existe: nada pode ter sido cifrado com uma chave que nunca foi gravada.
+     * O lock entre processos impede que dois processos troquem o arquivo um do outro.
+     */
+    private void replaceShortKeyFile(File keyFile) throws IOException {
+        InterProcessLock lock = processLock();
+        lock.lock();
+        try {
+            if (keyFile.length() >= KEY_BYTES) {
+                return;
+            }
+            if (file.exists()) {
+                throw new IOException("Arquivo de chave incompleto (" + keyFile.length() + " bytes): " + keyFile);
+            }
+            LOGGER.warning("[EncryptedFileBackend] Arquivo de chave incompleto em " + keyFile + ". Criando outro.");
+            Files.deleteIfExists(keyFile.toPath());
+            createKeyFile(keyFile);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void restrictToOwner(File f) {
+        try {
+            Files.setPosixFilePermissions(f.toPath(), PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException | IOException e) {
+            // sistema de arquivos sem permissões POSIX (Windows)
+        }
+    }
+}
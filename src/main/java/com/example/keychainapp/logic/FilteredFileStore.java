@@ -0,0 +1,324 @@
+package com.example.keychainapp.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * TextFileStore com um KeyFilter na frente das leituras. No formato legado uma chave ausente
+ * custa abrir um arquivo que não existe (FileNotFoundException); com o filtro, uma chave que
+ * certamente não existe volta null sem tocar no disco.
+ *
+ * - O filtro é atualizado a cada gravação e fica salvo em .keychain.filter, no próprio
+ *   diretório. A data de modificação desse arquivo é a do diretório no momento em que foi
+ *   salvo: se o diretório mudou depois (outro processo gravou com o serviço fechado), o filtro
+ *   é reconstruído a partir da listagem na abertura.
+ * - A resposta "não existe" só é usada enquanto a data do diretório for a da última
+ *   reconstrução (ou da última gravação feita por este store): um stat, bem mais barato que
+ *   abrir o arquivo. Se mudou, a leitura vai ao
+ *   disco e o filtro é reconstruído (no máximo uma vez por segundo). Os eventos do
+ *   KeychainWatcher chegam depois da gravação, então não bastam para a leitura seguinte a uma
+ *   gravação de outro processo; eles mantêm o filtro completo para ser salvo no close().
+ * - Remoções não apagam bits: elas são contadas e o filtro é reconstruído quando passam de um
+ *   quarto das chaves, ou quando as chaves passam da capacidade.
+ * - Chaves com separador de diretório (gravadas em subdiretórios) não passam pelo filtro.
+ */
+final class FilteredFileStore implements ValueStore {
+    static final String FILE_NAME = ".keychain.filter";
+    private static final Logger LOGGER = Logger.getLogger(FilteredFileStore.class.getName());
+    private static final double FALSE_POSITIVE_RATE = Double.parseDouble(System.getProperty("keychain.filter.fpp", "0.01"));
+    private static final int EXPECTED_KEYS = Integer.getInteger("keychain.filter.expectedKeys", 10000);
+    // Uma listagem só é confiável se o diretório não mudava havia este tempo (datas com resolução grossa)
+    private static final long MTIME_SLACK_MS = 1000;
+    private static final long REBUILD_INTERVAL_MS = 1000;
+
+    private final TextFileStore delegate;
+    private final File dir;
+    private final File file;
+    private final Object addLock = new Object();
+    private final Object rebuildLock = new Object();
+    private volatile KeyFilter filter;
+    // Chaves incluídas enquanto uma reconstrução lista o diretório
+    private ConcurrentLinkedQueue<String> pendingAdds;
+    private final AtomicInteger removed = new AtomicInteger();
+    // Data do diretório com a qual o filtro está completo; -1 se desconhecida
+    private volatile long syncedMtime = -1;
+    private volatile long lastRebuild;
+    private KeychainWatcher watcher;
+    // Watcher nativo ativo desde a última reconstrução: toda gravação externa chega ao filtro,
+    // ainda que com atraso
+    private volatile boolean watcherSynced;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong definiteMisses = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+    private final AtomicInteger rebuilds = new AtomicInteger();
+
+    FilteredFileStore(TextFileStore delegate, File dir, boolean watch) {
+        this.delegate = delegate;
+        this.dir = dir;
+        this.file = new File(dir, FILE_NAME);
+        KeyFilter saved = null;
+        try {
+            saved = KeyFilter.readFrom(file);
+        } catch (IOException e) {
+            LOGGER.warning("[FilteredFileStore] Filtro salvo ignorado: " + e.getMessage());
+        }
+        // o watcher já inclui no filtro o que mudar daqui em diante
+        filter = saved != null ? saved : new KeyFilter(EXPECTED_KEYS, FALSE_POSITIVE_RATE);
+        boolean nativeWatcher = false;
+        if (watch) {
+            try {
+                watcher = new KeychainWatcher(dir.toPath(), Collections.<String, Runnable>emptyMap(), new KeychainWatcher.Listener() {
+                    @Override
+                    public void changed(String name) {
+                        externalChange(name);
+                    }
+                });
+                nativeWatcher = watcher.isNative();
+            } catch (IOException e) {
+                LOGGER.warning("[FilteredFileStore] Não foi possível observar " + dir + ": " + e.getMessage());
+            }
+        }
+        long mtime = dirMtime();
+        if (saved != null && mtime > 0 && file.lastModified() == mtime) {
+            syncedMtime = mtime;
+            watcherSynced = nativeWatcher;
+            LOGGER.info("[FilteredFileStore] Filtro de chaves carregado de " + file + " (" + saved.count() + " chaves)");
+        } else {
+            rebuild();
+        }
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        if (!filterable(key)) {
+            return delegate.get(key);
+        }
+        lookups.incrementAndGet();
+        if (!filter.mightContain(key)) {
+            if (syncedMtime == dirMtime()) {
+                definiteMisses.incrementAndGet();
+                return null;
+            }
+            // o diretório mudou por fora do filtro: confere no disco e ressincroniza
+            if (System.currentTimeMillis() - lastRebuild >= REBUILD_INTERVAL_MS) {
+                synchronized (rebuildLock) {
+                    // outra thread pode ter acabado de reconstruir
+                    if (System.currentTimeMillis() - lastRebuild >= REBUILD_INTERVAL_MS) {
+                        rebuild();
+                    }
+                }
+            }
+            return delegate.get(key);
+        }
+        byte[] value = delegate.get(key);
+        if (value == null) {
+            falsePositives.incrementAndGet();
+        }
+        return value;
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws IOException {
+        long before = dirMtime();
+        try {
+            delegate.put(key, value);
+            add(key);
+        } finally {
+            localWrite(before);
+        }
+    }
+
+    @Override
+    public Map<String, IOException> putAll(Map<String, byte[]> values) throws IOException {
+        long before = dirMtime();
+        try {
+            Map<String, IOException> failed = delegate.putAll(values);
+            for (String key : values.keySet()) {
+                if (!failed.containsKey(key)) {
+                    add(key);
+                }
+            }
+            return failed;
+        } finally {
+            localWrite(before);
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        long before = dirMtime();
+        boolean deleted;
+        try {
+            deleted = delegate.delete(key);
+        } finally {
+            localWrite(before);
+        }
+        if (deleted && filterable(key) && removed.incrementAndGet() > Math.max(64, filter.count() / 4)) {
+            rebuild();
+        }
+        return deleted;
+    }
+
+    @Override
+    public Set<String> replaceAll(Map<String, byte[]> expected, Map<String, byte[]> values) throws IOException {
+        long before = dirMtime();
+        try {
+            Set<String> replaced = delegate.replaceAll(expected, values);
+            for (String key : replaced) {
+                add(key);
+            }
+            return replaced;
+        } finally {
+            localWrite(before);
+        }
+    }
+
+    @Override
+    public Collection<String> keys() {
+        return delegate.keys();
+    }
+
+    @Override
+    public List<String> scan(String prefix, String after, int limit) {
+        return delegate.scan(prefix, after, limit);
+    }
+
+    KeyFilterStats stats() {
+        KeyFilter f = filter;
+        return new KeyFilterStats(f.count(), f.bits(), f.hashes(), f.falsePositiveRate(f.count()), lookups.get(),
+            definiteMisses.get(), falsePositives.get(), rebuilds.get());
+    }
+
+    /**
+     * Inclusão depois da gravação no disco: assim uma reconstrução que liste o diretório antes
+     * do arquivo existir recebe a chave por pendingAdds.
+     */
+    private void add(String key) {
+        if (!filterable(key)) {
+            return;
+        }
+        synchronized (addLock) {
+            filter.add(key);
+            if (pendingAdds != null) {
+                pendingAdds.add(key);
+            }
+        }
+        KeyFilter f = filter;
+        if (f.count() > f.capacity()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Depois de uma gravação ou remoção feita por este store (já incluída no filtro): se o filtro
+     * estava em dia com o diretório antes dela, continua em dia com a data nova. Sem isso, toda
+     * gravação local faria as leituras negativas seguintes irem ao disco e reconstruírem o filtro.
+     * Se o diretório já tinha mudado por fora, a data registrada fica como estava.
+     */
+    private void localWrite(long before) {
+        synchronized (addLock) {
+            if (before > 0 && syncedMtime == before) {
+                syncedMtime = dirMtime();
+            }
+        }
+    }
+
+    private void externalChange(String name) {
+        if (name == null) {
+            // eventos perdidos: a próxima leitura negativa confere o disco e reconstrói
+            watcherSynced = false;
+            syncedMtime = -1;
+        } else if (name.endsWith(TextFileStore.SUFFIX)) {
+            add(name.substring(0, name.length() - TextFileStore.SUFFIX.length()));
+        }
+    }
+
+    /**
+     * Monta um filtro novo a partir da listagem do diretório, com capacidade para o dobro das
+     * chaves encontradas.
+     */
+    private void rebuild() {
+        synchronized (rebuildLock) {
+            long start = System.nanoTime();
+            long mtime = dirMtime();
+            boolean nativeWatcher = watcher != null && watcher.isNative();
+            synchronized (addLock) {
+                pendingAdds = new ConcurrentLinkedQueue<>();
+            }
+            Collection<String> keys = delegate.keys();
+            KeyFilter next = new KeyFilter(Math.max(EXPECTED_KEYS, keys.size() * 2), FALSE_POSITIVE_RATE);
+            for (String key : keys) {
+                next.add(key);
+            }
+            synchronized (addLock) {
+                for (String key : pendingAdds) {
+                    next.add(key);
+                }
+                pendingAdds = null;
+                filter = next;
+            }
+            removed.set(0);
+            long now = System.currentTimeMillis();
+            lastRebuild = now;
+            syncedMtime = mtime > 0 && now - mtime >= MTIME_SLACK_MS ? mtime : -1;
+            watcherSynced = nativeWatcher;
+            rebuilds.incrementAndGet();
+            LOGGER.fine(String.format("[FilteredFileStore] Filtro de chaves reconstruído com %d chaves em %.1f ms",
+                keys.size(), (System.nanoTime() - start) / 1e6));
+        }
+    }
+
+    /**
+     * Salva o filtro se ele está em dia com o diretório; senão remove o arquivo antigo, para a
+     * próxima abertura reconstruir. Com o watcher, o diretório é listado de novo se mudou desde a
+     * última reconstrução, para não salvar um filtro sem uma gravação cujo evento ainda não chegou.
+     * Como na reconstrução, um diretório que mudou há menos de MTIME_SLACK_MS não é registrado:
+     * com datas de resolução grossa, outra gravação no mesmo instante não mudaria a data.
+     */
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        synchronized (rebuildLock) {
+            if (watcherSynced && syncedMtime != dirMtime()) {
+                rebuild();
+            }
+            boolean saved = false;
+            long mtime = dirMtime();
+            boolean settled = mtime > 0 && System.currentTimeMillis() - mtime >= MTIME_SLACK_MS;
+            if (settled && (watcherSynced || syncedMtime == mtime)) {
+                try {
+                    filter.writeTo(file);
+                    // a data do arquivo registra a do diretório já com o próprio arquivo gravado
+                    saved = file.setLastModified(dirMtime());
+                } catch (IOException e) {
+                    LOGGER.warning("[FilteredFileStore] Não foi possível salvar o filtro de chaves: " + e.getMessage());
+                }
+            }
+            if (!saved) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        delegate.close();
+    }
+
+    private long dirMtime() {
+        return dir.lastModified();
+    }
+
+    private static boolean filterable(String key) {
+        return key.indexOf('/') < 0 && key.indexOf(File.separatorChar) < 0;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.keychainapp.logic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice do cofre em memória (heap). É o modo padrão e é reconstruído a cada abertura.
+ */
+class HeapVaultIndex extends VaultIndex {
+    private final ConcurrentHashMap<String, VaultStore.Entry> map;
+    private volatile FileChannel vault;
+
+    HeapVaultIndex(int expectedSize) {
+        map = new ConcurrentHashMap<>(Math.max(16, expectedSize * 4 / 3));
+    }
+
+    @Override
+    void attach(FileChannel vault) {
+        this.vault = vault;
+    }
+
+    @Override
+    VaultStore.Entry get(String key) {
+        return map.get(key);
+    }
+
+    @Override
+    VaultStore.Entry put(String key, VaultStore.Entry entry) {
+        return map.put(key, entry);
+    }
+
+    @Override
+    VaultStore.Entry remove(String key) {
+        return map.remove(key);
+    }
+
+    @Override
+    int size() {
+        return map.size();
+    }
+
+    @Override
+    byte[] readValue(String key) throws IOException {
+        VaultStore.Entry e = map.get(key);
+        if (e == null) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(e.valueLength);
+        VaultStore.readFully(vault, buf, e.valuePosition);
+        return buf.array();
+    }
+
+    @Override
+    long[] liveOffsets() {
+        long[] offsets = new long[map.size()];
+        int n = 0;
+        for (VaultStore.Entry e : map.values()) {
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, n * 2 + 1);
+            }
+            offsets[n++] = e.recordOffset;
+        }
+        return n == offsets.length ? offsets : Arrays.copyOf(offsets, n);
+    }
+
+    @Override
+    Collection<String> keysInMemory() {
+        return new ArrayList<>(map.keySet());
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.keychainapp.logic;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * Backend em memória, sem persistência. Para testes, benchmarks e execuções sem keychain.
+ */
+public class InMemoryBackend implements KeychainBackend {
+    static final String NAME = "memory";
+
+    private final ConcurrentHashMap<String, String> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void savePassword(String service, String user, String password) {
+        entries.put(service + '\u0000' + user, password);
+    }
+
+    @Override
+    public String loadPassword(String service, String user) throws KeychainException {
+        String value = entries.get(service + '\u0000' + user);
+        if (value == null) {
+            throw new KeychainException("Senha não encontrada em memória para service='" + service + "', key='" + user + "'");
+        }
+        return value;
+    }
+
+    @Override
+    public boolean deletePassword(String service, String user) {
+        return entries.remove(service + '\u0000' + user) != null;
+    }
+}
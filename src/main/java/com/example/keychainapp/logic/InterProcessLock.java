@@ -0,0 +1,81 @@
+package com.example.keychainapp.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Lock exclusivo entre processos sobre um arquivo ".lock", usado por várias JVMs que
+ * compartilham o mesmo diretório do keychain.
+ *
+ * Um FileLock pertence à JVM inteira e não pode ser pedido duas vezes por ela, então as threads
+ * da mesma JVM passam antes por um ReentrantLock. O lock é reentrante: só a chamada mais externa
+ * toca no arquivo. Com shared=false apenas o lock local é usado.
+ *
+ * Pela mesma razão existe uma única instância por arquivo na JVM (forFile), mesmo que vários
+ * KeychainService abram o mesmo diretório; o arquivo fica aberto até o fim do processo. Se uma
+ * thread é interrompida enquanto espera o lock, o FileChannel fecha (ClosedByInterruptException)
+ * e é reaberto no próximo lock().
+ */
+final class InterProcessLock {
+    private static final Logger LOGGER = Logger.getLogger(InterProcessLock.class.getName());
+    private static final ConcurrentHashMap<String, InterProcessLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final boolean shared;
+    private final ReentrantLock local = new ReentrantLock();
+    private FileChannel channel;
+    private FileLock fileLock;
+
+    private InterProcessLock(File file, boolean shared) {
+        this.file = file;
+        this.shared = shared;
+    }
+
+    static InterProcessLock forFile(File file, boolean shared) throws IOException {
+        String path = file.getCanonicalPath();
+        InterProcessLock lock = LOCKS.get(path);
+        if (lock == null) {
+            InterProcessLock created = new InterProcessLock(new File(path), shared);
+            lock = LOCKS.putIfAbsent(path, created);
+            if (lock == null) {
+                lock = created;
+            }
+        }
+        return lock;
+    }
+
+    void lock() throws IOException {
+        local.lock();
+        if (!shared || local.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            fileLock = channel.lock();
+        } catch (IOException | RuntimeException e) {
+            local.unlock();
+            throw e;
+        }
+    }
+
+    void unlock() {
+        try {
+            if (fileLock != null && local.getHoldCount() == 1) {
+                fileLock.release();
+                fileLock = null;
+            }
+        } catch (IOException e) {
+            LOGGER.warning("[InterProcessLock] Falha ao liberar o lock de " + file + ": " + e.getMessage());
+        } finally {
+            local.unlock();
+        }
+    }
+}
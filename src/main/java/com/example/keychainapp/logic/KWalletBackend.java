@@ -0,0 +1,65 @@
+package com.example.keychainapp.logic;
+
+import java.nio.charset.StandardCharsets;
+
+import com.example.keychainapp.logic.SystemKeychain.CommandResult;
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * KWallet do KDE através do kwalletcli.
+ */
+class KWalletBackend implements KeychainBackend {
+    static final String NAME = "kwallet";
+    static final String KWALLETCLI = "kwalletcli";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void savePassword(String service, String user, String password) throws KeychainException {
+        try {
+            ProcessBuilder pb = new ProcessBuilder(KWALLETCLI, "-f", service, "-e", user, "-p");
+            int exit = SystemKeychain.runCommand(pb, KWALLETCLI, password.getBytes(StandardCharsets.UTF_8)).exit;
+            if (exit != 0) {
+                throw new KeychainException("Falha ao salvar senha usando kwalletcli (exit code: " + exit + ")");
+            }
+        } catch (KeychainException ke) {
+            throw ke;
+        } catch (Exception e) {
+            throw new KeychainException("Exceção inesperada ao salvar com kwalletcli", e);
+        }
+    }
+
+    @Override
+    public String loadPassword(String service, String user) throws KeychainException {
+        try {
+            ProcessBuilder pb = new ProcessBuilder(KWALLETCLI, "-f", service, "-r", user);
+            CommandResult result = SystemKeychain.runCommand(pb, KWALLETCLI, null);
+            int exit = result.exit;
+            String value = result.firstLine;
+            if (exit != 0) {
+                throw new KeychainException("Falha ao ler senha usando kwalletcli (exit code: " + exit + ")");
+            }
+            if (value == null || value.isEmpty()) {
+                throw new KeychainException("Senha não encontrada usando kwalletcli para service='" + service + "', key='" + user + "'");
+            }
+            return value;
+        } catch (KeychainException ke) {
+            throw ke;
+        } catch (Exception e) {
+            throw new KeychainException("Exceção inesperada ao ler com kwalletcli", e);
+        }
+    }
+
+    /**
+     * O kwalletcli não remove entradas: a senha é sobrescrita com um valor vazio, que
+     * loadPassword trata como inexistente.
+     */
+    @Override
+    public boolean deletePassword(String service, String user) throws KeychainException {
+        savePassword(service, user, "");
+        return true;
+    }
+}
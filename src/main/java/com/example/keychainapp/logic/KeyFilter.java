@@ -0,0 +1,187 @@
+package com.example.keychainapp.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtro de Bloom sobre as chaves gravadas: mightContain() == false garante que a chave não
+ * existe; true pode ser um falso positivo, com probabilidade próxima da pedida na criação
+ * enquanto o número de chaves não passar da capacidade.
+ *
+ * Só aceita inclusões (um bit não pode ser desligado sem afetar outras chaves): remoções são
+ * contadas por quem usa o filtro, que o reconstrói quando elas pesam no falso positivo.
+ * Leituras não bloqueiam; inclusões simultâneas são seguras (bits ligados com CAS).
+ */
+final class KeyFilter {
+    private static final int MAGIC = 0x4B464C54; // "KFLT"
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = 25;
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int hashes;
+    private final int capacity;
+    // Inclusões que ligaram algum bit: aproxima o número de chaves distintas
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param capacity número de chaves previsto
+     * @param falsePositiveRate taxa de falso positivo desejada com capacity chaves
+     */
+    KeyFilter(int capacity, double falsePositiveRate) {
+        this(capacity, bitsFor(capacity, falsePositiveRate), hashesFor(capacity, bitsFor(capacity, falsePositiveRate)));
+    }
+
+    private KeyFilter(int capacity, long bits, int hashes) {
+        this.capacity = capacity;
+        this.bits = bits;
+        this.hashes = hashes;
+        this.words = new AtomicLongArray((int) ((bits + 63) >>> 6));
+    }
+
+    // m = -n ln p / (ln 2)^2, arredondado para palavras inteiras
+    private static long bitsFor(int capacity, double p) {
+        long m = (long) Math.ceil(-Math.max(capacity, 1) * Math.log(p) / (Math.log(2) * Math.log(2)));
+        return Math.max(64, (m + 63) & ~63L);
+    }
+
+    // k = m/n ln 2
+    private static int hashesFor(int capacity, long bits) {
+        return Math.max(1, Math.min(16, (int) Math.round((double) bits / Math.max(capacity, 1) * Math.log(2))));
+    }
+
+    void add(String key) {
+        long h = hash(key);
+        long h1 = mix(h);
+        long h2 = mix(h ^ 0x9E3779B97F4A7C15L) | 1;
+        boolean changed = false;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = words.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!words.compareAndSet(word, current, current | mask));
+            changed |= (current & mask) == 0;
+        }
+        if (changed) {
+            count.incrementAndGet();
+        }
+    }
+
+    boolean mightContain(String key) {
+        long h = hash(key);
+        long h1 = mix(h);
+        long h2 = mix(h ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return número aproximado de chaves distintas incluídas
+     */
+    int count() {
+        return count.get();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    long bits() {
+        return bits;
+    }
+
+    int hashes() {
+        return hashes;
+    }
+
+    /**
+     * Taxa de falso positivo esperada com n chaves: (1 - e^(-kn/m))^k.
+     */
+    double falsePositiveRate(long n) {
+        return Math.pow(1 - Math.exp(-(double) hashes * n / bits), hashes);
+    }
+
+    /**
+     * Grava o filtro em um temporário e o troca pelo definitivo atomicamente.
+     */
+    void writeTo(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(capacity);
+            out.writeLong(bits);
+            out.writeInt(hashes);
+            out.writeInt(count.get());
+            for (int i = 0; i < words.length(); i++) {
+                out.writeLong(words.get(i));
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return o filtro gravado em file, ou null se o arquivo não existe
+     * @throws IOException se o arquivo estiver corrompido ou em outro formato
+     */
+    static KeyFilter readFrom(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Filtro de chaves inválido: " + file);
+            }
+            int capacity = in.readInt();
+            long bits = in.readLong();
+            int hashes = in.readInt();
+            int count = in.readInt();
+            if (capacity < 0 || bits < 64 || bits % 64 != 0 || bits > (1L << 36) || hashes < 1 || hashes > 16
+                || count < 0 || bits / 8 != file.length() - HEADER_BYTES) {
+                throw new IOException("Filtro de chaves inválido: " + file);
+            }
+            KeyFilter filter = new KeyFilter(capacity, bits, hashes);
+            filter.count.set(count);
+            for (int i = 0; i < filter.words.length(); i++) {
+                filter.words.set(i, in.readLong());
+            }
+            return filter;
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static long hash(String key) {
+        // FNV-1a de 64 bits sobre os chars
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+}
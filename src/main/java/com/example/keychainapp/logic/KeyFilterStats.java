@@ -0,0 +1,92 @@
+package com.example.keychainapp.logic;
+
+import java.util.Locale;
+
+/**
+ * Estado do filtro de chaves do armazenamento legado (keychain.storage=files), devolvido por
+ * KeychainService.getKeyFilterStats(). Os contadores são acumulados desde a abertura.
+ */
+public class KeyFilterStats {
+    private final int keys;
+    private final long bits;
+    private final int hashes;
+    private final double expectedFalsePositiveRate;
+    private final long lookups;
+    private final long definiteMisses;
+    private final long falsePositives;
+    private final int rebuilds;
+
+    KeyFilterStats(int keys, long bits, int hashes, double expectedFalsePositiveRate, long lookups,
+                   long definiteMisses, long falsePositives, int rebuilds) {
+        this.keys = keys;
+        this.bits = bits;
+        this.hashes = hashes;
+        this.expectedFalsePositiveRate = expectedFalsePositiveRate;
+        this.lookups = lookups;
+        this.definiteMisses = definiteMisses;
+        this.falsePositives = falsePositives;
+        this.rebuilds = rebuilds;
+    }
+
+    /**
+     * @return número aproximado de chaves no filtro (inclui as removidas desde a última reconstrução)
+     */
+    public int getKeys() {
+        return keys;
+    }
+
+    public long getBits() {
+        return bits;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    /**
+     * @return taxa de falso positivo esperada pelo tamanho do filtro e o número de chaves
+     */
+    public double getExpectedFalsePositiveRate() {
+        return expectedFalsePositiveRate;
+    }
+
+    /**
+     * @return leituras que consultaram o filtro
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * @return leituras respondidas como inexistentes sem acessar o disco
+     */
+    public long getDefiniteMisses() {
+        return definiteMisses;
+    }
+
+    /**
+     * @return leituras em que o filtro indicou a chave, mas o arquivo não existia
+     */
+    public long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /**
+     * @return fração das chaves inexistentes consultadas que o filtro não descartou
+     */
+    public double getObservedFalsePositiveRate() {
+        long absent = definiteMisses + falsePositives;
+        return absent == 0 ? 0 : (double) falsePositives / absent;
+    }
+
+    public int getRebuilds() {
+        return rebuilds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "KeyFilterStats[chaves=%d, bits=%d, hashes=%d, fppEsperada=%.4f, consultas=%d, "
+            + "descartadas=%d, falsosPositivos=%d, fppObservada=%.4f, reconstruções=%d]", keys, bits, hashes,
+            expectedFalsePositiveRate, lookups, definiteMisses, falsePositives, getObservedFalsePositiveRate(), rebuilds);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.keychainapp.logic;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Uma página de KeychainService.scan(): chaves em ordem crescente e o cursor para pedir a
+ * próxima página. O cursor é a última chave devolvida; null quando não há mais chaves.
+ */
+public class KeyPage {
+    private final List<String> keys;
+    private final String nextCursor;
+
+    KeyPage(List<String> keys, String nextCursor) {
+        this.keys = Collections.unmodifiableList(keys);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return o cursor a passar para scan() na próxima página, ou null se esta for a última
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyPage[chaves=" + keys.size() + ", próximo=" + nextCursor + "]";
+    }
+}
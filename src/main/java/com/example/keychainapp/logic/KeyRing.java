@@ -0,0 +1,146 @@
+package com.example.keychainapp.logic;
+
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Versões da chave AES guardadas no KeyStore.
+ *
+ * A versão 0 é a chave original (alias "keychain_key"); cada rotação acrescenta
+ * "keychain_key.v1", "keychain_key.v2"... A versão mais alta é a atual e cifra tudo o que é
+ * gravado; as anteriores só continuam no KeyStore enquanto a rotação não termina, para que os
+ * valores ainda não recifrados possam ser lidos.
+ *
+ * Um anel substituído no cache (KeyStore alterado, tempo ocioso, close()) pode ainda estar em
+ * uso por outras threads, no meio de um Cipher.init. Por isso as operações o reservam com
+ * retain()/release(), e retire() só apaga as chaves quando a última reserva é liberada.
+ */
+final class KeyRing {
+    static final String BASE_ALIAS = "keychain_key";
+    private static final String VERSION_SEPARATOR = ".v";
+
+    private final TreeMap<Integer, WipeableSecretKey> keys;
+    // Operações usando o anel; -1 depois de apagado
+    private final AtomicInteger users = new AtomicInteger();
+    private volatile boolean retired;
+
+    private KeyRing(TreeMap<Integer, WipeableSecretKey> keys) {
+        this.keys = keys;
+    }
+
+    static KeyRing load(KeyStore keyStore, char[] password) throws Exception {
+        TreeMap<Integer, WipeableSecretKey> keys = new TreeMap<>();
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            int version = versionOf(alias);
+            if (version < 0) {
+                continue;
+            }
+            Key key = keyStore.getKey(alias, password);
+            if (key instanceof SecretKey) {
+                keys.put(version, WipeableSecretKey.copyOf((SecretKey) key));
+            }
+        }
+        if (keys.isEmpty()) {
+            throw new KeyStoreException("Chave '" + BASE_ALIAS + "' não encontrada no KeyStore");
+        }
+        return new KeyRing(keys);
+    }
+
+    static String aliasFor(int version) {
+        return version == 0 ? BASE_ALIAS : BASE_ALIAS + VERSION_SEPARATOR + version;
+    }
+
+    /**
+     * @return a versão do alias, ou -1 se o alias não for de uma chave AES do serviço
+     */
+    static int versionOf(String alias) {
+        // KeyStore JCEKS guarda os aliases em minúsculas
+        String a = alias.toLowerCase();
+        if (a.equals(BASE_ALIAS)) {
+            return 0;
+        }
+        if (!a.startsWith(BASE_ALIAS + VERSION_SEPARATOR)) {
+            return -1;
+        }
+        try {
+            int version = Integer.parseInt(a.substring(BASE_ALIAS.length() + VERSION_SEPARATOR.length()));
+            return version > 0 ? version : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    int currentVersion() {
+        return keys.lastKey();
+    }
+
+    WipeableSecretKey current() {
+        return keys.lastEntry().getValue();
+    }
+
+    /**
+     * @throws KeyStoreException se a versão não existir mais no KeyStore (rotação já concluída)
+     */
+    WipeableSecretKey get(int version) throws KeyStoreException {
+        WipeableSecretKey key = keys.get(version);
+        if (key == null) {
+            throw new KeyStoreException("Versão " + version + " da chave AES não existe no KeyStore");
+        }
+        return key;
+    }
+
+    NavigableSet<Integer> versions() {
+        return Collections.unmodifiableNavigableSet(keys.navigableKeySet());
+    }
+
+    /**
+     * Reserva o anel para uma operação, que deve chamar release() ao terminar.
+     *
+     * @return false se o anel já foi apagado (quem chamou deve pegar o anel atual do cache)
+     */
+    boolean retain() {
+        while (true) {
+            int n = users.get();
+            if (n < 0) {
+                return false;
+            }
+            if (users.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        if (users.decrementAndGet() == 0 && retired) {
+            destroyIfUnused();
+        }
+    }
+
+    /**
+     * Tira o anel de uso: as chaves são apagadas agora, ou quando a última reserva for liberada.
+     */
+    void retire() {
+        retired = true;
+        destroyIfUnused();
+    }
+
+    private void destroyIfUnused() {
+        if (users.compareAndSet(0, -1)) {
+            for (WipeableSecretKey key : keys.values()) {
+                // os Ciphers em cache das threads guardam a chave expandida
+                CryptoUtils.forget(key);
+                key.destroy();
+            }
+        }
+    }
+}
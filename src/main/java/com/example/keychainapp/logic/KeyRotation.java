@@ -0,0 +1,331 @@
+package com.example.keychainapp.logic;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Recifragem em segundo plano dos valores e blobs de um KeychainService para a versão atual
+ * da chave AES (ver KeychainService.rotateKey()).
+ *
+ * - As chaves do armazenamento são divididas em fatias processadas em um ForkJoinPool de
+ *   keychain.rotation.parallelism threads. Cada fatia de até keychain.rotation.batchSize chaves
+ *   lê os valores, recifra os que têm versão antiga e os grava com um compare-and-set
+ *   (ValueStore.replaceAll): um valor alterado por uma gravação concorrente não é sobrescrito.
+ * - Valores da versão atual mas em um formato antigo (keychain.value.format) também são
+ *   regravados, então uma rotação migra o armazenamento inteiro para o formato atual.
+ * - keychain.rotation.maxPerSecond limita quantos valores são recifrados por segundo, somando
+ *   todas as threads, para a rotação não disputar disco e CPU com as operações normais.
+ * - A versão da chave gravada em cada valor é o próprio ponto de retomada: não há arquivo de
+ *   progresso. Depois de uma queda, a rotação retomada relê tudo e só recifra o que ficou para trás.
+ * - As passadas se repetem até uma delas não achar nenhum valor antigo (gravações feitas durante
+ *   a passada com um anel ainda não recarregado); só então as versões antigas saem do KeyStore.
+ *   Se algum valor não puder ser recifrado, as versões antigas são mantidas.
+ */
+final class KeyRotation {
+    private static final Logger LOGGER = Logger.getLogger(KeyRotation.class.getName());
+    private static final int PARALLELISM = Math.max(1, Integer.getInteger("keychain.rotation.parallelism",
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+    private static final int BATCH_SIZE = Math.max(1, Integer.getInteger("keychain.rotation.batchSize", 64));
+    private static final int MAX_PER_SECOND = Integer.getInteger("keychain.rotation.maxPerSecond", 1000);
+    private static final int MAX_PASSES = 5;
+
+    private final KeychainService service;
+    private final ValueStore store;
+    private final BlobStore blobs;
+    private final int targetVersion;
+    private final CompletableFuture<Integer> future = new CompletableFuture<>();
+    private final long intervalNanos;
+    private final AtomicLong nextPermit = new AtomicLong(System.nanoTime());
+    private volatile boolean cancelled;
+
+    // Contadores da passada atual
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder reencrypted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    KeyRotation(KeychainService service, ValueStore store, BlobStore blobs, int targetVersion) {
+        this.service = service;
+        this.store = store;
+        this.blobs = blobs;
+        this.targetVersion = targetVersion;
+        this.intervalNanos = MAX_PER_SECOND > 0 ? TimeUnit.SECONDS.toNanos(1) / MAX_PER_SECOND : 0;
+    }
+
+    CompletableFuture<Integer> future() {
+        return future;
+    }
+
+    void start() {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                rotate();
+            }
+        }, "keychain-rotation");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Interrompe a rotação (close() do serviço). O que já foi recifrado fica; o resto é
+     * retomado na próxima abertura.
+     */
+    void cancel() {
+        cancelled = true;
+        future.cancel(false);
+    }
+
+    private void rotate() {
+        long start = System.nanoTime();
+        long total = 0;
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool p) {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                t.setName("keychain-rotation-" + t.getPoolIndex());
+                return t;
+            }
+        }, null, false);
+        try {
+            for (int pass = 1; ; pass++) {
+                if (service.getKeyRing().currentVersion() != targetVersion) {
+                    LOGGER.info("[KeyRotation] Uma rotação mais nova começou; rotação para a versão " + targetVersion + " encerrada.");
+                    break;
+                }
+                stale.reset();
+                reencrypted.reset();
+                failed.reset();
+                long passStart = System.nanoTime();
+                List<String> keys = new ArrayList<>(store.keys());
+                pool.invoke(new ValueSlice(keys, 0, keys.size()));
+                List<Path> blobPaths = blobs.list();
+                pool.invoke(new BlobSlice(blobPaths, 0, blobPaths.size()));
+                if (cancelled) {
+                    return;
+                }
+                total += reencrypted.sum();
+                LOGGER.info(String.format("[KeyRotation] Passada %d: %d chaves e %d blobs lidos, %d com versão antiga, "
+                    + "%d recifrados, %d com erro, em %.1f s", pass, keys.size(), blobPaths.size(), stale.sum(),
+                    reencrypted.sum(), failed.sum(), (System.nanoTime() - passStart) / 1e9));
+                if (failed.sum() > 0) {
+                    LOGGER.warning("[KeyRotation] " + failed.sum() + " valores não puderam ser recifrados; as versões "
+                        + "antigas da chave AES foram mantidas no KeyStore. A rotação será retomada na próxima abertura.");
+                    break;
+                }
+                if (stale.sum() == 0) {
+                    List<Integer> retired = service.retireKeyVersions(targetVersion);
+                    LOGGER.info(String.format("[KeyRotation] Rotação para a versão %d concluída em %.1f s: %d valores "
+                        + "recifrados, versões removidas do KeyStore: %s", targetVersion,
+                        (System.nanoTime() - start) / 1e9, total, retired));
+                    break;
+                }
+                if (pass >= MAX_PASSES) {
+                    LOGGER.warning("[KeyRotation] Ainda há valores com versão antiga após " + pass + " passadas; "
+                        + "as versões antigas da chave AES foram mantidas no KeyStore.");
+                    break;
+                }
+            }
+            future.complete((int) Math.min(Integer.MAX_VALUE, total));
+        } catch (Exception e) {
+            if (!cancelled) {
+                LOGGER.log(Level.SEVERE, "[KeyRotation] Falha na rotação para a versão " + targetVersion, e);
+            }
+            future.completeExceptionally(e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Recifra uma fatia de chaves e grava o lote com um único compare-and-set.
+     */
+    private void reencryptValues(List<String> keys) throws Exception {
+        KeyRing ring = service.acquireKeyRing();
+        try {
+            reencryptValues(keys, ring);
+        } finally {
+            ring.release();
+        }
+    }
+
+    private void reencryptValues(List<String> keys, KeyRing ring) throws Exception {
+        if (ring.currentVersion() != targetVersion) {
+            return;
+        }
+        Map<String, byte[]> expected = new HashMap<>();
+        Map<String, byte[]> values = new HashMap<>();
+        for (String key : keys) {
+            byte[] stored;
+            int version;
+            try {
+                stored = store.get(key);
+                if (stored == null) {
+                    continue;
+                }
+                version = ValueEnvelope.keyVersion(stored);
+            } catch (IOException e) {
+                failed.increment();
+                LOGGER.warning("[KeyRotation] Falha ao ler a chave '" + key + "': " + e.getMessage());
+                continue;
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                // não é um valor cifrado pelo serviço (ex.: outro .txt no diretório do formato legado)
+                LOGGER.fine("[KeyRotation] Ignorando a chave '" + key + "': " + e.getMessage());
+                continue;
+            }
+            // Valores antigos também passam para o formato atual (ex.: AES/ECB legado para GCM)
+            if (version > targetVersion || version == targetVersion && ValueEnvelope.isCurrentFormat(stored)) {
+                continue;
+            }
+            stale.increment();
+            byte[] plain = null;
+            try {
+                plain = ValueEnvelope.open(ring, key, stored);
+                values.put(key, ValueEnvelope.seal(ring, key, plain));
+                expected.put(key, stored);
+            } catch (Exception e) {
+                failed.increment();
+                LOGGER.warning("[KeyRotation] Falha ao recifrar a chave '" + key + "': " + e.getMessage());
+            } finally {
+                if (plain != null) {
+                    Arrays.fill(plain, (byte) 0);
+                }
+            }
+        }
+        if (values.isEmpty()) {
+            return;
+        }
+        throttle(values.size());
+        // Chaves que não foram gravadas mudaram no meio do caminho; a próxima passada as confere
+        reencrypted.add(store.replaceAll(expected, values).size());
+    }
+
+    private void reencryptBlob(Path path) throws Exception {
+        KeyRing ring = service.acquireKeyRing();
+        int result;
+        try {
+            if (ring.currentVersion() != targetVersion) {
+                return;
+            }
+            throttle(1);
+            result = service.reencryptBlob(path, ring);
+        } finally {
+            ring.release();
+        }
+        if (result != 0) {
+            stale.increment();
+        }
+        if (result > 0) {
+            reencrypted.increment();
+        }
+    }
+
+    /**
+     * Espera até poder processar mais n valores sem passar de keychain.rotation.maxPerSecond.
+     */
+    private void throttle(int n) throws InterruptedException {
+        if (intervalNanos == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long slot;
+        while (true) {
+            long next = nextPermit.get();
+            slot = Math.max(next, now);
+            if (nextPermit.compareAndSet(next, slot + n * intervalNanos)) {
+                break;
+            }
+        }
+        if (slot > now) {
+            TimeUnit.NANOSECONDS.sleep(slot - now);
+        }
+    }
+
+    private final class ValueSlice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<String> keys;
+        private final int from;
+        private final int to;
+
+        ValueSlice(List<String> keys, int from, int to) {
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                return;
+            }
+            if (to - from > BATCH_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ValueSlice(keys, from, mid), new ValueSlice(keys, mid, to));
+                return;
+            }
+            try {
+                reencryptValues(keys.subList(from, to));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                failed.add(to - from);
+                if (!cancelled) {
+                    LOGGER.warning("[KeyRotation] Falha ao recifrar um lote de " + (to - from) + " chaves: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private final class BlobSlice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Path> paths;
+        private final int from;
+        private final int to;
+
+        BlobSlice(List<Path> paths, int from, int to) {
+            this.paths = paths;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                return;
+            }
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BlobSlice(paths, from, mid), new BlobSlice(paths, mid, to));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+            Path path = paths.get(from);
+            try {
+                reencryptBlob(path);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                failed.increment();
+                if (!cancelled) {
+                    LOGGER.warning("[KeyRotation] Falha ao recifrar o blob " + path.getFileName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
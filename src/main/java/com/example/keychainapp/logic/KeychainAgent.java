@@ -0,0 +1,472 @@
+package com.example.keychainapp.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Agente do keychain, no estilo do ssh-agent: mantém um KeychainService já inicializado (senha
+ * do keychain do SO, KeyStore e chave AES carregados uma vez) e atende get/put/delete/list de
+ * vários processos por um socket de domínio Unix, sem que cada ferramenta de vida curta pague a
+ * inicialização do serviço. Clientes usam KeychainAgentClient.
+ *
+ * Protocolo (inteiros big-endian; string = tamanho (short) | UTF-8):
+ * <pre>
+ * requisição: tamanho (int) | operação (byte) | dados
+ * resposta:   tamanho (int) | status (byte) | dados
+ *
+ * PING   (0)  -                                                  -> versão do protocolo (int)
+ * GET    (1)  chave                                              -> valor (resto do quadro)
+ * PUT    (2)  chave | valor (resto do quadro)                    -> -
+ * DELETE (3)  chave                                              -> -
+ * LIST   (4)  prefixo | tamanho da página (int) | cursor (byte 0, ou 1 + string)
+ *                                                                -> quantidade (int) | chaves | próximo cursor (idem)
+ * status: OK (0), NOT_FOUND (1, GET e DELETE), ERROR (2, dados = mensagem UTF-8)
+ * </pre>
+ *
+ * - Uma conexão aceita várias requisições em sequência; as respostas vão na mesma ordem, então o
+ *   cliente pode enviar várias antes de ler (pipelining). Cada conexão tem sua thread.
+ * - O socket é criado com permissão 0600 e, além disso, o UID do processo cliente é conferido
+ *   pelo kernel (SO_PEERCRED no Linux, getpeereid no macOS): só o mesmo usuário do agente e os
+ *   UIDs de keychain.agent.allowUids são atendidos.
+ * - Valores em claro passam pelos buffers da conexão: o quadro de cada requisição é apagado
+ *   depois de atendido, e os buffers de leitura e escrita quando a conexão termina.
+ */
+public class KeychainAgent implements Closeable {
+    static final int PROTOCOL_VERSION = 1;
+    static final byte OP_PING = 0;
+    static final byte OP_GET = 1;
+    static final byte OP_PUT = 2;
+    static final byte OP_DELETE = 3;
+    static final byte OP_LIST = 4;
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_NOT_FOUND = 1;
+    static final byte STATUS_ERROR = 2;
+    // string do protocolo: o tamanho vai em um short sem sinal
+    static final int MAX_STRING_BYTES = 0xFFFF;
+    static final int MAX_FRAME_BYTES = Integer.getInteger("keychain.agent.maxFrameBytes", 16 * 1024 * 1024);
+    static final String SOCKET_NAME = "keychain-agent.sock";
+
+    private static final Logger LOGGER = Logger.getLogger(KeychainAgent.class.getName());
+    private static final int MAX_CLIENTS = Integer.getInteger("keychain.agent.maxClients", 64);
+    private static final int BACKLOG = 128;
+
+    private final KeychainService service;
+    private final File socketPath;
+    private final Set<Integer> allowedUids;
+    private final Set<UnixSocket> connections = Collections.newSetFromMap(new ConcurrentHashMap<UnixSocket, Boolean>());
+    private final AtomicInteger clientCount = new AtomicInteger();
+    private final ExecutorService clients = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "keychain-agent-client-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private UnixSocket server;
+    private Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * @param service serviço já criado; o agente não o fecha
+     */
+    public KeychainAgent(KeychainService service, File socketPath) {
+        this.service = service;
+        this.socketPath = socketPath;
+        this.allowedUids = parseUids(System.getProperty("keychain.agent.allowUids", ""));
+    }
+
+    /**
+     * Caminho do socket: keychain.agent.socket, ou keychain-agent.sock no diretório do keychain
+     * (keychain.dir, padrão o diretório do usuário).
+     */
+    public static File defaultSocketPath() {
+        String path = System.getProperty("keychain.agent.socket");
+        if (path != null && !path.isEmpty()) {
+            return new File(path);
+        }
+        return new File(System.getProperty("keychain.dir", System.getProperty("user.home")), SOCKET_NAME);
+    }
+
+    public File getSocketPath() {
+        return socketPath;
+    }
+
+    /**
+     * Cria o socket e começa a aceitar conexões em uma thread própria (não daemon: mantém a JVM
+     * viva até close()). Um socket antigo deixado por um agente que caiu é substituído, mas só se
+     * for de fato um socket do mesmo usuário.
+     *
+     * @throws IOException se outro agente já estiver atendendo no mesmo caminho, ou se o caminho
+     *         estiver ocupado por outra coisa (arquivo, link simbólico, socket de outro usuário)
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Agente já iniciado");
+        }
+        // exists() segue links: um link quebrado no caminho também tem de ser recusado
+        if (socketPath.exists() || Files.isSymbolicLink(socketPath.toPath())) {
+            boolean alive = false;
+            try {
+                UnixSocket probe = UnixSocket.connect(socketPath);
+                alive = true;
+                probe.close();
+            } catch (IOException e) {
+                // ninguém atendendo: socket deixado por um agente que caiu
+            }
+            if (alive) {
+                throw new IOException("Já existe um agente atendendo em " + socketPath);
+            }
+            try {
+                UnixSocket.unlink(socketPath);
+            } catch (IOException e) {
+                throw new IOException("Caminho do socket ocupado; agente não iniciado: " + e.getMessage(), e);
+            }
+            LOGGER.info("[KeychainAgent] Removido socket antigo de um agente encerrado: " + socketPath);
+        }
+        server = UnixSocket.listen(socketPath, BACKLOG);
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "keychain-agent");
+        acceptor.start();
+        LOGGER.info("[KeychainAgent] Agente atendendo em " + socketPath + " (UID " + UnixSocket.currentUid()
+            + (allowedUids.isEmpty() ? "" : ", também " + allowedUids) + ")");
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            final UnixSocket client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.log(Level.SEVERE, "[KeychainAgent] Falha ao aceitar conexões; agente encerrado", e);
+                }
+                return;
+            }
+            if (!authorize(client)) {
+                client.close();
+                continue;
+            }
+            if (clientCount.incrementAndGet() > MAX_CLIENTS) {
+                clientCount.decrementAndGet();
+                LOGGER.warning("[KeychainAgent] Limite de " + MAX_CLIENTS + " conexões simultâneas atingido; conexão recusada.");
+                client.close();
+                continue;
+            }
+            connections.add(client);
+            try {
+                clients.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(client);
+                        } finally {
+                            release(client);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // close() entre o accept() e aqui
+                release(client);
+            }
+        }
+    }
+
+    private void release(UnixSocket client) {
+        connections.remove(client);
+        clientCount.decrementAndGet();
+        client.close();
+    }
+
+    private boolean authorize(UnixSocket client) {
+        try {
+            int uid = client.peerUid();
+            if (uid == UnixSocket.currentUid() || allowedUids.contains(uid)) {
+                return true;
+            }
+            LOGGER.warning("[KeychainAgent] Conexão recusada do UID " + uid);
+        } catch (IOException e) {
+            LOGGER.warning("[KeychainAgent] Não foi possível identificar o cliente; conexão recusada: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Atende as requisições de uma conexão até o cliente fechá-la. As respostas só são enviadas
+     * quando não há mais requisições já recebidas esperando, para agrupar o pipelining em menos
+     * chamadas de send().
+     */
+    private void serve(UnixSocket client) {
+        WipingInputStream buffered = new WipingInputStream(client.getInputStream(), 64 * 1024);
+        WipingOutputStream pending = new WipingOutputStream(client.getOutputStream(), 64 * 1024);
+        try {
+            DataInputStream in = new DataInputStream(buffered);
+            DataOutputStream out = new DataOutputStream(pending);
+            while (!closed) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length < 1 || length > MAX_FRAME_BYTES) {
+                    LOGGER.warning("[KeychainAgent] Requisição com tamanho inválido (" + length + " bytes); conexão encerrada.");
+                    return;
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                try {
+                    handle(ByteBuffer.wrap(frame), out);
+                } finally {
+                    Arrays.fill(frame, (byte) 0);
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOGGER.fine("[KeychainAgent] Conexão encerrada: " + e.getMessage());
+            }
+        } finally {
+            buffered.wipe();
+            pending.wipe();
+        }
+    }
+
+    private void handle(ByteBuffer request, DataOutputStream out) throws IOException {
+        byte op = request.get();
+        try {
+            switch (op) {
+                case OP_PING: {
+                    out.writeInt(5);
+                    out.writeByte(STATUS_OK);
+                    out.writeInt(PROTOCOL_VERSION);
+                    return;
+                }
+                case OP_GET: {
+                    byte[] value = service.retrieveBytes(readString(request));
+                    if (value == null) {
+                        writeStatus(out, STATUS_NOT_FOUND);
+                        return;
+                    }
+                    try {
+                        out.writeInt(1 + value.length);
+                        out.writeByte(STATUS_OK);
+                        out.write(value);
+                    } finally {
+                        Arrays.fill(value, (byte) 0);
+                    }
+                    return;
+                }
+                case OP_PUT: {
+                    String key = readString(request);
+                    byte[] value = new byte[request.remaining()];
+                    request.get(value);
+                    try {
+                        service.save(key, value);
+                    } finally {
+                        Arrays.fill(value, (byte) 0);
+                    }
+                    writeStatus(out, STATUS_OK);
+                    return;
+                }
+                case OP_DELETE: {
+                    writeStatus(out, service.delete(readString(request)) ? STATUS_OK : STATUS_NOT_FOUND);
+                    return;
+                }
+                case OP_LIST: {
+                    String prefix = readString(request);
+                    int pageSize = request.getInt();
+                    String cursor = request.get() != 0 ? readString(request) : null;
+                    writeList(out, service.scan(prefix, pageSize, cursor));
+                    return;
+                }
+                default:
+                    writeError(out, "Operação desconhecida: " + op);
+            }
+        } catch (BufferUnderflowException e) {
+            writeError(out, "Requisição incompleta para a operação " + op);
+        } catch (IOException e) {
+            // falha do serviço (armazenamento): vai para o cliente, a conexão continua
+            writeError(out, e.getMessage());
+        } catch (Exception e) {
+            writeError(out, e.toString());
+        }
+    }
+
+    private static void writeList(DataOutputStream out, KeyPage page) throws IOException {
+        int length = 1 + 4 + 1;
+        List<String> strings = new ArrayList<>(page.getKeys());
+        if (page.hasMore()) {
+            strings.add(page.getNextCursor());
+        }
+        for (String s : strings) {
+            int n = utf8Length(s);
+            // conferido antes de escrever o tamanho do quadro: writeString no meio dele corromperia a conexão
+            if (n > MAX_STRING_BYTES) {
+                writeError(out, "Chave com " + n + " bytes em UTF-8; o protocolo do agente aceita até " + MAX_STRING_BYTES);
+                return;
+            }
+            length += 2 + n;
+        }
+        out.writeInt(length);
+        out.writeByte(STATUS_OK);
+        out.writeInt(page.getKeys().size());
+        for (String key : page.getKeys()) {
+            writeString(out, key);
+        }
+        out.writeByte(page.hasMore() ? 1 : 0);
+        if (page.hasMore()) {
+            writeString(out, page.getNextCursor());
+        }
+    }
+
+    private static void writeStatus(DataOutputStream out, byte status) throws IOException {
+        out.writeInt(1);
+        out.writeByte(status);
+    }
+
+    private static void writeError(DataOutputStream out, String message) throws IOException {
+        byte[] bytes = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(1 + bytes.length);
+        out.writeByte(STATUS_ERROR);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buf) {
+        int length = buf.getShort() & 0xFFFF;
+        if (length > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+
+    /**
+     * @throws IOException se a string passar de MAX_STRING_BYTES em UTF-8 (o tamanho não caberia
+     *         no short e o resto da string seria lido como outro campo)
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IOException("Chave com " + bytes.length + " bytes em UTF-8; o protocolo do agente aceita até "
+                + MAX_STRING_BYTES);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static int utf8Length(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * BufferedInputStream cujo buffer pode ser apagado quando a conexão termina (também usado pelo
+     * KeychainAgentClient).
+     */
+    static final class WipingInputStream extends BufferedInputStream {
+        WipingInputStream(InputStream in, int size) {
+            super(in, size);
+        }
+
+        void wipe() {
+            byte[] b = buf;
+            if (b != null) {
+                Arrays.fill(b, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * BufferedOutputStream cujo buffer pode ser apagado quando a conexão termina.
+     */
+    static final class WipingOutputStream extends BufferedOutputStream {
+        WipingOutputStream(OutputStream out, int size) {
+            super(out, size);
+        }
+
+        void wipe() {
+            Arrays.fill(buf, (byte) 0);
+        }
+    }
+
+    private static Set<Integer> parseUids(String list) {
+        Set<Integer> uids = new HashSet<>();
+        for (String part : list.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) {
+                continue;
+            }
+            try {
+                uids.add(Integer.parseInt(part));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("[KeychainAgent] UID inválido em keychain.agent.allowUids ignorado: " + part);
+            }
+        }
+        return uids;
+    }
+
+    /**
+     * Para de aceitar conexões, encerra as abertas e remove o arquivo do socket.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed || server == null) {
+            closed = true;
+            return;
+        }
+        closed = true;
+        server.shutdown();
+        try {
+            acceptor.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server.close();
+        try {
+            UnixSocket.unlink(socketPath);
+        } catch (IOException e) {
+            LOGGER.warning("[KeychainAgent] Socket não removido: " + e.getMessage());
+        }
+        // com a thread de accept encerrada, nenhuma conexão nova entra depois deste ponto
+        clients.shutdown();
+        for (UnixSocket client : connections) {
+            client.shutdown();
+        }
+        LOGGER.info("[KeychainAgent] Agente encerrado.");
+    }
+}
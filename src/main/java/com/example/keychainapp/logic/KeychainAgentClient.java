@@ -0,0 +1,197 @@
+package com.example.keychainapp.logic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cliente do KeychainAgent: uma conexão persistente com o agente, sem inicializar KeychainService
+ * nem acessar o keychain do SO no processo cliente. Os métodos são sincronizados, então uma
+ * instância pode ser compartilhada entre threads; para paralelismo real, use uma instância por
+ * thread (o agente atende cada conexão em uma thread própria).
+ *
+ * Falhas do agente ao executar a operação chegam como IOException com a mensagem do agente.
+ */
+public class KeychainAgentClient implements Closeable {
+    private final UnixSocket socket;
+    // Os buffers da conexão guardam valores em claro: apagados no close()
+    private final KeychainAgent.WipingInputStream buffered;
+    private final KeychainAgent.WipingOutputStream pending;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream request = new ByteArrayOutputStream(256);
+    private final DataOutputStream requestData = new DataOutputStream(request);
+
+    private KeychainAgentClient(UnixSocket socket) {
+        this.socket = socket;
+        this.buffered = new KeychainAgent.WipingInputStream(socket.getInputStream(), 64 * 1024);
+        this.pending = new KeychainAgent.WipingOutputStream(socket.getOutputStream(), 64 * 1024);
+        this.in = new DataInputStream(buffered);
+        this.out = new DataOutputStream(pending);
+    }
+
+    /**
+     * Conecta ao agente em KeychainAgent.defaultSocketPath().
+     */
+    public static KeychainAgentClient connect() throws IOException {
+        return connect(KeychainAgent.defaultSocketPath());
+    }
+
+    public static KeychainAgentClient connect(File socketPath) throws IOException {
+        return new KeychainAgentClient(UnixSocket.connect(socketPath));
+    }
+
+    /**
+     * @return a versão do protocolo do agente
+     */
+    public synchronized int ping() throws IOException {
+        begin(KeychainAgent.OP_PING);
+        ByteBuffer response = call(false);
+        return response.getInt();
+    }
+
+    /**
+     * @return o valor, ou null se a chave não existir
+     */
+    public synchronized byte[] get(String key) throws IOException {
+        begin(KeychainAgent.OP_GET);
+        KeychainAgent.writeString(requestData, key);
+        ByteBuffer response = call(true);
+        if (response == null) {
+            return null;
+        }
+        try {
+            return Arrays.copyOfRange(response.array(), response.position(), response.limit());
+        } finally {
+            // a resposta de um GET contém o valor
+            Arrays.fill(response.array(), (byte) 0);
+        }
+    }
+
+    public String getString(String key) throws IOException {
+        byte[] value = get(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return new String(value, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+
+    public synchronized void put(String key, byte[] value) throws IOException {
+        begin(KeychainAgent.OP_PUT);
+        KeychainAgent.writeString(requestData, key);
+        requestData.write(value);
+        call(false);
+    }
+
+    public void put(String key, String value) throws IOException {
+        put(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return true se a chave existia
+     */
+    public synchronized boolean delete(String key) throws IOException {
+        begin(KeychainAgent.OP_DELETE);
+        KeychainAgent.writeString(requestData, key);
+        return call(true) != null;
+    }
+
+    /**
+     * Mesma paginação de KeychainService.scan(): chaves com o prefixo em ordem, a partir do cursor.
+     */
+    public synchronized KeyPage list(String prefix, int pageSize, String cursor) throws IOException {
+        begin(KeychainAgent.OP_LIST);
+        KeychainAgent.writeString(requestData, prefix == null ? "" : prefix);
+        requestData.writeInt(pageSize);
+        requestData.writeByte(cursor != null ? 1 : 0);
+        if (cursor != null) {
+            KeychainAgent.writeString(requestData, cursor);
+        }
+        ByteBuffer response = call(false);
+        int count = response.getInt();
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(KeychainAgent.readString(response));
+        }
+        String next = response.get() != 0 ? KeychainAgent.readString(response) : null;
+        return new KeyPage(keys, next);
+    }
+
+    private void begin(byte op) {
+        request.reset();
+        request.write(op);
+    }
+
+    /**
+     * Envia a requisição montada e lê a resposta.
+     *
+     * @return os dados da resposta, ou null para NOT_FOUND quando allowNotFound
+     */
+    private ByteBuffer call(boolean allowNotFound) throws IOException {
+        if (request.size() > KeychainAgent.MAX_FRAME_BYTES) {
+            throw new IOException("Requisição maior que o limite do agente (" + KeychainAgent.MAX_FRAME_BYTES + " bytes)");
+        }
+        try {
+            out.writeInt(request.size());
+            request.writeTo(out);
+            out.flush();
+        } finally {
+            // a requisição de um PUT contém o valor
+            clear(request);
+        }
+        int length = in.readInt();
+        if (length < 1 || length > KeychainAgent.MAX_FRAME_BYTES + 1) {
+            throw new IOException("Resposta inválida do agente (" + length + " bytes)");
+        }
+        byte status = in.readByte();
+        byte[] data = new byte[length - 1];
+        in.readFully(data);
+        switch (status) {
+            case KeychainAgent.STATUS_OK:
+                return ByteBuffer.wrap(data);
+            case KeychainAgent.STATUS_NOT_FOUND:
+                if (allowNotFound) {
+                    return null;
+                }
+                throw new IOException("Resposta inesperada do agente: NOT_FOUND");
+            case KeychainAgent.STATUS_ERROR:
+                throw new IOException("Agente: " + new String(data, StandardCharsets.UTF_8));
+            default:
+                throw new IOException("Status desconhecido na resposta do agente: " + status);
+        }
+    }
+
+    private static void clear(ByteArrayOutputStream buffer) {
+        int size = buffer.size();
+        buffer.reset();
+        for (int i = 0; i < size; i++) {
+            buffer.write(0);
+        }
+        buffer.reset();
+    }
+
+    /**
+     * Fecha a conexão e apaga os buffers. O socket é fechado antes de pegar o monitor, para
+     * destravar uma chamada parada esperando a resposta do agente.
+     */
+    @Override
+    public void close() {
+        socket.close();
+        synchronized (this) {
+            buffered.wipe();
+            pending.wipe();
+        }
+    }
+}
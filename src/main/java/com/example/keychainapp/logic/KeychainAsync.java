@@ -0,0 +1,121 @@
+package com.example.keychainapp.logic;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+/**
+ * Executor das operações assíncronas (loadPasswordAsync, retrieveAsync, ...).
+ *
+ * Pool limitado a keychain.async.threads threads. No máximo keychain.async.maxInFlight operações
+ * ficam pendentes; acima disso quem submete recebe na hora um futuro já falho com
+ * RejectedExecutionException (backpressure em vez de fila infinita), sem bloquear a thread
+ * chamadora, que pode ser ela mesma uma thread assíncrona. Cada operação expira após
+ * keychain.async.timeoutMs com TimeoutException.
+ *
+ * A tarefa que expira não é interrompida: um interrupt durante I/O ou FileChannel.lock() fecha
+ * o canal (ClosedByInterruptException), e o vault e o lock entre processos reutilizam os seus.
+ * Ela continua ocupando sua vaga em maxInFlight até terminar; se ainda estava na fila, é
+ * descartada e a vaga liberada na hora.
+ *
+ * Requisições independentes rodam em paralelo: com a sessão do Secret Service elas são enviadas
+ * ao auxiliar sem esperar as respostas anteriores.
+ */
+final class KeychainAsync {
+    private static final Logger LOGGER = Logger.getLogger(KeychainAsync.class.getName());
+
+    static final int THREADS = Integer.getInteger("keychain.async.threads", 4);
+    static final int MAX_IN_FLIGHT = Integer.getInteger("keychain.async.maxInFlight", 256);
+    static final long TIMEOUT_MS = Long.getLong("keychain.async.timeoutMs", SystemKeychain.PROCESS_TIMEOUT_MS);
+
+    private static final Semaphore PERMITS = new Semaphore(MAX_IN_FLIGHT);
+    private static final ThreadPoolExecutor EXECUTOR;
+    private static final ScheduledExecutorService TIMER;
+
+    static {
+        EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_IN_FLIGHT), daemonFactory("keychain-async-"));
+        EXECUTOR.allowCoreThreadTimeOut(true);
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, daemonFactory("keychain-async-timer-"));
+        timer.setRemoveOnCancelPolicy(true);
+        TIMER = timer;
+    }
+
+    private KeychainAsync() { /* utilitário */ }
+
+    static <T> CompletableFuture<T> submit(final Callable<T> task, final String what) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        if (!PERMITS.tryAcquire()) {
+            LOGGER.warning("[KeychainAsync] Limite de " + MAX_IN_FLIGHT + " operações pendentes atingido: " + what + " recusado");
+            result.completeExceptionally(new RejectedExecutionException(
+                "Limite de operações assíncronas pendentes atingido (" + MAX_IN_FLIGHT + ")"));
+            return result;
+        }
+        // Quem marcar primeiro é dono da vaga: a tarefa ao começar, ou o timeout se ela nem começou
+        final AtomicBoolean started = new AtomicBoolean();
+        final Future<?> running;
+        try {
+            running = EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (!started.compareAndSet(false, true)) {
+                        return;
+                    }
+                    try {
+                        result.complete(task.call());
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    } finally {
+                        PERMITS.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            PERMITS.release();
+            result.completeExceptionally(e);
+            return result;
+        }
+        final Future<?> timeout = TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (result.completeExceptionally(new TimeoutException(
+                        "Tempo esgotado (" + TIMEOUT_MS + " ms) em " + what)) && started.compareAndSet(false, true)) {
+                    running.cancel(false);
+                    PERMITS.release();
+                }
+            }
+        }, TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable error) {
+                timeout.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    private static ThreadFactory daemonFactory(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
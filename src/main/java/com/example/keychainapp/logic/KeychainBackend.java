@@ -0,0 +1,32 @@
+package com.example.keychainapp.logic;
+
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * Backend de armazenamento de senhas usado pelo SystemKeychain.
+ *
+ * O backend é escolhido uma única vez (KeychainBackends.detect()) e pode ser trocado com a
+ * propriedade keychain.backend ou com SystemKeychain.setBackend(), por exemplo para usar o
+ * InMemoryBackend em testes e benchmarks.
+ */
+public interface KeychainBackend {
+
+    /**
+     * Nome curto do backend, o mesmo aceito pela propriedade keychain.backend.
+     */
+    String getName();
+
+    void savePassword(String service, String user, String password) throws KeychainException;
+
+    /**
+     * @throws KeychainException se a senha não existir ou não puder ser lida
+     */
+    String loadPassword(String service, String user) throws KeychainException;
+
+    /**
+     * Remove a senha, se existir.
+     *
+     * @return true se a senha existia (backends que não sabem distinguir retornam true)
+     */
+    boolean deletePassword(String service, String user) throws KeychainException;
+}
@@ -0,0 +1,70 @@
+package com.example.keychainapp.logic;
+
+import java.util.logging.Logger;
+
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * Escolha do backend de senhas.
+ *
+ * A detecção (sistema operacional, secret-tool/kwalletcli no PATH) é feita uma única vez pelo
+ * SystemKeychain, e não a cada operação. A propriedade keychain.backend força um backend pelo
+ * nome: mac, secret-tool, kwallet, wincred, file ou memory. O backend file (arquivo cifrado) só
+ * é usado quando escolhido assim.
+ */
+final class KeychainBackends {
+    private static final Logger LOGGER = Logger.getLogger(KeychainBackends.class.getName());
+
+    private KeychainBackends() { /* utilitário */ }
+
+    static KeychainBackend detect() throws KeychainException {
+        String forced = System.getProperty("keychain.backend");
+        if (forced != null && !forced.trim().isEmpty()) {
+            KeychainBackend backend = byName(forced.trim());
+            LOGGER.info("[Keychain] Backend definido por keychain.backend: " + backend.getName());
+            return backend;
+        }
+        String os = System.getProperty("os.name").toLowerCase();
+        KeychainBackend backend;
+        if (os.contains("mac")) {
+            backend = new MacSecurityBackend();
+        } else if (os.contains("win")) {
+            backend = new WinCredBackend();
+        } else if (os.contains("linux")) {
+            SecretServiceSession session = SecretServiceSession.shared();
+            if (session != null || SystemKeychain.isCommandAvailable(SecretToolBackend.SECRET_TOOL)) {
+                backend = new SecretToolBackend(session);
+            } else if (SystemKeychain.isCommandAvailable(KWalletBackend.KWALLETCLI)) {
+                backend = new KWalletBackend();
+            } else {
+                // O arquivo cifrado não é escolhido sozinho: sem frase secreta a chave fica em um
+                // arquivo ao lado, e isso tem que ser uma decisão de quem configura o servidor
+                throw new KeychainException("Nenhum keychain suportado encontrado no Linux (secret-tool ou kwalletcli). "
+                    + "Em servidores sem sessão gráfica, use -Dkeychain.backend=" + EncryptedFileBackend.NAME + ".");
+            }
+        } else {
+            throw new KeychainException("Sistema operacional não suportado para keychain: " + os);
+        }
+        LOGGER.info("[Keychain] Backend detectado: " + backend.getName());
+        return backend;
+    }
+
+    static KeychainBackend byName(String name) throws KeychainException {
+        switch (name) {
+            case MacSecurityBackend.NAME:
+                return new MacSecurityBackend();
+            case SecretToolBackend.NAME:
+                return new SecretToolBackend(SecretServiceSession.shared());
+            case KWalletBackend.NAME:
+                return new KWalletBackend();
+            case WinCredBackend.NAME:
+                return new WinCredBackend();
+            case EncryptedFileBackend.NAME:
+                return EncryptedFileBackend.fromSystemProperties();
+            case InMemoryBackend.NAME:
+                return new InMemoryBackend();
+            default:
+                throw new KeychainException("Backend de keychain desconhecido: " + name);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.keychainapp.logic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * Cache de leitura na frente de outro KeychainBackend.
+ *
+ * Cada leitura do keychain do SO custa um processo ou uma chamada JNA; aqui as senhas lidas
+ * ficam em memória por no máximo ttlMs, limitadas a maxEntries (a menos usada sai primeiro).
+ * savePassword invalida a entrada. Leituras simultâneas da mesma chave ausente fazem uma única
+ * chamada ao backend, desde que nenhuma gravação tenha terminado entre o início de uma e o da
+ * outra: uma leitura nunca devolve um valor lido antes da última gravação que ela já viu.
+ *
+ * Os valores ficam em byte[] (UTF-8) zerados ao expirar, ao sair do cache e em invalidateAll().
+ * Ativado com keychain.cache.enabled=true.
+ */
+public class KeychainCache implements KeychainBackend {
+    private static final Logger LOGGER = Logger.getLogger(KeychainCache.class.getName());
+
+    private final KeychainBackend delegate;
+    private final long ttlMs;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, Load> loading = new ConcurrentHashMap<>();
+    // Incrementado a cada invalidação: uma leitura iniciada antes não pode repor o valor antigo
+    private long version;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public KeychainCache(KeychainBackend delegate, long ttlMs, int maxEntries) {
+        this.delegate = delegate;
+        this.ttlMs = ttlMs;
+        this.maxEntries = maxEntries;
+    }
+
+    static KeychainBackend wrapIfEnabled(KeychainBackend backend) {
+        if (!Boolean.getBoolean("keychain.cache.enabled")) {
+            return backend;
+        }
+        long ttl = Long.getLong("keychain.cache.ttlMs", 60000L);
+        int max = Integer.getInteger("keychain.cache.maxEntries", 64);
+        LOGGER.info("[KeychainCache] Cache de senhas ativo (ttl=" + ttl + " ms, máximo=" + max + ")");
+        return new KeychainCache(backend, ttl, max);
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    KeychainBackend getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void savePassword(String service, String user, String password) throws KeychainException {
+        String key = cacheKey(service, user);
+        try {
+            delegate.savePassword(service, user, password);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public boolean deletePassword(String service, String user) throws KeychainException {
+        String key = cacheKey(service, user);
+        try {
+            return delegate.deletePassword(service, user);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public String loadPassword(final String service, final String user) throws KeychainException {
+        final String key = cacheKey(service, user);
+        final long startVersion;
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e != null) {
+                if (System.currentTimeMillis() - e.loadedAt < ttlMs) {
+                    hits.incrementAndGet();
+                    return new String(e.value, StandardCharsets.UTF_8);
+                }
+                entries.remove(key);
+                e.wipe();
+            }
+            startVersion = version;
+        }
+        misses.incrementAndGet();
+        Load task = new Load(new Callable<String>() {
+            @Override
+            public String call() throws KeychainException {
+                loads.incrementAndGet();
+                String value = delegate.loadPassword(service, user);
+                store(key, value, startVersion);
+                return value;
+            }
+        }, startVersion);
+        Load running;
+        for (;;) {
+            running = loading.putIfAbsent(key, task);
+            if (running == null) {
+                break;
+            }
+            // só serve uma leitura que começou depois da última gravação vista por esta
+            if (running.version >= startVersion) {
+                break;
+            }
+            if (loading.replace(key, running, task)) {
+                running = null;
+                break;
+            }
+        }
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KeychainException("Interrompido esperando leitura do keychain", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof KeychainException) {
+                throw (KeychainException) cause;
+            }
+            throw new KeychainException("Falha ao ler senha do keychain", cause);
+        }
+    }
+
+    /**
+     * Remove e zera todas as entradas.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            version++;
+            for (Entry e : entries.values()) {
+                e.wipe();
+            }
+            entries.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Chamadas feitas ao backend; menor que getMisses() quando leituras simultâneas foram unidas.
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "KeychainCache[" + delegate.getName() + ", hits=" + hits.get() + ", misses=" + misses.get()
+            + ", loads=" + loads.get() + ", evictions=" + evictions.get() + "]";
+    }
+
+    private void store(String key, String value, long startVersion) {
+        synchronized (entries) {
+            if (version != startVersion || maxEntries <= 0) {
+                return;
+            }
+            Entry old = entries.put(key, new Entry(value.getBytes(StandardCharsets.UTF_8), System.currentTimeMillis()));
+            if (old != null) {
+                old.wipe();
+            }
+            Iterator<Entry> it = entries.values().iterator();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                it.next().wipe();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void invalidate(String key) {
+        synchronized (entries) {
+            version++;
+            Entry e = entries.remove(key);
+            if (e != null) {
+                e.wipe();
+            }
+        }
+    }
+
+    private static String cacheKey(String service, String user) {
+        return service + '\u0000' + user;
+    }
+
+    /**
+     * Leitura em andamento no backend, com a versão do cache quando ela começou.
+     */
+    private static final class Load extends FutureTask<String> {
+        final long version;
+
+        Load(Callable<String> callable, long version) {
+            super(callable);
+            this.version = version;
+        }
+    }
+
+    private static final class Entry {
+        final byte[] value;
+        final long loadedAt;
+
+        Entry(byte[] value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+
+        void wipe() {
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+}
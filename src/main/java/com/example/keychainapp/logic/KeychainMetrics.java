@@ -0,0 +1,194 @@
+package com.example.keychainapp.logic;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Contadores, taxa de erros e histogramas de latência (p50/p99/p999) por operação e backend do
+ * SystemKeychain e do KeychainService.
+ *
+ * As medições ficam disponíveis por snapshot(), pelo MXBean com.example.keychainapp:type=KeychainMetrics
+ * (keychain.metrics.jmx, padrão true) e pelos MetricsSink registrados. Com
+ * keychain.metrics.enabled=false start() e record() não fazem nada.
+ *
+ * Uso nos métodos instrumentados:
+ * <pre>
+ * long start = KeychainMetrics.start();
+ * boolean ok = false;
+ * try {
+ *     ...
+ *     ok = true;
+ * } finally {
+ *     KeychainMetrics.record("save", backend, start, ok);
+ * }
+ * </pre>
+ */
+public final class KeychainMetrics {
+    private static final Logger LOGGER = Logger.getLogger(KeychainMetrics.class.getName());
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("keychain.metrics.enabled", "true"));
+    static final String OBJECT_NAME = "com.example.keychainapp:type=KeychainMetrics";
+
+    // operação -> backend -> estatísticas; dois níveis para não concatenar strings a cada chamada
+    private static final ConcurrentMap<String, ConcurrentMap<String, Stats>> STATS = new ConcurrentHashMap<>();
+    private static final List<MetricsSink> SINKS = new CopyOnWriteArrayList<>();
+
+    static {
+        if (ENABLED) {
+            String sinkClass = System.getProperty("keychain.metrics.sink");
+            if (sinkClass != null && !sinkClass.isEmpty()) {
+                try {
+                    SINKS.add((MetricsSink) Class.forName(sinkClass).getDeclaredConstructor().newInstance());
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "[KeychainMetrics] Não foi possível criar o sink " + sinkClass, e);
+                }
+            }
+            if (Boolean.parseBoolean(System.getProperty("keychain.metrics.jmx", "true"))) {
+                registerMBean();
+            }
+        }
+    }
+
+    private KeychainMetrics() { /* utilitário */ }
+
+    /**
+     * @return instante de início para record(), ou 0 com as métricas desligadas
+     */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    static void record(String operation, String backend, long start, boolean success) {
+        if (!ENABLED) {
+            return;
+        }
+        long duration = System.nanoTime() - start;
+        stats(operation, backend).record(duration, success);
+        for (MetricsSink sink : SINKS) {
+            try {
+                sink.record(operation, backend, duration, success);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "[KeychainMetrics] Falha no sink " + sink, e);
+            }
+        }
+    }
+
+    public static void addSink(MetricsSink sink) {
+        SINKS.add(sink);
+    }
+
+    public static void removeSink(MetricsSink sink) {
+        SINKS.remove(sink);
+    }
+
+    /**
+     * Métricas atuais, uma entrada por par operação/backend.
+     */
+    public static List<OperationSnapshot> snapshot() {
+        List<OperationSnapshot> result = new ArrayList<>();
+        for (Map.Entry<String, ConcurrentMap<String, Stats>> op : STATS.entrySet()) {
+            for (Map.Entry<String, Stats> b : op.getValue().entrySet()) {
+                Stats s = b.getValue();
+                result.add(new OperationSnapshot(op.getKey(), b.getKey(), s.count.sum(), s.errors.sum(), s.latency));
+            }
+        }
+        return result;
+    }
+
+    public static void reset() {
+        for (ConcurrentMap<String, Stats> byBackend : STATS.values()) {
+            for (Stats s : byBackend.values()) {
+                s.count.reset();
+                s.errors.reset();
+                s.latency.reset();
+            }
+        }
+    }
+
+    private static Stats stats(String operation, String backend) {
+        ConcurrentMap<String, Stats> byBackend = STATS.get(operation);
+        if (byBackend == null) {
+            ConcurrentMap<String, Stats> created = new ConcurrentHashMap<>();
+            byBackend = STATS.putIfAbsent(operation, created);
+            if (byBackend == null) {
+                byBackend = created;
+            }
+        }
+        Stats s = byBackend.get(backend);
+        if (s == null) {
+            Stats created = new Stats();
+            s = byBackend.putIfAbsent(backend, created);
+            if (s == null) {
+                s = created;
+            }
+        }
+        return s;
+    }
+
+    private static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MBean(), name);
+            }
+        } catch (JMException e) {
+            LOGGER.warning("[KeychainMetrics] Não foi possível registrar o MBean " + OBJECT_NAME + ": " + e.getMessage());
+        }
+    }
+
+    private static final class Stats {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        void record(long duration, boolean success) {
+            count.increment();
+            if (!success) {
+                errors.increment();
+            }
+            latency.record(duration);
+        }
+    }
+
+    private static final class MBean implements KeychainMetricsMXBean {
+        @Override
+        public List<OperationSnapshot> getOperations() {
+            return snapshot();
+        }
+
+        @Override
+        public long getTotalCount() {
+            long total = 0;
+            for (OperationSnapshot s : snapshot()) {
+                total += s.getCount();
+            }
+            return total;
+        }
+
+        @Override
+        public long getTotalErrors() {
+            long total = 0;
+            for (OperationSnapshot s : snapshot()) {
+                total += s.getErrors();
+            }
+            return total;
+        }
+
+        @Override
+        public void reset() {
+            KeychainMetrics.reset();
+        }
+    }
+}
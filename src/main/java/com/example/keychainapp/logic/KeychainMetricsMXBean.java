@@ -0,0 +1,23 @@
+package com.example.keychainapp.logic;
+
+import java.util.List;
+
+/**
+ * Métricas expostas via JMX em com.example.keychainapp:type=KeychainMetrics.
+ */
+public interface KeychainMetricsMXBean {
+
+    /**
+     * Uma linha por par operação/backend já executado.
+     */
+    List<OperationSnapshot> getOperations();
+
+    long getTotalCount();
+
+    long getTotalErrors();
+
+    /**
+     * Zera contadores e histogramas.
+     */
+    void reset();
+}
@@ -2,19 +2,55 @@ package com.example.keychainapp.logic;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
 import com.example.keychainapp.logic.CryptoUtils;
 import com.example.keychainapp.logic.SystemKeychain.KeychainException;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Security;
 import java.util.Base64;
 import java.security.SecureRandom;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -26,26 +62,229 @@ import java.util.logging.Logger;
  * - Recupera a senha do keychain nas execuções seguintes.
  * - Usa a senha para proteger o KeyStore, que armazena a chave AES usada para criptografar os valores.
  * - Todos os passos são logados para facilitar auditoria e troubleshooting.
+ * - A chave AES é carregada do KeyStore uma única vez e mantida em cache; o cache é
+ *   recarregado quando o arquivo do KeyStore muda, expira após um tempo ocioso opcional
+ *   (propriedade keychain.key.idleTimeoutMs) e é apagado da memória em close().
+ * - Os valores cifrados ficam em um cofre de arquivo único (VaultStore, padrão) ou no formato
+ *   legado de um arquivo "chave.txt" por entrada (keychain.storage=files).
+ * - Várias JVMs podem compartilhar o mesmo diretório: a criação do KeyStore e as gravações no
+ *   cofre usam locks de arquivo, e um WatchService avisa quando outro processo altera o cofre
+ *   ou o KeyStore (keychain.watch).
+ * - Com keychain.init=background o construtor retorna na hora e a inicialização (senha do
+ *   keychain, KeyStore, cofre, chave AES) roda em segundo plano; a primeira operação espera o
+ *   que faltar. Falhas de inicialização são relançadas nas operações, não apenas logadas.
+ * - Cada operação registra contagem, erros e latência em KeychainMetrics (JMX e MetricsSink).
+ * - rotateKey() cria uma nova versão da chave AES no KeyStore; cada valor gravado leva a versão
+ *   da chave que o cifrou, então leituras aceitam qualquer versão enquanto KeyRotation recifra os
+ *   valores antigos em segundo plano (keychain.rotation.*).
+ * - keys(prefixo) e scan(prefixo, tamanho da página, cursor) listam chaves em ordem, por páginas,
+ *   a partir de um índice ordenado do cofre, sem ler nem decifrar valores.
+ * - exportSnapshot() grava KeyStore, valores e blobs, ainda cifrados, em um único arquivo
+ *   consistente sem parar as gravações (completo ou incremental desde um snapshot anterior);
+ *   importSnapshot() confere a cadeia em paralelo antes de gravar (KeychainSnapshot).
+ * - No formato legado, um filtro de Bloom das chaves (FilteredFileStore) responde às leituras de
+ *   chaves inexistentes sem abrir arquivos; no cofre o índice em memória já faz isso.
  */
-public class KeychainService {
+public class KeychainService implements Closeable {
     private static final String KEYSTORE_TYPE = "JCEKS";
-    private static final String KEYSTORE_PATH = System.getProperty("user.home") + "/keychain.jks";
-    private static final String KEY_ALIAS = "keychain_key";
+    private static final String KEYSTORE_FILE = "keychain.jks";
+    private static final String STORAGE = System.getProperty("keychain.storage", "vault");
     private static final String KEYCHAIN_SERVICE = "JavaKeychainApp";
     private static final String KEYCHAIN_KEY = "keystore-password";
-    private String keystorePassword;
+    // Abaixo deste número de chaves por thread a leitura em lote não compensa ser paralela
+    private static final int BATCH_SLICE_MIN = 16;
+    // Tamanho das páginas buscadas pelo iterador de keys(prefixo)
+    private static final int KEYS_PAGE_SIZE = 1000;
+    private static final long KEY_IDLE_TIMEOUT_MS = Long.getLong("keychain.key.idleTimeoutMs", 0L);
+    // background: o construtor retorna na hora e a inicialização roda em uma thread separada
+    private static final boolean BACKGROUND_INIT = "background".equals(System.getProperty("keychain.init", "eager"));
+    // Valores por streaming: AES/CTR não tem padding, então cada bloco cifrado tem o tamanho do bloco lido
+    private static final String BLOB_CIPHER = "AES/CTR/NoPadding";
+    private static final int BLOB_MAGIC = 0x4B424C42; // "KBLB"
+    // Versão 1: sem versão da chave (chave 0); versão 2: com a versão da chave AES após o byte de versão;
+    // versão 3: como a 2, com um HMAC-SHA256 do cabeçalho e do conteúdo cifrado no fim do arquivo;
+    // versão 4: como a 3, com o nome do arquivo do blob também coberto pelo HMAC
+    private static final byte BLOB_VERSION_LEGACY = 1;
+    private static final byte BLOB_VERSION_UNAUTHENTICATED = 2;
+    private static final byte BLOB_VERSION_UNBOUND = 3;
+    private static final byte BLOB_VERSION = 4;
+    // Aceita blobs das versões 1 a 3: sem HMAC, ou com um HMAC que não impede trocar o blob de chave
+    private static final boolean LEGACY_BLOBS = Boolean.getBoolean("keychain.blob.legacyFormats");
+    private static final String BLOB_MAC = "HmacSHA256";
+    private static final int BLOB_MAC_BYTES = 32;
+    // A chave do HMAC é derivada da chave AES, para não usar a mesma chave nos dois algoritmos
+    private static final byte[] BLOB_MAC_LABEL = "keychain-blob-mac".getBytes(StandardCharsets.US_ASCII);
+    private static final int BLOB_IV_BYTES = 16;
+    private static final int BLOB_HEADER_BYTES = 9 + BLOB_IV_BYTES;
+    private static final int BLOB_CHUNK_BYTES = Integer.getInteger("keychain.blob.chunkBytes", 64 * 1024);
+    // Retoma na abertura uma rotação de chave interrompida (KeyStore com mais de uma versão da chave)
+    private static final boolean RESUME_ROTATION = Boolean.parseBoolean(System.getProperty("keychain.rotation.resume", "true"));
+    private final String keystorePath;
+    private final File baseDir;
+    private char[] keystorePassword;
+    private ValueStore store;
+    private final BlobStore blobs;
     private static final Logger LOGGER = Logger.getLogger(KeychainService.class.getName());
 
+    private final Object keyLock = new Object();
+    private volatile CachedKey cachedKey;
+    private volatile long lastKeyAccess;
+    private volatile boolean closed;
+    private KeychainWatcher watcher;
+    // Marcado pelo watcher quando outro processo altera o KeyStore
+    private volatile boolean keystoreChanged;
+    private volatile boolean trustWatcher;
+    private final FutureTask<Void> initialization;
+    private volatile boolean initialized;
+    private final Map<String, Long> startupTimings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    private final Object rotationLock = new Object();
+    private KeyRotation rotation;
+
 
     public KeychainService() {
+        this(new File(System.getProperty("keychain.dir", System.getProperty("user.home"))));
+    }
+
+    /**
+     * @param baseDir diretório onde ficam o KeyStore e o cofre de valores
+     */
+    public KeychainService(File baseDir) {
+        this.baseDir = baseDir;
+        this.keystorePath = new File(baseDir, KEYSTORE_FILE).getPath();
+        this.blobs = new BlobStore(new File(System.getProperty("keychain.blobs.dir",
+            new File(baseDir, BlobStore.DIR_NAME).getPath())));
+        this.initialization = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                initialize();
+                return null;
+            }
+        });
+        if (BACKGROUND_INIT) {
+            Thread t = new Thread(initialization, "keychain-init");
+            t.setDaemon(true);
+            t.start();
+        } else {
+            initialization.run();
+        }
+    }
+
+    /**
+     * Busca a senha do KeyStore, cria o KeyStore se preciso, abre o cofre, inicia o watcher e
+     * já deixa a chave AES em cache. Uma falha não é engolida: ela é relançada no primeiro uso.
+     */
+    private void initialize() throws Exception {
+        long start = KeychainMetrics.start();
+        long begin = System.nanoTime();
+        boolean ok = false;
         try {
             LOGGER.info("[KeychainService] Iniciando serviço de keychain seguro...");
-            keystorePassword = loadOrGenerateKeystorePassword();
+            long t = begin;
+            keystorePassword = loadOrGenerateKeystorePassword().toCharArray();
+            t = phase("keychainPassword", t);
             initializeKeyStore();
-            LOGGER.info("[KeychainService] KeyStore inicializado e pronto para uso.");
+            t = phase("keyStore", t);
+            store = openStore();
+            t = phase("store", t);
+            startWatcher();
+            t = phase("watcher", t);
+            KeyRing ring = cachedKeyRing();
+            phase("aesKey", t);
+            ok = true;
+            LOGGER.info(String.format("[KeychainService] KeyStore inicializado e pronto para uso em %.1f ms %s",
+                (System.nanoTime() - begin) / 1e6, formatTimings()));
+            if (RESUME_ROTATION && ring.versions().size() > 1) {
+                LOGGER.info("[KeychainService] KeyStore com versões antigas da chave AES " + ring.versions()
+                    + ". Retomando a rotação para a versão " + ring.currentVersion() + ".");
+                synchronized (rotationLock) {
+                    rotation = startRotation(ring.currentVersion());
+                }
+            }
         } catch (Exception e) {
-            LOGGER.severe("[KeychainService] Erro ao inicializar o serviço: " + e.getMessage());
-            e.printStackTrace();
+            if (closed) {
+                LOGGER.fine("[KeychainService] Inicialização interrompida por close(): " + e.getMessage());
+            } else {
+                LOGGER.log(Level.SEVERE, "[KeychainService] Erro ao inicializar o serviço", e);
+            }
+            throw e;
+        } finally {
+            KeychainMetrics.record("init", STORAGE, start, ok);
+            synchronized (keyLock) {
+                // close() chamado durante a inicialização em segundo plano
+                if (closed) {
+                    releaseResources();
+                }
+            }
+        }
+    }
+
+    private long phase(String name, long startNanos) {
+        long now = System.nanoTime();
+        startupTimings.put(name, TimeUnit.NANOSECONDS.toMicros(now - startNanos));
+        return now;
+    }
+
+    private String formatTimings() {
+        StringBuilder sb = new StringBuilder("(");
+        synchronized (startupTimings) {
+            for (Map.Entry<String, Long> e : startupTimings.entrySet()) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(e.getKey()).append('=').append(String.format("%.1f ms", e.getValue() / 1000.0));
+            }
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Duração de cada fase da inicialização já concluída, em microssegundos, na ordem em que
+     * rodaram: keychainPassword, keyStore, store, watcher, aesKey.
+     */
+    public Map<String, Long> getStartupTimings() {
+        synchronized (startupTimings) {
+            return new LinkedHashMap<>(startupTimings);
+        }
+    }
+
+    /**
+     * true quando a inicialização terminou, com sucesso ou não. Não bloqueia.
+     */
+    public boolean isInitialized() {
+        return initialization.isDone();
+    }
+
+    /**
+     * Espera a inicialização (keychain.init=background) e relança a falha, se houve.
+     */
+    public void awaitInitialization() throws Exception {
+        try {
+            initialization.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Chamado no início de cada operação: espera a inicialização se ela ainda estiver rodando
+     * e transforma uma falha de inicialização em exceção para quem chamou.
+     */
+    private void ensureInitialized() {
+        if (initialized) {
+            return;
+        }
+        if (closed) {
+            throw new IllegalStateException("KeychainService já foi fechado");
+        }
+        try {
+            initialization.get();
+            initialized = true;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("KeychainService não foi inicializado: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrompido esperando a inicialização do KeychainService", e);
         }
     }
 
@@ -57,7 +296,17 @@ public class KeychainService {
 {
         LOGGER.info("[KeychainService] Buscando senha do KeyStore no keychain do SO...");
         
-        String encryptedPwd = SystemKeychain.loadPassword(KEYCHAIN_SERVICE, KEYCHAIN_KEY);
+        String encryptedPwd;
+        try {
+            encryptedPwd = SystemKeychain.loadPassword(KEYCHAIN_SERVICE, KEYCHAIN_KEY);
+        } catch (KeychainException e) {
+            // Os backends lançam exceção quando a entrada não existe. Sem KeyStore é a primeira
+            // execução; com KeyStore, gerar outra senha o tornaria ilegível.
+            if (Files.exists(Paths.get(keystorePath))) {
+                throw e;
+            }
+            encryptedPwd = null;
+        }
         if (encryptedPwd != null && !encryptedPwd.isEmpty()) {
             try {
                 String pwd = CryptoUtils.decrypt(encryptedPwd);
@@ -72,13 +321,18 @@ public class KeychainService {
         byte[] bytes = new byte[32];
         random.nextBytes(bytes);
         String generated = Base64.getEncoder().encodeToString(bytes);
+        String encrypted;
         try {
-            String encrypted = CryptoUtils.encrypt(generated);
-            SystemKeychain.savePassword(KEYCHAIN_SERVICE, KEYCHAIN_KEY, encrypted);
-            LOGGER.info("[KeychainService] Nova senha salva no keychain do SO com sucesso (criptografada).");
+            encrypted = CryptoUtils.encrypt(generated);
         } catch (Exception e) {
-            LOGGER.severe("[KeychainService] Falha ao criptografar a senha do KeyStore: " + e.getMessage());
+            throw new KeychainException("Falha ao criptografar a nova senha do KeyStore: " + e.getMessage(), e);
         }
+        // O KeyStore é criado com esta senha logo em seguida: se ela não chegar ao keychain do SO,
+        // o keychain.jks fica ilegível. Com gravação adiada, o flush garante a gravação antes de
+        // continuar, e uma falha interrompe a inicialização em vez de ficar só no log.
+        SystemKeychain.savePassword(KEYCHAIN_SERVICE, KEYCHAIN_KEY, encrypted);
+        SystemKeychain.flush();
+        LOGGER.info("[KeychainService] Nova senha salva no keychain do SO com sucesso (criptografada).");
         return generated;
     }
 
@@ -87,51 +341,1451 @@ public class KeychainService {
      * Loga o processo para auditoria.
      */
     private void initializeKeyStore() throws Exception {
-        if (!Files.exists(Paths.get(KEYSTORE_PATH))) {
+        // Duas JVMs iniciando juntas não podem criar chaves AES diferentes
+        InterProcessLock lock = InterProcessLock.forFile(new File(keystorePath + ".lock"), true);
+        lock.lock();
+        try {
+            createKeyStoreIfMissing();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void createKeyStoreIfMissing() throws Exception {
+        if (!Files.exists(Paths.get(keystorePath))) {
             LOGGER.info("[KeychainService] KeyStore não encontrado. Criando novo KeyStore protegido por senha do keychain...");
             KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
             keyStore.load(null, null);
-            KeyGenerator keyGen = KeyGenerator.getInstance("AES");
-            keyGen.init(256);
-            SecretKey secretKey = keyGen.generateKey();
-            keyStore.setKeyEntry(KEY_ALIAS, secretKey, keystorePassword.toCharArray(), null);
-            try (FileOutputStream fos = new FileOutputStream(KEYSTORE_PATH)) {
-                keyStore.store(fos, keystorePassword.toCharArray());
-            }
-            LOGGER.info("[KeychainService] Novo KeyStore criado e salvo em " + KEYSTORE_PATH);
+            keyStore.setKeyEntry(KeyRing.aliasFor(0), generateAesKey(), keystorePassword, null);
+            storeKeyStore(keyStore);
+            LOGGER.info("[KeychainService] Novo KeyStore criado e salvo em " + keystorePath);
         } else {
-            LOGGER.info("[KeychainService] KeyStore já existe em " + KEYSTORE_PATH);
+            LOGGER.info("[KeychainService] KeyStore já existe em " + keystorePath);
+        }
+    }
+
+    private static SecretKey generateAesKey() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        return keyGen.generateKey();
+    }
+
+    private KeyStore readKeyStore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+        try (FileInputStream fis = new FileInputStream(keystorePath)) {
+            keyStore.load(fis, keystorePassword);
+        }
+        return keyStore;
+    }
+
+    /**
+     * Grava o KeyStore em um temporário e o troca pelo definitivo atomicamente. Chamado com o lock do KeyStore.
+     */
+    private void storeKeyStore(KeyStore keyStore) throws Exception {
+        File tmp = new File(keystorePath + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            keyStore.store(fos, keystorePassword);
+        }
+        Files.move(tmp.toPath(), Paths.get(keystorePath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Observa o diretório para saber quando outro processo altera o cofre ou o KeyStore
+     * (keychain.watch, padrão true). Com um WatchService nativo a chave AES em cache deixa de
+     * conferir a data do arquivo a cada operação e passa a ser recarregada só no aviso.
+     */
+    private void startWatcher() {
+        if (!Boolean.parseBoolean(System.getProperty("keychain.watch", "true"))) {
+            return;
+        }
+        Map<String, Runnable> handlers = new HashMap<>();
+        handlers.put(KEYSTORE_FILE, new Runnable() {
+            @Override
+            public void run() {
+                keystoreChanged = true;
+            }
+        });
+        if (store instanceof VaultStore) {
+            final VaultStore vault = (VaultStore) store;
+            handlers.put(VaultStore.FILE_NAME, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        vault.refresh();
+                    } catch (IOException e) {
+                        LOGGER.warning("[KeychainService] Falha ao atualizar o cofre alterado por outro processo: " + e.getMessage());
+                    }
+                }
+            });
+        }
+        try {
+            watcher = new KeychainWatcher(baseDir.toPath(), handlers);
+            trustWatcher = watcher.isNative();
+        } catch (IOException e) {
+            LOGGER.warning("[KeychainService] Não foi possível observar " + baseDir + ": " + e.getMessage());
+        }
+    }
+
+    private ValueStore openStore() throws IOException {
+        if ("files".equals(STORAGE)) {
+            File dir = new File(System.getProperty("keychain.files.dir", "."));
+            LOGGER.info("[KeychainService] Usando armazenamento legado (um arquivo .txt por chave) em " + dir.getAbsolutePath());
+            TextFileStore files = new TextFileStore(dir);
+            if (!Boolean.parseBoolean(System.getProperty("keychain.filter.enabled", "true"))) {
+                return files;
+            }
+            return new FilteredFileStore(files, dir, Boolean.parseBoolean(System.getProperty("keychain.watch", "true")));
+        }
+        File vaultFile = new File(baseDir, VaultStore.FILE_NAME);
+        boolean created = !vaultFile.exists();
+        VaultStore vault = new VaultStore(vaultFile);
+        String importDir = System.getProperty("keychain.vault.importDir");
+        if (importDir != null && !importDir.isEmpty()) {
+            vault.importTextFiles(new File(importDir), false);
+        } else if (created && Boolean.parseBoolean(System.getProperty("keychain.vault.importLegacy", "true"))) {
+            // Primeira abertura do cofre: sem isso, valores gravados pelas versões anteriores (um .txt
+            // por chave) passariam a ser lidos como inexistentes. Os .txt ficam onde estão.
+            File legacyDir = new File(System.getProperty("keychain.files.dir", "."));
+            if (vault.importTextFiles(legacyDir, false) > 0) {
+                LOGGER.info("[KeychainService] Valores do formato legado em " + legacyDir.getAbsolutePath()
+                    + " importados para o cofre novo");
+            }
         }
+        return vault;
     }
 
     public void save(String key, String value) throws Exception {
-        SecretKey secretKey = getSecretKey();
-        Cipher cipher = Cipher.getInstance("AES");
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-        byte[] encryptedValue = cipher.doFinal(value.getBytes());
-        String encodedValue = Base64.getEncoder().encodeToString(encryptedValue);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(key + ".txt"))) {
-            writer.write(encodedValue);
+        save(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void save(String key, byte[] value) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("KeychainService já foi fechado");
+        }
+        ensureInitialized();
+        long start = KeychainMetrics.start();
+        boolean ok = false;
+        try {
+            // o anel antes de store: na inicialização em segundo plano store só existe depois dela
+            KeyRing ring = acquireKeyRing();
+            try {
+                store.put(key, ValueEnvelope.seal(ring, key, value));
+            } finally {
+                ring.release();
+            }
+            ok = true;
+        } finally {
+            KeychainMetrics.record("save", STORAGE, start, ok);
         }
     }
 
+    /**
+     * @return o valor decifrado, ou null se a chave não existir
+     */
     public String retrieve(String key) throws Exception {
-        SecretKey secretKey = getSecretKey();
-        Cipher cipher = Cipher.getInstance("AES");
-        cipher.init(Cipher.DECRYPT_MODE, secretKey);
-        String encodedValue;
-        try (BufferedReader reader = new BufferedReader(new FileReader(key + ".txt"))) {
-            encodedValue = reader.readLine();
+        byte[] value = retrieveBytes(key);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return o valor decifrado, ou null se a chave não existir
+     */
+    public byte[] retrieveBytes(String key) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("KeychainService já foi fechado");
+        }
+        ensureInitialized();
+        long start = KeychainMetrics.start();
+        boolean ok = false;
+        try {
+            // a chave AES só é consultada se o valor existe: uma chave ausente não recarrega o KeyStore
+            byte[] encryptedValue = store.get(key);
+            byte[] value = null;
+            if (encryptedValue != null) {
+                KeyRing ring = acquireKeyRing();
+                try {
+                    value = decrypt(ring, key, encryptedValue);
+                } finally {
+                    ring.release();
+                }
+            }
+            ok = true;
+            return value;
+        } finally {
+            KeychainMetrics.record("retrieve", STORAGE, start, ok);
+        }
+    }
+
+    public CompletableFuture<Void> saveAsync(final String key, final String value) {
+        return saveAsync(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Versão assíncrona de save, executada no pool de KeychainAsync (ver keychain.async.*).
+     */
+    public CompletableFuture<Void> saveAsync(final String key, final byte[] value) {
+        return KeychainAsync.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                save(key, value);
+                return null;
+            }
+        }, "save");
+    }
+
+    /**
+     * @return futuro com o valor decifrado, ou null se a chave não existir
+     */
+    public CompletableFuture<String> retrieveAsync(final String key) {
+        return KeychainAsync.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return retrieve(key);
+            }
+        }, "retrieve");
+    }
+
+    /**
+     * @return futuro com o valor decifrado, ou null se a chave não existir
+     */
+    public CompletableFuture<byte[]> retrieveBytesAsync(final String key) {
+        return KeychainAsync.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return retrieveBytes(key);
+            }
+        }, "retrieveBytes");
+    }
+
+    public CompletableFuture<Boolean> deleteAsync(final String key) {
+        return KeychainAsync.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return delete(key);
+            }
+        }, "delete");
+    }
+
+    /**
+     * Grava um valor grande (certificados, keytabs) lendo e cifrando em blocos de tamanho fixo,
+     * sem carregar o valor inteiro na memória. O resultado é gravado em binário no diretório
+     * keychain.blobs, separado do cofre, e só substitui o valor anterior quando está completo.
+     *
+     * @return número de bytes lidos de in
+     */
+    public long save(String key, InputStream in) throws Exception {
+        return save(key, Channels.newChannel(in));
+    }
+
+    /**
+     * Como save(String, InputStream); com um FileChannel os blocos vão do arquivo para buffers
+     * diretos e de volta ao disco sem cópias em arrays intermediários.
+     */
+    public long save(String key, ReadableByteChannel in) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("KeychainService já foi fechado");
+        }
+        ensureInitialized();
+        long start = KeychainMetrics.start();
+        boolean ok = false;
+        try {
+            long total = saveBlob(key, in);
+            ok = true;
+            return total;
+        } finally {
+            KeychainMetrics.record("saveStream", STORAGE, start, ok);
+        }
+    }
+
+    private long saveBlob(String key, ReadableByteChannel in) throws Exception {
+        Path temp = blobs.createTemp();
+        long total = 0;
+        boolean committed = false;
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                BlobWriter writer;
+                // depois do init o Cipher e o Mac têm a própria cópia da chave: o anel só é reservado até ali
+                KeyRing ring = acquireKeyRing();
+                try {
+                    writer = startBlob(out, ring, blobs.pathFor(key).getFileName().toString());
+                } finally {
+                    ring.release();
+                }
+                ByteBuffer plain = ByteBuffer.allocateDirect(BLOB_CHUNK_BYTES);
+                ByteBuffer encrypted = ByteBuffer.allocateDirect(BLOB_CHUNK_BYTES);
+                while (in.read(plain) != -1) {
+                    plain.flip();
+                    total += plain.remaining();
+                    writer.write(plain, encrypted, false);
+                    plain.clear();
+                }
+                plain.flip();
+                writer.write(plain, encrypted, true);
+                out.force(true);
+            }
+            blobs.commit(temp, key);
+            committed = true;
+        } finally {
+            if (!committed) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Decifra em blocos o valor gravado com save(String, InputStream) e o escreve em out.
+     *
+     * O HMAC do blob é conferido antes de qualquer byte ser escrito em out, o que custa uma leitura
+     * a mais do arquivo. Ele cobre também o nome do arquivo, então o blob de outra chave renomeado
+     * para o desta não passa. Blobs gravados antes da versão 4 do formato são recusados, a não ser
+     * com -Dkeychain.blob.legacyFormats=true; uma rotação de chave com essa opção os regrava no
+     * formato atual.
+     *
+     * @throws IOException se o blob foi alterado, truncado ou trocado de chave (HMAC não confere),
+     *         ou se é de uma versão anterior do formato
+     * @return false se a chave não tiver valor gravado por streaming
+     */
+    public boolean retrieve(String key, OutputStream out) throws Exception {
+        return retrieve(key, Channels.newChannel(out));
+    }
+
+    public boolean retrieve(String key, WritableByteChannel out) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("KeychainService já foi fechado");
+        }
+        ensureInitialized();
+        long start = KeychainMetrics.start();
+        boolean ok = false;
+        try {
+            boolean found = retrieveBlob(key, out);
+            ok = true;
+            return found;
+        } finally {
+            KeychainMetrics.record("retrieveStream", STORAGE, start, ok);
+        }
+    }
+
+    private boolean retrieveBlob(String key, WritableByteChannel out) throws Exception {
+        Path path = blobs.pathFor(key);
+        try (FileChannel in = BlobStore.openRead(path)) {
+            if (in == null) {
+                return false;
+            }
+            BlobHeader header = readBlobHeader(in, key);
+            // antes da reserva: uma falha aqui não pode deixar o anel reservado
+            Cipher cipher = Cipher.getInstance(BLOB_CIPHER);
+            KeyRing ring = acquireKeyRing();
+            if (header.keyVersion > ring.currentVersion()) {
+                ring.release();
+                ring = acquireReloadedKeyRing();
+            }
+            Mac mac;
+            try {
+                SecretKey secretKey = ring.get(header.keyVersion);
+                cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(header.iv));
+                mac = blobMac(secretKey);
+            } finally {
+                ring.release();
+            }
+            long end = checkBlob(in, in.size(), header, mac, path.getFileName().toString(), key, LEGACY_BLOBS);
+            ByteBuffer encrypted = ByteBuffer.allocateDirect(BLOB_CHUNK_BYTES);
+            ByteBuffer plain = ByteBuffer.allocateDirect(BLOB_CHUNK_BYTES);
+            boolean eof = false;
+            while (!eof) {
+                encrypted.limit((int) Math.min(encrypted.capacity(), end - in.position()));
+                eof = encrypted.limit() == 0 || in.read(encrypted) == -1;
+                encrypted.flip();
+                if (eof) {
+                    cipher.doFinal(encrypted, plain);
+                } else {
+                    cipher.update(encrypted, plain);
+                }
+                plain.flip();
+                writeFully(out, plain);
+                plain.clear();
+                encrypted.clear();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Grava o cabeçalho de um blob novo, cifrado com a chave atual do anel.
+     *
+     * @param fileName nome do arquivo definitivo do blob, coberto pelo HMAC
+     * @return quem cifra o conteúdo e grava o HMAC no fim
+     */
+    private static BlobWriter startBlob(FileChannel out, KeyRing ring, String fileName) throws Exception {
+        byte[] iv = new byte[BLOB_IV_BYTES];
+        new SecureRandom().nextBytes(iv);
+        SecretKey secretKey = ring.current();
+        Cipher cipher = Cipher.getInstance(BLOB_CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv));
+        Mac mac = blobMac(secretKey);
+        mac.update(fileName.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer header = ByteBuffer.allocate(BLOB_HEADER_BYTES);
+        header.putInt(BLOB_MAGIC).put(BLOB_VERSION).putInt(ring.currentVersion()).put(iv).flip();
+        mac.update(header.duplicate());
+        writeFully(out, header);
+        return new BlobWriter(out, cipher, mac);
+    }
+
+    /**
+     * HMAC-SHA256 dos blobs, com a chave derivada da chave AES que cifra o conteúdo.
+     */
+    private static Mac blobMac(SecretKey secretKey) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(BLOB_MAC);
+        mac.init(secretKey);
+        byte[] derived = mac.doFinal(BLOB_MAC_LABEL);
+        WipeableSecretKey macKey = new WipeableSecretKey(derived, BLOB_MAC);
+        Arrays.fill(derived, (byte) 0);
+        try {
+            mac.init(macKey);
+        } finally {
+            macKey.destroy();
+        }
+        return mac;
+    }
+
+    /**
+     * Confere um blob conforme a versão do formato do cabeçalho já lido.
+     *
+     * @param fileName nome do arquivo do blob, coberto pelo HMAC da versão atual
+     * @param allowLegacy aceita as versões 1 e 2 sem conferência e a versão 3 com o HMAC sem o nome
+     * @return o fim do conteúdo cifrado
+     * @throws IOException se o HMAC não confere ou se o blob é de uma versão anterior não aceita
+     */
+    private static long checkBlob(FileChannel in, long end, BlobHeader header, Mac mac, String fileName, Object name,
+                                  boolean allowLegacy) throws IOException {
+        if (header.version == BLOB_VERSION) {
+            return checkBlobMac(in, end, header, mac, fileName, name);
+        }
+        if (!allowLegacy) {
+            throw new IOException("Blob " + name + " gravado por uma versão anterior do formato, sem HMAC que cubra o nome "
+                + "do arquivo; use -Dkeychain.blob.legacyFormats=true para lê-lo ou rotacione a chave com essa opção "
+                + "para regravá-lo");
+        }
+        if (header.version == BLOB_VERSION_UNBOUND) {
+            return checkBlobMac(in, end, header, mac, null, name);
+        }
+        return end;
+    }
+
+    /**
+     * Confere o HMAC de um blob lendo o conteúdo cifrado, sem mover a posição de in (que fica
+     * logo depois do cabeçalho).
+     *
+     * @param end fim do blob em in; o HMAC ocupa os últimos BLOB_MAC_BYTES
+     * @param fileName nome do arquivo coberto pelo HMAC, ou null na versão 3, que não o inclui
+     * @return o fim do conteúdo cifrado
+     * @throws IOException se o HMAC não confere (blob alterado, truncado ou de outra chave)
+     */
+    private static long checkBlobMac(FileChannel in, long end, BlobHeader header, Mac mac, String fileName, Object name)
+        throws IOException {
+        long contentEnd = end - BLOB_MAC_BYTES;
+        long position = in.position();
+        if (contentEnd < position) {
+            throw new IOException("Blob inválido: " + name);
+        }
+        if (fileName != null) {
+            mac.update(fileName.getBytes(StandardCharsets.UTF_8));
+        }
+        mac.update(header.bytes);
+        ByteBuffer buf = ByteBuffer.allocateDirect(BLOB_CHUNK_BYTES);
+        while (position < contentEnd) {
+            buf.limit((int) Math.min(buf.capacity(), contentEnd - position));
+            int n = in.read(buf, position);
+            if (n == -1) {
+                throw new IOException("Blob inválido: " + name);
+            }
+            buf.flip();
+            mac.update(buf);
+            buf.clear();
+            position += n;
+        }
+        ByteBuffer tag = ByteBuffer.allocate(BLOB_MAC_BYTES);
+        while (tag.hasRemaining() && in.read(tag, contentEnd + tag.position()) != -1) {
+            // lê o HMAC inteiro
+        }
+        if (tag.hasRemaining() || !MessageDigest.isEqual(mac.doFinal(), tag.array())) {
+            throw new IOException("Blob alterado ou truncado (HMAC não confere): " + name);
+        }
+        return contentEnd;
+    }
+
+    private static BlobHeader readBlobHeader(FileChannel in, Object name) throws IOException {
+        long start = in.position();
+        ByteBuffer header = ByteBuffer.allocate(BLOB_HEADER_BYTES);
+        while (header.hasRemaining() && in.read(header) != -1) {
+            // lê o cabeçalho inteiro
+        }
+        header.flip();
+        if (header.remaining() < 5 || header.getInt() != BLOB_MAGIC) {
+            throw new IOException("Blob inválido: " + name);
+        }
+        byte version = header.get();
+        int keyVersion;
+        if (version == BLOB_VERSION_LEGACY) {
+            keyVersion = 0;
+        } else if ((version == BLOB_VERSION || version == BLOB_VERSION_UNBOUND || version == BLOB_VERSION_UNAUTHENTICATED)
+            && header.remaining() >= 4 + BLOB_IV_BYTES) {
+            keyVersion = header.getInt();
+        } else {
+            throw new IOException("Blob inválido: " + name);
+        }
+        if (header.remaining() < BLOB_IV_BYTES) {
+            throw new IOException("Blob inválido: " + name);
+        }
+        byte[] iv = new byte[BLOB_IV_BYTES];
+        header.get(iv);
+        // o cabeçalho legado é 4 bytes menor: o que sobrou no buffer já é conteúdo cifrado
+        in.position(start + header.position());
+        return new BlobHeader(version, keyVersion, iv, Arrays.copyOf(header.array(), header.position()));
+    }
+
+    /**
+     * Recifra um blob com a chave atual do anel, em blocos, sem passar o conteúdo decifrado pelo disco.
+     * Usado pela rotação de chaves, que também regrava no formato atual os blobs de versões anteriores
+     * quando -Dkeychain.blob.legacyFormats=true permite lê-los.
+     *
+     * @return 1 se o blob foi recifrado, 0 se já estava na versão atual, -1 se foi regravado ou
+     *         removido por outra operação durante a recifragem
+     */
+    int reencryptBlob(Path path, KeyRing ring) throws Exception {
+        String stamp = BlobStore.stamp(path);
+        if (stamp == null) {
+            return -1;
+        }
+        Path temp = null;
+        try (FileChannel in = BlobStore.openRead(path)) {
+            if (in == null) {
+                return -1;
+            }
+            long start = in.position();
+            BlobHeader header = readBlobHeader(in, path.getFileName());
+            if (header.keyVersion >= ring.currentVersion() && header.authenticated()) {
+                return 0;
+            }
+            in.position(start);
+            temp = blobs.createTemp();
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                reencryptBlob(in, in.size(), path.getFileName().toString(), ring, ring, out, LEGACY_BLOBS);
+                out.force(true);
+            }
+            if (blobs.replace(temp, path, stamp)) {
+                temp = null;
+                return 1;
+            }
+            return -1;
+        } finally {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Lê um blob de in (da posição atual até end), decifra em blocos com o anel from e grava em
+     * out cifrado com a chave atual de to. Também usado pela importação de snapshots de outro host.
+     * O HMAC do blob lido é conferido antes de começar.
+     *
+     * @param fileName nome do arquivo do blob, o mesmo na origem e no destino
+     * @param allowLegacy aceita blobs de versões anteriores do formato (veja checkBlob)
+     */
+    void reencryptBlob(FileChannel in, long end, String fileName, KeyRing from, KeyRing to, FileChannel out,
+                       boolean allowLegacy) throws Exception {
+        BlobHeader header = readBlobHeader(in, fileName);
+        SecretKey secretKey = from.get(header.keyVersion);
+        end = checkBlob(in, end, header, blobMac(secretKey), fileName, fileName, allowLegacy);
+        Cipher decryptor = Cipher.getInstance(BLOB_CIPHER);
+        decryptor.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(header.iv));
+        BlobWriter writer = startBlob(out, to, fileName);
+        ByteBuffer encrypted = ByteBuffer.allocateDirect(BLOB_CHUNK_BYTES);
+        ByteBuffer plain = ByteBuffer.allocateDirect(BLOB_CHUNK_BYTES);
+        ByteBuffer reencrypted = ByteBuffer.allocateDirect(BLOB_CHUNK_BYTES);
+        boolean eof = false;
+        while (!eof) {
+            encrypted.limit((int) Math.min(encrypted.capacity(), end - in.position()));
+            eof = encrypted.limit() == 0 || in.read(encrypted) == -1;
+            encrypted.flip();
+            if (eof) {
+                decryptor.doFinal(encrypted, plain);
+            } else {
+                decryptor.update(encrypted, plain);
+            }
+            plain.flip();
+            writer.write(plain, reencrypted, eof);
+            plain.clear();
+            encrypted.clear();
+        }
+    }
+
+    /**
+     * Confere, sem decifrar, o blob lido de in (da posição atual até end): o cabeçalho, a chave
+     * que o cifrou no anel e o HMAC.
+     *
+     * @param fileName nome do arquivo do blob, coberto pelo HMAC da versão atual do formato
+     * @return false se o blob é de uma versão anterior do formato: sem HMAC, e só o cabeçalho foi
+     *         conferido, ou com um HMAC que não cobre o nome do arquivo
+     * @throws IOException se o blob é inválido, foi alterado, está truncado ou é de outra chave
+     */
+    static boolean verifyBlob(FileChannel in, long end, String fileName, KeyRing ring) throws Exception {
+        BlobHeader header = readBlobHeader(in, fileName);
+        SecretKey secretKey = ring.get(header.keyVersion);
+        checkBlob(in, end, header, blobMac(secretKey), fileName, fileName, true);
+        return header.authenticated();
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /**
+     * Grava várias chaves usando uma única busca da chave AES, uma única preparação do Cipher
+     * e, no cofre, um único fsync para o lote inteiro.
+     */
+    public BatchResult<Void> saveAll(Map<String, String> values) {
+        Map<String, byte[]> bytes = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            bytes.put(e.getKey(), e.getValue() == null ? null : e.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        return saveAllBytes(bytes);
+    }
+
+    public BatchResult<Void> saveAllBytes(Map<String, byte[]> values) {
+        long start = KeychainMetrics.start();
+        BatchResult<Void> result = null;
+        try {
+            result = encryptAndPutAll(values);
+            return result;
+        } finally {
+            KeychainMetrics.record("saveAll", STORAGE, start, result != null && result.isSuccess());
+        }
+    }
+
+    private BatchResult<Void> encryptAndPutAll(Map<String, byte[]> values) {
+        BatchResult<Void> result = new BatchResult<>();
+        KeyRing ring;
+        try {
+            ring = acquireKeyRing();
+        } catch (Exception e) {
+            for (String key : values.keySet()) {
+                result.fail(key, e);
+            }
+            return result;
+        }
+        Map<String, byte[]> encrypted = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, byte[]> e : values.entrySet()) {
+                try {
+                    if (e.getKey() == null || e.getValue() == null) {
+                        throw new IllegalArgumentException("Chave e valor não podem ser nulos");
+                    }
+                    encrypted.put(e.getKey(), ValueEnvelope.seal(ring, e.getKey(), e.getValue()));
+                } catch (Exception ex) {
+                    result.fail(e.getKey(), ex);
+                }
+            }
+        } finally {
+            ring.release();
+        }
+        Map<String, IOException> failed;
+        try {
+            failed = store.putAll(encrypted);
+        } catch (IOException e) {
+            for (String key : encrypted.keySet()) {
+                result.fail(key, e);
+            }
+            return result;
+        }
+        for (String key : encrypted.keySet()) {
+            if (failed.containsKey(key)) {
+                result.fail(key, failed.get(key));
+            } else {
+                result.succeed(key, null);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lê várias chaves. Os valores cifrados são buscados em paralelo no armazenamento e
+     * decifrados com um único Cipher. Chaves inexistentes aparecem com valor null.
+     */
+    public BatchResult<String> retrieveAll(Collection<String> keys) {
+        BatchResult<byte[]> raw = retrieveAllBytes(keys);
+        BatchResult<String> result = new BatchResult<>();
+        for (Map.Entry<String, byte[]> e : raw.getValues().entrySet()) {
+            result.succeed(e.getKey(), e.getValue() == null ? null : new String(e.getValue(), StandardCharsets.UTF_8));
+        }
+        for (Map.Entry<String, Exception> e : raw.getErrors().entrySet()) {
+            result.fail(e.getKey(), e.getValue());
+        }
+        return result;
+    }
+
+    public BatchResult<byte[]> retrieveAllBytes(Collection<String> keys) {
+        long start = KeychainMetrics.start();
+        BatchResult<byte[]> result = null;
+        try {
+            result = fetchAndDecryptAll(keys);
+            return result;
+        } finally {
+            KeychainMetrics.record("retrieveAll", STORAGE, start, result != null && result.isSuccess());
+        }
+    }
+
+    private BatchResult<byte[]> fetchAndDecryptAll(Collection<String> keys) {
+        BatchResult<byte[]> result = new BatchResult<>();
+        List<String> unique = new ArrayList<>(new LinkedHashSet<>(keys));
+        KeyRing ring;
+        try {
+            ring = acquireKeyRing();
+        } catch (Exception e) {
+            for (String key : unique) {
+                result.fail(key, e);
+            }
+            return result;
+        }
+        try {
+            byte[][] encrypted = new byte[unique.size()][];
+            Exception[] errors = new Exception[unique.size()];
+            fetchAll(unique, encrypted, errors);
+            for (int i = 0; i < unique.size(); i++) {
+                String key = unique.get(i);
+                if (errors[i] != null) {
+                    result.fail(key, errors[i]);
+                    continue;
+                }
+                try {
+                    result.succeed(key, encrypted[i] == null ? null : decrypt(ring, key, encrypted[i]));
+                } catch (Exception e) {
+                    result.fail(key, e);
+                }
+            }
+        } finally {
+            ring.release();
+        }
+        return result;
+    }
+
+    /**
+     * Busca os valores cifrados no armazenamento. Lotes grandes são divididos em fatias
+     * lidas em paralelo (leituras posicionais no cofre, arquivos independentes no formato legado).
+     */
+    private void fetchAll(final List<String> keys, final byte[][] encrypted, final Exception[] errors) {
+        int threads = BatchReadPool.THREADS;
+        int slices = Math.min(threads, keys.size() / BATCH_SLICE_MIN);
+        if (slices <= 1) {
+            fetchSlice(keys, encrypted, errors, 0, keys.size());
+            return;
+        }
+        int sliceSize = (keys.size() + slices - 1) / slices;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = sliceSize; from < keys.size(); from += sliceSize) {
+            final int start = from;
+            final int stop = Math.min(keys.size(), from + sliceSize);
+            futures.add(BatchReadPool.EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                    fetchSlice(keys, encrypted, errors, start, stop);
+                }
+            }));
+        }
+        // A primeira fatia é lida na própria thread chamadora
+        fetchSlice(keys, encrypted, errors, 0, Math.min(sliceSize, keys.size()));
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOGGER.warning("[KeychainService] Falha inesperada na leitura em lote: " + e.getCause());
+            }
+        }
+    }
+
+    private void fetchSlice(List<String> keys, byte[][] encrypted, Exception[] errors, int from, int to) {
+        for (int i = from; i < to; i++) {
+            try {
+                encrypted[i] = store.get(keys.get(i));
+            } catch (Exception e) {
+                errors[i] = e;
+            }
+        }
+    }
+
+    /**
+     * @return true se a chave existia e foi removida
+     */
+    public boolean delete(String key) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("KeychainService já foi fechado");
+        }
+        ensureInitialized();
+        long start = KeychainMetrics.start();
+        boolean ok = false;
+        try {
+            boolean removed = store.delete(key);
+            removed = blobs.delete(key) || removed;
+            ok = true;
+            return removed;
+        } finally {
+            KeychainMetrics.record("delete", STORAGE, start, ok);
+        }
+    }
+
+    /**
+     * Lista as chaves que começam com prefix, em ordem crescente, uma página por chamada.
+     * Nenhum valor é lido nem decifrado. Valores gravados só por streaming (save(String,
+     * InputStream)) não aparecem: no disco eles têm apenas o hash da chave.
+     *
+     * @param prefix prefixo das chaves, ex. "db/prod/" ("" ou null para todas)
+     * @param cursor getNextCursor() da página anterior, ou null para a primeira página
+     */
+    public KeyPage scan(String prefix, int pageSize, String cursor) throws Exception {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize deve ser positivo: " + pageSize);
+        }
+        if (closed) {
+            throw new IllegalStateException("KeychainService já foi fechado");
+        }
+        ensureInitialized();
+        long start = KeychainMetrics.start();
+        boolean ok = false;
+        try {
+            // uma chave a mais só para saber se existe próxima página
+            List<String> keys = store.scan(prefix == null ? "" : prefix, cursor, pageSize == Integer.MAX_VALUE ? pageSize : pageSize + 1);
+            String next = null;
+            if (keys.size() > pageSize) {
+                keys = keys.subList(0, pageSize);
+                next = keys.get(pageSize - 1);
+            }
+            ok = true;
+            return new KeyPage(new ArrayList<>(keys), next);
+        } finally {
+            KeychainMetrics.record("scan", STORAGE, start, ok);
+        }
+    }
+
+    /**
+     * Todas as chaves que começam com prefix, em ordem crescente. As chaves são buscadas em
+     * páginas à medida que o iterador avança, então a lista completa nunca fica na memória.
+     * Uma falha do armazenamento durante a iteração é relançada como IllegalStateException.
+     */
+    public Iterable<String> keys(final String prefix) {
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new KeyIterator(prefix);
+            }
+        };
+    }
+
+    /**
+     * Estado do filtro que responde às leituras de chaves inexistentes no armazenamento legado
+     * (keychain.storage=files) sem abrir arquivos: chaves, taxa de falso positivo esperada e
+     * observada, leituras descartadas.
+     *
+     * @return null no cofre (o índice em memória já responde sem tocar no disco) ou com
+     *         keychain.filter.enabled=false
+     */
+    public KeyFilterStats getKeyFilterStats() {
+        ensureInitialized();
+        ValueStore s = store;
+        return s instanceof FilteredFileStore ? ((FilteredFileStore) s).stats() : null;
+    }
+
+    /**
+     * Importa para o cofre os arquivos "chave.txt" gravados pelo formato legado.
+     * Os valores continuam cifrados com a mesma chave AES, então nada é decifrado na migração.
+     *
+     * @param dir diretório com os arquivos .txt (o diretório de trabalho nas versões antigas)
+     * @param deleteImported remove os arquivos .txt que foram importados
+     * @return número de chaves importadas
+     */
+    public int migrateLegacyFiles(File dir, boolean deleteImported) throws IOException {
+        ensureInitialized();
+        if (!(store instanceof VaultStore)) {
+            throw new IllegalStateException("Migração disponível apenas com o cofre (keychain.storage=vault)");
+        }
+        return ((VaultStore) store).importTextFiles(dir, deleteImported);
+    }
+
+    /**
+     * Exporta um snapshot completo (KeyStore, valores e blobs, ainda cifrados) para target.
+     */
+    public SnapshotInfo exportSnapshot(File target) throws Exception {
+        return exportSnapshot(target, null);
+    }
+
+    /**
+     * Exporta um snapshot para target, gravado em um temporário e trocado atomicamente no fim.
+     *
+     * @param previous snapshot anterior (completo ou incremental) para exportar só o que mudou
+     *                 desde ele, ou null para um snapshot completo
+     */
+    public SnapshotInfo exportSnapshot(File target, File previous) throws Exception {
+        SnapshotInfo base = previous == null ? null : SnapshotInfo.read(previous);
+        File tmp = new File(target.getPath() + ".tmp");
+        boolean moved = false;
+        try {
+            SnapshotInfo info;
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                info = exportSnapshot(out, base);
+                out.force(true);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+            return info;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        }
+    }
+
+    /**
+     * Grava em out um snapshot do serviço como estava em um único instante, sem interromper as
+     * gravações. A captura (KeyStore, posições dos registros vivos do cofre, canais dos blobs) é
+     * feita com o lock do KeyStore, então nenhuma versão da chave AES muda no meio dela; depois
+     * disso os registros e blobs são copiados de canal para canal (com um FileChannel ou socket,
+     * sem passar pelo heap), sem abrir um arquivo por chave e sem decifrar nada.
+     *
+     * @param since snapshot base (SnapshotInfo devolvido na exportação ou SnapshotInfo.read()):
+     *              só os valores gravados e os blobs alterados desde ele são exportados.
+     *              null para um snapshot completo
+     * @throws IllegalStateException para um snapshot incremental com keychain.storage=files
+     */
+    public SnapshotInfo exportSnapshot(WritableByteChannel out, SnapshotInfo since) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("KeychainService já foi fechado");
+        }
+        ensureInitialized();
+        if (since != null && !(store instanceof VaultStore)) {
+            throw new IllegalStateException("Snapshot incremental disponível apenas com o cofre (keychain.storage=vault)");
+        }
+        long start = KeychainMetrics.start();
+        long begin = System.nanoTime();
+        boolean ok = false;
+        VaultStore.Snapshot records = null;
+        List<KeychainSnapshot.BlobSource> blobSources = new ArrayList<>();
+        try {
+            byte[] keyStore;
+            InterProcessLock lock = keystoreLock();
+            lock.lock();
+            try {
+                keyStore = Files.readAllBytes(Paths.get(keystorePath));
+                records = store instanceof VaultStore
+                    ? ((VaultStore) store).snapshot(since == null ? 0 : since.getSequence(), since != null)
+                    : VaultStore.snapshotOf(store);
+                for (Path path : blobs.list()) {
+                    // stamp antes de abrir: se o blob for trocado entre os dois, o próximo incremental o inclui de novo
+                    String stamp = BlobStore.stamp(path);
+                    String name = path.getFileName().toString();
+                    if (stamp == null) {
+                        continue;
+                    }
+                    if (since != null && stamp.equals(since.blobStamps().get(name))) {
+                        blobSources.add(new KeychainSnapshot.BlobSource(name, stamp, null));
+                        continue;
+                    }
+                    FileChannel in = BlobStore.openRead(path);
+                    if (in != null) {
+                        blobSources.add(new KeychainSnapshot.BlobSource(name, stamp, in));
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            SnapshotInfo info = KeychainSnapshot.write(out, keyStore, records, blobSources, since);
+            ok = true;
+            LOGGER.info(String.format("[KeychainService] Snapshot exportado em %.1f ms: %s",
+                (System.nanoTime() - begin) / 1e6, info));
+            return info;
+        } finally {
+            if (records != null) {
+                records.close();
+            }
+            for (KeychainSnapshot.BlobSource blob : blobSources) {
+                if (blob.channel != null) {
+                    blob.channel.close();
+                }
+            }
+            KeychainMetrics.record("exportSnapshot", STORAGE, start, ok);
         }
-        byte[] decryptedValue = cipher.doFinal(Base64.getDecoder().decode(encodedValue));
-        return new String(decryptedValue);
     }
 
-    private SecretKey getSecretKey() throws Exception {
+    /**
+     * Importa um snapshot completo seguido, opcionalmente, dos incrementais tirados depois dele,
+     * na ordem. A cadeia inteira é conferida antes de qualquer gravação (CRC dos registros e
+     * todos os valores decifrados com o KeyStore do snapshot, em paralelo). Chaves que existem no
+     * serviço e não estão nos snapshots são mantidas; chaves removidas entre um snapshot da cadeia
+     * e o seguinte são removidas.
+     *
+     * @return a descrição do último snapshot da cadeia
+     */
+    public SnapshotInfo importSnapshot(File... chain) throws Exception {
+        return importSnapshot(null, chain);
+    }
+
+    /**
+     * @param keystorePassword senha do KeyStore de onde os snapshots vieram (a do keychain do SO
+     *                         daquele host), ou null para usar a deste serviço
+     */
+    public SnapshotInfo importSnapshot(char[] keystorePassword, File... chain) throws Exception {
+        if (chain.length == 0) {
+            throw new IllegalArgumentException("Nenhum snapshot informado");
+        }
+        if (closed) {
+            throw new IllegalStateException("KeychainService já foi fechado");
+        }
+        ensureInitialized();
+        long start = KeychainMetrics.start();
+        boolean ok = false;
+        try {
+            SnapshotInfo info = KeychainSnapshot.importChain(this, store, blobs,
+                keystorePassword != null ? keystorePassword : this.keystorePassword, chain);
+            ok = true;
+            return info;
+        } finally {
+            KeychainMetrics.record("importSnapshot", STORAGE, start, ok);
+        }
+    }
+
+    /**
+     * Carrega as versões da chave AES de um KeyStore gravado em um snapshot.
+     */
+    KeyRing keyRingOf(byte[] keyStoreBytes, char[] password) throws Exception {
         KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
-        try (FileInputStream fis = new FileInputStream(KEYSTORE_PATH)) {
-            keyStore.load(fis, keystorePassword.toCharArray());
+        keyStore.load(new ByteArrayInputStream(keyStoreBytes), password);
+        return KeyRing.load(keyStore, password);
+    }
+
+    /**
+     * Decifra um valor do armazenamento com a versão da chave indicada no próprio valor. Um
+     * valor cifrado com uma versão que o anel ainda não conhece foi gravado por outro processo
+     * depois de uma rotação: o anel é recarregado do KeyStore.
+     */
+    private byte[] decrypt(KeyRing ring, String key, byte[] stored) throws Exception {
+        if (ValueEnvelope.keyVersion(stored) > ring.currentVersion()) {
+            KeyRing reloaded = acquireReloadedKeyRing();
+            try {
+                return ValueEnvelope.open(reloaded, key, stored);
+            } finally {
+                reloaded.release();
+            }
         }
-        return (SecretKey) keyStore.getKey(KEY_ALIAS, keystorePassword.toCharArray());
+        return ValueEnvelope.open(ring, key, stored);
+    }
+
+    /**
+     * Chave AES atual (a que cifra as gravações), sem reserva: só para benchmarks e diagnóstico.
+     */
+    SecretKey getSecretKey() throws Exception {
+        return getKeyRing().current();
+    }
+
+    /**
+     * Retorna as versões da chave AES em cache, recarregando do KeyStore apenas quando o arquivo
+     * mudou (data de modificação ou tamanho) ou quando o tempo ocioso expirou.
+     */
+    KeyRing getKeyRing() throws Exception {
+        ensureInitialized();
+        return cachedKeyRing();
+    }
+
+    /**
+     * Como getKeyRing(), mas reservando o anel para uma operação que vai usar as chaves: ele não
+     * é apagado por uma recarga ou por close() antes de release().
+     */
+    KeyRing acquireKeyRing() throws Exception {
+        while (true) {
+            KeyRing ring = getKeyRing();
+            if (ring.retain()) {
+                return ring;
+            }
+            // substituído e apagado entre a leitura do cache e a reserva: pega o atual
+        }
+    }
+
+    /**
+     * acquireKeyRing() depois de recarregar o KeyStore.
+     */
+    private KeyRing acquireReloadedKeyRing() throws Exception {
+        keystoreChanged = true;
+        return acquireKeyRing();
+    }
+
+    private void reloadKeyRing() throws Exception {
+        keystoreChanged = true;
+        getKeyRing();
+    }
+
+    private KeyRing cachedKeyRing() throws Exception {
+        if (closed) {
+            throw new IllegalStateException("KeychainService já foi fechado");
+        }
+        long now = System.currentTimeMillis();
+        CachedKey cached = cachedKey;
+        if (trustWatcher && cached != null && !keystoreChanged && !isIdleExpired(now)) {
+            lastKeyAccess = now;
+            return cached.ring;
+        }
+        // Limpo antes de consultar o arquivo: um aviso que chegue depois força nova conferência
+        keystoreChanged = false;
+        File keystoreFile = new File(keystorePath);
+        long stamp = keystoreFile.lastModified();
+        long size = keystoreFile.length();
+        if (cached == null || !cached.matches(stamp, size) || isIdleExpired(now)) {
+            synchronized (keyLock) {
+                if (closed) {
+                    throw new IllegalStateException("KeychainService já foi fechado");
+                }
+                cached = cachedKey;
+                boolean idle = isIdleExpired(now);
+                if (cached == null || !cached.matches(stamp, size) || idle) {
+                    // Só substitui o cache depois que a nova chave foi carregada com sucesso
+                    CachedKey reloaded = new CachedKey(loadKeyRing(), stamp, size);
+                    if (cached != null) {
+                        // apagado quando as operações que ainda o usam terminarem
+                        cached.ring.retire();
+                        LOGGER.info("[KeychainService] KeyStore alterado ou cache expirado. Chave AES recarregada.");
+                    }
+                    cachedKey = reloaded;
+                    cached = reloaded;
+                }
+            }
+        }
+        lastKeyAccess = now;
+        return cached.ring;
+    }
+
+    private boolean isIdleExpired(long now) {
+        return KEY_IDLE_TIMEOUT_MS > 0 && now - lastKeyAccess > KEY_IDLE_TIMEOUT_MS;
+    }
+
+    KeyRing loadKeyRing() throws Exception {
+        return KeyRing.load(readKeyStore(), keystorePassword);
+    }
+
+    /**
+     * Rotação da chave AES: cria uma nova versão da chave no KeyStore, que passa a cifrar todas
+     * as gravações, e recifra em segundo plano os valores e blobs já gravados (KeyRotation).
+     * Leituras e gravações continuam durante a rotação; as versões antigas são removidas do
+     * KeyStore quando nenhum valor depende mais delas. Se o processo parar no meio, a rotação
+     * é retomada na próxima abertura do serviço.
+     *
+     * @return futuro concluído com o número de valores recifrados quando a rotação termina
+     * @throws IllegalStateException se o serviço já foi fechado ou se já houver uma rotação em
+     *                               andamento neste serviço
+     */
+    public CompletableFuture<Integer> rotateKey() throws Exception {
+        if (closed) {
+            throw new IllegalStateException("KeychainService já foi fechado");
+        }
+        ensureInitialized();
+        synchronized (rotationLock) {
+            if (closed) {
+                throw new IllegalStateException("KeychainService já foi fechado");
+            }
+            if (rotation != null && !rotation.future().isDone()) {
+                throw new IllegalStateException("Já existe uma rotação de chave em andamento");
+            }
+            int version = addKeyVersion();
+            rotation = startRotation(version);
+            return rotation.future();
+        }
+    }
+
+    /**
+     * @return a rotação em andamento ou a última concluída (inclusive a retomada na abertura), ou null
+     */
+    public CompletableFuture<Integer> getKeyRotation() {
+        synchronized (rotationLock) {
+            return rotation == null ? null : rotation.future();
+        }
+    }
+
+    /**
+     * @return a versão atual da chave AES (0 antes da primeira rotação)
+     */
+    public int getKeyVersion() throws Exception {
+        return getKeyRing().currentVersion();
+    }
+
+    private KeyRotation startRotation(int targetVersion) {
+        KeyRotation r = new KeyRotation(this, store, blobs, targetVersion);
+        r.start();
+        return r;
+    }
+
+    private InterProcessLock keystoreLock() throws IOException {
+        return InterProcessLock.forFile(new File(keystorePath + ".lock"), true);
+    }
+
+    /**
+     * Acrescenta ao KeyStore a versão seguinte da chave AES, com o mesmo lock da criação do KeyStore.
+     *
+     * @return a nova versão
+     */
+    private int addKeyVersion() throws Exception {
+        int version;
+        InterProcessLock lock = keystoreLock();
+        lock.lock();
+        try {
+            KeyStore keyStore = readKeyStore();
+            version = 0;
+            for (String alias : Collections.list(keyStore.aliases())) {
+                version = Math.max(version, KeyRing.versionOf(alias));
+            }
+            version++;
+            keyStore.setKeyEntry(KeyRing.aliasFor(version), generateAesKey(), keystorePassword, null);
+            storeKeyStore(keyStore);
+        } finally {
+            lock.unlock();
+        }
+        reloadKeyRing();
+        LOGGER.info("[KeychainService] Nova versão " + version + " da chave AES criada no KeyStore.");
+        return version;
+    }
+
+    /**
+     * Remove do KeyStore as versões da chave anteriores a targetVersion, depois que a rotação
+     * recifrou tudo. Nada é removido se outra rotação já criou uma versão mais nova.
+     *
+     * @return as versões removidas
+     */
+    List<Integer> retireKeyVersions(int targetVersion) throws Exception {
+        List<Integer> retired = new ArrayList<>();
+        InterProcessLock lock = keystoreLock();
+        lock.lock();
+        try {
+            KeyStore keyStore = readKeyStore();
+            List<String> aliases = Collections.list(keyStore.aliases());
+            int latest = 0;
+            for (String alias : aliases) {
+                latest = Math.max(latest, KeyRing.versionOf(alias));
+            }
+            if (latest != targetVersion) {
+                return retired;
+            }
+            for (String alias : aliases) {
+                int version = KeyRing.versionOf(alias);
+                if (version >= 0 && version < targetVersion) {
+                    keyStore.deleteEntry(alias);
+                    retired.add(version);
+                }
+            }
+            if (!retired.isEmpty()) {
+                storeKeyStore(keyStore);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!retired.isEmpty()) {
+            reloadKeyRing();
+        }
+        return retired;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Apaga da memória a chave AES em cache e a senha do KeyStore.
+     * Depois de fechado, o serviço não pode mais ser usado.
+     */
+    @Override
+    public void close() {
+        synchronized (rotationLock) {
+            if (rotation != null) {
+                rotation.cancel();
+            }
+        }
+        synchronized (keyLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            releaseResources();
+        }
+        synchronized (rotationLock) {
+            // uma rotação iniciada entre o cancelamento acima e closed = true
+            if (rotation != null) {
+                rotation.cancel();
+            }
+        }
+        LOGGER.info("[KeychainService] Serviço fechado e chave removida da memória.");
+    }
+
+    /**
+     * Chamado com keyLock. Também usado quando a inicialização em segundo plano termina depois
+     * de close(). A referência ao armazenamento não é apagada: as operações só conferem closed
+     * antes de começar, e uma que corra com close() recebe IllegalStateException do
+     * armazenamento fechado em vez de encontrar null.
+     */
+    private void releaseResources() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOGGER.fine("[KeychainService] Erro ao encerrar o watcher: " + e.getMessage());
+            }
+            watcher = null;
+        }
+        CachedKey cached = cachedKey;
+        cachedKey = null;
+        if (cached != null) {
+            // operações ainda em andamento terminam com as chaves; elas são apagadas em seguida
+            cached.ring.retire();
+        }
+        if (keystorePassword != null) {
+            Arrays.fill(keystorePassword, '\0');
+        }
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                LOGGER.warning("[KeychainService] Erro ao fechar o armazenamento: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Chaves carregadas junto com a identificação da versão do arquivo do KeyStore.
+     */
+    private static final class CachedKey {
+        final KeyRing ring;
+        final long stamp;
+        final long size;
+
+        CachedKey(KeyRing ring, long stamp, long size) {
+            this.ring = ring;
+            this.stamp = stamp;
+            this.size = size;
+        }
+
+        boolean matches(long stamp, long size) {
+            return this.stamp == stamp && this.size == size;
+        }
+    }
+
+    private final class KeyIterator implements Iterator<String> {
+        private final String prefix;
+        private Iterator<String> page = Collections.<String>emptyList().iterator();
+        private String cursor;
+        private boolean last;
+
+        KeyIterator(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext() && !last) {
+                KeyPage next;
+                try {
+                    next = scan(prefix, KEYS_PAGE_SIZE, cursor);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Falha ao listar as chaves com prefixo '" + prefix + "'", e);
+                }
+                page = next.getKeys().iterator();
+                cursor = next.getNextCursor();
+                last = !next.hasMore();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class BlobHeader {
+        final byte version;
+        final int keyVersion;
+        final byte[] iv;
+        // bytes do cabeçalho como estão no arquivo, cobertos pelo HMAC
+        final byte[] bytes;
+
+        BlobHeader(byte version, int keyVersion, byte[] iv, byte[] bytes) {
+            this.version = version;
+            this.keyVersion = keyVersion;
+            this.iv = iv;
+            this.bytes = bytes;
+        }
+
+        boolean authenticated() {
+            return version == BLOB_VERSION;
+        }
+    }
+
+    /**
+     * Cifra o conteúdo de um blob em blocos, acumulando o HMAC do que é gravado, e grava o HMAC
+     * depois do último bloco.
+     */
+    private static final class BlobWriter {
+        private final FileChannel out;
+        private final Cipher cipher;
+        private final Mac mac;
+
+        BlobWriter(FileChannel out, Cipher cipher, Mac mac) {
+            this.out = out;
+            this.cipher = cipher;
+            this.mac = mac;
+        }
+
+        /**
+         * @param plain bloco a cifrar, pronto para leitura
+         * @param encrypted buffer vazio com capacidade para o bloco cifrado
+         */
+        void write(ByteBuffer plain, ByteBuffer encrypted, boolean last) throws Exception {
+            if (last) {
+                cipher.doFinal(plain, encrypted);
+            } else {
+                cipher.update(plain, encrypted);
+            }
+            encrypted.flip();
+            mac.update(encrypted.duplicate());
+            writeFully(out, encrypted);
+            encrypted.clear();
+            if (last) {
+                writeFully(out, ByteBuffer.wrap(mac.doFinal()));
+            }
+        }
+    }
+
+    /**
+     * Pool de threads para as leituras paralelas de retrieveAll, criado no primeiro uso.
+     */
+    private static final class BatchReadPool {
+        static final int THREADS = Integer.getInteger("keychain.batch.readThreads",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Math.max(1, THREADS), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "keychain-batch-read-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
     }
-}
\ No newline at end of file
+}
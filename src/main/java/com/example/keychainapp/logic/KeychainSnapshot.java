@@ -0,0 +1,643 @@
+package com.example.keychainapp.logic;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Snapshot do KeychainService em um único arquivo: o KeyStore, os valores ainda cifrados e os
+ * blobs (ver KeychainService.exportSnapshot() e importSnapshot()).
+ *
+ * <pre>
+ * cabeçalho (48 bytes): magic "KSNP" | versão (short) | flags (short) | criado em (long)
+ *                       | seq base (long) | seq (long) | registros (int) | blobs (int) | bytes dos registros (long)
+ * KeyStore:             tamanho (int) | conteúdo do keychain.jks
+ * registros:            registros vivos no formato do cofre (VaultStore), copiados do arquivo do cofre
+ * chaves:               só no incremental: quantidade (int) | [tamanho (short) | chave UTF-8]...
+ * blobs:                [tamanho (short) | nome | tamanho (short) | stamp | tamanho (long) | conteúdo]...
+ * fim:                  magic "KEND"
+ * </pre>
+ *
+ * - Um snapshot incremental tem só os registros com seq maior que a do snapshot base e os blobs
+ *   cujo stamp mudou (tamanho -1 para os que não mudaram). A seção de chaves lista todas as chaves
+ *   vivas, para que a importação saiba o que foi removido desde a base.
+ * - A importação lê a cadeia inteira duas vezes: a primeira confere o CRC de cada registro e
+ *   decifra todos os valores com o KeyStore do snapshot, em keychain.snapshot.threads threads,
+ *   sem gravar nada; só se tudo conferir a segunda passada grava. Se o KeyStore do snapshot tem
+ *   as mesmas chaves AES do serviço (restauração no mesmo host), os valores são gravados como
+ *   estão; senão são recifrados com a chave atual do serviço. Os blobs têm o HMAC conferido na
+ *   primeira passada.
+ */
+final class KeychainSnapshot {
+    private static final Logger LOGGER = Logger.getLogger(KeychainSnapshot.class.getName());
+    private static final int MAGIC = 0x4B534E50; // "KSNP"
+    private static final int END_MAGIC = 0x4B454E44; // "KEND"
+    private static final short FORMAT_VERSION = 1;
+    private static final short FLAG_INCREMENTAL = 1;
+    private static final int HEADER_BYTES = 48;
+    private static final int THREADS = Math.max(1, Integer.getInteger("keychain.snapshot.threads",
+        Runtime.getRuntime().availableProcessors()));
+    // Registros por tarefa de verificação e por putAll (um fsync por lote) na importação
+    private static final int BATCH_SIZE = 1024;
+    // Aceita na importação blobs de versões anteriores do formato: sem HMAC, que só têm o cabeçalho
+    // conferido, ou com um HMAC que não cobre o nome do arquivo
+    private static final boolean LEGACY_BLOBS = Boolean.getBoolean("keychain.snapshot.legacyBlobs");
+
+    private KeychainSnapshot() {
+    }
+
+    /**
+     * Grava o snapshot em out a partir do que foi capturado. Nada é decifrado: os registros do
+     * cofre e os blobs vão de canal para canal.
+     *
+     * @param base snapshot base, ou null para um snapshot completo
+     */
+    static SnapshotInfo write(WritableByteChannel out, byte[] keyStore, VaultStore.Snapshot records,
+                              List<BlobSource> blobs, SnapshotInfo base) throws IOException {
+        long created = System.currentTimeMillis();
+        Output o = new Output(out);
+        o.ensure(HEADER_BYTES + 4);
+        o.buf.putInt(MAGIC).putShort(FORMAT_VERSION).putShort(base != null ? FLAG_INCREMENTAL : 0).putLong(created)
+            .putLong(base != null ? base.getSequence() : 0).putLong(records.seq()).putInt(records.records())
+            .putInt(blobs.size()).putLong(records.bytes());
+        o.buf.putInt(keyStore.length);
+        o.write(ByteBuffer.wrap(keyStore));
+        o.flush();
+        records.transferTo(out);
+        o.bytes += records.bytes();
+        if (base != null) {
+            o.ensure(4);
+            o.buf.putInt(records.keys().size());
+            for (String key : records.keys()) {
+                o.putString(key);
+            }
+        }
+        Map<String, String> stamps = new LinkedHashMap<>();
+        int blobCount = 0;
+        for (BlobSource blob : blobs) {
+            stamps.put(blob.name, blob.stamp);
+            o.putString(blob.name);
+            o.putString(blob.stamp);
+            o.ensure(8);
+            if (blob.channel == null) {
+                o.buf.putLong(-1L);
+                continue;
+            }
+            long size = blob.channel.size();
+            o.buf.putLong(size);
+            o.flush();
+            long from = 0;
+            while (from < size) {
+                long n = blob.channel.transferTo(from, size - from, out);
+                if (n <= 0) {
+                    throw new EOFException("Fim inesperado do blob " + blob.name);
+                }
+                from += n;
+            }
+            o.bytes += size;
+            blobCount++;
+        }
+        o.ensure(4);
+        o.buf.putInt(END_MAGIC);
+        o.flush();
+        return new SnapshotInfo(base != null, created, base != null ? base.getSequence() : 0, records.seq(),
+            records.records(), blobCount, o.bytes, stamps);
+    }
+
+    /**
+     * Importa uma cadeia de snapshots: um completo seguido dos incrementais tirados depois dele, em ordem.
+     *
+     * @param password senha do KeyStore dos snapshots
+     * @return a descrição do último snapshot da cadeia
+     */
+    static SnapshotInfo importChain(KeychainService service, ValueStore store, BlobStore blobStore, char[] password,
+                                    File... chain) throws Exception {
+        long start = System.nanoTime();
+        List<Archive> archives = new ArrayList<>();
+        List<KeyRing> rings = new ArrayList<>();
+        KeyRing local = null;
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "keychain-snapshot-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            for (File f : chain) {
+                Archive archive = Archive.open(f);
+                archives.add(archive);
+                Archive previous = archives.size() > 1 ? archives.get(archives.size() - 2) : null;
+                if (previous == null && archive.incremental) {
+                    throw new IllegalArgumentException("O primeiro snapshot da cadeia precisa ser completo: " + f);
+                }
+                if (previous != null && (!archive.incremental || archive.baseSeq != previous.seq)) {
+                    throw new IllegalArgumentException("Snapshot " + f + " não é o incremental seguinte a " + previous.file);
+                }
+                try {
+                    rings.add(service.keyRingOf(archive.keyStore, password));
+                } catch (IOException e) {
+                    throw new IOException("Não foi possível abrir o KeyStore do snapshot " + f
+                        + " (senha do KeyStore incorreta?): " + e.getMessage(), e);
+                }
+            }
+            long entries = 0;
+            for (int i = 0; i < archives.size(); i++) {
+                entries += verifyRecords(archives.get(i), rings.get(i), pool);
+                verifyBlobs(archives.get(i), rings.get(i), blobStore);
+            }
+            LOGGER.info(String.format("[KeychainSnapshot] %d snapshots conferidos (%d valores) em %.1f s. Importando...",
+                archives.size(), entries, (System.nanoTime() - start) / 1e9));
+            local = service.acquireKeyRing();
+            Set<String> keys = new HashSet<>();
+            Set<String> blobNames = new HashSet<>();
+            long removed = 0;
+            int blobsWritten = 0;
+            for (int i = 0; i < archives.size(); i++) {
+                Archive archive = archives.get(i);
+                boolean sameKeys = sameKeys(rings.get(i), local);
+                Set<String> written = applyRecords(archive, rings.get(i), sameKeys ? null : local, store, pool);
+                if (archive.incremental) {
+                    Set<String> live = new HashSet<>(archive.keys());
+                    for (String key : keys) {
+                        if (!live.contains(key) && store.delete(key)) {
+                            removed++;
+                        }
+                    }
+                    keys = live;
+                } else {
+                    keys.addAll(written);
+                }
+                Set<String> liveBlobs = new HashSet<>();
+                for (BlobEntry blob : archive.blobs()) {
+                    liveBlobs.add(blob.name);
+                    if (blob.size >= 0) {
+                        importBlob(service, archive, blob, rings.get(i), sameKeys ? null : local, blobStore);
+                        blobsWritten++;
+                    }
+                }
+                for (String name : blobNames) {
+                    if (!liveBlobs.contains(name)) {
+                        blobStore.delete(blobStore.pathForFile(name));
+                    }
+                }
+                blobNames = liveBlobs;
+            }
+            SnapshotInfo last = archives.get(archives.size() - 1).info();
+            LOGGER.info(String.format("[KeychainSnapshot] Importação concluída em %.1f s: %d valores e %d blobs gravados, "
+                + "%d chaves removidas (seq %d)", (System.nanoTime() - start) / 1e9, entries, blobsWritten, removed,
+                last.getSequence()));
+            return last;
+        } finally {
+            pool.shutdownNow();
+            if (local != null) {
+                local.release();
+            }
+            for (KeyRing ring : rings) {
+                ring.retire();
+            }
+            for (Archive archive : archives) {
+                archive.close();
+            }
+        }
+    }
+
+    /**
+     * Primeira passada: confere o CRC de todos os registros e decifra os valores em paralelo.
+     *
+     * @return número de registros
+     */
+    private static long verifyRecords(final Archive archive, final KeyRing ring, ExecutorService pool) throws Exception {
+        Deque<Future<Void>> pending = new ArrayDeque<>();
+        DataInputStream in = archive.records();
+        int remaining = archive.records;
+        while (remaining > 0) {
+            final List<VaultStore.Record> batch = readBatch(archive, in, Math.min(BATCH_SIZE, remaining));
+            remaining -= batch.size();
+            pending.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (VaultStore.Record r : batch) {
+                        try {
+                            Arrays.fill(ValueEnvelope.open(ring, r.key, r.value), (byte) 0);
+                        } catch (GeneralSecurityException | IllegalArgumentException e) {
+                            throw new IOException("Valor da chave '" + r.key + "' não confere com o KeyStore do snapshot "
+                                + archive.file + ": " + e.getMessage(), e);
+                        }
+                    }
+                    return null;
+                }
+            }));
+            drain(pending, THREADS * 2);
+        }
+        drain(pending, 0);
+        return archive.records;
+    }
+
+    private static void verifyBlobs(Archive archive, KeyRing ring, BlobStore blobStore) throws Exception {
+        for (BlobEntry blob : archive.blobs()) {
+            blobStore.pathForFile(blob.name);
+            if (blob.size < 0) {
+                continue;
+            }
+            archive.channel.position(blob.position);
+            long end = blob.position + blob.size;
+            boolean authenticated;
+            try {
+                authenticated = KeychainService.verifyBlob(archive.channel, end, blob.name, ring);
+            } catch (IOException e) {
+                throw new IOException(e.getMessage() + " no snapshot " + archive.file, e);
+            }
+            if (archive.channel.position() > end) {
+                throw new IOException("Blob " + blob.name + " truncado no snapshot " + archive.file);
+            }
+            if (!authenticated && !LEGACY_BLOBS) {
+                throw new IOException("Blob " + blob.name + " do snapshot " + archive.file + " não tem HMAC que cubra o "
+                    + "nome do arquivo (gravado por uma versão anterior) e não pode ser conferido; use "
+                    + "-Dkeychain.snapshot.legacyBlobs=true para importá-lo assim mesmo");
+            }
+        }
+    }
+
+    /**
+     * Segunda passada: grava os valores em lotes.
+     *
+     * @param target anel com que os valores são recifrados, ou null para gravá-los como estão
+     * @return as chaves gravadas
+     */
+    private static Set<String> applyRecords(Archive archive, final KeyRing ring, final KeyRing target, final ValueStore store,
+                                            ExecutorService pool) throws Exception {
+        Set<String> written = new HashSet<>();
+        Deque<Future<Map<String, byte[]>>> pending = new ArrayDeque<>();
+        DataInputStream in = archive.records();
+        int remaining = archive.records;
+        while (remaining > 0 || !pending.isEmpty()) {
+            if (remaining > 0 && pending.size() < THREADS * 2) {
+                final List<VaultStore.Record> batch = readBatch(archive, in, Math.min(BATCH_SIZE, remaining));
+                remaining -= batch.size();
+                pending.add(pool.submit(new Callable<Map<String, byte[]>>() {
+                    @Override
+                    public Map<String, byte[]> call() throws Exception {
+                        Map<String, byte[]> values = new LinkedHashMap<>();
+                        for (VaultStore.Record r : batch) {
+                            if (target == null) {
+                                values.put(r.key, r.value);
+                                continue;
+                            }
+                            byte[] plain = ValueEnvelope.open(ring, r.key, r.value);
+                            try {
+                                values.put(r.key, ValueEnvelope.seal(target, r.key, plain));
+                            } finally {
+                                Arrays.fill(plain, (byte) 0);
+                            }
+                        }
+                        return values;
+                    }
+                }));
+                continue;
+            }
+            // Gravação na ordem de leitura, enquanto as threads preparam os próximos lotes
+            Map<String, byte[]> values = await(pending.poll());
+            Map<String, IOException> failed = store.putAll(values);
+            if (!failed.isEmpty()) {
+                Map.Entry<String, IOException> first = failed.entrySet().iterator().next();
+                throw new IOException("Falha ao gravar a chave '" + first.getKey() + "' (" + failed.size()
+                    + " chaves com erro no lote)", first.getValue());
+            }
+            written.addAll(values.keySet());
+        }
+        return written;
+    }
+
+    private static void importBlob(KeychainService service, Archive archive, BlobEntry blob, KeyRing ring, KeyRing target,
+                                   BlobStore blobStore) throws Exception {
+        Path path = blobStore.pathForFile(blob.name);
+        Path temp = blobStore.createTemp();
+        boolean committed = false;
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                if (target == null) {
+                    long from = 0;
+                    while (from < blob.size) {
+                        long n = out.transferFrom(archive.channel.position(blob.position + from), from, blob.size - from);
+                        if (n <= 0) {
+                            throw new EOFException("Fim inesperado do blob " + blob.name + " no snapshot " + archive.file);
+                        }
+                        from += n;
+                    }
+                } else {
+                    archive.channel.position(blob.position);
+                    service.reencryptBlob(archive.channel, blob.position + blob.size, blob.name, ring, target, out,
+                        LEGACY_BLOBS);
+                }
+                out.force(true);
+            }
+            blobStore.commit(temp, path);
+            committed = true;
+        } finally {
+            if (!committed) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private static List<VaultStore.Record> readBatch(Archive archive, DataInputStream in, int n) throws IOException {
+        List<VaultStore.Record> batch = new ArrayList<>(n);
+        try {
+            for (int i = 0; i < n; i++) {
+                batch.add(VaultStore.readRecord(in));
+            }
+        } catch (IOException e) {
+            throw new IOException("Snapshot " + archive.file + " corrompido: " + e.getMessage(), e);
+        }
+        return batch;
+    }
+
+    /**
+     * true se todas as versões da chave do snapshot existem no serviço com a mesma chave AES.
+     */
+    private static boolean sameKeys(KeyRing snapshot, KeyRing local) throws Exception {
+        for (int version : snapshot.versions()) {
+            if (!local.versions().contains(version)) {
+                return false;
+            }
+            byte[] a = snapshot.get(version).getEncoded();
+            byte[] b = local.get(version).getEncoded();
+            try {
+                if (!Arrays.equals(a, b)) {
+                    return false;
+                }
+            } finally {
+                Arrays.fill(a, (byte) 0);
+                Arrays.fill(b, (byte) 0);
+            }
+        }
+        return true;
+    }
+
+    private static <T> void drain(Deque<Future<T>> pending, int max) throws Exception {
+        while (pending.size() > max) {
+            await(pending.poll());
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Blob capturado para exportação. Sem canal quando não mudou desde o snapshot base.
+     */
+    static final class BlobSource {
+        final String name;
+        final String stamp;
+        final FileChannel channel;
+
+        BlobSource(String name, String stamp, FileChannel channel) {
+            this.name = name;
+            this.stamp = stamp;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Blob listado em um snapshot; size -1 quando o conteúdo não foi gravado (não mudou desde a base).
+     */
+    static final class BlobEntry {
+        final String name;
+        final String stamp;
+        final long position;
+        final long size;
+
+        BlobEntry(String name, String stamp, long position, long size) {
+            this.name = name;
+            this.stamp = stamp;
+            this.position = position;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Escrita em um buffer que só vai para o canal quando enche, contando os bytes gravados.
+     */
+    private static final class Output {
+        final WritableByteChannel out;
+        // Cabe a maior chave (64 KB) de uma vez
+        final ByteBuffer buf = ByteBuffer.allocate(128 * 1024);
+        long bytes;
+
+        Output(WritableByteChannel out) {
+            this.out = out;
+        }
+
+        void ensure(int n) throws IOException {
+            if (buf.remaining() < n) {
+                flush();
+            }
+        }
+
+        void putString(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            ensure(2 + b.length);
+            buf.putShort((short) b.length).put(b);
+        }
+
+        void write(ByteBuffer src) throws IOException {
+            flush();
+            bytes += src.remaining();
+            while (src.hasRemaining()) {
+                out.write(src);
+            }
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            bytes += buf.remaining();
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            buf.clear();
+        }
+    }
+
+    /**
+     * Snapshot gravado, aberto para leitura. As seções são localizadas pelos tamanhos do cabeçalho.
+     */
+    static final class Archive implements Closeable {
+        final File file;
+        final FileChannel channel;
+        final boolean incremental;
+        final long created;
+        final long baseSeq;
+        final long seq;
+        final int records;
+        final int blobCount;
+        final long recordBytes;
+        final byte[] keyStore;
+        private final long recordsStart;
+        private List<String> keys;
+        private List<BlobEntry> blobs;
+
+        private Archive(File file, FileChannel channel) throws IOException {
+            this.file = file;
+            this.channel = channel;
+            ByteBuffer header = read(0, HEADER_BYTES + 4);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Arquivo não é um snapshot do keychain: " + file);
+            }
+            short version = header.getShort();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Versão de snapshot não suportada (" + version + "): " + file);
+            }
+            incremental = (header.getShort() & FLAG_INCREMENTAL) != 0;
+            created = header.getLong();
+            baseSeq = header.getLong();
+            seq = header.getLong();
+            records = header.getInt();
+            blobCount = header.getInt();
+            recordBytes = header.getLong();
+            int keyStoreLength = header.getInt();
+            if (keyStoreLength < 0 || records < 0 || blobCount < 0 || recordBytes < 0) {
+                throw new IOException("Snapshot corrompido: " + file);
+            }
+            keyStore = read(HEADER_BYTES + 4, keyStoreLength).array();
+            recordsStart = HEADER_BYTES + 4 + keyStoreLength;
+        }
+
+        static Archive open(File file) throws IOException {
+            FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                return new Archive(file, ch);
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw e;
+            }
+        }
+
+        DataInputStream records() throws IOException {
+            return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(recordsStart)), 64 * 1024));
+        }
+
+        /**
+         * @return todas as chaves vivas na captura (só em snapshots incrementais)
+         */
+        List<String> keys() throws IOException {
+            if (keys == null) {
+                readTail();
+            }
+            return keys;
+        }
+
+        List<BlobEntry> blobs() throws IOException {
+            if (blobs == null) {
+                readTail();
+            }
+            return blobs;
+        }
+
+        SnapshotInfo info() throws IOException {
+            Map<String, String> stamps = new LinkedHashMap<>();
+            int included = 0;
+            for (BlobEntry blob : blobs()) {
+                stamps.put(blob.name, blob.stamp);
+                if (blob.size >= 0) {
+                    included++;
+                }
+            }
+            return new SnapshotInfo(incremental, created, baseSeq, seq, records, included, channel.size(), stamps);
+        }
+
+        /**
+         * Lê a seção de chaves e a lista de blobs (pulando o conteúdo) e confere a marca de fim.
+         */
+        private void readTail() throws IOException {
+            long pos = recordsStart + recordBytes;
+            List<String> k = new ArrayList<>();
+            if (incremental) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(pos)), 64 * 1024));
+                int count = in.readInt();
+                pos += 4;
+                for (int i = 0; i < count; i++) {
+                    byte[] key = new byte[in.readUnsignedShort()];
+                    in.readFully(key);
+                    k.add(new String(key, StandardCharsets.UTF_8));
+                    pos += 2 + key.length;
+                }
+            }
+            List<BlobEntry> b = new ArrayList<>(blobCount);
+            for (int i = 0; i < blobCount; i++) {
+                String name = readString(pos);
+                pos += 2 + name.getBytes(StandardCharsets.UTF_8).length;
+                String stamp = readString(pos);
+                pos += 2 + stamp.getBytes(StandardCharsets.UTF_8).length;
+                long size = read(pos, 8).getLong();
+                pos += 8;
+                b.add(new BlobEntry(name, stamp, pos, size));
+                pos += Math.max(0, size);
+            }
+            if (read(pos, 4).getInt() != END_MAGIC) {
+                throw new IOException("Snapshot incompleto ou corrompido: " + file);
+            }
+            keys = k;
+            blobs = b;
+        }
+
+        private String readString(long pos) throws IOException {
+            int length = read(pos, 2).getShort() & 0xFFFF;
+            return new String(read(pos + 2, length).array(), StandardCharsets.UTF_8);
+        }
+
+        private ByteBuffer read(long pos, int length) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, pos + buf.position()) < 0) {
+                    throw new EOFException("Snapshot incompleto: " + file);
+                }
+            }
+            buf.flip();
+            return buf;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.keychainapp.logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Observa o diretório do keychain com um WatchService e avisa quando outro processo altera um
+ * dos arquivos registrados (o cofre, o KeyStore). Assim cada JVM atualiza só o que mudou, sem
+ * reler tudo nem consultar o disco a cada operação.
+ *
+ * As próprias escritas também geram eventos; os handlers precisam ser baratos quando nada mudou.
+ */
+final class KeychainWatcher implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(KeychainWatcher.class.getName());
+
+    private final Path dir;
+    private final Map<String, Runnable> handlers;
+    private final Listener others;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /**
+     * Recebe os arquivos alterados que não têm handler próprio.
+     */
+    interface Listener {
+        /**
+         * @param name nome do arquivo no diretório, ou null quando eventos foram perdidos e
+         *             qualquer arquivo pode ter mudado
+         */
+        void changed(String name);
+    }
+
+    /**
+     * @param handlers nome do arquivo no diretório -> ação executada quando ele muda
+     */
+    KeychainWatcher(Path dir, Map<String, Runnable> handlers) throws IOException {
+        this(dir, handlers, null);
+    }
+
+    /**
+     * @param others avisado dos demais arquivos criados ou alterados no diretório (pode ser null)
+     */
+    KeychainWatcher(Path dir, Map<String, Runnable> handlers, Listener others) throws IOException {
+        this.dir = dir;
+        this.handlers = handlers;
+        this.others = others;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchLoop();
+            }
+        }, "keychain-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * false quando o WatchService da plataforma só faz polling (macOS, por exemplo): os eventos
+     * podem demorar segundos, então quem usa o watcher não deve deixar de conferir o disco.
+     */
+    boolean isNative() {
+        return !watchService.getClass().getName().contains("Polling");
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // eventos perdidos: atualiza tudo
+                        for (Map.Entry<String, Runnable> e : handlers.entrySet()) {
+                            fire(e.getKey(), e.getValue());
+                        }
+                        notifyOthers(null);
+                        continue;
+                    }
+                    String name = String.valueOf(event.context());
+                    Runnable handler = handlers.get(name);
+                    if (handler != null) {
+                        fire(name, handler);
+                    } else {
+                        notifyOthers(name);
+                    }
+                }
+                if (!key.reset()) {
+                    LOGGER.warning("[KeychainWatcher] Diretório " + dir + " não pode mais ser observado");
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // close()
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void notifyOthers(String name) {
+        if (others == null) {
+            return;
+        }
+        try {
+            others.changed(name);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "[KeychainWatcher] Falha ao tratar alteração de " + name, e);
+        }
+    }
+
+    private void fire(String name, Runnable handler) {
+        try {
+            handler.run();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "[KeychainWatcher] Falha ao tratar alteração de " + name, e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.keychainapp.logic;
+
+import com.example.keychainapp.logic.SystemKeychain.CommandResult;
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * Keychain do macOS através do comando security.
+ */
+class MacSecurityBackend implements KeychainBackend {
+    static final String NAME = "mac";
+    // errSecItemNotFound, devolvido pelo security como código de saída
+    private static final int ITEM_NOT_FOUND = 44;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void savePassword(String service, String user, String password) throws KeychainException {
+        try {
+            ProcessBuilder pb = new ProcessBuilder("security", "add-generic-password", "-a", user, "-s", service, "-w", password, "-U");
+            int exit = SystemKeychain.runCommand(pb, "security", null).exit;
+            if (exit != 0) {
+                throw new KeychainException("Falha ao salvar senha no keychain do macOS (exit code: " + exit + ")");
+            }
+        } catch (KeychainException ke) {
+            throw ke;
+        } catch (Exception e) {
+            throw new KeychainException("Exceção inesperada ao salvar no keychain do macOS", e);
+        }
+    }
+
+    @Override
+    public String loadPassword(String service, String user) throws KeychainException {
+        try {
+            ProcessBuilder pb = new ProcessBuilder("security", "find-generic-password", "-a", user, "-s", service, "-w");
+            CommandResult result = SystemKeychain.runCommand(pb, "security", null);
+            int exit = result.exit;
+            String value = result.firstLine;
+            if (exit != 0) {
+                throw new KeychainException("Falha ao ler senha do keychain do macOS (exit code: " + exit + ")");
+            }
+            if (value == null || value.isEmpty()) {
+                throw new KeychainException("Senha não encontrada no keychain do macOS para service='" + service + "', key='" + user + "'");
+            }
+            return value;
+        } catch (KeychainException ke) {
+            throw ke;
+        } catch (Exception e) {
+            throw new KeychainException("Exceção inesperada ao ler do keychain do macOS", e);
+        }
+    }
+
+    @Override
+    public boolean deletePassword(String service, String user) throws KeychainException {
+        try {
+            ProcessBuilder pb = new ProcessBuilder("security", "delete-generic-password", "-a", user, "-s", service);
+            int exit = SystemKeychain.runCommand(pb, "security", null).exit;
+            if (exit == ITEM_NOT_FOUND) {
+                return false;
+            }
+            if (exit != 0) {
+                throw new KeychainException("Falha ao remover senha do keychain do macOS (exit code: " + exit + ")");
+            }
+            return true;
+        } catch (KeychainException ke) {
+            throw ke;
+        } catch (Exception e) {
+            throw new KeychainException("Exceção inesperada ao remover do keychain do macOS", e);
+        }
+    }
+}
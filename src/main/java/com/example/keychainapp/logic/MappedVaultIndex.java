@@ -0,0 +1,543 @@
+package com.example.keychainapp.logic;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+/**
+ * Índice do cofre fora do heap: tabela hash de endereçamento aberto (sondagem linear)
+ * gravada em um arquivo mapeado em memória ao lado do cofre.
+ *
+ * Cada slot guarda o hash de 64 bits da chave e a posição do registro no cofre; a chave em si
+ * fica apenas no cofre e é conferida na leitura. Uma busca não aloca objetos até o ponto em que
+ * o valor cifrado é copiado para o array devolvido.
+ *
+ * O cabeçalho guarda até onde o cofre foi indexado; ao reabrir, só os registros gravados depois
+ * disso são relidos. Se o processo não fechou o índice corretamente, ele é reconstruído.
+ *
+ * <pre>
+ * cabeçalho (128 bytes): magic "KIDX" | versão | capacidade | chaves | tombstones | geração do cofre
+ *                        | fim indexado | maior seq | lixo | fechado corretamente
+ * slot (16 bytes):       hash (long; 0 = vazio, 1 = removido) | posição do registro (long)
+ * </pre>
+ */
+final class MappedVaultIndex extends VaultIndex {
+    private static final Logger LOGGER = Logger.getLogger(MappedVaultIndex.class.getName());
+    private static final int MAGIC = 0x4B494458; // "KIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 128;
+    private static final int SLOT_SIZE = 16;
+    private static final long EMPTY = 0L;
+    private static final long TOMBSTONE = 1L;
+    private static final double MAX_LOAD = 0.7;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_CAPACITY = 8;
+    private static final int H_SIZE = 16;
+    private static final int H_TOMBSTONES = 24;
+    private static final int H_GENERATION = 32;
+    private static final int H_END = 40;
+    private static final int H_MAX_SEQ = 48;
+    private static final int H_GARBAGE = 56;
+    private static final int H_CLEAN = 64;
+
+    // Cabeçalho do registro no cofre até o início da chave: tamanho(4) tipo(1) flags(1) seq(8) tamanho da chave(2)
+    private static final int RECORD_KEY_OFFSET = 16;
+
+    private static final ThreadLocal<ByteBuffer> SCRATCH = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(1024);
+        }
+    };
+
+    private final File vaultFile;
+    private final long generation;
+    private File file;
+    private FileChannel fileChannel;
+    private MappedByteBuffer map;
+    private int capacity;
+    private int mask;
+    private int size;
+    private int tombstones;
+    private boolean wasClean;
+    private volatile FileChannel vault;
+
+    private MappedVaultIndex(File vaultFile, long generation) {
+        this.vaultFile = vaultFile;
+        this.generation = generation;
+    }
+
+    /**
+     * Abre o índice existente para a geração atual do cofre.
+     *
+     * @return o índice, ou null se não houver um índice compatível
+     */
+    static MappedVaultIndex open(File vaultFile, long generation) throws IOException {
+        File[] candidates = indexFiles(vaultFile);
+        File best = null;
+        int bestCapacity = -1;
+        String prefix = vaultFile.getName() + ".g" + generation + ".c";
+        for (File f : candidates) {
+            String name = f.getName();
+            if (name.startsWith(prefix)) {
+                try {
+                    int cap = Integer.parseInt(name.substring(prefix.length(), name.length() - ".idx".length()));
+                    if (cap > bestCapacity) {
+                        best = f;
+                        bestCapacity = cap;
+                    }
+                } catch (NumberFormatException e) {
+                    // nome inesperado, ignora
+                }
+            }
+        }
+        for (File f : candidates) {
+            if (!f.equals(best)) {
+                deleteQuietly(f);
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        MappedVaultIndex idx = new MappedVaultIndex(vaultFile, generation);
+        if (!idx.map(best, bestCapacity, false)) {
+            idx.discard();
+            return null;
+        }
+        return idx;
+    }
+
+    /**
+     * Cria um índice vazio com capacidade para a quantidade esperada de chaves.
+     */
+    static MappedVaultIndex create(File vaultFile, long generation, long expectedEntries) throws IOException {
+        MappedVaultIndex idx = new MappedVaultIndex(vaultFile, generation);
+        idx.map(fileFor(vaultFile, generation, capacityFor(expectedEntries)), capacityFor(expectedEntries), true);
+        return idx;
+    }
+
+    boolean wasClean() {
+        return wasClean;
+    }
+
+    long indexedEnd() {
+        return map.getLong(H_END);
+    }
+
+    long maxSeq() {
+        return map.getLong(H_MAX_SEQ);
+    }
+
+    long garbage() {
+        return map.getLong(H_GARBAGE);
+    }
+
+    /**
+     * Marca o índice como em uso. Se o processo cair antes do close(), o próximo open() reconstrói.
+     */
+    void markDirty() {
+        map.putLong(H_CLEAN, 0L);
+        map.force();
+    }
+
+    /**
+     * Fecha e apaga o arquivo do índice (usado quando ele não serve mais).
+     */
+    @Override
+    void discard() throws IOException {
+        fileChannel.close();
+        deleteQuietly(file);
+    }
+
+    @Override
+    void attach(FileChannel vault) {
+        this.vault = vault;
+    }
+
+    @Override
+    VaultStore.Entry get(String key) throws IOException {
+        long h = hash(key);
+        int keyLength = utf8Length(key);
+        int i = (int) (h & mask);
+        while (true) {
+            long slotHash = map.getLong(slotPos(i));
+            if (slotHash == EMPTY) {
+                return null;
+            }
+            if (slotHash == h) {
+                long offset = map.getLong(slotPos(i) + 8);
+                ByteBuffer header = readRecordHeader(offset, keyLength);
+                if (header != null && keyMatches(key, header, keyLength)) {
+                    return toEntry(offset, header, keyLength);
+                }
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    @Override
+    VaultStore.Entry put(String key, VaultStore.Entry entry) throws IOException {
+        long h = hash(key);
+        int keyLength = utf8Length(key);
+        int i = (int) (h & mask);
+        int firstTombstone = -1;
+        while (true) {
+            long slotHash = map.getLong(slotPos(i));
+            if (slotHash == EMPTY) {
+                break;
+            }
+            if (slotHash == TOMBSTONE) {
+                if (firstTombstone < 0) {
+                    firstTombstone = i;
+                }
+            } else if (slotHash == h) {
+                long offset = map.getLong(slotPos(i) + 8);
+                ByteBuffer header = readRecordHeader(offset, keyLength);
+                if (header != null && keyMatches(key, header, keyLength)) {
+                    VaultStore.Entry previous = toEntry(offset, header, keyLength);
+                    map.putLong(slotPos(i) + 8, entry.recordOffset);
+                    return previous;
+                }
+            }
+            i = (i + 1) & mask;
+        }
+        if (firstTombstone < 0 && size + tombstones >= capacity - 1) {
+            throw new IOException("Índice do cofre cheio (" + capacity + " slots)");
+        }
+        int target = i;
+        if (firstTombstone >= 0) {
+            target = firstTombstone;
+            tombstones--;
+        }
+        // Posição antes do hash: um leitor concorrente nunca vê um hash publicado sem posição
+        map.putLong(slotPos(target) + 8, entry.recordOffset);
+        map.putLong(slotPos(target), h);
+        size++;
+        writeCounts();
+        return null;
+    }
+
+    @Override
+    VaultStore.Entry remove(String key) throws IOException {
+        long h = hash(key);
+        int keyLength = utf8Length(key);
+        int i = (int) (h & mask);
+        while (true) {
+            long slotHash = map.getLong(slotPos(i));
+            if (slotHash == EMPTY) {
+                return null;
+            }
+            if (slotHash == h) {
+                long offset = map.getLong(slotPos(i) + 8);
+                ByteBuffer header = readRecordHeader(offset, keyLength);
+                if (header != null && keyMatches(key, header, keyLength)) {
+                    VaultStore.Entry previous = toEntry(offset, header, keyLength);
+                    map.putLong(slotPos(i), TOMBSTONE);
+                    size--;
+                    tombstones++;
+                    writeCounts();
+                    return previous;
+                }
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    byte[] readValue(String key) throws IOException {
+        long h = hash(key);
+        int keyLength = utf8Length(key);
+        int i = (int) (h & mask);
+        while (true) {
+            long slotHash = map.getLong(slotPos(i));
+            if (slotHash == EMPTY) {
+                return null;
+            }
+            if (slotHash == h) {
+                long offset = map.getLong(slotPos(i) + 8);
+                ByteBuffer header = readRecordHeader(offset, keyLength);
+                if (header != null && keyMatches(key, header, keyLength)) {
+                    int valueLength = header.getInt(RECORD_KEY_OFFSET + keyLength);
+                    byte[] value = new byte[valueLength];
+                    VaultStore.readFully(vault, ByteBuffer.wrap(value), offset + RECORD_KEY_OFFSET + keyLength + 4);
+                    return value;
+                }
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    @Override
+    long[] liveOffsets() {
+        long[] offsets = new long[size];
+        int n = 0;
+        for (int i = 0; i < capacity && n < offsets.length; i++) {
+            long h = map.getLong(slotPos(i));
+            if (h != EMPTY && h != TOMBSTONE) {
+                offsets[n++] = map.getLong(slotPos(i) + 8);
+            }
+        }
+        return offsets;
+    }
+
+    @Override
+    boolean needsResize() {
+        return size + tombstones + 1 > capacity * MAX_LOAD && capacity < MAX_CAPACITY;
+    }
+
+    /**
+     * Recria a tabela com o dobro da capacidade em um novo arquivo, descartando os tombstones.
+     * Deve ser chamado sem leitores concorrentes.
+     */
+    @Override
+    void resize() throws IOException {
+        int newCapacity = capacity * 2;
+        MappedVaultIndex grown = new MappedVaultIndex(vaultFile, generation);
+        grown.map(fileFor(vaultFile, generation, newCapacity), newCapacity, true);
+        for (int i = 0; i < capacity; i++) {
+            long h = map.getLong(slotPos(i));
+            if (h != EMPTY && h != TOMBSTONE) {
+                int j = (int) (h & grown.mask);
+                while (grown.map.getLong(slotPos(j)) != EMPTY) {
+                    j = (j + 1) & grown.mask;
+                }
+                grown.map.putLong(slotPos(j) + 8, map.getLong(slotPos(i) + 8));
+                grown.map.putLong(slotPos(j), h);
+            }
+        }
+        grown.size = size;
+        grown.writeCounts();
+        grown.map.putLong(H_END, indexedEnd());
+        grown.map.putLong(H_MAX_SEQ, maxSeq());
+        grown.map.putLong(H_GARBAGE, garbage());
+        File oldFile = file;
+        fileChannel.close();
+        deleteQuietly(oldFile);
+        file = grown.file;
+        fileChannel = grown.fileChannel;
+        map = grown.map;
+        capacity = grown.capacity;
+        mask = grown.mask;
+        tombstones = 0;
+        LOGGER.fine("[MappedVaultIndex] Índice redimensionado para " + capacity + " slots");
+    }
+
+    @Override
+    void checkpoint(long vaultEnd, long maxSeq, long garbage) {
+        map.putLong(H_END, vaultEnd);
+        map.putLong(H_MAX_SEQ, maxSeq);
+        map.putLong(H_GARBAGE, garbage);
+    }
+
+    @Override
+    public void close() throws IOException {
+        map.force();
+        map.putLong(H_CLEAN, 1L);
+        map.force();
+        fileChannel.close();
+    }
+
+    private boolean map(File f, int cap, boolean create) throws IOException {
+        long length = HEADER_SIZE + (long) cap * SLOT_SIZE;
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        file = f;
+        fileChannel = raf.getChannel();
+        if (create) {
+            raf.setLength(0);
+            raf.setLength(length);
+        } else if (raf.length() != length) {
+            return false;
+        }
+        map = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        capacity = cap;
+        mask = cap - 1;
+        if (create) {
+            map.putInt(H_MAGIC, MAGIC);
+            map.putInt(H_VERSION, VERSION);
+            map.putLong(H_CAPACITY, cap);
+            map.putLong(H_GENERATION, generation);
+            map.putLong(H_END, VaultStore.HEADER_SIZE);
+            writeCounts();
+            wasClean = false;
+            return true;
+        }
+        if (map.getInt(H_MAGIC) != MAGIC || map.getInt(H_VERSION) != VERSION
+            || map.getLong(H_CAPACITY) != cap || map.getLong(H_GENERATION) != generation) {
+            return false;
+        }
+        size = (int) map.getLong(H_SIZE);
+        tombstones = (int) map.getLong(H_TOMBSTONES);
+        wasClean = map.getLong(H_CLEAN) == 1L;
+        return true;
+    }
+
+    private void writeCounts() {
+        map.putLong(H_SIZE, size);
+        map.putLong(H_TOMBSTONES, tombstones);
+    }
+
+    /**
+     * Lê o início do registro (até o tamanho do valor) em um buffer da thread, sem alocar.
+     *
+     * @return o buffer, ou null se o registro não tem o tamanho de chave esperado
+     */
+    private ByteBuffer readRecordHeader(long offset, int keyLength) throws IOException {
+        int needed = RECORD_KEY_OFFSET + keyLength + 4;
+        ByteBuffer buf = SCRATCH.get();
+        if (buf.capacity() < needed) {
+            buf = ByteBuffer.allocateDirect(Math.max(needed, buf.capacity() * 2));
+            SCRATCH.set(buf);
+        }
+        buf.clear();
+        buf.limit(needed);
+        try {
+            VaultStore.readFully(vault, buf, offset);
+        } catch (EOFException e) {
+            // registro mais curto que o esperado: não é esta chave
+            return null;
+        }
+        if ((buf.getShort(RECORD_KEY_OFFSET - 2) & 0xFFFF) != keyLength) {
+            return null;
+        }
+        return buf;
+    }
+
+    private static VaultStore.Entry toEntry(long offset, ByteBuffer header, int keyLength) {
+        int recordLength = header.getInt(0) + 4;
+        long seq = header.getLong(6);
+        int valueLength = header.getInt(RECORD_KEY_OFFSET + keyLength);
+        return new VaultStore.Entry(offset, recordLength, offset + RECORD_KEY_OFFSET + keyLength + 4, valueLength, seq);
+    }
+
+    /**
+     * Compara a chave com os bytes UTF-8 gravados no registro, codificando caractere a caractere.
+     */
+    private static boolean keyMatches(String key, ByteBuffer buf, int keyLength) {
+        int p = RECORD_KEY_OFFSET;
+        int end = RECORD_KEY_OFFSET + keyLength;
+        int n = key.length();
+        for (int i = 0; i < n; i++) {
+            char c = key.charAt(i);
+            if (c < 0x80) {
+                if (p >= end || buf.get(p++) != (byte) c) {
+                    return false;
+                }
+            } else if (c < 0x800) {
+                if (p + 2 > end || buf.get(p++) != (byte) (0xC0 | (c >> 6)) || buf.get(p++) != (byte) (0x80 | (c & 0x3F))) {
+                    return false;
+                }
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(key.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, key.charAt(++i));
+                if (p + 4 > end
+                    || buf.get(p++) != (byte) (0xF0 | (cp >> 18))
+                    || buf.get(p++) != (byte) (0x80 | ((cp >> 12) & 0x3F))
+                    || buf.get(p++) != (byte) (0x80 | ((cp >> 6) & 0x3F))
+                    || buf.get(p++) != (byte) (0x80 | (cp & 0x3F))) {
+                    return false;
+                }
+            } else if (Character.isSurrogate(c)) {
+                // String.getBytes(UTF_8) troca surrogates isolados por '?'
+                if (p >= end || buf.get(p++) != (byte) '?') {
+                    return false;
+                }
+            } else {
+                if (p + 3 > end
+                    || buf.get(p++) != (byte) (0xE0 | (c >> 12))
+                    || buf.get(p++) != (byte) (0x80 | ((c >> 6) & 0x3F))
+                    || buf.get(p++) != (byte) (0x80 | (c & 0x3F))) {
+                    return false;
+                }
+            }
+        }
+        return p == end;
+    }
+
+    static int utf8Length(String key) {
+        int length = 0;
+        int n = key.length();
+        for (int i = 0; i < n; i++) {
+            char c = key.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(key.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Hash de 64 bits da chave (FNV-1a sobre os chars + finalizador do MurmurHash3), sem alocação.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == EMPTY || h == TOMBSTONE ? h + 2 : h;
+    }
+
+    private static int slotPos(int i) {
+        return HEADER_SIZE + i * SLOT_SIZE;
+    }
+
+    private static int capacityFor(long expectedEntries) {
+        long needed = (long) Math.ceil(Math.max(expectedEntries, 1) / 0.5);
+        int cap = MIN_CAPACITY;
+        while (cap < needed && cap < MAX_CAPACITY) {
+            cap <<= 1;
+        }
+        return cap;
+    }
+
+    private static File fileFor(File vaultFile, long generation, int capacity) {
+        return new File(vaultFile.getParentFile(), vaultFile.getName() + ".g" + generation + ".c" + capacity + ".idx");
+    }
+
+    private static File[] indexFiles(File vaultFile) {
+        final String prefix = vaultFile.getName() + ".g";
+        File dir = vaultFile.getAbsoluteFile().getParentFile();
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith(prefix) && name.endsWith(".idx");
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    private static void deleteQuietly(File f) {
+        if (f != null && f.exists() && !f.delete()) {
+            // No Windows um arquivo ainda mapeado não pode ser apagado; é removido na próxima abertura
+            LOGGER.fine("[MappedVaultIndex] Não foi possível apagar " + f);
+        }
+    }
+}
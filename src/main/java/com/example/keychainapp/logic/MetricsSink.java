@@ -0,0 +1,19 @@
+package com.example.keychainapp.logic;
+
+/**
+ * Destino extra para as medições do KeychainMetrics (StatsD, Micrometer, logs...).
+ *
+ * Registrado com KeychainMetrics.addSink() ou pela propriedade keychain.metrics.sink (nome de
+ * uma classe com construtor público sem argumentos). record() é chamado na própria thread da
+ * operação, logo depois dela terminar: deve ser rápido e não pode bloquear.
+ */
+public interface MetricsSink {
+
+    /**
+     * @param operation nome da operação (savePassword, retrieve, ...)
+     * @param backend backend do SystemKeychain ou armazenamento do KeychainService (vault, files)
+     * @param durationNanos duração da operação
+     * @param success false se a operação terminou com exceção
+     */
+    void record(String operation, String backend, long durationNanos, boolean success);
+}
@@ -0,0 +1,77 @@
+package com.example.keychainapp.logic;
+
+/**
+ * Retrato das métricas de uma operação em um backend. Latências em microssegundos.
+ */
+public class OperationSnapshot {
+    private final String operation;
+    private final String backend;
+    private final long count;
+    private final long errors;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p99Micros;
+    private final double p999Micros;
+    private final double maxMicros;
+
+    OperationSnapshot(String operation, String backend, long count, long errors, LatencyHistogram latency) {
+        this.operation = operation;
+        this.backend = backend;
+        this.count = count;
+        this.errors = errors;
+        this.meanMicros = latency.getMean() / 1000.0;
+        this.p50Micros = latency.valueAt(0.50) / 1000.0;
+        this.p99Micros = latency.valueAt(0.99) / 1000.0;
+        this.p999Micros = latency.valueAt(0.999) / 1000.0;
+        this.maxMicros = latency.getMax() / 1000.0;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Fração das chamadas que terminaram com exceção, entre 0 e 1.
+     */
+    public double getErrorRate() {
+        return count == 0 ? 0 : (double) errors / count;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getP999Micros() {
+        return p999Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s]: %d chamadas, %d erros, p50=%.1f us, p99=%.1f us, p999=%.1f us, max=%.1f us",
+            operation, backend, count, errors, p50Micros, p99Micros, p999Micros, maxMicros);
+    }
+}
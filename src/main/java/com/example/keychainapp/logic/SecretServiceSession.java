@@ -0,0 +1,295 @@
+package com.example.keychainapp.logic;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * Sessão persistente com o Secret Service no Linux.
+ *
+ * Em vez de iniciar um secret-tool por operação, mantém um único processo auxiliar aberto
+ * (por padrão o script secret_service_helper.py, que usa libsecret) e envia as requisições
+ * pela entrada padrão dele. Cada requisição leva um id; uma thread leitora entrega cada
+ * resposta a quem a pediu, então várias threads podem usar a mesma sessão.
+ *
+ * O comando do auxiliar pode ser trocado com a propriedade keychain.secretservice.helper,
+ * o que permite usar um keyring falso (qualquer programa que fale o mesmo protocolo) em
+ * testes e na integração contínua, sem sessão gráfica.
+ */
+final class SecretServiceSession implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(SecretServiceSession.class.getName());
+    private static final String HELPER_RESOURCE = "secret_service_helper.py";
+
+    private static final Object SHARED_LOCK = new Object();
+    private static SecretServiceSession shared;
+    private static boolean sharedUnavailable;
+
+    private final List<String> command;
+    private final long timeoutMs;
+    private final Object writeLock = new Object();
+    private final AtomicLong ids = new AtomicLong();
+    private Process process;
+    // requisições enviadas ao processo atual: cada processo tem o seu mapa, para que o fim da
+    // leitura de um auxiliar já descartado não derrube as requisições do que o substituiu
+    private ConcurrentHashMap<Long, CompletableFuture<String[]>> pending = new ConcurrentHashMap<>();
+    private OutputStream stdin;
+    private volatile boolean alive;
+
+    SecretServiceSession(List<String> command, long timeoutMs) {
+        this.command = command;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Sessão compartilhada pelo processo, iniciada no primeiro uso.
+     *
+     * @return a sessão, ou null se o auxiliar não puder ser iniciado (o chamador usa o secret-tool)
+     */
+    static SecretServiceSession shared() {
+        synchronized (SHARED_LOCK) {
+            if (shared != null || sharedUnavailable) {
+                return shared;
+            }
+            if (!Boolean.parseBoolean(System.getProperty("keychain.secretservice.session", "true"))) {
+                sharedUnavailable = true;
+                return null;
+            }
+            try {
+                SecretServiceSession session = new SecretServiceSession(helperCommand(), SystemKeychain.PROCESS_TIMEOUT_MS);
+                session.start();
+                shared = session;
+            } catch (Exception e) {
+                sharedUnavailable = true;
+                LOGGER.info("[SecretService] Sessão persistente indisponível, usando secret-tool por chamada: " + e.getMessage());
+            }
+            return shared;
+        }
+    }
+
+    String lookup(String service, String user) throws KeychainException {
+        String[] response = call("LOOKUP", service, user);
+        if ("NOTFOUND".equals(response[0])) {
+            return null;
+        }
+        if (response.length < 2) {
+            throw new KeychainException("Resposta do Secret Service sem valor em LOOKUP: " + response[0]);
+        }
+        // um valor vazio chega como campo vazio ("<id> OK "), não como campo ausente
+        return decode(response[1]);
+    }
+
+    void store(String service, String user, String password) throws KeychainException {
+        call("STORE", service, user, password);
+    }
+
+    /**
+     * @return true se a entrada existia
+     */
+    boolean clear(String service, String user) throws KeychainException {
+        return !"NOTFOUND".equals(call("CLEAR", service, user)[0]);
+    }
+
+    @Override
+    public void close() {
+        Process p;
+        ConcurrentHashMap<Long, CompletableFuture<String[]>> requests;
+        synchronized (writeLock) {
+            alive = false;
+            p = process;
+            process = null;
+            requests = pending;
+            pending = new ConcurrentHashMap<>();
+        }
+        if (p != null) {
+            try {
+                p.getOutputStream().close();
+                if (!p.waitFor(timeoutMs, TimeUnit.MILLISECONDS)) {
+                    p.destroyForcibly();
+                }
+            } catch (Exception e) {
+                p.destroyForcibly();
+            }
+        }
+        failPending(requests, new IOException("Sessão do Secret Service encerrada"));
+    }
+
+    /**
+     * Envia uma requisição e espera a resposta, no máximo pelo timeout configurado.
+     * Se o auxiliar morreu, ele é reiniciado uma vez antes de desistir.
+     */
+    private String[] call(String op, String... args) throws KeychainException {
+        long id = ids.incrementAndGet();
+        StringBuilder line = new StringBuilder().append(id).append(' ').append(op);
+        for (String arg : args) {
+            line.append(' ').append(Base64.getEncoder().encodeToString(arg.getBytes(StandardCharsets.UTF_8)));
+        }
+        line.append('\n');
+        CompletableFuture<String[]> future = new CompletableFuture<>();
+        ConcurrentHashMap<Long, CompletableFuture<String[]>> requests = null;
+        try {
+            synchronized (writeLock) {
+                if (!alive) {
+                    start();
+                }
+                requests = pending;
+                requests.put(id, future);
+                stdin.write(line.toString().getBytes(StandardCharsets.UTF_8));
+                stdin.flush();
+            }
+            String[] response = future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            if ("ERR".equals(response[0])) {
+                throw new KeychainException("Erro do Secret Service em " + op + ": " + (response.length > 1 ? decode(response[1]) : "?"));
+            }
+            return response;
+        } catch (TimeoutException e) {
+            // Um keyring travado não pode prender as próximas chamadas: descarta o processo
+            LOGGER.warning("[SecretService] Sem resposta em " + timeoutMs + " ms para " + op + ". Reiniciando o auxiliar.");
+            close();
+            throw new KeychainException("Tempo esgotado esperando o Secret Service (" + op + ")", e);
+        } catch (ExecutionException e) {
+            throw new KeychainException("Falha na comunicação com o Secret Service (" + op + ")", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KeychainException("Interrompido esperando o Secret Service (" + op + ")", e);
+        } catch (IOException e) {
+            close();
+            throw new KeychainException("Falha ao enviar requisição ao Secret Service (" + op + ")", e);
+        } finally {
+            if (requests != null) {
+                requests.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Inicia o auxiliar e espera a linha READY. Chamado com writeLock (ou antes de publicar a sessão).
+     */
+    private void start() throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        final Process p = pb.start();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
+        final CompletableFuture<String> ready = new CompletableFuture<>();
+        final ConcurrentHashMap<Long, CompletableFuture<String[]>> requests = new ConcurrentHashMap<>();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop(p, reader, ready, requests);
+            }
+        }, "secret-service-reader");
+        t.setDaemon(true);
+        t.start();
+        String first;
+        try {
+            first = ready.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            p.destroyForcibly();
+            throw new IOException("Auxiliar do Secret Service não respondeu: " + command.get(0), e);
+        }
+        if (!"READY".equals(first)) {
+            p.destroyForcibly();
+            String[] parts = first == null ? new String[0] : first.split(" ");
+            throw new IOException("Auxiliar do Secret Service falhou ao iniciar: "
+                + (parts.length > 1 ? decode(parts[1]) : first));
+        }
+        process = p;
+        stdin = p.getOutputStream();
+        pending = requests;
+        alive = true;
+        LOGGER.info("[SecretService] Sessão persistente iniciada (" + command.get(0) + ")");
+    }
+
+    private void readLoop(Process p, BufferedReader reader, CompletableFuture<String> ready,
+            ConcurrentHashMap<Long, CompletableFuture<String[]>> requests) {
+        try {
+            ready.complete(reader.readLine());
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // limite -1: o último campo pode ser vazio (senha vazia em Base64)
+                String[] parts = line.split(" ", -1);
+                if (parts.length < 2) {
+                    continue;
+                }
+                try {
+                    CompletableFuture<String[]> future = requests.get(Long.parseLong(parts[0]));
+                    if (future != null) {
+                        future.complete(Arrays.copyOfRange(parts, 1, parts.length));
+                    }
+                } catch (NumberFormatException e) {
+                    LOGGER.fine("[SecretService] Linha inesperada do auxiliar ignorada");
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "[SecretService] Leitura do auxiliar interrompida", e);
+        } finally {
+            ready.complete(null);
+            synchronized (writeLock) {
+                if (process == p) {
+                    alive = false;
+                    process = null;
+                }
+            }
+            failPending(requests, new IOException("Auxiliar do Secret Service terminou"));
+        }
+    }
+
+    private static void failPending(ConcurrentHashMap<Long, CompletableFuture<String[]>> requests, IOException e) {
+        for (CompletableFuture<String[]> future : requests.values()) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static String decode(String field) {
+        return new String(Base64.getDecoder().decode(field), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Comando do auxiliar: keychain.secretservice.helper, ou o script embutido rodando no python3.
+     */
+    static List<String> helperCommand() throws IOException {
+        String custom = System.getProperty("keychain.secretservice.helper");
+        if (custom != null && !custom.trim().isEmpty()) {
+            return Arrays.asList(custom.trim().split("\\s+"));
+        }
+        List<String> cmd = new ArrayList<>();
+        cmd.add("python3");
+        cmd.add("-u");
+        cmd.add("-c");
+        cmd.add(readResource(HELPER_RESOURCE));
+        return cmd;
+    }
+
+    private static String readResource(String name) throws IOException {
+        try (InputStream in = SecretServiceSession.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Recurso não encontrado: " + name);
+            }
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                buf.write(chunk, 0, n);
+            }
+            return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.keychainapp.logic;
+
+import java.nio.charset.StandardCharsets;
+
+import com.example.keychainapp.logic.SystemKeychain.CommandResult;
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * Secret Service do Linux (GNOME Keyring, KWallet com libsecret).
+ *
+ * Usa a sessão persistente do SecretServiceSession quando ela está disponível; caso contrário
+ * inicia um secret-tool por operação.
+ */
+class SecretToolBackend implements KeychainBackend {
+    static final String NAME = "secret-tool";
+    static final String SECRET_TOOL = "secret-tool";
+
+    private final SecretServiceSession session;
+    private final String command;
+
+    SecretToolBackend(SecretServiceSession session) {
+        this(session, SECRET_TOOL);
+    }
+
+    /**
+     * @param command executável compatível com o secret-tool (um script falso nos benchmarks)
+     */
+    SecretToolBackend(SecretServiceSession session, String command) {
+        this.session = session;
+        this.command = command;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void savePassword(String service, String user, String password) throws KeychainException {
+        if (session != null) {
+            session.store(service, user, password);
+            return;
+        }
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command, "store", "--label=" + service, "service", service, "key", user);
+            int exit = SystemKeychain.runCommand(pb, command, password.getBytes(StandardCharsets.UTF_8)).exit;
+            if (exit != 0) {
+                throw new KeychainException("Falha ao salvar senha usando secret-tool (exit code: " + exit + ")");
+            }
+        } catch (KeychainException ke) {
+            throw ke;
+        } catch (Exception e) {
+            throw new KeychainException("Exceção inesperada ao salvar com secret-tool", e);
+        }
+    }
+
+    @Override
+    public String loadPassword(String service, String user) throws KeychainException {
+        if (session != null) {
+            String value = session.lookup(service, user);
+            if (value == null || value.isEmpty()) {
+                throw new KeychainException("Senha não encontrada no Secret Service para service='" + service + "', key='" + user + "'");
+            }
+            return value;
+        }
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command, "lookup", "service", service, "key", user);
+            CommandResult result = SystemKeychain.runCommand(pb, command, null);
+            int exit = result.exit;
+            String value = result.firstLine;
+            if (exit != 0) {
+                throw new KeychainException("Falha ao ler senha usando secret-tool (exit code: " + exit + ")");
+            }
+            if (value == null || value.isEmpty()) {
+                throw new KeychainException("Senha não encontrada usando secret-tool para service='" + service + "', key='" + user + "'");
+            }
+            return value;
+        } catch (KeychainException ke) {
+            throw ke;
+        } catch (Exception e) {
+            throw new KeychainException("Exceção inesperada ao ler com secret-tool", e);
+        }
+    }
+
+    @Override
+    public boolean deletePassword(String service, String user) throws KeychainException {
+        if (session != null) {
+            return session.clear(service, user);
+        }
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command, "clear", "service", service, "key", user);
+            int exit = SystemKeychain.runCommand(pb, command, null).exit;
+            if (exit != 0) {
+                throw new KeychainException("Falha ao remover senha usando secret-tool (exit code: " + exit + ")");
+            }
+            // secret-tool clear não informa se a entrada existia
+            return true;
+        } catch (KeychainException ke) {
+            throw ke;
+        } catch (Exception e) {
+            throw new KeychainException("Exceção inesperada ao remover com secret-tool", e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.keychainapp.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Descrição de um snapshot gravado por KeychainService.exportSnapshot(): o que ele contém e a
+ * sequência do cofre em que foi tirado, que serve de base para o próximo snapshot incremental.
+ */
+public class SnapshotInfo {
+    private final boolean incremental;
+    private final long createdMillis;
+    private final long baseSequence;
+    private final long sequence;
+    private final int entries;
+    private final int blobs;
+    private final long bytes;
+    // Nome do arquivo -> stamp de todos os blobs existentes na captura
+    private final Map<String, String> blobStamps;
+
+    SnapshotInfo(boolean incremental, long createdMillis, long baseSequence, long sequence, int entries, int blobs,
+                 long bytes, Map<String, String> blobStamps) {
+        this.incremental = incremental;
+        this.createdMillis = createdMillis;
+        this.baseSequence = baseSequence;
+        this.sequence = sequence;
+        this.entries = entries;
+        this.blobs = blobs;
+        this.bytes = bytes;
+        this.blobStamps = Collections.unmodifiableMap(blobStamps);
+    }
+
+    /**
+     * Lê o cabeçalho e a lista de blobs de um snapshot gravado, para usá-lo como base de um
+     * snapshot incremental sem precisar guardar o SnapshotInfo devolvido na exportação.
+     */
+    public static SnapshotInfo read(File snapshot) throws IOException {
+        try (KeychainSnapshot.Archive archive = KeychainSnapshot.Archive.open(snapshot)) {
+            return archive.info();
+        }
+    }
+
+    /**
+     * @return true se o snapshot contém apenas o que mudou desde o snapshot base
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * @return a sequência do snapshot base (0 em um snapshot completo)
+     */
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+
+    /**
+     * @return a maior sequência do cofre incluída no snapshot
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return número de valores gravados no snapshot
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return número de blobs cujo conteúdo foi gravado no snapshot
+     */
+    public int getBlobs() {
+        return blobs;
+    }
+
+    /**
+     * @return tamanho do snapshot em bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    Map<String, String> blobStamps() {
+        return blobStamps;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotInfo[" + (incremental ? "incremental desde " + baseSequence + ", " : "completo, ")
+            + "seq=" + sequence + ", valores=" + entries + ", blobs=" + blobs + ", bytes=" + bytes + "]";
+    }
+}
@@ -2,16 +2,28 @@
 
 package com.example.keychainapp.logic;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.sun.jna.Library;
-import com.sun.jna.Memory;
 import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 import com.sun.jna.Structure;
@@ -24,86 +36,170 @@ import com.sun.jna.platform.win32.WinBase.FILETIME;
 public class SystemKeychain {
     private static final Logger LOGGER = Logger.getLogger(SystemKeychain.class.getName());
     private static final String OS_NAME = "os.name";
-    private static final String SECRET_TOOL = "secret-tool";
-    private static final String KWALLETCLI = "kwalletcli";
+    // Tempo máximo de espera por um processo externo (security, secret-tool, kwalletcli)
+    static final long PROCESS_TIMEOUT_MS = Long.getLong("keychain.process.timeoutMs", 10000L);
+    private static final Object BACKEND_LOCK = new Object();
+    private static volatile KeychainBackend backend;
+    // Detecção que falhou e o keychain.backend em vigor nela: repetida sem refazer a detecção
+    // (which, início do auxiliar do Secret Service) até setBackend ou keychain.backend mudar
+    private static KeychainException detectionFailure;
+    private static String detectionFailureBackend;
+    // threads que leem stdout/stderr dos processos externos enquanto eles rodam
+    private static final ExecutorService PROCESS_OUTPUT = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "keychain-process-output-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
 
     private SystemKeychain() { /* utilitário */ }
     public static void savePassword(String service, String user, String password) throws KeychainException {
-        LOGGER.info("[Keychain] savePassword chamado para service='" + service + "', key='" + user + "'");
-        String os = System.getProperty(OS_NAME).toLowerCase();
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("[Keychain] savePassword chamado para service='" + service + "', key='" + user + "'");
+        }
+        KeychainBackend b = getBackend();
+        long start = KeychainMetrics.start();
+        boolean ok = false;
         try {
-            if (os.contains("mac")) {
-                ProcessBuilder pb = new ProcessBuilder("security", "add-generic-password", "-a", user, "-s", service, "-w", password, "-U");
-                Process p = pb.start();
-                int exit = p.waitFor();
-                if (exit != 0) {
-                    throw new KeychainException("Falha ao salvar senha no keychain do macOS (exit code: " + exit + ")");
-                }
-                return;
-            } else if (os.contains("linux")) {
-                if (isCommandAvailable(SECRET_TOOL)) {
-                    ProcessBuilder pb = new ProcessBuilder(SECRET_TOOL, "store", "--label=" + service, "service", service, "key", user);
-                    Process p = pb.start();
-                    OutputStream osOut = p.getOutputStream();
-                    osOut.write(password.getBytes(StandardCharsets.UTF_8));
-                    osOut.close();
-                    int exit = p.waitFor();
-                    if (exit != 0) {
-                        throw new KeychainException("Falha ao salvar senha usando secret-tool (exit code: " + exit + ")");
-                    }
-                    return;
-                }
-                if (isCommandAvailable(KWALLETCLI)) {
-                    ProcessBuilder pb = new ProcessBuilder(KWALLETCLI, "-f", service, "-e", user, "-p");
-                    Process p = pb.start();
-                    OutputStream osOut = p.getOutputStream();
-                    osOut.write(password.getBytes(StandardCharsets.UTF_8));
-                    osOut.close();
-                    int exit = p.waitFor();
-                    if (exit != 0) {
-                        throw new KeychainException("Falha ao salvar senha usando kwalletcli (exit code: " + exit + ")");
+            b.savePassword(service, user, password);
+            ok = true;
+        } finally {
+            KeychainMetrics.record("savePassword", b.getName(), start, ok);
+        }
+    }
+
+    public static String loadPassword(String service, String user) throws KeychainException {
+        KeychainBackend b = getBackend();
+        long start = KeychainMetrics.start();
+        boolean ok = false;
+        try {
+            String password = b.loadPassword(service, user);
+            ok = true;
+            return password;
+        } finally {
+            KeychainMetrics.record("loadPassword", b.getName(), start, ok);
+        }
+    }
+
+    /**
+     * @return true se a senha existia
+     */
+    public static boolean deletePassword(String service, String user) throws KeychainException {
+        KeychainBackend b = getBackend();
+        long start = KeychainMetrics.start();
+        boolean ok = false;
+        try {
+            boolean removed = b.deletePassword(service, user);
+            ok = true;
+            return removed;
+        } finally {
+            KeychainMetrics.record("deletePassword", b.getName(), start, ok);
+        }
+    }
+
+    /**
+     * Versão assíncrona de savePassword, executada no pool de KeychainAsync.
+     */
+    public static CompletableFuture<Void> savePasswordAsync(final String service, final String user, final String password) {
+        return KeychainAsync.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws KeychainException {
+                savePassword(service, user, password);
+                return null;
+            }
+        }, "savePassword");
+    }
+
+    /**
+     * Versão assíncrona de loadPassword. O futuro falha com KeychainException, TimeoutException
+     * (keychain.async.timeoutMs) ou RejectedExecutionException (pool saturado).
+     */
+    public static CompletableFuture<String> loadPasswordAsync(final String service, final String user) {
+        return KeychainAsync.submit(new Callable<String>() {
+            @Override
+            public String call() throws KeychainException {
+                return loadPassword(service, user);
+            }
+        }, "loadPassword");
+    }
+
+    /**
+     * Backend em uso, detectado na primeira chamada (ver KeychainBackends). Uma detecção que
+     * falhou não é refeita a cada chamada: a mesma falha é devolvida até setBackend ou até a
+     * propriedade keychain.backend mudar.
+     */
+    public static KeychainBackend getBackend() throws KeychainException {
+        KeychainBackend b = backend;
+        if (b == null) {
+            synchronized (BACKEND_LOCK) {
+                b = backend;
+                if (b == null) {
+                    String forced = System.getProperty("keychain.backend");
+                    if (detectionFailure != null && Objects.equals(forced, detectionFailureBackend)) {
+                        throw new KeychainException(detectionFailure.getMessage(), detectionFailure);
                     }
-                    return;
-                }
-                throw new KeychainException("Nenhum keychain suportado encontrado no Linux (secret-tool ou kwalletcli)");
-            } else if (os.contains("win")) {
-                // Usa JNA para salvar/atualizar credencial no Windows Credential Manager
-                String target = service + ":" + user;
-                try {
-                    byte[] passwordBytes = (password + "\0").getBytes(StandardCharsets.UTF_16LE);
-                    WinCred.CREDENTIAL cred = new WinCred.CREDENTIAL();
-                    cred.flags = new DWORD(0);
-                    cred.type = new DWORD(WinCred.CRED_TYPE_GENERIC);
-                    cred.targetName = target;
-                    cred.comment = null;
-                    cred.lastWritten = new FILETIME();
-                    cred.credentialBlobSize = new DWORD(passwordBytes.length);
-                    cred.credentialBlob = new Memory(passwordBytes.length);
-                    cred.credentialBlob.write(0, passwordBytes, 0, passwordBytes.length);
-                    cred.persist = new DWORD(WinCred.CRED_PERSIST_LOCAL_MACHINE);
-                    cred.attributeCount = new DWORD(0);
-                    cred.attributes = null;
-                    cred.targetAlias = null;
-                    cred.userName = user;
-                    boolean result = WinCred.INSTANCE.CredWriteW(cred, 0);
-                    if (!result) {
-                        int err = Kernel32.INSTANCE.GetLastError();
-                        throw new KeychainException("Erro ao salvar credencial no Windows Credential Manager (código: " + err + ")");
+                    try {
+                        b = WriteBehindBackend.wrapIfEnabled(KeychainCache.wrapIfEnabled(KeychainBackends.detect()));
+                    } catch (KeychainException e) {
+                        detectionFailure = e;
+                        detectionFailureBackend = forced;
+                        throw e;
                     }
-                    LOGGER.info("[Windows] Credencial salva com sucesso no Credential Manager: " + target);
-                    return;
-                } catch (KeychainException ke) {
-                    throw ke;
-                } catch (Exception e) {
-                    throw new KeychainException("Exceção ao acessar o Credential Manager via JNA. Veja o README para instruções.", e);
+                    detectionFailure = null;
+                    backend = b;
                 }
-            } else {
-                throw new KeychainException("Sistema operacional não suportado para keychain: " + os);
             }
-        } catch (KeychainException ke) {
-            throw ke;
-        } catch (Exception e) {
-            throw new KeychainException("Exceção inesperada em savePassword", e);
+        }
+        return b;
+    }
+
+    /**
+     * Troca o backend, por exemplo por um InMemoryBackend em testes. null volta à detecção automática.
+     * Gravações adiadas do backend anterior são gravadas antes da troca.
+     */
+    public static void setBackend(KeychainBackend newBackend) {
+        synchronized (BACKEND_LOCK) {
+            if (backend instanceof WriteBehindBackend && backend != newBackend) {
+                ((WriteBehindBackend) backend).close();
+            }
+            backend = newBackend;
+            detectionFailure = null;
+        }
+    }
+
+    /**
+     * Cache de leitura em uso (keychain.cache.enabled), ou null se as leituras vão direto ao backend.
+     */
+    public static KeychainCache getCache() {
+        KeychainBackend b = backend;
+        if (b instanceof WriteBehindBackend) {
+            b = ((WriteBehindBackend) b).getDelegate();
+        }
+        return b instanceof KeychainCache ? (KeychainCache) b : null;
+    }
+
+    /**
+     * Gravação adiada em uso (keychain.writeBehind.enabled), ou null se savePassword grava direto no backend.
+     */
+    public static WriteBehindBackend getWriteBehind() {
+        KeychainBackend b = backend;
+        return b instanceof WriteBehindBackend ? (WriteBehindBackend) b : null;
+    }
+
+    /**
+     * Com gravação adiada, só retorna quando tudo o que foi salvo antes da chamada estiver no
+     * keychain do SO. Sem ela, não faz nada.
+     *
+     * @throws KeychainException se alguma senha pendente não pôde ser gravada (ela continua pendente)
+     */
+    public static void flush() throws KeychainException {
+        WriteBehindBackend writeBehind = getWriteBehind();
+        if (writeBehind != null) {
+            writeBehind.flush();
         }
     }
 
@@ -139,92 +235,6 @@ public class SystemKeychain {
         return sb.toString();
     }
 
-    public static String loadPassword(String service, String user) throws KeychainException {
-        String os = System.getProperty(OS_NAME).toLowerCase();
-        try {
-            if (os.contains("mac")) {
-                ProcessBuilder pb = new ProcessBuilder("security", "find-generic-password", "-a", user, "-s", service, "-w");
-                Process p = pb.start();
-                BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
-                String value = reader.readLine();
-                int exit = p.waitFor();
-                if (exit != 0) {
-                    throw new KeychainException("Falha ao ler senha do keychain do macOS (exit code: " + exit + ")");
-                }
-                if (value == null || value.isEmpty()) {
-                    throw new KeychainException("Senha não encontrada no keychain do macOS para service='" + service + "', key='" + user + "'");
-                }
-                return value;
-            } else if (os.contains("linux")) {
-                if (isCommandAvailable(SECRET_TOOL)) {
-                    ProcessBuilder pb = new ProcessBuilder(SECRET_TOOL, "lookup", "service", service, "key", user);
-                    Process p = pb.start();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
-                    String value = reader.readLine();
-                    int exit = p.waitFor();
-                    if (exit != 0) {
-                        throw new KeychainException("Falha ao ler senha usando secret-tool (exit code: " + exit + ")");
-                    }
-                    if (value == null || value.isEmpty()) {
-                        throw new KeychainException("Senha não encontrada usando secret-tool para service='" + service + "', key='" + user + "'");
-                    }
-                    return value;
-                }
-                if (isCommandAvailable(KWALLETCLI)) {
-                    ProcessBuilder pb = new ProcessBuilder(KWALLETCLI, "-f", service, "-r", user);
-                    Process p = pb.start();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
-                    String value = reader.readLine();
-                    int exit = p.waitFor();
-                    if (exit != 0) {
-                        throw new KeychainException("Falha ao ler senha usando kwalletcli (exit code: " + exit + ")");
-                    }
-                    if (value == null || value.isEmpty()) {
-                        throw new KeychainException("Senha não encontrada usando kwalletcli para service='" + service + "', key='" + user + "'");
-                    }
-                    return value;
-                }
-                throw new KeychainException("Nenhum keychain suportado encontrado no Linux (secret-tool ou kwalletcli)");
-            } else if (os.contains("win")) {
-                // Usa JNA para ler a senha do Windows Credential Manager
-                String target = service + ":" + user;
-                try {
-                    PointerByReference pCred = new PointerByReference();
-                    boolean found = WinCred.INSTANCE.CredReadW(target, WinCred.CRED_TYPE_GENERIC, 0, pCred);
-                    if (found) {
-                        WinCred.CREDENTIAL cred = new WinCred.CREDENTIAL(pCred.getValue());
-                        cred.read();
-                        int len = cred.credentialBlobSize.intValue();
-                        byte[] passwordBytes = cred.credentialBlob.getByteArray(0, len);
-                        String password = new String(passwordBytes, StandardCharsets.UTF_16LE);
-                        // Remove null terminator if present
-                        int nullIndex = password.indexOf('\0');
-                        if (nullIndex != -1) {
-                            password = password.substring(0, nullIndex);
-                        }
-                        WinCred.INSTANCE.CredFree(pCred.getValue());
-                        if (password == null || password.isEmpty()) {
-                            throw new KeychainException("Senha não encontrada no Credential Manager do Windows para service='" + service + "', key='" + user + "'");
-                        }
-                        return password;
-                    } else {
-                        int err = Kernel32.INSTANCE.GetLastError();
-                        throw new KeychainException("Credencial não encontrada no Windows Credential Manager (código: " + err + ")");
-                    }
-                } catch (KeychainException ke) {
-                    throw ke;
-                } catch (Exception e) {
-                    throw new KeychainException("Erro ao acessar o Credential Manager via JNA. Veja o README para instruções.", e);
-                }
-            } else {
-                throw new KeychainException("Sistema operacional não suportado para keychain: " + os);
-            }
-        } catch (KeychainException ke) {
-            throw ke;
-        } catch (Exception e) {
-            throw new KeychainException("Exceção inesperada em loadPassword", e);
-        }
-    }
     /**
      * Exceção para erros de keychain.
      */
@@ -234,17 +244,121 @@ public class SystemKeychain {
         public KeychainException(String msg, Throwable t) { super(msg, t); }
     }
 
-    private static boolean isCommandAvailable(String command) {
+    static boolean isCommandAvailable(String command) {
         try {
-            ProcessBuilder pb = new ProcessBuilder("which", command);
-            Process p = pb.start();
-            return p.waitFor() == 0;
+            return runCommand(new ProcessBuilder("which", command), "which", null).exit == 0;
         } catch (Exception e) {
             LOGGER.log(Level.WARNING, "Erro ao verificar comando: {0}", command);
             return false;
         }
     }
 
+    /**
+     * Espera o processo terminar por no máximo keychain.process.timeoutMs.
+     * Um keyring travado não pode bloquear a thread chamadora para sempre.
+     */
+    static int waitForExit(Process p, String what) throws KeychainException, InterruptedException {
+        if (!p.waitFor(PROCESS_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            p.destroyForcibly();
+            throw new KeychainException("Tempo esgotado (" + PROCESS_TIMEOUT_MS + " ms) esperando " + what);
+        }
+        return p.exitValue();
+    }
+
+    /**
+     * Executa um comando externo (security, secret-tool, kwalletcli) com o limite de waitForExit.
+     * stdout e stderr são lidos enquanto o processo roda, e não depois de ele terminar: um processo
+     * que enche o pipe de saída ficaria bloqueado até o tempo esgotar. Os três pipes são sempre
+     * fechados.
+     *
+     * @param input escrito no stdin do processo, ou null para só fechá-lo
+     */
+    static CommandResult runCommand(ProcessBuilder pb, String what, byte[] input)
+            throws KeychainException, IOException, InterruptedException {
+        Process p = pb.start();
+        try {
+            Future<byte[]> out = PROCESS_OUTPUT.submit(drain(p.getInputStream()));
+            PROCESS_OUTPUT.submit(drain(p.getErrorStream()));
+            OutputStream stdin = p.getOutputStream();
+            try {
+                if (input != null) {
+                    stdin.write(input);
+                }
+            } finally {
+                stdin.close();
+            }
+            int exit = waitForExit(p, what);
+            byte[] output;
+            try {
+                // o processo já terminou: o pipe chega ao fim logo, a menos que um filho o mantenha aberto
+                output = out.get(PROCESS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new KeychainException("Tempo esgotado (" + PROCESS_TIMEOUT_MS + " ms) lendo a saída de " + what);
+            } catch (ExecutionException e) {
+                throw new IOException("Falha ao ler a saída de " + what, e.getCause());
+            }
+            try {
+                return new CommandResult(exit, firstLine(output));
+            } finally {
+                Arrays.fill(output, (byte) 0);
+            }
+        } finally {
+            if (p.isAlive()) {
+                p.destroyForcibly();
+            }
+            closeQuietly(p.getOutputStream());
+            closeQuietly(p.getInputStream());
+            closeQuietly(p.getErrorStream());
+        }
+    }
+
+    private static Callable<byte[]> drain(final InputStream in) {
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    bytes.write(buf, 0, n);
+                }
+                return bytes.toByteArray();
+            }
+        };
+    }
+
+    private static String firstLine(byte[] output) {
+        if (output.length == 0) {
+            return null;
+        }
+        int end = 0;
+        while (end < output.length && output[end] != '\n' && output[end] != '\r') {
+            end++;
+        }
+        return new String(output, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+            // o processo já terminou; nada a fazer
+        }
+    }
+
+    /**
+     * Código de saída e primeira linha do stdout de runCommand (null se o stdout veio vazio).
+     */
+    static final class CommandResult {
+        final int exit;
+        final String firstLine;
+
+        CommandResult(int exit, String firstLine) {
+            this.exit = exit;
+            this.firstLine = firstLine;
+        }
+    }
+
     // --- JNA WinCred interface ---
     public static class WinCred {
         public static final int CRED_TYPE_GENERIC = 1;
@@ -254,6 +368,7 @@ public class SystemKeychain {
             Advapi32 INSTANCE = Native.load("Advapi32", Advapi32.class);
             boolean CredWriteW(CREDENTIAL cred, int flags);
             boolean CredReadW(String target, int type, int reservedFlag, PointerByReference pCredential);
+            boolean CredDeleteW(String target, int type, int flags);
             boolean CredEnumerateW(String filter, int flags, IntByReference count, PointerByReference pCredentials);
             void CredFree(Pointer cred);
         }
@@ -0,0 +1,187 @@
+package com.example.keychainapp.logic;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Formato legado: um arquivo "chave.txt" por entrada, com o valor cifrado em Base64.
+ *
+ * Mantido para compatibilidade (keychain.storage=files) e como origem da migração para o VaultStore.
+ *
+ * Seguro para uso concorrente: cada gravação escreve um arquivo temporário e o troca pelo
+ * definitivo com um rename atômico, então uma leitura vê o valor antigo ou o novo, nunca um
+ * arquivo truncado, e leitores não esperam por escritores. Gravações da mesma chave são
+ * serializadas por um lock escolhido pelo hash da chave (lock striping); chaves diferentes
+ * gravam em paralelo.
+ */
+class TextFileStore implements ValueStore {
+    static final String SUFFIX = ".txt";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int STRIPES = 64;
+
+    private final File dir;
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    TextFileStore(File dir) {
+        this.dir = dir;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws IOException {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            File target = fileFor(key);
+            Path temp = Files.createTempFile(dir.toPath(), "." + target.getName(), TEMP_SUFFIX);
+            boolean moved = false;
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    writer.write(Base64.getEncoder().encodeToString(value));
+                }
+                Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                moved = true;
+            } finally {
+                if (!moved) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, IOException> putAll(Map<String, byte[]> values) {
+        Map<String, IOException> failed = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> e : values.entrySet()) {
+            try {
+                put(e.getKey(), e.getValue());
+            } catch (IOException ex) {
+                failed.put(e.getKey(), ex);
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        String encodedValue;
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileFor(key)))) {
+            encodedValue = reader.readLine();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        if (encodedValue == null) {
+            return null;
+        }
+        return Base64.getDecoder().decode(encodedValue);
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            return fileFor(key).delete();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<String> replaceAll(Map<String, byte[]> expected, Map<String, byte[]> values) throws IOException {
+        Set<String> replaced = new HashSet<>();
+        for (Map.Entry<String, byte[]> e : values.entrySet()) {
+            ReentrantLock lock = lockFor(e.getKey());
+            lock.lock();
+            try {
+                if (Arrays.equals(get(e.getKey()), expected.get(e.getKey()))) {
+                    put(e.getKey(), e.getValue());
+                    replaced.add(e.getKey());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return replaced;
+    }
+
+    @Override
+    public Collection<String> keys() {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.isFile() && f.getName().endsWith(SUFFIX);
+            }
+        });
+        List<String> keys = new ArrayList<>();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                keys.add(name.substring(0, name.length() - SUFFIX.length()));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Lista o diretório a cada chamada (o formato legado não tem índice); só os nomes com o
+     * prefixo são ordenados.
+     */
+    @Override
+    public List<String> scan(final String prefix, String after, int limit) {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                String name = f.getName();
+                return name.startsWith(prefix) && name.endsWith(SUFFIX) && f.isFile();
+            }
+        });
+        TreeSet<String> keys = new TreeSet<>();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                keys.add(name.substring(0, name.length() - SUFFIX.length()));
+            }
+        }
+        return VaultStore.scanSorted(keys, prefix, after, limit);
+    }
+
+    @Override
+    public void close() {
+        // nada a liberar
+    }
+
+    File fileFor(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+
+    private ReentrantLock lockFor(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return stripes[(h & 0x7fffffff) % STRIPES];
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.keychainapp.logic;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * Socket de domínio Unix (AF_UNIX, SOCK_STREAM) usado pelo KeychainAgent e pelo
+ * KeychainAgentClient. As chamadas vão direto à libc via JNA, porque o Java 7 não tem sockets
+ * Unix. Só Linux e macOS: em outros sistemas as operações lançam IOException.
+ */
+final class UnixSocket implements Closeable {
+    private static final int AF_UNIX = 1;
+    private static final int SOCK_STREAM = 1;
+    private static final int SOL_SOCKET = Platform.isMac() ? 0xFFFF : 1;
+    private static final int SO_PEERCRED = 17;
+    private static final int SHUT_RDWR = 2;
+    // Linux: não gera SIGPIPE ao escrever para um cliente que já fechou a conexão
+    private static final int MSG_NOSIGNAL = Platform.isLinux() ? 0x4000 : 0;
+    private static final int SO_NOSIGPIPE = 0x1022;
+    private static final int EINTR = 4;
+    // sun_path: 108 bytes no Linux, 104 no macOS, incluindo o terminador
+    private static final int MAX_PATH_BYTES = Platform.isMac() ? 103 : 107;
+    // st_mode: tipo do arquivo
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFSOCK = 0140000;
+
+    private final int fd;
+    private volatile boolean closed;
+    private boolean released;
+
+    private UnixSocket(int fd) {
+        this.fd = fd;
+    }
+
+    /**
+     * Cria o socket em path e passa a aceitar conexões. O arquivo do socket fica só com permissão
+     * do dono (0600).
+     */
+    static UnixSocket listen(File path, int backlog) throws IOException {
+        byte[] address = address(path);
+        UnixSocket s = open();
+        try {
+            if (LibC.INSTANCE.bind(s.fd, address, address.length) < 0) {
+                throw error("bind " + path);
+            }
+            if (LibC.INSTANCE.chmod(path.getPath(), 0600) < 0) {
+                throw error("chmod " + path);
+            }
+            if (LibC.INSTANCE.listen(s.fd, backlog) < 0) {
+                throw error("listen " + path);
+            }
+            return s;
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+    }
+
+    static UnixSocket connect(File path) throws IOException {
+        byte[] address = address(path);
+        UnixSocket s = open();
+        try {
+            while (LibC.INSTANCE.connect(s.fd, address, address.length) < 0) {
+                if (Native.getLastError() != EINTR) {
+                    throw error("connect " + path);
+                }
+            }
+            s.noSigpipe();
+            return s;
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Espera a próxima conexão. Depois de shutdown() lança IOException.
+     */
+    UnixSocket accept() throws IOException {
+        while (true) {
+            int client = LibC.INSTANCE.accept(fd, null, null);
+            if (client >= 0) {
+                UnixSocket s = new UnixSocket(client);
+                s.noSigpipe();
+                return s;
+            }
+            if (closed || Native.getLastError() != EINTR) {
+                throw error("accept");
+            }
+        }
+    }
+
+    /**
+     * @return o UID do processo do outro lado da conexão, informado pelo kernel
+     */
+    int peerUid() throws IOException {
+        if (Platform.isMac()) {
+            IntByReference uid = new IntByReference();
+            IntByReference gid = new IntByReference();
+            if (LibC.INSTANCE.getpeereid(fd, uid, gid) < 0) {
+                throw error("getpeereid");
+            }
+            return uid.getValue();
+        }
+        if (!Platform.isLinux()) {
+            throw new IOException("Identificação do cliente do socket não suportada neste sistema");
+        }
+        // struct ucred { pid_t pid; uid_t uid; gid_t gid; }
+        int[] ucred = new int[3];
+        IntByReference length = new IntByReference(12);
+        if (LibC.INSTANCE.getsockopt(fd, SOL_SOCKET, SO_PEERCRED, ucred, length) < 0) {
+            throw error("getsockopt(SO_PEERCRED)");
+        }
+        return ucred[1];
+    }
+
+    static int currentUid() {
+        return LibC.INSTANCE.getuid();
+    }
+
+    InputStream getInputStream() {
+        return new InputStream() {
+            private final byte[] one = new byte[1];
+            // recv() grava sempre no início do array: leituras com deslocamento passam por aqui.
+            // Os dois são apagados depois de cada leitura, pois podem conter valores em claro.
+            private final byte[] scratch = new byte[8192];
+
+            @Override
+            public int read() throws IOException {
+                int b = read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                one[0] = 0;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                byte[] buf = off == 0 ? b : scratch;
+                int count = off == 0 ? len : Math.min(len, scratch.length);
+                while (true) {
+                    long n = LibC.INSTANCE.recv(fd, buf, new NativeLong(count), 0).longValue();
+                    if (n > 0) {
+                        if (buf != b) {
+                            System.arraycopy(buf, 0, b, off, (int) n);
+                            Arrays.fill(buf, 0, (int) n, (byte) 0);
+                        }
+                        return (int) n;
+                    }
+                    if (n == 0) {
+                        return -1;
+                    }
+                    if (closed || Native.getLastError() != EINTR) {
+                        throw error("recv");
+                    }
+                }
+            }
+        };
+    }
+
+    OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    byte[] chunk = off == 0 ? b : Arrays.copyOfRange(b, off, off + len);
+                    long n;
+                    try {
+                        n = LibC.INSTANCE.send(fd, chunk, new NativeLong(len), MSG_NOSIGNAL).longValue();
+                    } finally {
+                        // a cópia pode conter valores em claro
+                        if (chunk != b) {
+                            Arrays.fill(chunk, (byte) 0);
+                        }
+                    }
+                    if (n < 0) {
+                        if (!closed && Native.getLastError() == EINTR) {
+                            continue;
+                        }
+                        throw error("send");
+                    }
+                    off += (int) n;
+                    len -= (int) n;
+                }
+            }
+        };
+    }
+
+    /**
+     * Interrompe um accept() ou recv() bloqueado em outra thread. Sincronizado com close(): depois
+     * dele o número do descritor pode já ter sido reaproveitado por outro arquivo aberto.
+     */
+    synchronized void shutdown() {
+        closed = true;
+        if (released) {
+            return;
+        }
+        LibC.INSTANCE.shutdown(fd, SHUT_RDWR);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (released) {
+            return;
+        }
+        released = true;
+        closed = true;
+        LibC.INSTANCE.close(fd);
+    }
+
+    /**
+     * Apaga o socket em path, conferindo antes com lstat (a visão "unix" de atributos, sem seguir
+     * links) que é um socket e que pertence ao usuário atual. Um arquivo comum, um link simbólico
+     * ou o socket de outro usuário no mesmo caminho nunca é apagado.
+     *
+     * @throws IOException se path não é um socket do usuário atual, ou não pôde ser conferido
+     */
+    static void unlink(File path) throws IOException {
+        Map<String, Object> attributes;
+        try {
+            attributes = Files.readAttributes(path.toPath(), "unix:mode,uid", LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            throw new IOException("Não foi possível conferir o tipo e o dono de " + path + ": " + e.getMessage(), e);
+        }
+        int mode = (Integer) attributes.get("mode");
+        int uid = (Integer) attributes.get("uid");
+        if ((mode & S_IFMT) != S_IFSOCK) {
+            throw new IOException(path + " não é um socket (modo " + Integer.toOctalString(mode) + ")");
+        }
+        if (uid != currentUid()) {
+            throw new IOException(path + " pertence ao UID " + uid + ", não ao UID " + currentUid());
+        }
+        if (LibC.INSTANCE.unlink(path.getPath()) < 0) {
+            throw error("unlink " + path);
+        }
+    }
+
+    private void noSigpipe() {
+        if (Platform.isMac()) {
+            LibC.INSTANCE.setsockopt(fd, SOL_SOCKET, SO_NOSIGPIPE, new int[] {1}, 4);
+        }
+    }
+
+    private static UnixSocket open() throws IOException {
+        if (!Platform.isLinux() && !Platform.isMac()) {
+            throw new IOException("Socket Unix disponível apenas no Linux e no macOS");
+        }
+        int fd = LibC.INSTANCE.socket(AF_UNIX, SOCK_STREAM, 0);
+        if (fd < 0) {
+            throw error("socket");
+        }
+        return new UnixSocket(fd);
+    }
+
+    /**
+     * struct sockaddr_un: no Linux família (short) + caminho; no macOS tamanho (byte) + família (byte) + caminho.
+     */
+    private static byte[] address(File path) throws IOException {
+        byte[] name = path.getPath().getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_PATH_BYTES) {
+            throw new IOException("Caminho do socket muito longo (" + name.length + " bytes, máximo "
+                + MAX_PATH_BYTES + "): " + path);
+        }
+        byte[] address = new byte[2 + name.length + 1];
+        if (Platform.isMac()) {
+            address[0] = (byte) address.length;
+            address[1] = AF_UNIX;
+        } else {
+            // sa_family_t na ordem de bytes da máquina
+            if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+                address[0] = AF_UNIX;
+            } else {
+                address[1] = AF_UNIX;
+            }
+        }
+        System.arraycopy(name, 0, address, 2, name.length);
+        return address;
+    }
+
+    private static IOException error(String call) {
+        int errno = Native.getLastError();
+        return new IOException(call + " falhou (errno " + errno + ")");
+    }
+
+    interface LibC extends Library {
+        LibC INSTANCE = Native.load("c", LibC.class);
+
+        int socket(int domain, int type, int protocol);
+        int bind(int fd, byte[] address, int length);
+        int listen(int fd, int backlog);
+        int accept(int fd, byte[] address, IntByReference length);
+        int connect(int fd, byte[] address, int length);
+        NativeLong recv(int fd, byte[] buf, NativeLong length, int flags);
+        NativeLong send(int fd, byte[] buf, NativeLong length, int flags);
+        int shutdown(int fd, int how);
+        int close(int fd);
+        int getsockopt(int fd, int level, int name, int[] value, IntByReference length);
+        int setsockopt(int fd, int level, int name, int[] value, int length);
+        int getpeereid(int fd, IntByReference uid, IntByReference gid);
+        int getuid();
+        int chmod(String path, int mode);
+        int unlink(String path);
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.keychainapp.logic;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Formato dos valores cifrados gravados no ValueStore.
+ *
+ * <pre>
+ * 'K' 'V' (2) | formato (1) | versão da chave (4) | ...
+ * formato 1: dados cifrados com CryptoUtils.cipher (AES/ECB/PKCS5)
+ * formato 2: nonce (12) | dados cifrados com AES/GCM + tag (16)
+ * formato 3: como o 2, seguido de 1 byte de enchimento
+ * </pre>
+ *
+ * Valores gravados antes da rotação de chaves não têm cabeçalho: são AES/ECB da versão 0.
+ * AES/ECB/PKCS5 sempre produz múltiplos de 16 bytes; o cabeçalho deixa o formato 1 com resto 7,
+ * e o formato 3 existe só para que um valor GCM nunca tenha tamanho múltiplo de 16. Assim o
+ * tamanho basta para separar os valores legados dos demais.
+ *
+ * No GCM o cabeçalho e o nome da chave entram como dados autenticados: um valor copiado para
+ * outra chave, ou com a versão da chave alterada, não decifra. O nonce de 96 bits é um prefixo
+ * aleatório de 64 bits sorteado por thread seguido de um contador de 32 bits da própria thread,
+ * então cifrar não passa por nenhum estado compartilhado (nem pelo SecureRandom, usado só para
+ * sortear o prefixo).
+ *
+ * Novos valores usam keychain.value.format (gcm, padrão, ou ecb, que ainda pode ser lido por
+ * versões anteriores); a leitura aceita todos os formatos.
+ */
+final class ValueEnvelope {
+    static final int HEADER_BYTES = 7;
+    static final byte FORMAT_ECB = 1;
+    static final byte FORMAT_GCM = 2;
+    private static final byte FORMAT_GCM_PADDED = 3;
+    static final byte DEFAULT_FORMAT = "ecb".equals(System.getProperty("keychain.value.format", "gcm")) ? FORMAT_ECB : FORMAT_GCM;
+    private static final byte MAGIC_0 = 'K';
+    private static final byte MAGIC_1 = 'V';
+    private static final int BLOCK_SIZE = 16;
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int GCM_OVERHEAD = HEADER_BYTES + NONCE_BYTES + TAG_BITS / 8;
+
+    private static final ThreadLocal<NonceSequence> NONCES = new ThreadLocal<NonceSequence>() {
+        @Override
+        protected NonceSequence initialValue() {
+            return new NonceSequence();
+        }
+    };
+
+    private ValueEnvelope() {
+    }
+
+    /**
+     * Cifra com a chave atual do anel no formato keychain.value.format, gravando direto no array
+     * final (sem cópia do texto cifrado).
+     */
+    static byte[] seal(KeyRing ring, String key, byte[] plain) throws GeneralSecurityException {
+        return seal(ring, key, plain, DEFAULT_FORMAT);
+    }
+
+    static byte[] seal(KeyRing ring, String key, byte[] plain, byte format) throws GeneralSecurityException {
+        if (format == FORMAT_ECB) {
+            Cipher cipher = CryptoUtils.cipher(Cipher.ENCRYPT_MODE, ring.current());
+            byte[] out = new byte[HEADER_BYTES + cipher.getOutputSize(plain.length)];
+            writeHeader(out, FORMAT_ECB, ring.currentVersion());
+            int len = cipher.doFinal(plain, 0, plain.length, out, HEADER_BYTES);
+            if (len + HEADER_BYTES != out.length) {
+                byte[] exact = new byte[len + HEADER_BYTES];
+                System.arraycopy(out, 0, exact, 0, exact.length);
+                return exact;
+            }
+            return out;
+        }
+        int len = GCM_OVERHEAD + plain.length;
+        boolean padded = len % BLOCK_SIZE == 0;
+        byte[] out = new byte[padded ? len + 1 : len];
+        writeHeader(out, padded ? FORMAT_GCM_PADDED : FORMAT_GCM, ring.currentVersion());
+        NONCES.get().next(out, HEADER_BYTES);
+        WipeableSecretKey secretKey = ring.current();
+        Cipher cipher = CryptoUtils.gcm(secretKey);
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_BITS, out, HEADER_BYTES, NONCE_BYTES));
+        cipher.updateAAD(out, 0, HEADER_BYTES);
+        cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+        cipher.doFinal(plain, 0, plain.length, out, HEADER_BYTES + NONCE_BYTES);
+        return out;
+    }
+
+    static byte[] open(KeyRing ring, String key, byte[] stored) throws GeneralSecurityException {
+        int version = keyVersion(stored);
+        if (isLegacy(stored)) {
+            return CryptoUtils.cipher(Cipher.DECRYPT_MODE, ring.get(version)).doFinal(stored);
+        }
+        if (stored[2] == FORMAT_ECB) {
+            return CryptoUtils.cipher(Cipher.DECRYPT_MODE, ring.get(version))
+                .doFinal(stored, HEADER_BYTES, stored.length - HEADER_BYTES);
+        }
+        int end = stored[2] == FORMAT_GCM_PADDED ? stored.length - 1 : stored.length;
+        WipeableSecretKey secretKey = ring.get(version);
+        Cipher cipher = CryptoUtils.gcm(secretKey);
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_BITS, stored, HEADER_BYTES, NONCE_BYTES));
+        cipher.updateAAD(stored, 0, HEADER_BYTES);
+        cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+        return cipher.doFinal(stored, HEADER_BYTES + NONCE_BYTES, end - HEADER_BYTES - NONCE_BYTES);
+    }
+
+    /**
+     * @return a versão da chave que cifrou o valor (0 para valores sem cabeçalho)
+     */
+    static int keyVersion(byte[] stored) throws GeneralSecurityException {
+        if (isLegacy(stored)) {
+            return 0;
+        }
+        if (!isValid(stored)) {
+            throw new GeneralSecurityException("Valor cifrado em formato desconhecido (" + stored.length + " bytes)");
+        }
+        return ((stored[3] & 0xFF) << 24) | ((stored[4] & 0xFF) << 16) | ((stored[5] & 0xFF) << 8) | (stored[6] & 0xFF);
+    }
+
+    /**
+     * @return true se o valor já está no formato usado pelas novas gravações
+     */
+    static boolean isCurrentFormat(byte[] stored) {
+        if (isLegacy(stored)) {
+            return false;
+        }
+        byte format = stored[2];
+        return DEFAULT_FORMAT == FORMAT_GCM ? format == FORMAT_GCM || format == FORMAT_GCM_PADDED : format == FORMAT_ECB;
+    }
+
+    /**
+     * @return true se stored tem a forma de um valor gravado por alguma versão (legado ou envelope)
+     */
+    static boolean isStoredValue(byte[] stored) {
+        return stored.length > 0 && (isLegacy(stored) || isValid(stored));
+    }
+
+    private static boolean isValid(byte[] stored) {
+        if (stored.length < HEADER_BYTES || stored[0] != MAGIC_0 || stored[1] != MAGIC_1) {
+            return false;
+        }
+        switch (stored[2]) {
+            case FORMAT_ECB:
+                return stored.length >= HEADER_BYTES + BLOCK_SIZE && (stored.length - HEADER_BYTES) % BLOCK_SIZE == 0;
+            case FORMAT_GCM:
+                return stored.length >= GCM_OVERHEAD;
+            case FORMAT_GCM_PADDED:
+                return stored.length >= GCM_OVERHEAD + 1;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isLegacy(byte[] stored) {
+        return stored.length % BLOCK_SIZE == 0;
+    }
+
+    private static void writeHeader(byte[] out, byte format, int version) {
+        out[0] = MAGIC_0;
+        out[1] = MAGIC_1;
+        out[2] = format;
+        out[3] = (byte) (version >>> 24);
+        out[4] = (byte) (version >>> 16);
+        out[5] = (byte) (version >>> 8);
+        out[6] = (byte) version;
+    }
+
+    /**
+     * Nonces de uma thread: prefixo aleatório de 64 bits + contador de 32 bits. Ao esgotar o
+     * contador a thread sorteia outro prefixo, então um nonce nunca se repete dentro da thread e
+     * entre threads só se repetiria com dois sorteios iguais de 64 bits.
+     */
+    private static final class NonceSequence {
+        private static final SecureRandom RANDOM = new SecureRandom();
+        private static final long COUNTER_LIMIT = 1L << 32;
+
+        private final byte[] prefix = new byte[8];
+        private long counter = COUNTER_LIMIT;
+
+        void next(byte[] out, int off) {
+            if (counter == COUNTER_LIMIT) {
+                RANDOM.nextBytes(prefix);
+                counter = 0;
+            }
+            System.arraycopy(prefix, 0, out, off, prefix.length);
+            int c = (int) counter++;
+            out[off + 8] = (byte) (c >>> 24);
+            out[off + 9] = (byte) (c >>> 16);
+            out[off + 10] = (byte) (c >>> 8);
+            out[off + 11] = (byte) c;
+        }
+    }
+}
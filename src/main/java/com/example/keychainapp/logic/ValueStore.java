@@ -0,0 +1,57 @@
+package com.example.keychainapp.logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Armazenamento dos valores já criptografados pelo KeychainService.
+ *
+ * As implementações não conhecem a chave AES: recebem e devolvem apenas bytes cifrados.
+ */
+interface ValueStore extends Closeable {
+
+    void put(String key, byte[] value) throws IOException;
+
+    /**
+     * Grava um lote de valores. Falhas de uma chave não interrompem as demais.
+     *
+     * @return as chaves que não puderam ser gravadas, com o erro de cada uma
+     */
+    Map<String, IOException> putAll(Map<String, byte[]> values) throws IOException;
+
+    /**
+     * @return o valor cifrado, ou null se a chave não existir
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * @return true se a chave existia e foi removida
+     */
+    boolean delete(String key) throws IOException;
+
+    /**
+     * Grava cada valor só se o valor atual da chave ainda for o esperado (compare-and-set),
+     * para que a recifragem da rotação de chaves não sobrescreva uma gravação concorrente.
+     *
+     * @param expected valor cifrado lido antes, por chave
+     * @return as chaves que foram gravadas
+     */
+    Set<String> replaceAll(Map<String, byte[]> expected, Map<String, byte[]> values) throws IOException;
+
+    /**
+     * @return cópia das chaves existentes no momento da chamada
+     */
+    Collection<String> keys() throws IOException;
+
+    /**
+     * Chaves que começam com prefix, em ordem crescente, sem ler os valores.
+     *
+     * @param after devolve apenas chaves maiores que esta (cursor da página anterior), ou null
+     * @param limit número máximo de chaves
+     */
+    List<String> scan(String prefix, String after, int limit) throws IOException;
+}
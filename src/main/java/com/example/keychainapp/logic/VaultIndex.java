@@ -0,0 +1,118 @@
+package com.example.keychainapp.logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Índice chave -> registro do VaultStore.
+ *
+ * Há duas implementações: HeapVaultIndex (ConcurrentHashMap, padrão) e MappedVaultIndex
+ * (tabela hash em arquivo mapeado, fora do heap). Escritas no índice acontecem com o append
+ * do cofre bloqueado; leituras podem ser concorrentes com elas.
+ */
+abstract class VaultIndex implements Closeable {
+    // Chaves em ordem para VaultStore.scan(): criado no primeiro scan e mantido por VaultStore.apply
+    private volatile ConcurrentSkipListSet<String> sortedKeys;
+
+    /**
+     * Define o arquivo do cofre que este índice descreve. Chamado na abertura e após a compactação.
+     */
+    abstract void attach(FileChannel vault);
+
+    abstract VaultStore.Entry get(String key) throws IOException;
+
+    /**
+     * @return o registro anterior da chave, ou null
+     */
+    abstract VaultStore.Entry put(String key, VaultStore.Entry entry) throws IOException;
+
+    /**
+     * @return o registro removido, ou null se a chave não existia
+     */
+    abstract VaultStore.Entry remove(String key) throws IOException;
+
+    abstract int size();
+
+    /**
+     * Caminho de leitura: localiza a chave e devolve o valor cifrado, ou null.
+     */
+    abstract byte[] readValue(String key) throws IOException;
+
+    /**
+     * Posições de todos os registros vivos (usado pela compactação).
+     */
+    abstract long[] liveOffsets();
+
+    /**
+     * @return cópia das chaves, se o índice as guarda em memória; null se elas só estão no cofre
+     */
+    Collection<String> keysInMemory() {
+        return null;
+    }
+
+    /**
+     * @return as chaves em ordem, ou null se ainda não foram pedidas (ver trackSortedKeys)
+     */
+    final NavigableSet<String> sortedKeys() {
+        return sortedKeys;
+    }
+
+    /**
+     * Passa a manter as chaves em ordem, a partir das chaves atuais. Chamado com o append bloqueado.
+     */
+    final void trackSortedKeys(Collection<String> keys) {
+        sortedKeys = keys instanceof ConcurrentSkipListSet ? (ConcurrentSkipListSet<String>) keys : new ConcurrentSkipListSet<>(keys);
+    }
+
+    final void keyAdded(String key) {
+        ConcurrentSkipListSet<String> keys = sortedKeys;
+        if (keys != null) {
+            keys.add(key);
+        }
+    }
+
+    final void keyRemoved(String key) {
+        ConcurrentSkipListSet<String> keys = sortedKeys;
+        if (keys != null) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * @return true se a tabela precisa crescer antes da próxima inclusão
+     */
+    boolean needsResize() {
+        return false;
+    }
+
+    /**
+     * Aumenta a tabela. O VaultStore chama este método sem leitores concorrentes.
+     */
+    void resize() throws IOException {
+        // índices que crescem sozinhos não precisam
+    }
+
+    /**
+     * Registra até onde o cofre já foi indexado. Índices persistentes usam isso para
+     * reabrir sem reler o arquivo inteiro.
+     */
+    void checkpoint(long vaultEnd, long maxSeq, long garbage) {
+        // índice em memória: nada a persistir
+    }
+
+    /**
+     * Fecha o índice e remove o que ele tiver persistido (índice substituído pela compactação).
+     */
+    void discard() throws IOException {
+        close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // nada a liberar por padrão
+    }
+}
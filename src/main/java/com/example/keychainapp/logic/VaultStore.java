@@ -0,0 +1,1289 @@
+package com.example.keychainapp.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Cofre em arquivo único, append-only, com registros prefixados pelo tamanho.
+ *
+ * Layout do arquivo:
+ * <pre>
+ * cabeçalho (16 bytes): magic "KVLT" | versão (short) | geração (long) | reservado (short)
+ * registro:             tamanho (int) | tipo (byte) | flags (byte) | seq (long)
+ *                       | tamanho da chave (short) | chave UTF-8 | tamanho do valor (int) | valor | crc32 (int)
+ * </pre>
+ *
+ * - O índice chave -> posição fica em memória e é reconstruído lendo o arquivo na abertura
+ *   (HeapVaultIndex), ou em um arquivo mapeado fora do heap que é reaproveitado entre aberturas
+ *   (MappedVaultIndex, keychain.vault.index=mapped). Um registro final incompleto (queda no meio
+ *   da escrita) é descartado. Um registro ilegível no meio do arquivo impede a abertura, a não
+ *   ser com keychain.vault.repair (ver replay()): o cofre nunca é truncado antes de registros válidos.
+ * - Escritas concorrentes compartilham o mesmo fsync (group commit): quem chega enquanto
+ *   outra thread está em force() é coberto pela próxima chamada, sem um fsync por escrita.
+ * - Registros sobrescritos ou removidos viram lixo; quando o lixo passa de uma fração do arquivo,
+ *   uma thread em segundo plano reescreve apenas os registros vivos e troca o arquivo atomicamente.
+ * - Várias JVMs podem usar o mesmo cofre (keychain.vault.shared, padrão true): toda alteração é
+ *   feita com um lock de arquivo ("keychain.vault.lock") e começa aplicando ao índice os registros
+ *   que outros processos gravaram desde a última vez (refresh()). Se outro processo compactou o
+ *   cofre, o arquivo novo é reaberto. Nesse modo o índice fica sempre no heap, pois o índice
+ *   mapeado não pode ser alterado por dois processos ao mesmo tempo.
+ * - Uma thread interrompida durante uma leitura ou escrita fecha o FileChannel para todas
+ *   (ClosedByInterruptException). A operação dela falha; a próxima reabre o canal, e as de outras
+ *   threads que o perderam no meio do caminho são repetidas com o canal novo.
+ */
+class VaultStore implements ValueStore {
+    static final String FILE_NAME = "keychain.vault";
+
+    private static final Logger LOGGER = Logger.getLogger(VaultStore.class.getName());
+    private static final int MAGIC = 0x4B564C54; // "KVLT"
+    private static final short FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final byte TYPE_PUT = 1;
+    static final byte TYPE_DELETE = 2;
+    // tamanho(4) + tipo(1) + flags(1) + seq(8) + tamanho da chave(2) + tamanho do valor(4) + crc(4)
+    private static final int RECORD_OVERHEAD = 24;
+    // tamanho(4) + tipo(1) + flags(1) + seq(8) + tamanho da chave(2): o que vem antes da chave
+    private static final int RECORD_PREFIX = 16;
+    private static final int MAX_KEY_BYTES = 0xFFFF;
+
+    private static final boolean FSYNC = Boolean.parseBoolean(System.getProperty("keychain.vault.fsync", "true"));
+    private static final double COMPACT_RATIO = Double.parseDouble(System.getProperty("keychain.vault.compactRatio", "0.5"));
+    private static final long COMPACT_MIN_BYTES = Long.getLong("keychain.vault.compactMinBytes", 1024L * 1024L);
+    private static final boolean SHARED = Boolean.parseBoolean(System.getProperty("keychain.vault.shared", "true"));
+    private static final boolean MAPPED_INDEX = "mapped".equals(System.getProperty("keychain.vault.index", "heap")) && !SHARED;
+    // Tamanho médio estimado de um registro, para dimensionar o índice mapeado na reconstrução
+    private static final int ESTIMATED_RECORD_BYTES = 64;
+    // Maior fim de arquivo conferido antes de ser descartado como escrita interrompida
+    private static final int MAX_TAIL_SCAN_BYTES = 64 * 1024 * 1024;
+
+    private final File file;
+    // Leitores usam o read lock; a troca do arquivo pela compactação e o close() usam o write lock.
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final InterProcessLock processLock;
+    // keychain.vault.repair: abre um cofre corrompido descartando o que não dá para ler (com cópia antes)
+    private final boolean repair;
+    private boolean backedUp;
+
+    private volatile FileChannel channel;
+    private volatile VaultIndex index;
+    private long generation;
+    // Identifica o arquivo aberto, para perceber quando outro processo o trocou numa compactação
+    private Object fileIdentity;
+    private long end;
+    private long nextSeq;
+    private long garbageBytes;
+    private volatile long writtenSeq;
+    private volatile long syncedSeq;
+    private volatile boolean closed;
+
+    VaultStore(File file) throws IOException {
+        this.file = file;
+        this.processLock = InterProcessLock.forFile(new File(file.getPath() + ".lock"), SHARED);
+        this.repair = Boolean.getBoolean("keychain.vault.repair");
+        if (SHARED && "mapped".equals(System.getProperty("keychain.vault.index"))) {
+            LOGGER.warning("[VaultStore] keychain.vault.index=mapped requer keychain.vault.shared=false. Usando índice no heap.");
+        }
+        processLock.lock();
+        try {
+            open(true);
+        } finally {
+            processLock.unlock();
+        }
+        if (backedUp) {
+            // sem os registros com CRC inválido, o cofre volta a abrir sem keychain.vault.repair
+            compact();
+        }
+    }
+
+    /**
+     * @param exclusive com o lock de processo: só então um registro final incompleto pode ser
+     *                  descartado (sem o lock ele pode ser uma escrita de outro processo em andamento)
+     */
+    private void open(boolean exclusive) throws IOException {
+        long start = System.nanoTime();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            generation = 0;
+            writeHeader(channel, generation);
+            channel.force(true);
+        } else {
+            generation = readHeader(channel);
+        }
+        long from = HEADER_SIZE;
+        long baseGarbage = 0;
+        long baseMaxSeq = 0;
+        VaultIndex idx;
+        if (MAPPED_INDEX) {
+            MappedVaultIndex mapped = MappedVaultIndex.open(file, generation);
+            if (mapped != null && mapped.wasClean() && mapped.indexedEnd() >= HEADER_SIZE && mapped.indexedEnd() <= channel.size()) {
+                // Índice íntegro: só os registros gravados depois do último fechamento são relidos
+                from = mapped.indexedEnd();
+                baseGarbage = mapped.garbage();
+                baseMaxSeq = mapped.maxSeq();
+            } else {
+                if (mapped != null) {
+                    mapped.discard();
+                }
+                mapped = MappedVaultIndex.create(file, generation, channel.size() / ESTIMATED_RECORD_BYTES);
+            }
+            mapped.markDirty();
+            idx = mapped;
+        } else {
+            idx = new HeapVaultIndex(0);
+        }
+        idx.attach(channel);
+        ScanResult result = replay(channel, from, idx, exclusive);
+        if (exclusive && result.end < channel.size()) {
+            discardTail(result.end);
+        }
+        long maxSeq = Math.max(baseMaxSeq, result.maxSeq);
+        end = result.end;
+        garbageBytes = baseGarbage + result.garbage;
+        nextSeq = Math.max(nextSeq, maxSeq + 1);
+        writtenSeq = Math.max(writtenSeq, maxSeq);
+        syncedSeq = Math.max(syncedSeq, maxSeq);
+        idx.checkpoint(end, maxSeq, garbageBytes);
+        index = idx;
+        fileIdentity = currentIdentity();
+        LOGGER.info("[VaultStore] Cofre " + file + " aberto com " + index.size() + " chaves em "
+            + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws IOException {
+        awaitDurable(append(TYPE_PUT, key, value));
+    }
+
+    /**
+     * Grava o lote inteiro e confirma com um único fsync. Se o fsync falhar, todas as chaves
+     * do lote são reportadas como não gravadas.
+     */
+    @Override
+    public Map<String, IOException> putAll(Map<String, byte[]> values) throws IOException {
+        Map<String, IOException> failed = new LinkedHashMap<>();
+        long lastSeq = -1;
+        for (Map.Entry<String, byte[]> e : values.entrySet()) {
+            try {
+                lastSeq = append(TYPE_PUT, e.getKey(), e.getValue());
+            } catch (IOException ex) {
+                failed.put(e.getKey(), ex);
+            }
+        }
+        if (lastSeq >= 0) {
+            try {
+                awaitDurable(lastSeq);
+            } catch (IOException ex) {
+                for (String key : values.keySet()) {
+                    failed.put(key, ex);
+                }
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        while (true) {
+            swapLock.readLock().lock();
+            try {
+                ensureOpen();
+                if (channel.isOpen()) {
+                    return index.readValue(key);
+                }
+            } catch (ClosedChannelException e) {
+                rethrowIfOwnInterrupt(e);
+            } finally {
+                swapLock.readLock().unlock();
+            }
+            synchronized (appendLock) {
+                reopenChannel();
+            }
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        long seq = append(TYPE_DELETE, key, null);
+        if (seq < 0) {
+            return false;
+        }
+        awaitDurable(seq);
+        return true;
+    }
+
+    /**
+     * Compare-and-set feito com o append bloqueado (e o lock de processo), depois de aplicar os
+     * registros de outros processos: nenhuma gravação pode acontecer entre a comparação e o registro.
+     * As chaves gravadas são confirmadas com um único fsync.
+     */
+    @Override
+    public Set<String> replaceAll(Map<String, byte[]> expected, Map<String, byte[]> values) throws IOException {
+        Set<String> replaced = new HashSet<>();
+        long lastSeq = -1;
+        for (Map.Entry<String, byte[]> e : values.entrySet()) {
+            long seq = append(TYPE_PUT, e.getKey(), e.getValue(), expected.get(e.getKey()));
+            if (seq >= 0) {
+                lastSeq = seq;
+                replaced.add(e.getKey());
+            }
+        }
+        if (lastSeq >= 0) {
+            awaitDurable(lastSeq);
+        }
+        return replaced;
+    }
+
+    /**
+     * Lê as chaves dos registros vivos. Só o levantamento das posições bloqueia o append; os
+     * registros são lidos depois, e a leitura recomeça se uma compactação trocar o arquivo no meio.
+     */
+    @Override
+    public Collection<String> keys() throws IOException {
+        NavigableSet<String> sorted = index.sortedKeys();
+        if (sorted != null) {
+            return new ArrayList<>(sorted);
+        }
+        while (true) {
+            long[] offsets;
+            FileChannel source;
+            synchronized (appendLock) {
+                ensureOpen();
+                reopenChannel();
+                source = channel;
+                offsets = index.liveOffsets();
+            }
+            swapLock.readLock().lock();
+            try {
+                ensureOpen();
+                if (channel != source) {
+                    continue;
+                }
+                return readKeys(offsets);
+            } catch (ClosedChannelException e) {
+                rethrowIfOwnInterrupt(e);
+            } finally {
+                swapLock.readLock().unlock();
+            }
+            synchronized (appendLock) {
+                reopenChannel();
+            }
+        }
+    }
+
+    /**
+     * Percorre o índice ordenado de chaves. O índice é montado no primeiro scan, com o append
+     * bloqueado (a partir do índice no heap, ou lendo as chaves dos registros vivos com o índice
+     * mapeado), e depois mantido a cada gravação, então uma página custa O(log n + tamanho da página) e nenhum valor é lido.
+     */
+    @Override
+    public List<String> scan(String prefix, String after, int limit) throws IOException {
+        return scanSorted(sortedKeys(), prefix, after, limit);
+    }
+
+    private NavigableSet<String> sortedKeys() throws IOException {
+        NavigableSet<String> keys = index.sortedKeys();
+        if (keys != null) {
+            return keys;
+        }
+        synchronized (appendLock) {
+            ensureOpen();
+            reopenChannel();
+            keys = index.sortedKeys();
+            if (keys == null) {
+                long start = System.nanoTime();
+                Collection<String> current = index.keysInMemory();
+                index.trackSortedKeys(current != null ? current : readKeys(index.liveOffsets()));
+                keys = index.sortedKeys();
+                LOGGER.info("[VaultStore] Índice ordenado de " + keys.size() + " chaves montado em "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * @param after só chaves maiores que esta, ou null
+     */
+    static List<String> scanSorted(NavigableSet<String> keys, String prefix, String after, int limit) {
+        NavigableSet<String> tail = after != null && after.compareTo(prefix) >= 0
+            ? keys.tailSet(after, false)
+            : keys.tailSet(prefix, true);
+        List<String> page = new ArrayList<>(Math.min(limit, 1024));
+        for (String key : tail) {
+            if (page.size() >= limit || !key.startsWith(prefix)) {
+                break;
+            }
+            page.add(key);
+        }
+        return page;
+    }
+
+    /**
+     * Lê a chave de cada registro. Chamado com o read lock ou com o append bloqueado.
+     */
+    private List<String> readKeys(long[] offsets) throws IOException {
+        // Em ordem de posição, para leitura sequencial do arquivo
+        Arrays.sort(offsets);
+        List<String> keys = new ArrayList<>(offsets.length);
+        // tamanho(4) + tipo(1) + flags(1) + seq(8) + tamanho da chave(2)
+        ByteBuffer head = ByteBuffer.allocate(16);
+        for (long offset : offsets) {
+            head.clear();
+            readFully(channel, head, offset);
+            ByteBuffer keyBytes = ByteBuffer.allocate(head.getShort(14) & 0xFFFF);
+            readFully(channel, keyBytes, offset + head.capacity());
+            keys.add(new String(keyBytes.array(), StandardCharsets.UTF_8));
+        }
+        return keys;
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    /**
+     * Aplica ao índice os registros que outros processos gravaram no cofre (apenas as chaves
+     * alteradas mudam), ou reabre o cofre se ele foi substituído por uma compactação.
+     * Chamado pelo KeychainWatcher quando o arquivo muda.
+     *
+     * @return número de registros novos aplicados, ou -1 se o cofre foi reaberto
+     */
+    int refresh() throws IOException {
+        synchronized (appendLock) {
+            ensureOpen();
+            reopenChannel();
+            return catchUp(false);
+        }
+    }
+
+    /**
+     * Captura os registros vivos do cofre para um snapshot (KeychainSnapshot), sem copiar nada
+     * ainda. Os registros são lidos por um canal próprio aberto junto com a captura: uma
+     * compactação posterior troca o arquivo mas não fecha esse canal, e o trecho do arquivo até
+     * a posição capturada nunca mais muda. As escritas continuam normalmente depois da captura.
+     *
+     * @param sinceSeq inclui só registros com seq maior que esta (snapshot incremental), ou 0 para todos
+     * @param withKeys também lê as chaves de todos os registros vivos, inclusive os não incluídos
+     */
+    Snapshot snapshot(long sinceSeq, boolean withKeys) throws IOException {
+        long[] offsets;
+        long seq;
+        FileChannel source;
+        synchronized (appendLock) {
+            ensureOpen();
+            reopenChannel();
+            processLock.lock();
+            try {
+                catchUp(true);
+                offsets = index.liveOffsets();
+                seq = nextSeq - 1;
+                source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            } finally {
+                processLock.unlock();
+            }
+        }
+        boolean ok = false;
+        try {
+            Snapshot snapshot = new Snapshot(source, seq, offsets.length);
+            // Em ordem de posição: a leitura dos cabeçalhos é sequencial e registros vizinhos viram um único trecho
+            Arrays.sort(offsets);
+            ByteBuffer head = ByteBuffer.allocate(256);
+            for (long offset : offsets) {
+                head.clear();
+                while (head.position() < RECORD_PREFIX) {
+                    if (source.read(head, offset + head.position()) < 0) {
+                        throw new EOFException("Fim inesperado do cofre na posição " + offset);
+                    }
+                }
+                int recordLength = head.getInt(0) + 4;
+                long recordSeq = head.getLong(6);
+                if (withKeys) {
+                    int keyLength = head.getShort(14) & 0xFFFF;
+                    byte[] key = new byte[keyLength];
+                    if (head.position() >= RECORD_PREFIX + keyLength) {
+                        System.arraycopy(head.array(), RECORD_PREFIX, key, 0, keyLength);
+                    } else {
+                        readFully(source, ByteBuffer.wrap(key), offset + RECORD_PREFIX);
+                    }
+                    snapshot.keys.add(new String(key, StandardCharsets.UTF_8));
+                }
+                if (recordSeq > sinceSeq) {
+                    snapshot.add(offset, recordLength);
+                }
+            }
+            ok = true;
+            return snapshot;
+        } finally {
+            if (!ok) {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * Snapshot de um armazenamento qualquer (formato legado), montado em memória com registros no
+     * formato do cofre e seq 0.
+     */
+    static Snapshot snapshotOf(ValueStore store) throws IOException {
+        Collection<String> keys = store.keys();
+        Snapshot snapshot = new Snapshot(null, 0, keys.size());
+        for (String key : keys) {
+            byte[] value = store.get(key);
+            if (value != null) {
+                snapshot.add(encode(TYPE_PUT, 0, key.getBytes(StandardCharsets.UTF_8), value));
+                snapshot.keys.add(key);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Lê um registro gravado por Snapshot.transferTo().
+     *
+     * @throws IOException se o registro estiver truncado ou com CRC inválido
+     */
+    static Record readRecord(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < RECORD_OVERHEAD - 4) {
+            throw new IOException("Registro inválido (tamanho " + length + ")");
+        }
+        byte[] body = new byte[length - 4];
+        in.readFully(body);
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        if ((int) crc.getValue() != in.readInt()) {
+            throw new IOException("Registro com CRC inválido");
+        }
+        ByteBuffer b = ByteBuffer.wrap(body);
+        byte type = b.get();
+        b.get(); // flags
+        long seq = b.getLong();
+        int keyLength = b.getShort() & 0xFFFF;
+        String key = new String(body, b.position(), keyLength, StandardCharsets.UTF_8);
+        b.position(b.position() + keyLength);
+        byte[] value = new byte[b.getInt()];
+        b.get(value);
+        if (type != TYPE_PUT) {
+            throw new IOException("Tipo de registro inesperado (" + type + ") para a chave '" + key + "'");
+        }
+        return new Record(key, value, seq);
+    }
+
+    /**
+     * Importa os arquivos "chave.txt" do formato legado (TextFileStore).
+     * Chaves que já existem no cofre não são sobrescritas. Todas as entradas importadas
+     * são confirmadas com um único fsync.
+     *
+     * @return número de chaves importadas
+     */
+    int importTextFiles(File dir, boolean deleteImported) throws IOException {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.isFile() && f.getName().endsWith(TextFileStore.SUFFIX);
+            }
+        });
+        if (files == null) {
+            return 0;
+        }
+        int imported = 0;
+        long lastSeq = -1;
+        List<File> importedFiles = new ArrayList<>();
+        for (File f : files) {
+            String name = f.getName();
+            String key = name.substring(0, name.length() - TextFileStore.SUFFIX.length());
+            if (index.get(key) != null) {
+                continue;
+            }
+            byte[] value;
+            try (BufferedReader reader = new BufferedReader(new FileReader(f))) {
+                String line = reader.readLine();
+                value = line == null ? null : Base64.getDecoder().decode(line.trim());
+            } catch (IllegalArgumentException e) {
+                value = null;
+            }
+            // Valores cifrados (blocos AES legados ou ValueEnvelope); qualquer outro .txt é ignorado
+            if (value == null || !ValueEnvelope.isStoredValue(value)) {
+                LOGGER.fine("[VaultStore] Ignorando arquivo que não parece um valor cifrado: " + f);
+                continue;
+            }
+            lastSeq = append(TYPE_PUT, key, value);
+            importedFiles.add(f);
+            imported++;
+        }
+        if (lastSeq >= 0) {
+            awaitDurable(lastSeq);
+        }
+        if (deleteImported) {
+            for (File f : importedFiles) {
+                if (!f.delete()) {
+                    LOGGER.warning("[VaultStore] Não foi possível remover " + f + " após a importação");
+                }
+            }
+        }
+        LOGGER.info("[VaultStore] " + imported + " chaves importadas de " + dir);
+        return imported;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            swapLock.writeLock().lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                index.close();
+                channel.close();
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Grava um registro no fim do arquivo e atualiza o índice.
+     *
+     * @return a sequência do registro, ou -1 para remoção de chave inexistente
+     */
+    private long append(byte type, String key, byte[] value) throws IOException {
+        return append(type, key, value, null);
+    }
+
+    /**
+     * @param expected se não for null, o registro só é gravado quando o valor atual da chave é
+     *                 igual a ele (senão retorna -1)
+     */
+    private long append(byte type, String key, byte[] value, byte[] expected) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("Chave muito longa (" + keyBytes.length + " bytes, máximo " + MAX_KEY_BYTES + ")");
+        }
+        synchronized (appendLock) {
+            ensureOpen();
+            reopenChannel();
+            long seq;
+            processLock.lock();
+            try {
+                catchUp(true);
+                if (type == TYPE_DELETE && index.get(key) == null) {
+                    return -1;
+                }
+                if (expected != null && !Arrays.equals(index.readValue(key), expected)) {
+                    return -1;
+                }
+                if (type == TYPE_PUT && index.needsResize()) {
+                    swapLock.writeLock().lock();
+                    try {
+                        index.resize();
+                    } finally {
+                        swapLock.writeLock().unlock();
+                    }
+                }
+                seq = nextSeq++;
+                ByteBuffer record = encode(type, seq, keyBytes, value);
+                int length = record.remaining();
+                long offset = end;
+                try {
+                    writeFully(channel, record, offset);
+                } catch (ClosedChannelException e) {
+                    // a interrupção de outra thread fechou o canal: o registro é regravado na mesma posição
+                    rethrowIfOwnInterrupt(e);
+                    reopenChannel();
+                    record.rewind();
+                    writeFully(channel, record, offset);
+                }
+                end += length;
+                garbageBytes += apply(index, type, key, new Entry(offset, length, offset + RECORD_OVERHEAD - 4 + keyBytes.length,
+                    value == null ? 0 : value.length, seq));
+                index.checkpoint(end, seq, garbageBytes);
+                writtenSeq = seq;
+            } finally {
+                processLock.unlock();
+            }
+            maybeCompact();
+            return seq;
+        }
+    }
+
+    /**
+     * Garante que o registro com a sequência informada está em disco.
+     * Um único force() cobre todas as escritas feitas até ele começar (group commit).
+     */
+    private void awaitDurable(long seq) throws IOException {
+        if (!FSYNC || syncedSeq >= seq) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedSeq >= seq) {
+                return;
+            }
+            long target = writtenSeq;
+            boolean forced = false;
+            while (!forced) {
+                swapLock.readLock().lock();
+                try {
+                    ensureOpen();
+                    if (channel.isOpen()) {
+                        // o fsync de um canal reaberto também cobre o que foi escrito pelo anterior
+                        channel.force(false);
+                        forced = true;
+                    }
+                } catch (ClosedChannelException e) {
+                    rethrowIfOwnInterrupt(e);
+                } finally {
+                    swapLock.readLock().unlock();
+                }
+                if (!forced) {
+                    synchronized (appendLock) {
+                        reopenChannel();
+                    }
+                }
+            }
+            syncedSeq = target;
+        }
+    }
+
+    /**
+     * Aplica um registro ao índice.
+     *
+     * @return quantos bytes do cofre deixaram de estar vivos
+     */
+    private static long apply(VaultIndex idx, byte type, String key, Entry entry) throws IOException {
+        if (type == TYPE_PUT) {
+            if (idx.needsResize()) {
+                idx.resize();
+            }
+            Entry old = idx.put(key, entry);
+            if (old == null) {
+                idx.keyAdded(key);
+            }
+            return old != null ? old.recordLength : 0;
+        }
+        Entry old = idx.remove(key);
+        if (old != null) {
+            idx.keyRemoved(key);
+        }
+        return entry.recordLength + (old != null ? old.recordLength : 0);
+    }
+
+    private void maybeCompact() {
+        if (garbageBytes < COMPACT_MIN_BYTES || garbageBytes < (end - HEADER_SIZE) * COMPACT_RATIO) {
+            return;
+        }
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "[VaultStore] Falha na compactação de " + file, e);
+                } catch (IllegalStateException e) {
+                    LOGGER.fine("[VaultStore] Compactação interrompida: " + e.getMessage());
+                } finally {
+                    compacting.set(false);
+                }
+            }
+        }, "vault-compaction");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Reescreve o cofre apenas com os registros vivos. As escritas continuam durante a cópia;
+     * os registros gravados nesse intervalo são copiados no final, já com o append bloqueado.
+     * O índice do novo arquivo é montado relendo o arquivo compactado.
+     */
+    void compact() throws IOException {
+        long start = System.nanoTime();
+        long snapshotEnd;
+        long newGeneration;
+        long[] offsets;
+        FileChannel source;
+        synchronized (appendLock) {
+            ensureOpen();
+            reopenChannel();
+            source = channel;
+            snapshotEnd = end;
+            newGeneration = generation + 1;
+            offsets = index.liveOffsets();
+        }
+        // Cópia em ordem de posição para leitura sequencial do arquivo antigo
+        Arrays.sort(offsets);
+        // Nome único: outro processo pode estar compactando o mesmo cofre ao mesmo tempo
+        File tmp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName() + ".", ".compact").toFile();
+        FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        VaultIndex newIndex = null;
+        boolean swapped = false;
+        try {
+            writeHeader(out, newGeneration);
+            long pos = HEADER_SIZE;
+            ByteBuffer lengthBuf = ByteBuffer.allocate(4);
+            swapLock.readLock().lock();
+            try {
+                ensureOpen();
+                if (channel != source) {
+                    return;
+                }
+                for (long offset : offsets) {
+                    lengthBuf.clear();
+                    readFully(channel, lengthBuf, offset);
+                    int recordLength = lengthBuf.getInt(0) + 4;
+                    copyRange(channel, offset, recordLength, out, pos);
+                    pos += recordLength;
+                }
+            } finally {
+                swapLock.readLock().unlock();
+            }
+            newIndex = MAPPED_INDEX
+                ? MappedVaultIndex.create(file, newGeneration, offsets.length)
+                : new HeapVaultIndex(offsets.length);
+            newIndex.attach(out);
+            replay(out, HEADER_SIZE, newIndex, false);
+            synchronized (appendLock) {
+                ensureOpen();
+                processLock.lock();
+                try {
+                    if (catchUp(true) < 0 || channel != source) {
+                        LOGGER.info("[VaultStore] Cofre compactado por outro processo; compactação local descartada.");
+                        return;
+                    }
+                    swapLock.writeLock().lock();
+                    try {
+                        long tail = end - snapshotEnd;
+                        ScanResult tailResult = new ScanResult();
+                        tailResult.end = pos;
+                        if (tail > 0) {
+                            copyRange(channel, snapshotEnd, tail, out, pos);
+                            tailResult = replay(out, pos, newIndex, false);
+                        }
+                        out.force(true);
+                        out.close();
+                        // O canal antigo só é fechado depois da troca: se o rename falhar o cofre continua utilizável
+                        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        channel.close();
+                        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                        newIndex.attach(channel);
+                        // A compactação não muda o conjunto de chaves: o índice ordenado continua valendo
+                        if (index.sortedKeys() != null) {
+                            newIndex.trackSortedKeys(index.sortedKeys());
+                        }
+                        index.discard();
+                        index = newIndex;
+                        end = tailResult.end;
+                        garbageBytes = tailResult.garbage;
+                        generation = newGeneration;
+                        fileIdentity = currentIdentity();
+                        index.checkpoint(end, writtenSeq, garbageBytes);
+                        swapped = true;
+                    } finally {
+                        swapLock.writeLock().unlock();
+                    }
+                } finally {
+                    processLock.unlock();
+                }
+            }
+            LOGGER.info("[VaultStore] Compactação de " + file + " concluída: " + offsets.length + " chaves vivas, "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        } finally {
+            if (!swapped) {
+                out.close();
+                if (newIndex != null) {
+                    newIndex.discard();
+                }
+                Files.deleteIfExists(tmp.toPath());
+            }
+        }
+    }
+
+    /**
+     * Aplica os registros gravados por outros processos desde a última leitura. Chamado com appendLock.
+     *
+     * @param exclusive true quando o chamador tem o lock de processo
+     * @return número de registros aplicados, ou -1 se o cofre foi reaberto
+     */
+    private int catchUp(boolean exclusive) throws IOException {
+        if (!SHARED) {
+            return 0;
+        }
+        Object identity = currentIdentity();
+        long size = channel.size();
+        if (identity == null || !identity.equals(fileIdentity) || size < end) {
+            reopen(exclusive);
+            return -1;
+        }
+        if (size == end) {
+            return 0;
+        }
+        ScanResult result = replay(channel, end, index, exclusive);
+        if (exclusive && result.end < size) {
+            discardTail(result.end);
+        }
+        end = result.end;
+        garbageBytes += result.garbage;
+        nextSeq = Math.max(nextSeq, result.maxSeq + 1);
+        if (result.records > 0) {
+            index.checkpoint(end, nextSeq - 1, garbageBytes);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("[VaultStore] " + result.records + " registros de outro processo aplicados ao índice");
+            }
+        }
+        return result.records;
+    }
+
+    /**
+     * Troca o arquivo aberto pelo que está no caminho do cofre (outro processo o compactou).
+     */
+    private void reopen(boolean exclusive) throws IOException {
+        swapLock.writeLock().lock();
+        try {
+            FileChannel oldChannel = channel;
+            VaultIndex oldIndex = index;
+            open(exclusive);
+            oldIndex.discard();
+            oldChannel.close();
+            LOGGER.info("[VaultStore] Cofre substituído por outro processo (geração " + generation + "). Reaberto.");
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reabre o canal do cofre se uma thread interrompida o fechou (ClosedByInterruptException).
+     * Chamado com appendLock. Se outro processo trocou o arquivo nesse meio tempo, o cofre é
+     * reaberto por inteiro, como em catchUp().
+     */
+    private void reopenChannel() throws IOException {
+        ensureOpen();
+        if (channel.isOpen()) {
+            return;
+        }
+        swapLock.writeLock().lock();
+        try {
+            if (channel.isOpen()) {
+                return;
+            }
+            FileChannel reopened = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Object identity = currentIdentity();
+            if (identity == null || !identity.equals(fileIdentity)) {
+                reopened.close();
+                reopen(false);
+                return;
+            }
+            index.attach(reopened);
+            channel = reopened;
+            LOGGER.warning("[VaultStore] Canal de " + file + " fechado pela interrupção de uma thread. Reaberto.");
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Uma ClosedByInterruptException é da thread atual, que foi interrompida: a operação dela
+     * falha. As outras (AsynchronousCloseException) perderam o canal por causa de outra thread e
+     * são repetidas depois de reopenChannel().
+     */
+    private void rethrowIfOwnInterrupt(ClosedChannelException e) throws ClosedChannelException {
+        if (e instanceof ClosedByInterruptException || closed) {
+            throw e;
+        }
+    }
+
+    /**
+     * Identidade do arquivo no caminho do cofre: o fileKey (inode) quando o sistema o fornece,
+     * senão a geração gravada no cabeçalho.
+     */
+    private Object currentIdentity() throws IOException {
+        try {
+            Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+            if (key != null) {
+                return key;
+            }
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return readHeader(ch);
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @throws IllegalStateException depois de close(), como o KeychainService fechado
+     */
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Cofre já foi fechado: " + file);
+        }
+    }
+
+    /**
+     * Lê registros a partir de uma posição, aplicando-os ao índice. Para no primeiro registro
+     * ilegível (tamanho inválido, além do fim do arquivo ou CRC errado); ele só é tratado como
+     * escrita interrompida se nenhum registro íntegro vier depois dele.
+     *
+     * @param strict com o lock de processo, quando nenhuma escrita pode estar em andamento: um
+     *               registro ilegível seguido de registros íntegros é corrupção.
+     *               Sem keychain.vault.repair a leitura falha, pois pular um registro pode trazer de
+     *               volta um valor sobrescrito ou removido; com ela o arquivo é copiado, registros
+     *               com CRC errado são pulados e a leitura para no primeiro tamanho ilegível.
+     *               Sem o lock, um registro ilegível pode ser uma escrita de outro processo em
+     *               andamento e a leitura apenas para.
+     * @throws IOException com strict, se o arquivo estiver corrompido e keychain.vault.repair não estiver ligado
+     */
+    private ScanResult replay(FileChannel ch, long from, VaultIndex idx, boolean strict) throws IOException {
+        ScanResult result = new ScanResult();
+        result.end = from;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch.position(from)), 64 * 1024));
+        CRC32 crc = new CRC32();
+        long pos = from;
+        long size = ch.size();
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < RECORD_OVERHEAD - 4 || pos + 4 + length > size) {
+                    if (strict && hasRecordAfter(ch, pos + 4, size)) {
+                        corrupted(pos, "tamanho de registro inválido (" + length + ")");
+                    }
+                    break;
+                }
+                byte[] body = new byte[length - 4];
+                in.readFully(body);
+                int storedCrc = in.readInt();
+                crc.reset();
+                crc.update(body, 0, body.length);
+                int recordLength = length + 4;
+                if ((int) crc.getValue() != storedCrc) {
+                    if (!strict || !hasRecordAfter(ch, pos + 4, size)) {
+                        break;
+                    }
+                    corrupted(pos, "CRC inválido");
+                    LOGGER.warning("[VaultStore] Registro com CRC inválido em " + file + " (posição " + pos + ") descartado pelo reparo.");
+                    result.garbage += recordLength;
+                    pos += recordLength;
+                    result.end = pos;
+                    continue;
+                }
+                ByteBuffer b = ByteBuffer.wrap(body);
+                byte type = b.get();
+                b.get(); // flags
+                long seq = b.getLong();
+                int keyLength = b.getShort() & 0xFFFF;
+                String key = new String(body, b.position(), keyLength, StandardCharsets.UTF_8);
+                b.position(b.position() + keyLength);
+                int valueLength = b.getInt();
+                long valuePosition = pos + 4 + b.position();
+                result.garbage += apply(idx, type, key, new Entry(pos, recordLength, valuePosition, valueLength, seq));
+                result.maxSeq = Math.max(result.maxSeq, seq);
+                pos += recordLength;
+                result.end = pos;
+                result.records++;
+            }
+        } catch (EOFException e) {
+            // registro truncado: result.end aponta para o último registro completo
+        }
+        return result;
+    }
+
+    /**
+     * Registro ilegível no meio do cofre. Sem keychain.vault.repair a abertura (ou a escrita) falha
+     * sem alterar o arquivo; com ela o arquivo inteiro é copiado uma vez antes de qualquer descarte.
+     */
+    private void corrupted(long pos, String reason) throws IOException {
+        if (!repair) {
+            throw new IOException("Cofre " + file + " corrompido na posição " + pos + ": " + reason
+                + ". Nada foi descartado; para abri-lo sem os registros ilegíveis use -Dkeychain.vault.repair=true"
+                + " (uma cópia do arquivo é guardada antes).");
+        }
+        if (!backedUp) {
+            File copy = new File(file.getPath() + ".corrupt-" + System.currentTimeMillis());
+            Files.copy(file.toPath(), copy.toPath());
+            backedUp = true;
+            LOGGER.warning("[VaultStore] Cofre " + file + " corrompido na posição " + pos + " (" + reason
+                + "). Cópia guardada em " + copy + " antes do reparo.");
+        }
+    }
+
+    /**
+     * Descarta o fim do arquivo a partir de end: uma escrita interrompida, ou o que o reparo não
+     * conseguiu ler. Chamado com o lock de processo.
+     */
+    private void discardTail(long end) throws IOException {
+        LOGGER.warning("[VaultStore] Registro incompleto no fim de " + file + " (posição " + end + "). Descartando.");
+        channel.truncate(end);
+    }
+
+    /**
+     * @return true se algum registro íntegro (tamanho plausível e CRC certo) começa entre from e
+     *         size. Uma escrita interrompida é sempre a última do arquivo; com um registro válido
+     *         depois, o tamanho que aponta além do fim é corrupção, não queda.
+     */
+    private static boolean hasRecordAfter(FileChannel ch, long from, long size) throws IOException {
+        if (size - from > MAX_TAIL_SCAN_BYTES) {
+            // grande demais para ser só o resto de uma escrita: tratado como corrupção
+            return true;
+        }
+        ByteBuffer tail = ByteBuffer.allocate((int) (size - from));
+        readFully(ch, tail, from);
+        byte[] data = tail.array();
+        CRC32 crc = new CRC32();
+        for (int i = 0; i + RECORD_OVERHEAD <= data.length; i++) {
+            int length = tail.getInt(i);
+            if (length < RECORD_OVERHEAD - 4 || (long) i + 4 + length > data.length) {
+                continue;
+            }
+            crc.reset();
+            crc.update(data, i + 4, length - 4);
+            if ((int) crc.getValue() == tail.getInt(i + length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ByteBuffer encode(byte type, long seq, byte[] key, byte[] value) {
+        int valueLength = value == null ? 0 : value.length;
+        int bodyLength = RECORD_OVERHEAD - 8 + key.length + valueLength;
+        ByteBuffer buf = ByteBuffer.allocate(4 + bodyLength + 4);
+        buf.putInt(bodyLength + 4);
+        buf.put(type).put((byte) 0).putLong(seq).putShort((short) key.length).put(key).putInt(valueLength);
+        if (value != null) {
+            buf.put(value);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 4, bodyLength);
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    private static void writeHeader(FileChannel ch, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(FORMAT_VERSION).putLong(generation).putShort((short) 0);
+        header.flip();
+        writeFully(ch, header, 0);
+    }
+
+    private long readHeader(FileChannel ch) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(ch, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Arquivo não é um cofre válido: " + file);
+        }
+        short version = header.getShort();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Versão de cofre não suportada (" + version + "): " + file);
+        }
+        return header.getLong();
+    }
+
+    static void writeFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += ch.write(buf, position);
+        }
+    }
+
+    static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position);
+            if (n < 0) {
+                throw new EOFException("Fim inesperado do cofre na posição " + position);
+            }
+            position += n;
+        }
+    }
+
+    private static void copyRange(FileChannel src, long from, long count, FileChannel dst, long to) throws IOException {
+        dst.position(to);
+        while (count > 0) {
+            long n = src.transferTo(from, count, dst);
+            if (n <= 0) {
+                throw new EOFException("Fim inesperado do cofre na posição " + from);
+            }
+            from += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * Posição de um registro vivo no arquivo.
+     */
+    static final class Entry {
+        final long recordOffset;
+        final int recordLength;
+        final long valuePosition;
+        final int valueLength;
+        final long seq;
+
+        Entry(long recordOffset, int recordLength, long valuePosition, int valueLength, long seq) {
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.valuePosition = valuePosition;
+            this.valueLength = valueLength;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Registros vivos capturados por snapshot(): trechos contíguos do arquivo do cofre, copiados
+     * de canal para canal (transferTo) sem passar pelo heap.
+     */
+    static final class Snapshot implements Closeable {
+        private final FileChannel source;
+        private final long seq;
+        private final List<String> keys;
+        private final List<ByteBuffer> encoded = new ArrayList<>();
+        private long[] rangeStarts = new long[16];
+        private long[] rangeLengths = new long[16];
+        private int ranges;
+        private int records;
+        private long bytes;
+
+        private Snapshot(FileChannel source, long seq, int expectedKeys) {
+            this.source = source;
+            this.seq = seq;
+            this.keys = new ArrayList<>(expectedKeys);
+        }
+
+        private void add(long offset, int length) {
+            records++;
+            bytes += length;
+            if (ranges > 0 && rangeStarts[ranges - 1] + rangeLengths[ranges - 1] == offset) {
+                rangeLengths[ranges - 1] += length;
+                return;
+            }
+            if (ranges == rangeStarts.length) {
+                rangeStarts = Arrays.copyOf(rangeStarts, ranges * 2);
+                rangeLengths = Arrays.copyOf(rangeLengths, ranges * 2);
+            }
+            rangeStarts[ranges] = offset;
+            rangeLengths[ranges] = length;
+            ranges++;
+        }
+
+        private void add(ByteBuffer record) {
+            records++;
+            bytes += record.remaining();
+            encoded.add(record);
+        }
+
+        /**
+         * @return a maior seq do cofre no momento da captura (base do próximo snapshot incremental)
+         */
+        long seq() {
+            return seq;
+        }
+
+        int records() {
+            return records;
+        }
+
+        long bytes() {
+            return bytes;
+        }
+
+        /**
+         * @return as chaves de todos os registros vivos (vazia se snapshot() não as pediu)
+         */
+        List<String> keys() {
+            return keys;
+        }
+
+        void transferTo(WritableByteChannel out) throws IOException {
+            for (int i = 0; i < ranges; i++) {
+                long from = rangeStarts[i];
+                long count = rangeLengths[i];
+                while (count > 0) {
+                    long n = source.transferTo(from, count, out);
+                    if (n <= 0) {
+                        throw new EOFException("Fim inesperado do cofre na posição " + from);
+                    }
+                    from += n;
+                    count -= n;
+                }
+            }
+            for (ByteBuffer record : encoded) {
+                ByteBuffer buf = record.duplicate();
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (source != null) {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * Registro lido de um snapshot.
+     */
+    static final class Record {
+        final String key;
+        final byte[] value;
+        final long seq;
+
+        Record(String key, byte[] value, long seq) {
+            this.key = key;
+            this.value = value;
+            this.seq = seq;
+        }
+    }
+
+    private static final class ScanResult {
+        long end;
+        long garbage;
+        long maxSeq;
+        int records;
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.keychainapp.logic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+import com.example.keychainapp.logic.SystemKeychain.WinCred;
+import com.sun.jna.Memory;
+import com.sun.jna.platform.win32.Kernel32;
+import com.sun.jna.platform.win32.WinBase.FILETIME;
+import com.sun.jna.platform.win32.WinDef.DWORD;
+import com.sun.jna.ptr.PointerByReference;
+
+/**
+ * Windows Credential Manager via JNA (CredWriteW / CredReadW / CredDeleteW).
+ */
+class WinCredBackend implements KeychainBackend {
+    static final String NAME = "wincred";
+    private static final int ERROR_NOT_FOUND = 1168;
+    private static final Logger LOGGER = Logger.getLogger(WinCredBackend.class.getName());
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void savePassword(String service, String user, String password) throws KeychainException {
+        // Usa JNA para salvar/atualizar credencial no Windows Credential Manager
+        String target = service + ":" + user;
+        try {
+            byte[] passwordBytes = (password + "\0").getBytes(StandardCharsets.UTF_16LE);
+            WinCred.CREDENTIAL cred = new WinCred.CREDENTIAL();
+            cred.flags = new DWORD(0);
+            cred.type = new DWORD(WinCred.CRED_TYPE_GENERIC);
+            cred.targetName = target;
+            cred.comment = null;
+            cred.lastWritten = new FILETIME();
+            cred.credentialBlobSize = new DWORD(passwordBytes.length);
+            cred.credentialBlob = new Memory(passwordBytes.length);
+            cred.credentialBlob.write(0, passwordBytes, 0, passwordBytes.length);
+            cred.persist = new DWORD(WinCred.CRED_PERSIST_LOCAL_MACHINE);
+            cred.attributeCount = new DWORD(0);
+            cred.attributes = null;
+            cred.targetAlias = null;
+            cred.userName = user;
+            boolean result = WinCred.INSTANCE.CredWriteW(cred, 0);
+            if (!result) {
+                int err = Kernel32.INSTANCE.GetLastError();
+                throw new KeychainException("Erro ao salvar credencial no Windows Credential Manager (código: " + err + ")");
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("[Windows] Credencial salva com sucesso no Credential Manager: " + target);
+            }
+        } catch (KeychainException ke) {
+            throw ke;
+        } catch (Exception e) {
+            throw new KeychainException("Exceção ao acessar o Credential Manager via JNA. Veja o README para instruções.", e);
+        }
+    }
+
+    @Override
+    public String loadPassword(String service, String user) throws KeychainException {
+        // Usa JNA para ler a senha do Windows Credential Manager
+        String target = service + ":" + user;
+        try {
+            PointerByReference pCred = new PointerByReference();
+            boolean found = WinCred.INSTANCE.CredReadW(target, WinCred.CRED_TYPE_GENERIC, 0, pCred);
+            if (found) {
+                WinCred.CREDENTIAL cred = new WinCred.CREDENTIAL(pCred.getValue());
+                cred.read();
+                int len = cred.credentialBlobSize.intValue();
+                byte[] passwordBytes = cred.credentialBlob.getByteArray(0, len);
+                String password = new String(passwordBytes, StandardCharsets.UTF_16LE);
+                // Remove null terminator if present
+                int nullIndex = password.indexOf('\0');
+                if (nullIndex != -1) {
+                    password = password.substring(0, nullIndex);
+                }
+                WinCred.INSTANCE.CredFree(pCred.getValue());
+                if (password.isEmpty()) {
+                    throw new KeychainException("Senha não encontrada no Credential Manager do Windows para service='" + service + "', key='" + user + "'");
+                }
+                return password;
+            } else {
+                int err = Kernel32.INSTANCE.GetLastError();
+                throw new KeychainException("Credencial não encontrada no Windows Credential Manager (código: " + err + ")");
+            }
+        } catch (KeychainException ke) {
+            throw ke;
+        } catch (Exception e) {
+            throw new KeychainException("Erro ao acessar o Credential Manager via JNA. Veja o README para instruções.", e);
+        }
+    }
+
+    @Override
+    public boolean deletePassword(String service, String user) throws KeychainException {
+        String target = service + ":" + user;
+        try {
+            if (WinCred.INSTANCE.CredDeleteW(target, WinCred.CRED_TYPE_GENERIC, 0)) {
+                return true;
+            }
+            int err = Kernel32.INSTANCE.GetLastError();
+            if (err == ERROR_NOT_FOUND) {
+                return false;
+            }
+            throw new KeychainException("Erro ao remover credencial do Windows Credential Manager (código: " + err + ")");
+        } catch (KeychainException ke) {
+            throw ke;
+        } catch (Exception e) {
+            throw new KeychainException("Erro ao acessar o Credential Manager via JNA. Veja o README para instruções.", e);
+        }
+    }
+}
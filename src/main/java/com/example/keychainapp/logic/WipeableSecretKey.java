@@ -0,0 +1,62 @@
+package com.example.keychainapp.logic;
+
+import java.util.Arrays;
+import javax.crypto.SecretKey;
+import javax.security.auth.Destroyable;
+
+/**
+ * Chave AES mantida em memória pelo KeychainService.
+ *
+ * Diferente de SecretKeySpec, permite apagar o material da chave com destroy(),
+ * o que é usado quando o serviço é fechado ou a chave é recarregada.
+ */
+final class WipeableSecretKey implements SecretKey, Destroyable {
+    private static final long serialVersionUID = 1L;
+
+    private final String algorithm;
+    private final byte[] encoded;
+    private volatile boolean destroyed;
+
+    WipeableSecretKey(byte[] encoded, String algorithm) {
+        this.encoded = encoded.clone();
+        this.algorithm = algorithm;
+    }
+
+    static WipeableSecretKey copyOf(SecretKey key) {
+        byte[] raw = key.getEncoded();
+        try {
+            return new WipeableSecretKey(raw, key.getAlgorithm());
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public String getFormat() {
+        return "RAW";
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        if (destroyed) {
+            throw new IllegalStateException("Chave já foi apagada da memória");
+        }
+        return encoded.clone();
+    }
+
+    @Override
+    public void destroy() {
+        destroyed = true;
+        Arrays.fill(encoded, (byte) 0);
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+}
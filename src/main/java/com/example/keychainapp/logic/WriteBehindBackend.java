@@ -0,0 +1,314 @@
+package com.example.keychainapp.logic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * Gravação adiada (write-behind) na frente de outro KeychainBackend.
+ *
+ * savePassword só guarda o valor em memória; uma thread grava no keychain do SO a cada flushMs
+ * ou quando o buffer chega a flushEntries chaves. Regravações da mesma chave antes do flush viram
+ * uma única gravação com o último valor, então um token renovado várias vezes por minuto custa
+ * um processo ou chamada ao CredWriteW por intervalo, não por renovação.
+ *
+ * - loadPassword devolve o valor pendente, se houver; deletePassword descarta o valor pendente e
+ *   remove do backend na hora (esperando um flush em andamento, para não ser desfeito por ele).
+ * - O buffer tem no máximo maxEntries chaves: uma chave nova com o buffer cheio faz a própria
+ *   thread chamadora gravar o buffer antes de continuar.
+ * - flush() é a barreira de durabilidade: quando retorna, tudo o que foi salvo antes da chamada
+ *   está no keychain do SO. Falhas ficam no buffer para a próxima tentativa e são relançadas
+ *   por flush(). close() (e o hook de encerramento da JVM) faz um último flush.
+ * - Os valores ficam em byte[] (UTF-8), zerados depois de gravados.
+ *
+ * Ativado com keychain.writeBehind.enabled=true.
+ */
+public class WriteBehindBackend implements KeychainBackend {
+    private static final Logger LOGGER = Logger.getLogger(WriteBehindBackend.class.getName());
+
+    private final KeychainBackend delegate;
+    private final int flushEntries;
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, Pending> buffer = new ConcurrentHashMap<>();
+    // Um flush por vez; deletePassword também o usa para não cruzar com uma gravação pendente
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    // savePassword confere closed e insere no buffer com o lock de leitura; close() marca closed com
+    // o de escrita, então nada entra no buffer depois do último flush
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushedWrites = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+
+    /**
+     * @param flushMs intervalo entre as gravações em segundo plano
+     * @param flushEntries chaves pendentes que antecipam a gravação em segundo plano
+     * @param maxEntries limite de chaves pendentes
+     */
+    public WriteBehindBackend(KeychainBackend delegate, long flushMs, int flushEntries, int maxEntries) {
+        this.delegate = delegate;
+        this.flushEntries = Math.max(1, flushEntries);
+        this.maxEntries = Math.max(this.flushEntries, maxEntries);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "keychain-write-behind");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                backgroundFlush();
+            }
+        }, flushMs, flushMs, TimeUnit.MILLISECONDS);
+    }
+
+    static KeychainBackend wrapIfEnabled(KeychainBackend backend) {
+        if (!Boolean.getBoolean("keychain.writeBehind.enabled")) {
+            return backend;
+        }
+        long flushMs = Long.getLong("keychain.writeBehind.flushMs", 1000L);
+        int flushEntries = Integer.getInteger("keychain.writeBehind.flushEntries", 64);
+        int maxEntries = Integer.getInteger("keychain.writeBehind.maxEntries", 1024);
+        LOGGER.info("[WriteBehindBackend] Gravação adiada ativa (flush a cada " + flushMs + " ms ou " + flushEntries
+            + " chaves, máximo " + maxEntries + ")");
+        final WriteBehindBackend writeBehind = new WriteBehindBackend(backend, flushMs, flushEntries, maxEntries);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBehind.close();
+            }
+        }, "keychain-write-behind-shutdown"));
+        return writeBehind;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    KeychainBackend getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void savePassword(String service, String user, String password) throws KeychainException {
+        closeLock.readLock().lock();
+        try {
+            if (!closed) {
+                buffer(service, user, password);
+                return;
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        delegate.savePassword(service, user, password);
+    }
+
+    private void buffer(String service, String user, String password) throws KeychainException {
+        String key = bufferKey(service, user);
+        if (buffer.size() >= maxEntries && !buffer.containsKey(key)) {
+            // buffer cheio: quem grava paga o flush, e o buffer não cresce além do limite
+            flush();
+        }
+        writes.incrementAndGet();
+        Pending old = buffer.put(key, new Pending(service, user, password.getBytes(StandardCharsets.UTF_8)));
+        if (old != null) {
+            coalesced.incrementAndGet();
+            old.wipe();
+        }
+        if (buffer.size() >= flushEntries && flushQueued.compareAndSet(false, true)) {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    backgroundFlush();
+                }
+            });
+        }
+    }
+
+    @Override
+    public String loadPassword(String service, String user) throws KeychainException {
+        String key = bufferKey(service, user);
+        Pending p = buffer.get(key);
+        while (p != null) {
+            String value = p.read();
+            if (value != null) {
+                return value;
+            }
+            // zerado entre o get e a leitura: substituído por uma gravação mais nova (que está
+            // no buffer) ou gravado pelo flush (e então o backend já tem o valor)
+            p = buffer.get(key);
+        }
+        return delegate.loadPassword(service, user);
+    }
+
+    @Override
+    public boolean deletePassword(String service, String user) throws KeychainException {
+        synchronized (flushLock) {
+            Pending p = buffer.remove(bufferKey(service, user));
+            if (p != null) {
+                p.wipe();
+            }
+            return delegate.deletePassword(service, user) || p != null;
+        }
+    }
+
+    /**
+     * Grava no backend tudo o que estava pendente quando a chamada começou.
+     *
+     * @throws KeychainException se alguma gravação falhou (a chave continua pendente)
+     */
+    public void flush() throws KeychainException {
+        synchronized (flushLock) {
+            List<Map.Entry<String, Pending>> pending = new ArrayList<>(buffer.entrySet());
+            if (pending.isEmpty()) {
+                return;
+            }
+            long start = KeychainMetrics.start();
+            KeychainException first = null;
+            int failed = 0;
+            for (Map.Entry<String, Pending> e : pending) {
+                Pending p = e.getValue();
+                String value = p.read();
+                if (value == null) {
+                    continue;
+                }
+                try {
+                    delegate.savePassword(p.service, p.user, value);
+                    flushedWrites.incrementAndGet();
+                    // uma gravação mais nova da mesma chave continua pendente
+                    if (buffer.remove(e.getKey(), p)) {
+                        p.wipe();
+                    }
+                } catch (KeychainException ex) {
+                    failedWrites.incrementAndGet();
+                    failed++;
+                    if (first == null) {
+                        first = ex;
+                    }
+                }
+            }
+            KeychainMetrics.record("writeBehindFlush", delegate.getName(), start, first == null);
+            if (first != null) {
+                throw new KeychainException("Falha ao gravar " + failed + " de " + pending.size()
+                    + " senhas pendentes no keychain", first);
+            }
+        }
+    }
+
+    private void backgroundFlush() {
+        flushQueued.set(false);
+        try {
+            flush();
+        } catch (KeychainException e) {
+            LOGGER.warning("[WriteBehindBackend] " + e.getMessage() + ": " + e.getCause().getMessage()
+                + ". Nova tentativa no próximo flush.");
+        } catch (RuntimeException e) {
+            LOGGER.warning("[WriteBehindBackend] Falha inesperada no flush: " + e);
+        }
+    }
+
+    /**
+     * Para a thread de flush e grava o que estiver pendente. Depois disso, savePassword grava
+     * direto no backend.
+     */
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        scheduler.shutdown();
+        try {
+            flush();
+        } catch (KeychainException e) {
+            LOGGER.severe("[WriteBehindBackend] Senhas pendentes não gravadas no encerramento: " + e.getMessage()
+                + ": " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * @return chaves com gravação pendente
+     */
+    public int getPending() {
+        return buffer.size();
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * @return gravações substituídas por uma mais nova da mesma chave antes do flush
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return gravações feitas no backend
+     */
+    public long getFlushedWrites() {
+        return flushedWrites.get();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindBackend[" + delegate.getName() + ", pendentes=" + buffer.size() + ", gravações=" + writes.get()
+            + ", agrupadas=" + coalesced.get() + ", gravadasNoBackend=" + flushedWrites.get() + ", falhas=" + failedWrites.get() + "]";
+    }
+
+    private static String bufferKey(String service, String user) {
+        return service + '\u0000' + user;
+    }
+
+    private static final class Pending {
+        final String service;
+        final String user;
+        private final byte[] value;
+        private boolean wiped;
+
+        Pending(String service, String user, byte[] value) {
+            this.service = service;
+            this.user = user;
+            this.value = value;
+        }
+
+        /**
+         * @return o valor, ou null se já foi gravado e zerado
+         */
+        synchronized String read() {
+            return wiped ? null : new String(value, StandardCharsets.UTF_8);
+        }
+
+        synchronized void wipe() {
+            wiped = true;
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+}
@@ -10,10 +10,15 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
 public class Email {
     private static final String API_URL = "https://api.exemplo.com/send-email"; // URL da API de envio de e-mail
+    // Sem timeouts uma API fora do ar prende a thread chamadora indefinidamente
+    private static final int CONNECT_TIMEOUT_MS = Integer.getInteger("keychain.telemetry.connectTimeoutMs", 3000);
+    private static final int READ_TIMEOUT_MS = Integer.getInteger("keychain.telemetry.readTimeoutMs", 5000);
 
     // Modelo de dados para o e-mail
     public static class EmailData {
@@ -26,10 +31,22 @@ public class Email {
             this.subject = subject;
             this.body = body;
         }
+
+        /**
+         * JSON do e-mail, com todos os campos escapados.
+         */
+        public String toJson() {
+            Map<String, String> fields = new LinkedHashMap<>();
+            fields.put("to", to);
+            fields.put("subject", subject);
+            fields.put("body", body);
+            return Json.object(fields);
+        }
     }
 
     /**
-     * Envia um e-mail via POST para a API.
+     * Envia um e-mail via POST para a API e espera a resposta. Para relatórios que não devem
+     * atrasar quem chama, use TelemetryReporter.
      * @param emailData JSON do e-mail (ex: {"to":"...","subject":"...","body":"..."})
      * @return resposta da API como String
      * @throws IOException se houver erro de rede
@@ -39,6 +56,8 @@ public class Email {
         try {
             URL url = new URL(API_URL);
             conn = (HttpURLConnection) url.openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
             conn.setRequestMethod("POST");
             conn.setRequestProperty("Content-Type", "application/json");
             conn.setDoOutput(true);
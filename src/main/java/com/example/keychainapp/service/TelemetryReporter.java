@@ -0,0 +1,300 @@
+package com.example.keychainapp.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Envio de relatórios (JSON) em segundo plano, no lugar do Email.sendEmail síncrono.
+ *
+ * - report() só enfileira: nunca bloqueia nem faz I/O na thread chamadora. Com a fila cheia
+ *   (keychain.telemetry.queueSize) ou o circuito aberto, o relatório é descartado e contado.
+ * - Uma thread daemon junta até keychain.telemetry.batchSize relatórios, ou o que houver após
+ *   keychain.telemetry.flushMs, e envia um array JSON compactado com gzip em um único POST.
+ * - Cada POST tem timeouts de conexão e leitura e até keychain.telemetry.retries novas
+ *   tentativas com backoff exponencial e jitter. Respostas 4xx não são repetidas.
+ * - Depois de keychain.telemetry.breakerFailures lotes perdidos seguidos o circuito abre por
+ *   keychain.telemetry.breakerCooldownMs; o primeiro lote depois disso testa o endpoint. Se ele
+ *   também se perder, o circuito abre de novo; só um lote entregue fecha o circuito.
+ * - close() (ou o shutdown hook da instância compartilhada) tenta enviar o que restou por no
+ *   máximo keychain.telemetry.shutdownFlushMs.
+ *
+ * Para testar localmente, aponte keychain.telemetry.url para um servidor HTTP qualquer, como o
+ * simplefileserver.go (http://localhost:2222/).
+ */
+public class TelemetryReporter implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(TelemetryReporter.class.getName());
+    static final String DEFAULT_URL = "https://api.exemplo.com/send-email";
+
+    private static final Object SHARED_LOCK = new Object();
+    private static TelemetryReporter shared;
+
+    private final URL endpoint;
+    private final int batchSize;
+    private final long flushMs;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final int retries;
+    private final long backoffMs;
+    private final int breakerFailures;
+    private final long breakerCooldownMs;
+    private final BlockingQueue<String> queue;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // Estado do circuito, alterado só pela thread de envio. Não volta a zero quando o circuito
+    // abre: assim o lote de teste depois do cooldown, se falhar, reabre o circuito sozinho.
+    private int consecutiveFailures;
+    private volatile long openUntil;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    public TelemetryReporter(URL endpoint) {
+        this.endpoint = endpoint;
+        this.batchSize = Math.max(1, Integer.getInteger("keychain.telemetry.batchSize", 50));
+        this.flushMs = Long.getLong("keychain.telemetry.flushMs", 2000L);
+        this.connectTimeoutMs = Integer.getInteger("keychain.telemetry.connectTimeoutMs", 3000);
+        this.readTimeoutMs = Integer.getInteger("keychain.telemetry.readTimeoutMs", 5000);
+        this.retries = Integer.getInteger("keychain.telemetry.retries", 3);
+        this.backoffMs = Long.getLong("keychain.telemetry.backoffMs", 500L);
+        this.breakerFailures = Integer.getInteger("keychain.telemetry.breakerFailures", 5);
+        this.breakerCooldownMs = Long.getLong("keychain.telemetry.breakerCooldownMs", 60000L);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, Integer.getInteger("keychain.telemetry.queueSize", 1000)));
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sendLoop();
+            }
+        }, "keychain-telemetry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Instância do processo, criada no primeiro uso com keychain.telemetry.url.
+     * Um shutdown hook envia o que ainda estiver na fila.
+     */
+    public static TelemetryReporter shared() throws IOException {
+        synchronized (SHARED_LOCK) {
+            if (shared == null) {
+                final TelemetryReporter reporter = new TelemetryReporter(new URL(System.getProperty("keychain.telemetry.url", DEFAULT_URL)));
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        reporter.close();
+                    }
+                }, "keychain-telemetry-shutdown"));
+                shared = reporter;
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * Enfileira um relatório (um objeto JSON). Não bloqueia.
+     *
+     * @return false se o relatório foi descartado (fila cheia, circuito aberto ou reporter fechado)
+     */
+    public boolean report(String json) {
+        if (closed || System.currentTimeMillis() < openUntil || !queue.offer(json)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailedBatches() {
+        return failedBatches.get();
+    }
+
+    public boolean isCircuitOpen() {
+        return System.currentTimeMillis() < openUntil;
+    }
+
+    /**
+     * Para de aceitar relatórios e espera a thread enviar o que restou, por no máximo
+     * keychain.telemetry.shutdownFlushMs.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join(Long.getLong("keychain.telemetry.shutdownFlushMs", 2000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendLoop() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (!closed) {
+            try {
+                String first = queue.poll(flushMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // espera um pouco por mais relatórios para não enviar um POST por relatório
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    String next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                deliver(batch, true);
+                batch.clear();
+            } catch (InterruptedException e) {
+                // close(): sai do laço e envia o restante uma vez, sem novas tentativas
+            }
+        }
+        // o lote interrompido no meio da coleta também é enviado
+        queue.drainTo(batch);
+        for (int from = 0; from < batch.size(); from += batchSize) {
+            deliver(batch.subList(from, Math.min(batch.size(), from + batchSize)), false);
+        }
+    }
+
+    private void deliver(List<String> batch, boolean retry) {
+        if (System.currentTimeMillis() < openUntil) {
+            dropped.addAndGet(batch.size());
+            return;
+        }
+        byte[] body;
+        try {
+            body = gzip(toJsonArray(batch));
+        } catch (IOException e) {
+            dropped.addAndGet(batch.size());
+            return;
+        }
+        int attempts = retry ? retries + 1 : 1;
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            if (attempt > 0 && !sleepBackoff(attempt)) {
+                break;
+            }
+            try {
+                int status = post(body);
+                if (status >= 200 && status < 300) {
+                    sent.addAndGet(batch.size());
+                    consecutiveFailures = 0;
+                    openUntil = 0;
+                    return;
+                }
+                if (status >= 400 && status < 500) {
+                    LOGGER.warning("[Telemetry] Endpoint recusou o lote (HTTP " + status + "); lote descartado.");
+                    break;
+                }
+                LOGGER.fine("[Telemetry] HTTP " + status + " na tentativa " + (attempt + 1));
+            } catch (IOException e) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("[Telemetry] Falha na tentativa " + (attempt + 1) + ": " + e.getMessage());
+                }
+            }
+        }
+        failedBatches.incrementAndGet();
+        dropped.addAndGet(batch.size());
+        if (++consecutiveFailures >= breakerFailures) {
+            openUntil = System.currentTimeMillis() + breakerCooldownMs;
+            LOGGER.warning("[Telemetry] Endpoint " + endpoint + " indisponível; relatórios descartados pelos próximos "
+                + breakerCooldownMs + " ms.");
+        }
+    }
+
+    /**
+     * Espera backoffMs * 2^(tentativa-1), com jitter de até 50%.
+     *
+     * @return false se o reporter foi fechado durante a espera
+     */
+    private boolean sleepBackoff(int attempt) {
+        long delay = backoffMs << Math.min(attempt - 1, 10);
+        delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private int post(byte[] body) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) endpoint.openConnection();
+        conn.setConnectTimeout(connectTimeoutMs);
+        conn.setReadTimeout(readTimeoutMs);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+        conn.setRequestProperty("Content-Encoding", "gzip");
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body);
+        }
+        int status = conn.getResponseCode();
+        // consome a resposta para a conexão poder ser reaproveitada (keep-alive)
+        InputStream in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        if (in != null) {
+            try {
+                byte[] buf = new byte[4096];
+                while (in.read(buf) != -1) {
+                    // descarta
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return status;
+    }
+
+    private static String toJsonArray(List<String> batch) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(batch.get(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static byte[] gzip(String json) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(buf)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        return buf.toByteArray();
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.keychainapp.startup;
+
+import java.io.File;
+
+import com.example.keychainapp.logic.KeychainAgent;
+import com.example.keychainapp.logic.KeychainService;
+
+/**
+ * Modo agente, iniciado pelo Main:
+ *
+ * <pre>
+ * --agent [opções]     inicializa o KeychainService uma vez e atende clientes pelo socket Unix
+ *
+ * --socket=caminho     socket do agente (padrão KeychainAgent.defaultSocketPath())
+ * --dir=diretório      diretório do keychain (padrão keychain.dir ou o diretório do usuário)
+ * </pre>
+ *
+ * O processo fica ativo até receber SIGTERM/SIGINT; o hook de encerramento fecha o agente
+ * (removendo o socket) e o serviço.
+ */
+public class Agent {
+
+    /**
+     * Inicia o agente e retorna sem bloquear: a thread do agente mantém a JVM ativa.
+     *
+     * @return 0 se o agente foi iniciado, 1 em falha, 2 para argumentos inválidos
+     */
+    public static int start(String[] args) {
+        File socket = null;
+        File dir = null;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--socket=")) {
+                socket = new File(arg.substring("--socket=".length()));
+            } else if (arg.startsWith("--dir=")) {
+                dir = new File(arg.substring("--dir=".length()));
+            } else {
+                System.err.println("[Agent] Argumento inválido: " + arg);
+                System.err.println("Uso: --agent [--socket=caminho] [--dir=diretório]");
+                return 2;
+            }
+        }
+        final KeychainService service = dir != null ? new KeychainService(dir) : new KeychainService();
+        final KeychainAgent agent = new KeychainAgent(service, socket != null ? socket : KeychainAgent.defaultSocketPath());
+        try {
+            // desbloqueia antes de aceitar clientes: falhas de senha/keystore aparecem aqui
+            service.awaitInitialization();
+            agent.start();
+        } catch (Exception e) {
+            System.err.println("[Agent] Não foi possível iniciar o agente: " + e);
+            service.close();
+            return 1;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                agent.close();
+                service.close();
+            }
+        }, "keychain-agent-shutdown"));
+        return 0;
+    }
+}
@@ -0,0 +1,422 @@
+package com.example.keychainapp.startup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.example.keychainapp.logic.KeyPage;
+import com.example.keychainapp.logic.KeychainService;
+import com.example.keychainapp.logic.SystemKeychain;
+import com.example.keychainapp.service.Json;
+
+/**
+ * Modo em lote, iniciado pelo Main: lê comandos JSON, um por linha, da entrada padrão ou de um
+ * arquivo, executa-os em paralelo com um único KeychainService (uma única leitura da senha do
+ * keychain do SO) e escreve um resultado JSON por linha na saída padrão, na ordem da entrada.
+ *
+ * <pre>
+ * --batch [opções]
+ *
+ * --input=arquivo     lê os comandos do arquivo em vez da entrada padrão
+ * --threads=N         comandos executados ao mesmo tempo (8)
+ * --window=N          comandos lidos à frente do primeiro resultado ainda não escrito (threads * 16)
+ * --target=T          service (padrão) ou keychain, quando o comando não tem "target"
+ * --dir=diretório     diretório do keychain (padrão keychain.dir ou o diretório do usuário)
+ * </pre>
+ *
+ * Comandos ("id" é opcional e volta no resultado; "target" e "service" valem por comando):
+ * <pre>
+ * {"op":"put","key":"db/password","value":"s3cr3t"}
+ * {"op":"get","key":"db/password"}
+ * {"op":"delete","key":"db/password"}
+ * {"op":"list","prefix":"db/","limit":100,"cursor":null}
+ * {"op":"get","target":"keychain","service":"KeychainApp","key":"usuario"}
+ * </pre>
+ *
+ * Resultados: {"line":1,"ok":true,...} com "value"/"found" (get), "found" (delete) ou
+ * "keys"/"next" (list); em falha, {"line":1,"ok":false,"error":"..."}. Com
+ * keychain.writeBehind.enabled, um put no keychain do SO só tem ok:true depois de gravado nele.
+ *
+ * Comandos para a mesma chave rodam na ordem da entrada; list espera os comandos anteriores
+ * terminarem. Quando não há mais entrada disponível, os resultados pendentes são escritos antes
+ * da próxima leitura, então o modo também serve para um processo que conversa linha a linha.
+ */
+public class Batch {
+    static final String DEFAULT_SERVICE = "KeychainApp";
+
+    private final Options options;
+    private final ExecutorService pool;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    // última execução pendente por chave: o próximo comando para a mesma chave espera por ela
+    private final Map<String, CompletableFuture<String>> lastByKey = new HashMap<>();
+    private KeychainService service;
+    private int commands;
+    private int failures;
+
+    Batch(Options options) {
+        this.options = options;
+        this.pool = Executors.newFixedThreadPool(options.threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "keychain-batch-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return código de saída: 0 se todos os comandos tiveram sucesso, 1 se algum falhou, 2 para
+     *         argumentos inválidos ou falha de leitura/escrita
+     */
+    public static int run(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[Batch] " + e.getMessage());
+            System.err.println("Uso: --batch [--input=arquivo] [--threads=N] [--window=N] [--target=service|keychain] [--dir=diretório]");
+            return 2;
+        }
+        Batch batch = new Batch(options);
+        long start = System.nanoTime();
+        try (InputStream in = options.input != null ? new FileInputStream(options.input) : System.in) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+            batch.process(reader, out);
+        } catch (IOException e) {
+            System.err.println("[Batch] Falha de leitura/escrita: " + e);
+            return 2;
+        } finally {
+            batch.close();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        System.err.println("[Batch] " + batch.commands + " comandos em " + elapsedMs + " ms, " + batch.failures + " falhas");
+        return batch.failures == 0 ? 0 : 1;
+    }
+
+    void process(BufferedReader reader, Writer out) throws IOException {
+        int lineNumber = 0;
+        String line;
+        while (true) {
+            if (!reader.ready()) {
+                // quem escreve a entrada pode estar esperando estes resultados para continuar
+                drain(out, 0);
+                out.flush();
+            }
+            line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            submit(lineNumber, line, out);
+            drain(out, options.window);
+        }
+        drain(out, 0);
+        out.flush();
+    }
+
+    private void submit(int lineNumber, String line, Writer out) throws IOException {
+        commands++;
+        final Command command;
+        try {
+            command = Command.parse(line, options.target);
+        } catch (IllegalArgumentException e) {
+            pending.addLast(new Pending(lineNumber, null, CompletableFuture.completedFuture(error(e.getMessage()))));
+            return;
+        }
+        if ("service".equals(command.target) && service == null) {
+            // a primeira operação do serviço paga a inicialização, uma única vez
+            service = options.dir != null ? new KeychainService(options.dir) : new KeychainService();
+        }
+        Supplier<String> task = new Supplier<String>() {
+            @Override
+            public String get() {
+                return execute(command);
+            }
+        };
+        CompletableFuture<String> result;
+        if ("list".equals(command.op)) {
+            // lista o estado depois de todos os comandos anteriores
+            drain(out, 0);
+            result = CompletableFuture.completedFuture(task.get());
+        } else {
+            String chainKey = command.chainKey();
+            CompletableFuture<String> previous = lastByKey.get(chainKey);
+            if (previous == null) {
+                result = CompletableFuture.supplyAsync(task, pool);
+            } else {
+                result = previous.handle(new BiFunction<String, Throwable, Void>() {
+                    @Override
+                    public Void apply(String r, Throwable t) {
+                        return null;
+                    }
+                }).thenApplyAsync(new Function<Void, String>() {
+                    @Override
+                    public String apply(Void ignored) {
+                        return execute(command);
+                    }
+                }, pool);
+            }
+            lastByKey.put(chainKey, result);
+        }
+        pending.addLast(new Pending(lineNumber, command, result));
+    }
+
+    /**
+     * Escreve, na ordem da entrada, os resultados pendentes até sobrarem no máximo keep.
+     */
+    private void drain(Writer out, int keep) throws IOException {
+        while (pending.size() > keep) {
+            Pending p = pending.removeFirst();
+            String result;
+            try {
+                result = p.result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrompido esperando o comando da linha " + p.line, e);
+            } catch (ExecutionException e) {
+                result = error(String.valueOf(e.getCause()));
+            }
+            if (p.command != null && lastByKey.get(p.command.chainKey()) == p.result) {
+                lastByKey.remove(p.command.chainKey());
+            }
+            if (result.startsWith("\"ok\":false")) {
+                failures++;
+            }
+            out.write("{\"line\":");
+            out.write(Integer.toString(p.line));
+            if (p.command != null && p.command.id != null) {
+                out.write(",\"id\":");
+                out.write(p.command.id);
+            }
+            out.write(',');
+            out.write(result);
+            out.write("}\n");
+        }
+    }
+
+    /**
+     * @return os campos do resultado, sem as chaves do objeto
+     */
+    private String execute(Command c) {
+        try {
+            if ("keychain".equals(c.target)) {
+                return executeKeychain(c);
+            }
+            switch (c.op) {
+                case "get": {
+                    String value = service.retrieve(c.key);
+                    return value == null ? "\"ok\":true,\"found\":false" : "\"ok\":true,\"found\":true,\"value\":" + Json.quote(value);
+                }
+                case "put":
+                    service.save(c.key, c.value);
+                    return "\"ok\":true";
+                case "delete":
+                    return "\"ok\":true,\"found\":" + service.delete(c.key);
+                default: {
+                    KeyPage page = service.scan(c.prefix, c.limit, c.cursor);
+                    StringBuilder sb = new StringBuilder("\"ok\":true,\"keys\":[");
+                    for (int i = 0; i < page.getKeys().size(); i++) {
+                        sb.append(i == 0 ? "" : ",").append(Json.quote(page.getKeys().get(i)));
+                    }
+                    return sb.append("],\"next\":").append(Json.quote(page.getNextCursor())).toString();
+                }
+            }
+        } catch (Exception e) {
+            return error(e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    private static String executeKeychain(Command c) throws SystemKeychain.KeychainException {
+        switch (c.op) {
+            case "get":
+                // os backends do SO lançam KeychainException para uma senha inexistente
+                return "\"ok\":true,\"found\":true,\"value\":" + Json.quote(SystemKeychain.loadPassword(c.service, c.key));
+            case "put":
+                SystemKeychain.savePassword(c.service, c.key, c.value);
+                // com gravação adiada, ok só depois que a senha chegou ao keychain do SO; o flush
+                // leva junto as outras senhas pendentes, inclusive as dos puts em paralelo
+                SystemKeychain.flush();
+                return "\"ok\":true";
+            case "delete":
+                return "\"ok\":true,\"found\":" + SystemKeychain.deletePassword(c.service, c.key);
+            default:
+                return error("list não é suportado para o keychain do SO");
+        }
+    }
+
+    private static String error(String message) {
+        return "\"ok\":false,\"error\":" + Json.quote(message);
+    }
+
+    private void close() {
+        pool.shutdownNow();
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    private static final class Pending {
+        final int line;
+        final Command command;
+        final CompletableFuture<String> result;
+
+        Pending(int line, Command command, CompletableFuture<String> result) {
+            this.line = line;
+            this.command = command;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Um comando já validado.
+     */
+    static final class Command {
+        String op;
+        String target;
+        String service;
+        String key;
+        String value;
+        String prefix;
+        String cursor;
+        int limit;
+        // "id" já em JSON, para ser devolvido como veio
+        String id;
+
+        static Command parse(String line, String defaultTarget) {
+            Map<String, Object> fields = Json.parseObject(line);
+            Command c = new Command();
+            c.op = string(fields, "op", null);
+            c.target = string(fields, "target", defaultTarget);
+            Object id = fields.get("id");
+            c.id = id == null ? null : id instanceof String ? Json.quote((String) id) : id.toString();
+            if (!"service".equals(c.target) && !"keychain".equals(c.target)) {
+                throw new IllegalArgumentException("target deve ser service ou keychain: " + c.target);
+            }
+            if (c.op == null) {
+                throw new IllegalArgumentException("Campo obrigatório ausente: op");
+            }
+            switch (c.op) {
+                case "get":
+                case "delete":
+                    c.key = required(fields, "key");
+                    break;
+                case "put":
+                    c.key = required(fields, "key");
+                    c.value = required(fields, "value");
+                    break;
+                case "list":
+                    c.prefix = string(fields, "prefix", "");
+                    c.cursor = string(fields, "cursor", null);
+                    Object limit = fields.get("limit");
+                    c.limit = limit instanceof Number ? ((Number) limit).intValue() : 1000;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Operação desconhecida: " + c.op);
+            }
+            c.service = string(fields, "service", DEFAULT_SERVICE);
+            return c;
+        }
+
+        /**
+         * Comandos com a mesma chave de encadeamento rodam na ordem da entrada.
+         */
+        String chainKey() {
+            return "keychain".equals(target) ? "k\u0000" + service + "\u0000" + key : "s\u0000" + key;
+        }
+
+        private static String required(Map<String, Object> fields, String name) {
+            String value = string(fields, name, null);
+            if (value == null) {
+                throw new IllegalArgumentException("Campo obrigatório ausente: " + name);
+            }
+            return value;
+        }
+
+        private static String string(Map<String, Object> fields, String name, String defaultValue) {
+            Object value = fields.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            if (!(value instanceof String)) {
+                throw new IllegalArgumentException("Campo " + name + " deve ser uma string");
+            }
+            return (String) value;
+        }
+    }
+
+    /**
+     * Opções da linha de comando.
+     */
+    static final class Options {
+        File input;
+        File dir;
+        int threads = 8;
+        int window = -1;
+        String target = "service";
+
+        static Options parse(String[] args) {
+            Options o = new Options();
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("Argumento inválido: " + arg);
+                }
+                String name = arg.substring(2, eq);
+                String value = arg.substring(eq + 1);
+                try {
+                    switch (name) {
+                        case "input": o.input = "-".equals(value) ? null : new File(value); break;
+                        case "dir": o.dir = new File(value); break;
+                        case "threads": o.threads = Integer.parseInt(value); break;
+                        case "window": o.window = Integer.parseInt(value); break;
+                        case "target": o.target = value; break;
+                        default: throw new IllegalArgumentException("Opção desconhecida: --" + name);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Valor inválido para --" + name + ": " + value);
+                }
+            }
+            if (o.threads < 1) {
+                throw new IllegalArgumentException("--threads deve ser pelo menos 1");
+            }
+            if (o.window < 0) {
+                o.window = o.threads * 16;
+            }
+            if (o.window < 1) {
+                throw new IllegalArgumentException("--window deve ser pelo menos 1");
+            }
+            if (!"service".equals(o.target) && !"keychain".equals(o.target)) {
+                throw new IllegalArgumentException("--target deve ser service ou keychain");
+            }
+            return o;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package com.example.keychainapp.startup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.keychainapp.logic.InMemoryBackend;
+import com.example.keychainapp.logic.KeychainMetrics;
+import com.example.keychainapp.logic.KeychainService;
+import com.example.keychainapp.logic.OperationSnapshot;
+import com.example.keychainapp.logic.SystemKeychain;
+import com.example.keychainapp.service.Json;
+
+/**
+ * Autoteste e teste de carga do SystemKeychain e do KeychainService, iniciados pelo Main:
+ *
+ * <pre>
+ * --self-test [opções]   grava, lê, confere e remove cada chave uma vez
+ * --load-test [opções]   mistura leituras e gravações concorrentes por um tempo fixo
+ *
+ * --keys=N            chaves de teste (padrão 1000; 3 no autoteste)
+ * --value-size=N      tamanho dos valores em caracteres (256)
+ * --threads=N         threads do teste de carga (4)
+ * --read-ratio=F      fração de leituras, entre 0 e 1 (0.9)
+ * --duration=S        segundos medidos (10)
+ * --warmup=S          segundos de aquecimento, fora da medição (2)
+ * --target=T          keychain, service ou both (both)
+ * --backend=B         memory (padrão, sem keychain real) ou system (backend detectado/keychain.backend)
+ * --output=arquivo    grava o relatório JSON no arquivo, além da saída padrão
+ * </pre>
+ *
+ * As latências vêm do KeychainMetrics, zerado depois do aquecimento. O KeychainService usa um
+ * diretório temporário, e todas as chaves de teste são removidas no fim, mesmo com falhas.
+ */
+public class LoadTest {
+    static final String SERVICE = "KeychainAppLoadTest";
+
+    private final Options options;
+    private final String prefix = "loadtest-" + UUID.randomUUID() + "-";
+    private final String[] values;
+    private final AtomicLong mismatches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final List<String> messages = new ArrayList<>();
+    private KeychainService service;
+    private List<OperationSnapshot> latency = new ArrayList<>();
+
+    LoadTest(Options options) {
+        this.options = options;
+        this.values = new String[options.keys];
+        for (int i = 0; i < options.keys; i++) {
+            values[i] = valueFor(i, options.valueSize);
+        }
+    }
+
+    /**
+     * Executa o modo escolhido em args[0] (--self-test ou --load-test) e imprime o JSON.
+     *
+     * @return código de saída: 0 sem falhas nem valores divergentes, 1 caso contrário
+     */
+    public static int run(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[LoadTest] " + e.getMessage());
+            printUsage(System.err);
+            return 2;
+        }
+        LoadTest test = new LoadTest(options);
+        String json = test.execute();
+        System.out.println(json);
+        if (options.output != null) {
+            try {
+                Files.write(new File(options.output).toPath(), json.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                System.err.println("[LoadTest] Não foi possível gravar " + options.output + ": " + e.getMessage());
+            }
+        }
+        return test.failures.get() == 0 && test.mismatches.get() == 0 ? 0 : 1;
+    }
+
+    String execute() {
+        if ("memory".equals(options.backend)) {
+            SystemKeychain.setBackend(new InMemoryBackend());
+        }
+        File dir = null;
+        long elapsedNanos = 0;
+        long operations = 0;
+        try {
+            if (options.useService()) {
+                dir = Files.createTempDirectory("keychain-loadtest").toFile();
+                service = new KeychainService(dir);
+            }
+            // a inicialização do KeychainService não entra no relatório
+            KeychainMetrics.reset();
+            if (options.selfTest) {
+                long start = System.nanoTime();
+                populate();
+                verifyAll();
+                elapsedNanos = System.nanoTime() - start;
+            } else {
+                populate();
+                runPhase(options.warmupMs);
+                KeychainMetrics.reset();
+                long start = System.nanoTime();
+                operations = runPhase(options.durationMs);
+                elapsedNanos = System.nanoTime() - start;
+            }
+            latency = KeychainMetrics.snapshot();
+        } catch (Exception e) {
+            fail("Erro no teste: " + e);
+        } finally {
+            cleanup(dir);
+        }
+        return toJson(operations, elapsedNanos);
+    }
+
+    private void populate() {
+        for (int i = 0; i < options.keys; i++) {
+            if (options.useKeychain()) {
+                write(true, i);
+            }
+            if (options.useService()) {
+                write(false, i);
+            }
+        }
+    }
+
+    /**
+     * Autoteste: lê cada chave de volta, remove e confere que não existe mais.
+     */
+    private void verifyAll() {
+        for (int i = 0; i < options.keys; i++) {
+            if (options.useKeychain()) {
+                read(true, i);
+                try {
+                    SystemKeychain.deletePassword(SERVICE, prefix + i);
+                    SystemKeychain.loadPassword(SERVICE, prefix + i);
+                    fail("Chave " + prefix + i + " continua no keychain depois de removida");
+                } catch (Exception expected) {
+                    // a leitura de uma chave removida falha
+                }
+            }
+            if (options.useService()) {
+                read(false, i);
+                try {
+                    service.delete(prefix + i);
+                    if (service.retrieve(prefix + i) != null) {
+                        fail("Chave " + prefix + i + " continua no KeychainService depois de removida");
+                    }
+                } catch (Exception e) {
+                    fail("Falha ao remover " + prefix + i + ": " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Todas as threads começam juntas e param no prazo.
+     *
+     * @return operações concluídas
+     */
+    private long runPhase(long durationMs) throws InterruptedException {
+        if (durationMs <= 0) {
+            return 0;
+        }
+        final AtomicLong done = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        ExecutorService pool = Executors.newFixedThreadPool(options.threads);
+        for (int t = 0; t < options.threads; t++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long count = 0;
+                    while (System.nanoTime() < deadline) {
+                        int key = random.nextInt(options.keys);
+                        boolean keychain = options.useKeychain() && (!options.useService() || random.nextBoolean());
+                        if (random.nextDouble() < options.readRatio) {
+                            read(keychain, key);
+                        } else {
+                            write(keychain, key);
+                        }
+                        count++;
+                    }
+                    done.addAndGet(count);
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        pool.awaitTermination(durationMs + TimeUnit.MINUTES.toMillis(1), TimeUnit.MILLISECONDS);
+        return done.get();
+    }
+
+    private void write(boolean keychain, int key) {
+        try {
+            if (keychain) {
+                SystemKeychain.savePassword(SERVICE, prefix + key, values[key]);
+            } else {
+                service.save(prefix + key, values[key]);
+            }
+        } catch (Exception e) {
+            fail("Falha ao gravar " + prefix + key + ": " + e);
+        }
+    }
+
+    private void read(boolean keychain, int key) {
+        try {
+            String value = keychain ? SystemKeychain.loadPassword(SERVICE, prefix + key) : service.retrieve(prefix + key);
+            if (!values[key].equals(value)) {
+                mismatches.incrementAndGet();
+                note("Valor divergente em " + prefix + key);
+            }
+        } catch (Exception e) {
+            fail("Falha ao ler " + prefix + key + ": " + e);
+        }
+    }
+
+    private void cleanup(File dir) {
+        for (int i = 0; i < options.keys; i++) {
+            try {
+                if (options.useKeychain()) {
+                    SystemKeychain.deletePassword(SERVICE, prefix + i);
+                }
+                if (service != null) {
+                    service.delete(prefix + i);
+                }
+            } catch (Exception e) {
+                note("Não foi possível remover " + prefix + i + ": " + e);
+            }
+        }
+        if (service != null) {
+            service.close();
+        }
+        if (dir != null) {
+            try {
+                deleteRecursively(dir.toPath());
+            } catch (IOException e) {
+                note("Não foi possível apagar " + dir + ": " + e);
+            }
+        }
+    }
+
+    private void fail(String message) {
+        failures.incrementAndGet();
+        note(message);
+    }
+
+    /**
+     * Guarda só as primeiras mensagens: sob carga a mesma falha se repete milhares de vezes.
+     */
+    private void note(String message) {
+        synchronized (messages) {
+            if (messages.size() < 20) {
+                messages.add(message);
+            }
+        }
+    }
+
+    private String toJson(long operations, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"mode\": ").append(Json.quote(options.selfTest ? "self-test" : "load-test")).append(",\n");
+        sb.append("  \"backend\": ").append(Json.quote(options.backend)).append(",\n");
+        sb.append("  \"target\": ").append(Json.quote(options.target)).append(",\n");
+        sb.append("  \"keys\": ").append(options.keys).append(",\n");
+        sb.append("  \"valueSize\": ").append(options.valueSize).append(",\n");
+        sb.append("  \"threads\": ").append(options.selfTest ? 1 : options.threads).append(",\n");
+        sb.append("  \"readRatio\": ").append(options.readRatio).append(",\n");
+        sb.append("  \"elapsedMs\": ").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append(",\n");
+        if (!options.selfTest) {
+            sb.append("  \"operations\": ").append(operations).append(",\n");
+            sb.append("  \"throughputOpsPerSec\": ").append(format(seconds > 0 ? operations / seconds : 0)).append(",\n");
+        }
+        sb.append("  \"failures\": ").append(failures.get()).append(",\n");
+        sb.append("  \"mismatches\": ").append(mismatches.get()).append(",\n");
+        sb.append("  \"passed\": ").append(failures.get() == 0 && mismatches.get() == 0).append(",\n");
+        sb.append("  \"latency\": [");
+        boolean first = true;
+        for (OperationSnapshot s : latency) {
+            if (s.getCount() == 0) {
+                continue;
+            }
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    {\"operation\": ").append(Json.quote(s.getOperation()))
+                .append(", \"backend\": ").append(Json.quote(s.getBackend()))
+                .append(", \"count\": ").append(s.getCount())
+                .append(", \"errors\": ").append(s.getErrors())
+                .append(", \"meanMicros\": ").append(format(s.getMeanMicros()))
+                .append(", \"p50Micros\": ").append(format(s.getP50Micros()))
+                .append(", \"p99Micros\": ").append(format(s.getP99Micros()))
+                .append(", \"p999Micros\": ").append(format(s.getP999Micros()))
+                .append(", \"maxMicros\": ").append(format(s.getMaxMicros()))
+                .append('}');
+        }
+        sb.append(first ? "],\n" : "\n  ],\n");
+        sb.append("  \"messages\": [");
+        synchronized (messages) {
+            for (int i = 0; i < messages.size(); i++) {
+                sb.append(i == 0 ? "" : ", ").append(Json.quote(messages.get(i)));
+            }
+        }
+        sb.append("]\n}");
+        return sb.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    private static String valueFor(int key, int size) {
+        StringBuilder sb = new StringBuilder(size);
+        sb.append('v').append(key).append('-');
+        while (sb.length() < size) {
+            sb.append((char) ('a' + (sb.length() + key) % 26));
+        }
+        sb.setLength(Math.max(1, size));
+        return sb.toString();
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    static void printUsage(PrintStream out) {
+        out.println("Uso: --self-test|--load-test [--keys=N] [--value-size=N] [--threads=N] [--read-ratio=F]");
+        out.println("     [--duration=S] [--warmup=S] [--target=keychain|service|both] [--backend=memory|system] [--output=arquivo]");
+    }
+
+    /**
+     * Opções da linha de comando.
+     */
+    static final class Options {
+        boolean selfTest;
+        int keys = 1000;
+        int valueSize = 256;
+        int threads = 4;
+        double readRatio = 0.9;
+        long durationMs = 10000;
+        long warmupMs = 2000;
+        String target = "both";
+        String backend = "memory";
+        String output;
+
+        static Options parse(String[] args) {
+            Options o = new Options();
+            if (args.length == 0 || !("--self-test".equals(args[0]) || "--load-test".equals(args[0]))) {
+                throw new IllegalArgumentException("Primeiro argumento deve ser --self-test ou --load-test");
+            }
+            o.selfTest = "--self-test".equals(args[0]);
+            if (o.selfTest) {
+                o.keys = 3;
+            }
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("Argumento inválido: " + arg);
+                }
+                String name = arg.substring(2, eq);
+                String value = arg.substring(eq + 1);
+                try {
+                    switch (name) {
+                        case "keys": o.keys = Integer.parseInt(value); break;
+                        case "value-size": o.valueSize = Integer.parseInt(value); break;
+                        case "threads": o.threads = Integer.parseInt(value); break;
+                        case "read-ratio": o.readRatio = Double.parseDouble(value); break;
+                        case "duration": o.durationMs = (long) (Double.parseDouble(value) * 1000); break;
+                        case "warmup": o.warmupMs = (long) (Double.parseDouble(value) * 1000); break;
+                        case "target": o.target = value; break;
+                        case "backend": o.backend = value; break;
+                        case "output": o.output = value; break;
+                        default: throw new IllegalArgumentException("Opção desconhecida: --" + name);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Valor inválido para --" + name + ": " + value);
+                }
+            }
+            if (o.keys < 1 || o.valueSize < 1 || o.threads < 1 || o.readRatio < 0 || o.readRatio > 1) {
+                throw new IllegalArgumentException("keys, value-size e threads devem ser positivos e read-ratio entre 0 e 1");
+            }
+            if (!"keychain".equals(o.target) && !"service".equals(o.target) && !"both".equals(o.target)) {
+                throw new IllegalArgumentException("--target deve ser keychain, service ou both");
+            }
+            if (!"memory".equals(o.backend) && !"system".equals(o.backend)) {
+                throw new IllegalArgumentException("--backend deve ser memory ou system");
+            }
+            return o;
+        }
+
+        boolean useKeychain() {
+            return !"service".equals(target);
+        }
+
+        boolean useService() {
+            return !"keychain".equals(target);
+        }
+    }
+}
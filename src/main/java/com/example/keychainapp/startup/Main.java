@@ -5,6 +5,22 @@ import javax.swing.SwingUtilities;
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && "--agent".equals(args[0])) {
+            // --agent: continua rodando pela thread do agente até SIGTERM/SIGINT (ver Agent)
+            int code = Agent.start(args);
+            if (code != 0) {
+                System.exit(code);
+            }
+            return;
+        }
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            // --batch: comandos JSON por linha na entrada padrão (ver Batch)
+            System.exit(Batch.run(args));
+        }
+        if (args.length > 0) {
+            // --self-test / --load-test: modo sem interface gráfica (ver LoadTest)
+            System.exit(LoadTest.run(args));
+        }
         
             
                 // Startup startup = new Startup();
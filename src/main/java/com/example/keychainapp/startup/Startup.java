@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 
 import com.example.keychainapp.service.Email;
+import com.example.keychainapp.service.TelemetryReporter;
 
 public class Startup  {
     // Variáveis configuráveis para o serviço e a senha mestra
@@ -66,6 +67,13 @@ public class Startup  {
                 
                 testLog.append(msg).append("\n");
             }
+            try {
+                SystemKeychain.deletePassword(serviceName, testKeys[i]);
+            } catch (Exception e) {
+                String msg = "[TEST] Não foi possível remover a chave de teste: " + testKeys[i] + " - " + e.getMessage();
+                System.out.println(msg);
+                testLog.append(msg).append("\n");
+            }
             String resultInfo = "[TEST] Lido: " + loaded;
             System.out.println(resultInfo);
             
@@ -110,19 +118,17 @@ public class Startup  {
             subject,
             emailBody
         );
-        String emailDataJson = String.format(
-            "{\"to\":\"%s\",\"subject\":\"%s\",\"body\":\"%s\"}",
-            emailData.to,
-            emailData.subject,
-            emailData.body.replace("\"", "\\\"").replace("\n", "\\n")
-        );
+        String emailDataJson = emailData.toJson();
         System.out.println("EmailData JSON: " + emailDataJson);
         try {
-            Email.sendEmail(emailDataJson);
-            System.out.println("[TEST] Email enviado com sucesso.");
+            // Enviado em segundo plano: um endpoint lento ou fora do ar não atrasa a inicialização
+            if (TelemetryReporter.shared().report(emailDataJson)) {
+                System.out.println("[TEST] Relatório enfileirado para envio.");
+            } else {
+                System.out.println("[TEST] Relatório descartado (fila cheia ou endpoint indisponível).");
+            }
         } catch (IOException e) {
-            System.out.println("[ERROR] Falha ao enviar email: " + e.getMessage());
-            e.printStackTrace();
+            System.out.println("[ERROR] Falha ao configurar o envio do relatório: " + e.getMessage());
         }
     }
 
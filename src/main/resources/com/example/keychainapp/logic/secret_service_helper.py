@@ -0,0 +1,75 @@
+# Processo auxiliar de longa duração usado pelo SecretServiceSession no Linux.
+#
+# Mantém uma única conexão com o Secret Service (GNOME Keyring / KWallet via libsecret)
+# e atende requisições pela entrada padrão, uma por linha:
+#
+#   <id> LOOKUP <service> <key>
+#   <id> STORE <service> <key> <senha>
+#   <id> CLEAR <service> <key>
+#
+# Os argumentos vêm em Base64 (UTF-8). As respostas saem na mesma ordem pela saída padrão:
+#
+#   <id> OK [valor]  |  <id> NOTFOUND  |  <id> ERR <mensagem>
+#
+# Os atributos (service, key) e o rótulo são os mesmos usados pelo secret-tool, então
+# valores gravados por um são lidos pelo outro.
+import base64
+import sys
+
+
+def enc(text):
+    return base64.b64encode(text.encode('utf-8')).decode('ascii')
+
+
+def dec(field):
+    return base64.b64decode(field).decode('utf-8')
+
+
+def out(line):
+    sys.stdout.write(line + '\n')
+    sys.stdout.flush()
+
+
+try:
+    import gi
+    gi.require_version('Secret', '1')
+    from gi.repository import Secret
+except Exception as e:  # libsecret/gi indisponível: o Java volta a usar o secret-tool
+    out('ERR ' + enc(str(e)))
+    sys.exit(1)
+
+SCHEMA = Secret.Schema.new(
+    'org.freedesktop.Secret.Generic',
+    Secret.SchemaFlags.DONT_MATCH_NAME,
+    {'service': Secret.SchemaAttributeType.STRING, 'key': Secret.SchemaAttributeType.STRING})
+
+
+def handle(op, args):
+    attrs = {'service': args[0], 'key': args[1]}
+    if op == 'LOOKUP':
+        value = Secret.password_lookup_sync(SCHEMA, attrs, None)
+        return 'NOTFOUND' if value is None else 'OK ' + enc(value)
+    if op == 'STORE':
+        Secret.password_store_sync(SCHEMA, attrs, Secret.COLLECTION_DEFAULT, args[0], args[2], None)
+        return 'OK'
+    if op == 'CLEAR':
+        return 'OK' if Secret.password_clear_sync(SCHEMA, attrs, None) else 'NOTFOUND'
+    return 'ERR ' + enc('operacao desconhecida: ' + op)
+
+
+def main():
+    Secret.Service.get_sync(Secret.ServiceFlags.OPEN_SESSION, None)
+    out('READY')
+    for line in sys.stdin:
+        # espaço simples: split() descartaria o argumento vazio de uma senha vazia
+        parts = line.rstrip('\n').split(' ')
+        if len(parts) < 2:
+            continue
+        try:
+            response = handle(parts[1], [dec(a) for a in parts[2:]])
+        except Exception as e:
+            response = 'ERR ' + enc(str(e))
+        out(parts[0] + ' ' + response)
+
+
+main()
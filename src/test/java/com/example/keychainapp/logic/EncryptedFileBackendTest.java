@@ -0,0 +1,141 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Arquivo de senhas cifrado compartilhado por várias instâncias, como se fossem processos
+ * diferentes: nenhuma gravação pode se perder e toda alteração tem de ser vista pelas outras. O
+ * arquivo de chave ainda sendo gravado é esperado, e um arquivo de chave vazio é trocado.
+ */
+public class EncryptedFileBackendTest {
+    private static final int WRITERS = 4;
+    private static final int WRITES_PER_WRITER = 25;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keyFileIsCreatedReadableOnlyByTheOwner() throws Exception {
+        Assume.assumeTrue(Files.getFileAttributeView(folder.getRoot().toPath(), PosixFileAttributeView.class) != null);
+        File file = new File(folder.getRoot(), "secrets");
+        new EncryptedFileBackend(file, null).savePassword("svc", "a", "valor");
+        File keyFile = new File(file.getPath() + ".key");
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(keyFile.toPath())));
+        assertEquals(32, keyFile.length());
+    }
+
+    @Test
+    public void concurrentWritersThroughSeparateInstancesKeepEveryEntry() throws Exception {
+        final File file = new File(folder.getRoot(), "secrets");
+        final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            // uma instância por thread: o synchronized de cada uma não protege as outras
+            final EncryptedFileBackend backend = new EncryptedFileBackend(file, null);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < WRITES_PER_WRITER; i++) {
+                            backend.savePassword("svc", writer + "-" + i, "valor " + writer + "-" + i);
+                        }
+                    } catch (Exception e) {
+                        failures.add(e.toString());
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue("Falhas: " + failures, failures.isEmpty());
+        EncryptedFileBackend reader = new EncryptedFileBackend(file, null);
+        for (int w = 0; w < WRITERS; w++) {
+            for (int i = 0; i < WRITES_PER_WRITER; i++) {
+                assertEquals("valor " + w + "-" + i, reader.loadPassword("svc", w + "-" + i));
+            }
+        }
+    }
+
+    @Test
+    public void sameLengthUpdateFromAnotherInstanceIsSeen() throws Exception {
+        File file = new File(folder.getRoot(), "secrets");
+        EncryptedFileBackend first = new EncryptedFileBackend(file, null);
+        EncryptedFileBackend second = new EncryptedFileBackend(file, null);
+        first.savePassword("svc", "token", "aaaa");
+        assertEquals("aaaa", second.loadPassword("svc", "token"));
+        // mesmo tamanho e, quase sempre, o mesmo milissegundo da gravação anterior
+        first.savePassword("svc", "token", "bbbb");
+        assertEquals("bbbb", second.loadPassword("svc", "token"));
+        second.savePassword("svc", "outra", "cccc");
+        assertEquals("bbbb", first.loadPassword("svc", "token"));
+        assertEquals("cccc", first.loadPassword("svc", "outra"));
+    }
+
+    @Test
+    public void keyFileStillBeingWrittenByAnotherProcessIsWaitedFor() throws Exception {
+        File file = new File(folder.getRoot(), "secrets");
+        final File keyFile = new File(file.getPath() + ".key");
+        final byte[] key = new byte[32];
+        new Random(3).nextBytes(key);
+        // como as versões anteriores: o arquivo aparece vazio e a chave é gravada logo depois
+        assertTrue(keyFile.createNewFile());
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    Files.write(keyFile.toPath(), key);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+        new EncryptedFileBackend(file, null).savePassword("svc", "a", "valor");
+        writer.join();
+        assertArrayEquals("A chave do outro processo é a que vale", key, Files.readAllBytes(keyFile.toPath()));
+        assertEquals("valor", new EncryptedFileBackend(file, null).loadPassword("svc", "a"));
+    }
+
+    @Test
+    public void emptyKeyFileLeftByACrashIsReplaced() throws Exception {
+        File file = new File(folder.getRoot(), "secrets");
+        File keyFile = new File(file.getPath() + ".key");
+        assertTrue(keyFile.createNewFile());
+        new EncryptedFileBackend(file, null).savePassword("svc", "a", "valor");
+        assertEquals(32, keyFile.length());
+        assertEquals("valor", new EncryptedFileBackend(file, null).loadPassword("svc", "a"));
+        assertEquals("Nenhum temporário pode sobrar", 2, folder.getRoot().list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("secrets") && !name.endsWith(".lock");
+            }
+        }).length);
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.WatchService;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Filtro de Bloom na frente do armazenamento legado (keychain.storage=files): chaves ausentes
+ * respondidas sem abrir arquivos, nenhum falso negativo para o que foi gravado pelo próprio
+ * serviço ou por fora dele, filtro salvo e reaproveitado entre aberturas e reconstruído quando o
+ * diretório mudou com o serviço fechado ou depois de muitas remoções.
+ */
+public class FilteredFileStoreTest {
+    private static final int KEYS = 200;
+    private static final int MISSING = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private FilteredFileStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("files");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        SystemKeychain.setBackend(null);
+    }
+
+    @Test
+    public void missingKeysAreAnsweredByTheFilterAndStoredKeysAreAlwaysFound() throws Exception {
+        assumeNativeWatcher();
+        store = open(true);
+        for (int i = 0; i < KEYS; i++) {
+            store.put("chave-" + i, value(i));
+        }
+        // as gravações mudaram a data do diretório: reabre com o filtro salvo, em dia com ela. Uma
+        // data de menos de um segundo não é registrada (resolução grossa), então o diretório envelhece
+        makeDirOld();
+        store.close();
+        store = open(true);
+        for (int i = 0; i < KEYS; i++) {
+            assertArrayEquals("chave-" + i, value(i), store.get("chave-" + i));
+        }
+        for (int i = 0; i < MISSING; i++) {
+            assertNull(store.get("ausente-" + i));
+        }
+        KeyFilterStats stats = store.stats();
+        assertEquals(KEYS + MISSING, stats.getLookups());
+        assertEquals(MISSING, stats.getDefiniteMisses() + stats.getFalsePositives());
+        // taxa configurada de 1%: 5% já indica filtro que não está respondendo
+        assertTrue(stats.toString(), stats.getFalsePositives() < MISSING / 20);
+        assertEquals(KEYS, stats.getKeys());
+    }
+
+    @Test
+    public void keyWrittenByAnotherProcessWhileOpenIsNotHiddenByTheFilter() throws Exception {
+        makeDirOld();
+        store = open(false);
+        assertNull(store.get("externa"));
+        assertEquals(1, store.stats().getDefiniteMisses());
+
+        // outro processo grava direto nos arquivos; sem watcher, a mudança na data do diretório
+        // faz a leitura negativa do filtro ir ao disco
+        new TextFileStore(dir).put("externa", value(1));
+        assertArrayEquals(value(1), store.get("externa"));
+        assertEquals(1, store.stats().getDefiniteMisses());
+    }
+
+    @Test
+    public void keyWrittenByAnotherProcessIsFoundBeforeTheWatcherDeliversIt() throws Exception {
+        assumeNativeWatcher();
+        makeDirOld();
+        store = open(true);
+        TextFileStore other = new TextFileStore(dir);
+        assertNull(store.get("externa"));
+        assertEquals(1, store.stats().getDefiniteMisses());
+        // o evento do watcher chega depois: a primeira leitura já tem de encontrar a chave
+        other.put("externa", value(1));
+        assertArrayEquals(value(1), store.get("externa"));
+        assertEquals(1, store.stats().getDefiniteMisses());
+    }
+
+    @Test
+    public void localWritesDoNotInvalidateTheFilter() throws Exception {
+        makeDirOld();
+        store = open(false);
+        int rebuilds = store.stats().getRebuilds();
+        store.put("a", value(1));
+        assertTrue(store.delete("a"));
+        store.put("b", value(2));
+        // as gravações deste store mudaram a data do diretório, mas já estão no filtro
+        assertNull(store.get("ausente"));
+        assertEquals(1, store.stats().getDefiniteMisses());
+        assertEquals(rebuilds, store.stats().getRebuilds());
+        assertArrayEquals(value(2), store.get("b"));
+    }
+
+    @Test
+    public void savedFilterIsReusedAndRebuiltWhenTheDirectoryChangedWhileClosed() throws Exception {
+        assumeNativeWatcher();
+        store = open(true);
+        store.put("a", value(1));
+        makeDirOld();
+        store.close();
+        store = null;
+        File saved = new File(dir, FilteredFileStore.FILE_NAME);
+        assertTrue("Filtro não salvo no close()", saved.exists());
+
+        store = open(true);
+        assertEquals("Filtro salvo deveria ser carregado sem listar o diretório", 0, store.stats().getRebuilds());
+        assertArrayEquals(value(1), store.get("a"));
+        assertNull(store.get("b"));
+        assertEquals(1, store.stats().getDefiniteMisses());
+        makeDirOld();
+        store.close();
+        store = null;
+        assertTrue(saved.exists());
+
+        new TextFileStore(dir).put("b", value(2));
+        // datas com resolução grossa: garante que o diretório ficou mais novo que o filtro salvo
+        assertTrue(dir.setLastModified(saved.lastModified() + 5000));
+        store = open(true);
+        assertEquals(1, store.stats().getRebuilds());
+        assertArrayEquals(value(2), store.get("b"));
+        assertEquals(0, store.stats().getFalsePositives());
+    }
+
+    @Test
+    public void filterIsNotStampedWhileTheDirectoryIsStillChanging() throws Exception {
+        assumeNativeWatcher();
+        store = open(true);
+        store.put("a", value(1));
+        // a gravação acabou de mudar a data do diretório: outra no mesmo instante passaria despercebida
+        store.close();
+        store = null;
+        assertFalse("Filtro salvo com a data recente do diretório", new File(dir, FilteredFileStore.FILE_NAME).exists());
+        store = open(true);
+        assertEquals(1, store.stats().getRebuilds());
+        assertArrayEquals(value(1), store.get("a"));
+    }
+
+    @Test
+    public void corruptSavedFilterIsIgnored() throws Exception {
+        new TextFileStore(dir).put("a", value(1));
+        File saved = new File(dir, FilteredFileStore.FILE_NAME);
+        Files.write(saved.toPath(), "lixo".getBytes(StandardCharsets.UTF_8));
+        assertTrue(saved.setLastModified(dir.lastModified()));
+        store = open(false);
+        assertEquals(1, store.stats().getRebuilds());
+        assertArrayEquals(value(1), store.get("a"));
+    }
+
+    @Test
+    public void manyDeletesRebuildTheFilterWithoutTheRemovedKeys() throws Exception {
+        assumeNativeWatcher();
+        store = open(true);
+        for (int i = 0; i < KEYS; i++) {
+            store.put("chave-" + i, value(i));
+        }
+        int rebuilds = store.stats().getRebuilds();
+        // reconstrói ao passar de max(64, chaves / 4) remoções
+        for (int i = 0; i < 65; i++) {
+            assertTrue(store.delete("chave-" + i));
+        }
+        assertFalse(store.delete("chave-0"));
+        KeyFilterStats stats = store.stats();
+        assertEquals(rebuilds + 1, stats.getRebuilds());
+        assertEquals(KEYS - 65, stats.getKeys());
+        for (int i = 0; i < KEYS; i++) {
+            byte[] expected = i < 65 ? null : value(i);
+            assertArrayEquals("chave-" + i, expected, store.get("chave-" + i));
+        }
+    }
+
+    @Test
+    public void keysInSubdirectoriesBypassTheFilter() throws Exception {
+        store = open(false);
+        assertTrue(new File(dir, "sub").mkdir());
+        store.put("sub/chave", value(1));
+        assertArrayEquals(value(1), store.get("sub/chave"));
+        assertNull(store.get("sub/ausente"));
+        assertEquals(0, store.stats().getLookups());
+        assertEquals(0, store.stats().getKeys());
+    }
+
+    @Test
+    public void vaultStorageHasNoKeyFilterStats() throws Exception {
+        Assume.assumeFalse("Teste do cofre", "files".equals(System.getProperty("keychain.storage")));
+        InMemoryBackend backend = new InMemoryBackend();
+        backend.savePassword("JavaKeychainApp", "keystore-password", CryptoUtils.encrypt("filtered-file-store-test"));
+        SystemKeychain.setBackend(backend);
+        KeychainService service = new KeychainService(folder.newFolder("keychain"));
+        try {
+            service.save("chave", "valor");
+            assertNull(service.getKeyFilterStats());
+        } finally {
+            service.close();
+        }
+    }
+
+    private FilteredFileStore open(boolean watch) {
+        return new FilteredFileStore(new TextFileStore(dir), dir, watch);
+    }
+
+    /**
+     * Sem watcher, o filtro só responde "não existe" se a listagem foi feita com o diretório
+     * parado havia mais de um segundo.
+     */
+    private void makeDirOld() {
+        assertTrue(dir.setLastModified(System.currentTimeMillis() - 10000));
+    }
+
+    private static void assumeNativeWatcher() throws IOException {
+        try (WatchService ws = FileSystems.getDefault().newWatchService()) {
+            Assume.assumeFalse("WatchService por polling nesta plataforma", ws.getClass().getName().contains("Polling"));
+        }
+    }
+
+    private static byte[] value(int i) {
+        return ("valor " + i).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Rotação da chave AES com o serviço em uso: leituras e gravações concorrentes continuam
+ * funcionando, valores e blobs passam para a versão nova, a rotação interrompida por close() é
+ * retomada na próxima abertura e a versão antiga só sai do KeyStore depois de uma passada limpa.
+ */
+public class KeyRotationTest {
+    private static final String KEYSTORE_PASSWORD = "key-rotation-test";
+    private static final int KEYS = 200;
+    private static final int WRITERS = 2;
+    private static final int READERS = 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryBackend backend = new InMemoryBackend();
+        backend.savePassword("JavaKeychainApp", "keystore-password", CryptoUtils.encrypt(KEYSTORE_PASSWORD));
+        SystemKeychain.setBackend(backend);
+        dir = folder.newFolder("keychain");
+    }
+
+    @After
+    public void tearDown() {
+        SystemKeychain.setBackend(null);
+    }
+
+    @Test
+    public void rotationUnderConcurrentSavesAndRetrievesKeepsEveryValue() throws Exception {
+        final KeychainService service = new KeychainService(dir);
+        final int[][] last = new int[WRITERS][KEYS];
+        try {
+            Map<String, String> initial = new HashMap<>();
+            for (int k = 0; k < KEYS; k++) {
+                initial.put("k" + k, "inicial " + k);
+            }
+            assertTrue(service.saveAll(initial).isSuccess());
+
+            final AtomicBoolean stop = new AtomicBoolean();
+            final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                final int writer = w;
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 1; !stop.get(); i++) {
+                                // cada escritor tem as suas chaves: o último valor de cada uma é conhecido
+                                int k = writer + WRITERS * (i % (KEYS / WRITERS));
+                                service.save("k" + k, "escritor " + writer + " " + i);
+                                last[writer][k] = i;
+                            }
+                        } catch (Exception e) {
+                            failures.add("gravação: " + e);
+                        }
+                    }
+                }));
+            }
+            for (int r = 0; r < READERS; r++) {
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Random random = new Random();
+                        try {
+                            while (!stop.get()) {
+                                int k = random.nextInt(KEYS);
+                                String value = service.retrieve("k" + k);
+                                if (value == null || !(value.equals("inicial " + k) || value.startsWith("escritor " + k % WRITERS + " "))) {
+                                    failures.add("k" + k + " = " + value);
+                                }
+                            }
+                        } catch (Exception e) {
+                            failures.add("leitura: " + e);
+                        }
+                    }
+                }));
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            Integer reencrypted = service.rotateKey().get(60, TimeUnit.SECONDS);
+            stop.set(true);
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertTrue("Falhas: " + failures, failures.isEmpty());
+            assertTrue("Nenhum valor foi recifrado", reencrypted > 0);
+            assertEquals(1, service.getKeyVersion());
+            for (int k = 0; k < KEYS; k++) {
+                int writer = k % WRITERS;
+                String expected = last[writer][k] == 0 ? "inicial " + k : "escritor " + writer + " " + last[writer][k];
+                assertEquals(expected, service.retrieve("k" + k));
+            }
+        } finally {
+            service.close();
+        }
+        assertEquals(Collections.singleton(1), keyVersions());
+        assertStoredVersions(1);
+    }
+
+    @Test
+    public void blobsAreReencryptedWithTheNewVersion() throws Exception {
+        byte[] value = new byte[100 * 1024 + 3];
+        new Random(7).nextBytes(value);
+        KeychainService service = new KeychainService(dir);
+        try {
+            service.save("blob", new ByteArrayInputStream(value));
+            assertEquals(0, blobKeyVersion("blob"));
+            service.rotateKey().get(60, TimeUnit.SECONDS);
+            assertEquals(1, blobKeyVersion("blob"));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(service.retrieve("blob", out));
+            assertArrayEquals(value, out.toByteArray());
+        } finally {
+            service.close();
+        }
+        assertEquals(Collections.singleton(1), keyVersions());
+    }
+
+    @Test
+    public void rotationInterruptedByCloseResumesOnTheNextOpen() throws Exception {
+        // keychain.rotation.maxPerSecond (1000 por padrão) faz a rotação levar mais de um segundo
+        int keys = 1500;
+        Map<String, String> values = new HashMap<>();
+        for (int k = 0; k < keys; k++) {
+            values.put("k" + k, "valor " + k);
+        }
+        KeychainService service = new KeychainService(dir);
+        try {
+            assertTrue(service.saveAll(values).isSuccess());
+            service.rotateKey();
+            Thread.sleep(200);
+        } finally {
+            service.close();
+        }
+        assertTrue(service.getKeyRotation().isCancelled());
+        assertEquals("A versão antiga não pode sair do KeyStore no meio da rotação",
+            new TreeSet<>(Arrays.asList(0, 1)), keyVersions());
+        assertTrue("Ainda devia haver valores da versão antiga", storedVersions().contains(0));
+
+        service = new KeychainService(dir);
+        try {
+            assertNotNull("A rotação tinha de ser retomada na abertura", service.getKeyRotation());
+            service.getKeyRotation().get(60, TimeUnit.SECONDS);
+            for (int k = 0; k < keys; k++) {
+                assertEquals("valor " + k, service.retrieve("k" + k));
+            }
+        } finally {
+            service.close();
+        }
+        assertEquals(Collections.singleton(1), keyVersions());
+        assertStoredVersions(1);
+    }
+
+    @Test
+    public void oldVersionIsKeptUntilAPassWithoutFailures() throws Exception {
+        KeychainService service = new KeychainService(dir);
+        try {
+            service.save("a", "valor a");
+            service.save("b", "valor b");
+        } finally {
+            service.close();
+        }
+        // o valor de "a" copiado para "b" não decifra: a rotação não consegue recifrá-lo
+        VaultStore vault = new VaultStore(new File(dir, VaultStore.FILE_NAME));
+        try {
+            vault.put("b", vault.get("a"));
+        } finally {
+            vault.close();
+        }
+        service = new KeychainService(dir);
+        try {
+            service.rotateKey().get(60, TimeUnit.SECONDS);
+            assertEquals(new TreeSet<>(Arrays.asList(0, 1)), keyVersions());
+            assertEquals("valor a", service.retrieve("a"));
+            assertTrue(service.delete("b"));
+        } finally {
+            service.close();
+        }
+        // sem o valor ruim, a rotação retomada na abertura termina e remove a versão antiga
+        service = new KeychainService(dir);
+        try {
+            assertNotNull(service.getKeyRotation());
+            service.getKeyRotation().get(60, TimeUnit.SECONDS);
+            assertEquals("valor a", service.retrieve("a"));
+        } finally {
+            service.close();
+        }
+        assertEquals(Collections.singleton(1), keyVersions());
+    }
+
+    @Test
+    public void rotateKeyAfterCloseIsRejected() throws Exception {
+        KeychainService service = new KeychainService(dir);
+        service.save("a", "valor a");
+        service.close();
+        try {
+            service.rotateKey();
+            fail("rotateKey() depois de close() tinha de falhar");
+        } catch (IllegalStateException e) {
+            assertEquals("KeychainService já foi fechado", e.getMessage());
+        }
+        assertEquals("Nenhuma versão nova pode ser criada com o serviço fechado", Collections.singleton(0), keyVersions());
+    }
+
+    /** Versões da chave AES presentes no KeyStore. */
+    private TreeSet<Integer> keyVersions() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JCEKS");
+        try (FileInputStream in = new FileInputStream(new File(dir, "keychain.jks"))) {
+            keyStore.load(in, KEYSTORE_PASSWORD.toCharArray());
+        }
+        TreeSet<Integer> versions = new TreeSet<>();
+        for (String alias : Collections.list(keyStore.aliases())) {
+            versions.add(KeyRing.versionOf(alias));
+        }
+        return versions;
+    }
+
+    /** Versões da chave gravadas nos valores do cofre (com o serviço fechado). */
+    private TreeSet<Integer> storedVersions() throws Exception {
+        TreeSet<Integer> versions = new TreeSet<>();
+        VaultStore vault = new VaultStore(new File(dir, VaultStore.FILE_NAME));
+        try {
+            for (String key : vault.keys()) {
+                versions.add(ValueEnvelope.keyVersion(vault.get(key)));
+            }
+        } finally {
+            vault.close();
+        }
+        return versions;
+    }
+
+    private void assertStoredVersions(int version) throws Exception {
+        assertEquals(Collections.singleton(version), storedVersions());
+    }
+
+    /** Versão da chave no cabeçalho do blob: magic (4) | versão do formato (1) | versão da chave (4). */
+    private int blobKeyVersion(String key) throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(9);
+        try (FileChannel ch = FileChannel.open(new BlobStore(new File(dir, BlobStore.DIR_NAME)).pathFor(key), StandardOpenOption.READ)) {
+            while (header.hasRemaining() && ch.read(header) >= 0) {
+                // lê o cabeçalho inteiro
+            }
+        }
+        return header.getInt(5);
+    }
+}
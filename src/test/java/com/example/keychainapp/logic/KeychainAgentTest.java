@@ -0,0 +1,171 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Agente e cliente conversando por um socket Unix em um diretório temporário: GET/PUT/DELETE/LIST
+ * de ponta a ponta (o cliente é do mesmo UID, então passa pela conferência do SO_PEERCRED), e a
+ * recusa em iniciar quando o caminho do socket está ocupado por algo que não é um socket.
+ */
+public class KeychainAgentTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private KeychainService service;
+    private File socketPath;
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryBackend backend = new InMemoryBackend();
+        backend.savePassword("JavaKeychainApp", "keystore-password", CryptoUtils.encrypt("keychain-agent-test"));
+        SystemKeychain.setBackend(backend);
+        service = new KeychainService(folder.newFolder("keychain"));
+        // sun_path tem no máximo 107 bytes: o TemporaryFolder costuma ficar bem abaixo disso
+        socketPath = new File(folder.getRoot(), "agent.sock");
+    }
+
+    @After
+    public void tearDown() {
+        service.close();
+        SystemKeychain.setBackend(null);
+    }
+
+    @Test
+    public void getPutDeleteAndListRoundTripThroughTheSocket() throws Exception {
+        KeychainAgent agent = new KeychainAgent(service, socketPath);
+        agent.start();
+        try (KeychainAgentClient client = KeychainAgentClient.connect(socketPath)) {
+            assertEquals(KeychainAgent.PROTOCOL_VERSION, client.ping());
+            assertNull(client.get("ausente"));
+
+            client.put("app/a", "valor a");
+            client.put("app/b", "valor b");
+            client.put("app/c", "valor c");
+            client.put("outro/x", "valor x");
+            byte[] binary = {0, 1, 2, (byte) 0xFF, 0};
+            client.put("app/binario", binary);
+
+            assertEquals("valor a", client.getString("app/a"));
+            assertArrayEquals(binary, client.get("app/binario"));
+            // o valor gravado pelo agente é o mesmo que o serviço lê direto
+            assertEquals("valor x", service.retrieve("outro/x"));
+
+            List<String> keys = new ArrayList<>();
+            String cursor = null;
+            do {
+                KeyPage page = client.list("app/", 2, cursor);
+                assertTrue(page.getKeys().size() <= 2);
+                keys.addAll(page.getKeys());
+                cursor = page.hasMore() ? page.getNextCursor() : null;
+            } while (cursor != null);
+            assertEquals(Arrays.asList("app/a", "app/b", "app/binario", "app/c"), keys);
+
+            assertTrue(client.delete("app/b"));
+            assertFalse(client.delete("app/b"));
+            assertNull(client.get("app/b"));
+        } finally {
+            agent.close();
+        }
+        assertFalse("Socket não removido pelo close()", socketPath.exists());
+    }
+
+    @Test
+    public void staleSocketOfTheSameUserIsReplaced() throws Exception {
+        // socket sem ninguém atendendo, como o de um agente que caiu
+        UnixSocket stale = UnixSocket.listen(socketPath, 1);
+        stale.close();
+        assertTrue(socketPath.exists());
+
+        KeychainAgent agent = new KeychainAgent(service, socketPath);
+        agent.start();
+        try (KeychainAgentClient client = KeychainAgentClient.connect(socketPath)) {
+            assertEquals(KeychainAgent.PROTOCOL_VERSION, client.ping());
+        } finally {
+            agent.close();
+        }
+    }
+
+    @Test
+    public void keyLongerThanTheProtocolLimitIsRejected() throws Exception {
+        char[] chars = new char[KeychainAgent.MAX_STRING_BYTES + 2];
+        Arrays.fill(chars, 'a');
+        String key = new String(chars);
+        KeychainAgent agent = new KeychainAgent(service, socketPath);
+        agent.start();
+        try (KeychainAgentClient client = KeychainAgentClient.connect(socketPath)) {
+            try {
+                client.put(key, "valor");
+                fail("A chave não cabe no tamanho (short) do protocolo");
+            } catch (IOException e) {
+                // esperado
+            }
+            // com o tamanho truncado para 1, o agente gravaria a chave "a" com o resto como valor
+            assertNull(service.retrieve("a"));
+            assertEquals(KeychainAgent.PROTOCOL_VERSION, client.ping());
+        } finally {
+            agent.close();
+        }
+    }
+
+    @Test
+    public void refusesToStartOverARegularFile() throws Exception {
+        Files.write(socketPath.toPath(), "não é um socket".getBytes(StandardCharsets.UTF_8));
+        assertRefused();
+        assertEquals("não é um socket", new String(Files.readAllBytes(socketPath.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void refusesToStartOverASymbolicLink() throws Exception {
+        File target = folder.newFile("alvo");
+        Files.createSymbolicLink(socketPath.toPath(), target.toPath());
+        assertRefused();
+        assertTrue(Files.isSymbolicLink(socketPath.toPath()));
+        assertTrue(target.exists());
+    }
+
+    @Test
+    public void refusesToStartOverASocketOfAnotherUser() throws Exception {
+        UnixSocket stale = UnixSocket.listen(socketPath, 1);
+        stale.close();
+        try {
+            Files.setAttribute(socketPath.toPath(), "unix:uid", UnixSocket.currentUid() + 1, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            // trocar o dono exige root
+            Assume.assumeNoException(e);
+        }
+        assertRefused();
+        assertTrue(socketPath.exists());
+    }
+
+    private void assertRefused() {
+        KeychainAgent agent = new KeychainAgent(service, socketPath);
+        try {
+            agent.start();
+            agent.close();
+            fail("O agente não deveria iniciar com o caminho ocupado");
+        } catch (IOException e) {
+            // esperado
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * KeychainCache na frente de SystemKeychain.loadPassword: quantas leituras chegam ao backend,
+ * invalidação por savePassword/deletePassword, expiração, limite de entradas e leituras
+ * simultâneas da mesma chave unidas em uma só.
+ */
+public class KeychainCacheTest {
+    private static final long LONG_TTL_MS = 3600000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CountingBackend backend;
+
+    @Before
+    public void setUp() {
+        backend = new CountingBackend();
+    }
+
+    @After
+    public void tearDown() {
+        SystemKeychain.setBackend(null);
+    }
+
+    @Test
+    public void repeatedLoadsReachTheBackendOnce() throws Exception {
+        KeychainCache cache = use(LONG_TTL_MS, 64);
+        backend.savePassword("svc", "a", "valor a");
+        for (int i = 0; i < 10; i++) {
+            assertEquals("valor a", SystemKeychain.loadPassword("svc", "a"));
+        }
+        assertEquals(1, backend.loads.get());
+        assertEquals(9, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void saveAndDeleteInvalidateTheEntry() throws Exception {
+        use(LONG_TTL_MS, 64);
+        SystemKeychain.savePassword("svc", "a", "antigo");
+        assertEquals("antigo", SystemKeychain.loadPassword("svc", "a"));
+        SystemKeychain.savePassword("svc", "a", "novo");
+        assertEquals("novo", SystemKeychain.loadPassword("svc", "a"));
+        assertTrue(SystemKeychain.deletePassword("svc", "a"));
+        try {
+            SystemKeychain.loadPassword("svc", "a");
+            fail("A senha removida não pode vir do cache");
+        } catch (KeychainException e) {
+            // esperado
+        }
+        assertEquals(3, backend.loads.get());
+    }
+
+    @Test
+    public void expiredEntriesAreLoadedAgain() throws Exception {
+        KeychainCache cache = use(50, 64);
+        backend.savePassword("svc", "a", "valor a");
+        SystemKeychain.loadPassword("svc", "a");
+        Thread.sleep(120);
+        // alterado direto no backend, sem passar pelo cache: só aparece depois de expirar
+        backend.savePassword("svc", "a", "alterado");
+        assertEquals("alterado", SystemKeychain.loadPassword("svc", "a"));
+        assertEquals(2, backend.loads.get());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() throws Exception {
+        KeychainCache cache = use(LONG_TTL_MS, 2);
+        for (String user : new String[] {"a", "b", "c"}) {
+            backend.savePassword("svc", user, "valor " + user);
+        }
+        SystemKeychain.loadPassword("svc", "a");
+        SystemKeychain.loadPassword("svc", "b");
+        SystemKeychain.loadPassword("svc", "a");
+        SystemKeychain.loadPassword("svc", "c");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        int loads = backend.loads.get();
+        SystemKeychain.loadPassword("svc", "a");
+        assertEquals("a foi usada por último e continua no cache", loads, backend.loads.get());
+        SystemKeychain.loadPassword("svc", "b");
+        assertEquals("b era a menos usada e saiu", loads + 1, backend.loads.get());
+    }
+
+    @Test
+    public void failedLoadsAreNotCached() throws Exception {
+        KeychainCache cache = use(LONG_TTL_MS, 64);
+        for (int i = 0; i < 3; i++) {
+            try {
+                SystemKeychain.loadPassword("svc", "ausente");
+                fail("A senha não existe");
+            } catch (KeychainException e) {
+                // esperado
+            }
+        }
+        assertEquals(3, backend.loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void concurrentMissesShareOneBackendCall() throws Exception {
+        final KeychainCache cache = use(LONG_TTL_MS, 64);
+        backend.savePassword("svc", "a", "valor a");
+        backend.gate = new CountDownLatch(1);
+        final int threads = 8;
+        final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        final CountDownLatch done = new CountDownLatch(threads);
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            readers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        String value = SystemKeychain.loadPassword("svc", "a");
+                        if (!"valor a".equals(value)) {
+                            failures.add(value);
+                        }
+                    } catch (Exception e) {
+                        failures.add(e.toString());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }));
+        }
+        for (Thread t : readers) {
+            t.start();
+        }
+        // uma thread está no backend e as outras esperam a leitura dela
+        assertTrue(backend.entered.await(10, TimeUnit.SECONDS));
+        awaitParked(readers);
+        backend.gate.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue("Falhas: " + failures, failures.isEmpty());
+        assertEquals(threads, cache.getMisses());
+        assertEquals(1, cache.getLoads());
+        assertEquals(1, backend.loads.get());
+    }
+
+    @Test
+    public void loadStartedAfterASaveDoesNotJoinAnOlderLoad() throws Exception {
+        use(LONG_TTL_MS, 64);
+        backend.savePassword("svc", "a", "antigo");
+        backend.gate = new CountDownLatch(1);
+        final String[] values = new String[2];
+        CountDownLatch firstDone = load(values, 0);
+        // a primeira leitura já pegou "antigo" no backend e está parada antes de devolvê-lo
+        assertTrue(backend.entered.await(10, TimeUnit.SECONDS));
+        SystemKeychain.savePassword("svc", "a", "novo");
+        CountDownLatch gate = backend.gate;
+        backend.gate = null;
+        try {
+            // se ela se juntasse à primeira leitura, ficaria parada no gate junto com ela
+            assertTrue("A leitura depois da gravação esperou a leitura anterior", load(values, 1).await(10, TimeUnit.SECONDS));
+        } finally {
+            gate.countDown();
+        }
+        assertTrue(firstDone.await(10, TimeUnit.SECONDS));
+        assertEquals("antigo", values[0]);
+        assertEquals("novo", values[1]);
+        assertEquals("O valor antigo não pode ter ficado no cache", "novo", SystemKeychain.loadPassword("svc", "a"));
+        assertEquals(2, backend.loads.get());
+    }
+
+    /**
+     * Lê svc/a em outra thread e guarda o resultado em values[index].
+     *
+     * @return liberado quando a leitura termina
+     */
+    private static CountDownLatch load(final String[] values, final int index) {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    values[index] = SystemKeychain.loadPassword("svc", "a");
+                } catch (Exception e) {
+                    values[index] = e.toString();
+                } finally {
+                    done.countDown();
+                }
+            }
+        }).start();
+        return done;
+    }
+
+    @Test
+    public void keychainServicesShareTheCachedKeystorePassword() throws Exception {
+        use(LONG_TTL_MS, 64);
+        backend.savePassword("JavaKeychainApp", "keystore-password", CryptoUtils.encrypt("keychain-cache-test"));
+        File dir = folder.newFolder("keychain");
+        KeychainService first = new KeychainService(dir);
+        try {
+            first.save("chave", "valor");
+        } finally {
+            first.close();
+        }
+        KeychainService second = new KeychainService(dir);
+        try {
+            assertEquals("valor", second.retrieve("chave"));
+        } finally {
+            second.close();
+        }
+        assertEquals("A segunda inicialização leu a senha do KeyStore do cache", 1, backend.loads.get());
+    }
+
+    /**
+     * Espera todas as threads pararem: a que está no backend no gate, as outras na leitura dela.
+     */
+    private static void awaitParked(List<Thread> threads) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        for (Thread t : threads) {
+            while (t.getState() != Thread.State.WAITING) {
+                assertTrue("A thread " + t.getName() + " não chegou à leitura em andamento",
+                    t.isAlive() && System.currentTimeMillis() < deadline);
+                Thread.yield();
+            }
+        }
+    }
+
+    private KeychainCache use(long ttlMs, int maxEntries) {
+        KeychainCache cache = new KeychainCache(backend, ttlMs, maxEntries);
+        SystemKeychain.setBackend(cache);
+        return cache;
+    }
+
+    /**
+     * InMemoryBackend que conta as leituras e, com gate, as segura depois de ler o valor até o
+     * teste liberar. entered é liberado quando a primeira leitura chega ao backend.
+     */
+    private static final class CountingBackend extends InMemoryBackend {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile CountDownLatch gate;
+
+        @Override
+        public String loadPassword(String service, String user) throws KeychainException {
+            loads.incrementAndGet();
+            String value = super.loadPassword(service, user);
+            entered.countDown();
+            CountDownLatch g = gate;
+            if (g != null) {
+                try {
+                    g.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new KeychainException("Interrompido", e);
+                }
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Valores gravados por streaming: o HMAC do blob tem de recusar um blob renomeado para o arquivo
+ * de outra chave e um blob rebaixado para a versão sem HMAC do formato.
+ */
+public class KeychainServiceBlobTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private KeychainService service;
+    private File blobDir;
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryBackend backend = new InMemoryBackend();
+        backend.savePassword("JavaKeychainApp", "keystore-password", CryptoUtils.encrypt("keychain-blob-test"));
+        SystemKeychain.setBackend(backend);
+        File dir = folder.newFolder("keychain");
+        service = new KeychainService(dir);
+        blobDir = new File(dir, BlobStore.DIR_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        service.close();
+        SystemKeychain.setBackend(null);
+    }
+
+    @Test
+    public void streamedValueRoundTrips() throws Exception {
+        byte[] value = random(200 * 1024 + 7);
+        assertEquals(value.length, service.save("grande", new ByteArrayInputStream(value)));
+        assertArrayEquals(value, read("grande"));
+    }
+
+    @Test
+    public void blobRenamedToAnotherKeyIsRejected() throws Exception {
+        service.save("a", new ByteArrayInputStream(random(1000)));
+        service.save("b", new ByteArrayInputStream(random(1000)));
+        BlobStore blobs = new BlobStore(blobDir);
+        Files.copy(blobs.pathFor("a"), blobs.pathFor("b"), StandardCopyOption.REPLACE_EXISTING);
+        assertRejected("b");
+    }
+
+    @Test
+    public void blobDowngradedToTheUnauthenticatedVersionIsRejected() throws Exception {
+        service.save("a", new ByteArrayInputStream(random(1000)));
+        Path path = new BlobStore(blobDir).pathFor("a");
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            // byte de versão logo depois do magic; sem os 32 bytes do HMAC no fim
+            ch.write(ByteBuffer.wrap(new byte[] {2}), 4);
+            ch.truncate(ch.size() - 32);
+        }
+        assertRejected("a");
+    }
+
+    private void assertRejected(String key) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            service.retrieve(key, out);
+            fail("O blob de " + key + " não podia ser aceito");
+        } catch (IOException e) {
+            // esperado
+        }
+        assertTrue("Nada pode ser escrito antes de o blob ser conferido", out.size() == 0);
+    }
+
+    private byte[] read(String key) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(service.retrieve(key, out));
+        return out.toByteArray();
+    }
+
+    private static byte[] random(int size) {
+        byte[] value = new byte[size];
+        new Random(size).nextBytes(value);
+        return value;
+    }
+}
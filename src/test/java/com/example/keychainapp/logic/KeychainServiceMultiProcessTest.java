@@ -0,0 +1,185 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Várias JVMs gravando no mesmo cofre (keychain.vault.shared): nenhum registro pode se perder ou
+ * corromper, e cada processo tem de passar a ler as gravações dos outros sem ser reiniciado.
+ */
+public class KeychainServiceMultiProcessTest {
+    private static final String PASSWORD = "multi-process-test";
+    private static final int PROCESSES = 3;
+    private static final int WRITES = 100;
+    // chaves regravadas por todos os processos ao mesmo tempo
+    private static final int SHARED_KEYS = 4;
+    private static final long TIMEOUT_MS = 60000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        SystemKeychain.setBackend(null);
+    }
+
+    @Test
+    public void forkedJvmsWritingTheSameVaultLoseNothing() throws Exception {
+        File dir = folder.newFolder("keychain");
+        // KeyStore e cofre criados antes, para os processos não disputarem a criação
+        useBackend();
+        new KeychainService(dir).close();
+
+        List<Process> processes = new ArrayList<>();
+        List<File> logs = new ArrayList<>();
+        for (int id = 0; id < PROCESSES; id++) {
+            File log = new File(folder.getRoot(), "writer-" + id + ".log");
+            logs.add(log);
+            processes.add(new ProcessBuilder(javaExecutable(), "-cp", classPath(), Writer.class.getName(),
+                dir.getPath(), String.valueOf(id))
+                .directory(folder.getRoot())
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start());
+        }
+        for (int id = 0; id < PROCESSES; id++) {
+            Process p = processes.get(id);
+            if (!p.waitFor(TIMEOUT_MS * 2, TimeUnit.MILLISECONDS)) {
+                for (Process other : processes) {
+                    other.destroyForcibly();
+                }
+                fail("Processo " + id + " não terminou:\n" + tail(logs.get(id)));
+            }
+            assertEquals("Processo " + id + ":\n" + tail(logs.get(id)), 0, p.exitValue());
+        }
+
+        KeychainService service = new KeychainService(dir);
+        try {
+            for (int id = 0; id < PROCESSES; id++) {
+                for (int i = 0; i < WRITES; i++) {
+                    assertEquals(value(id, i), service.retrieve(key(id, i)));
+                }
+            }
+            for (int k = 0; k < SHARED_KEYS; k++) {
+                String value = service.retrieve("shared-" + k);
+                assertTrue("shared-" + k + ": " + value, value != null && value.startsWith("shared-" + k + "|"));
+            }
+        } finally {
+            service.close();
+        }
+        try (VaultStore vault = new VaultStore(new File(dir, VaultStore.FILE_NAME))) {
+            assertEquals(PROCESSES * WRITES + SHARED_KEYS, vault.size());
+        }
+    }
+
+    /**
+     * Processo filho: grava WRITES chaves próprias e regrava as chaves compartilhadas; depois que
+     * todos terminaram de gravar, espera até ler as chaves de todos os processos.
+     */
+    public static final class Writer {
+        public static void main(String[] args) throws Exception {
+            File dir = new File(args[0]);
+            int id = Integer.parseInt(args[1]);
+            useBackend();
+            KeychainService service = new KeychainService(dir);
+            try {
+                for (int i = 0; i < WRITES; i++) {
+                    service.save(key(id, i), value(id, i));
+                    service.save("shared-" + (i % SHARED_KEYS), "shared-" + (i % SHARED_KEYS) + "|" + value(id, i));
+                }
+                Files.createFile(new File(dir, "done-" + id).toPath());
+                long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+                for (int other = 0; other < PROCESSES; other++) {
+                    while (!new File(dir, "done-" + other).exists()) {
+                        if (System.currentTimeMillis() > deadline) {
+                            throw new IllegalStateException("Processo " + other + " não terminou de gravar");
+                        }
+                        Thread.sleep(20);
+                    }
+                }
+                // só lê: as gravações dos outros chegam pelo aviso de alteração do cofre
+                for (int other = 0; other < PROCESSES; other++) {
+                    for (int i = 0; i < WRITES; i++) {
+                        String value;
+                        while (!value(other, i).equals(value = service.retrieve(key(other, i)))) {
+                            if (value != null) {
+                                throw new IllegalStateException(key(other, i) + " corrompida: " + value);
+                            }
+                            if (System.currentTimeMillis() > deadline) {
+                                throw new IllegalStateException("Processo " + id + " não vê " + key(other, i));
+                            }
+                            Thread.sleep(20);
+                        }
+                    }
+                }
+            } finally {
+                service.close();
+            }
+            System.exit(0);
+        }
+    }
+
+    private static void useBackend() throws Exception {
+        InMemoryBackend backend = new InMemoryBackend();
+        backend.savePassword("JavaKeychainApp", "keystore-password", CryptoUtils.encrypt(PASSWORD));
+        SystemKeychain.setBackend(backend);
+    }
+
+    private static String key(int id, int i) {
+        return "p" + id + "-" + i;
+    }
+
+    private static String value(int id, int i) {
+        return "valor " + i + " do processo " + id;
+    }
+
+    private static String javaExecutable() {
+        return new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    }
+
+    /**
+     * O classpath desta JVM mais os diretórios e jars dos testes, do código e do JNA: o test
+     * runner pode carregar as classes por um classpath próprio.
+     */
+    private static String classPath() throws Exception {
+        Set<String> entries = new LinkedHashSet<>();
+        for (Class<?> c : new Class<?>[] {KeychainServiceMultiProcessTest.class, KeychainService.class, com.sun.jna.Native.class}) {
+            entries.add(Paths.get(c.getProtectionDomain().getCodeSource().getLocation().toURI()).toString());
+        }
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                entries.add(entry);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String entry : entries) {
+            if (sb.length() > 0) {
+                sb.append(File.pathSeparator);
+            }
+            sb.append(entry);
+        }
+        return sb.toString();
+    }
+
+    private static String tail(File log) throws IOException {
+        String text = new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8);
+        return text.substring(Math.max(0, text.length() - 4000));
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Gravações e leituras concorrentes nas mesmas chaves: toda leitura tem de devolver um valor
+ * completo que foi de fato gravado, nunca um valor cortado, vazio ou misturado de duas gravações.
+ */
+public class KeychainServiceTest {
+    private static final int KEYS = 8;
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int WRITES_PER_WRITER = 150;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryBackend backend = new InMemoryBackend();
+        backend.savePassword("JavaKeychainApp", "keystore-password", CryptoUtils.encrypt("keychain-service-test"));
+        SystemKeychain.setBackend(backend);
+    }
+
+    @After
+    public void tearDown() {
+        SystemKeychain.setBackend(null);
+    }
+
+    @Test
+    public void concurrentSavesAndRetrievesReturnOnlyWrittenValues() throws Exception {
+        final KeychainService service = new KeychainService(folder.newFolder("keychain"));
+        try {
+            run(new Target() {
+                @Override
+                public void write(String key, String value) throws Exception {
+                    service.save(key, value);
+                }
+
+                @Override
+                public String read(String key) throws Exception {
+                    return service.retrieve(key);
+                }
+            });
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void concurrentPutsAndGetsOnTextFilesReturnOnlyWrittenValues() throws Exception {
+        final TextFileStore store = new TextFileStore(folder.newFolder("files"));
+        try {
+            run(new Target() {
+                @Override
+                public void write(String key, String value) throws Exception {
+                    store.put(key, value.getBytes(StandardCharsets.UTF_8));
+                }
+
+                @Override
+                public String read(String key) throws Exception {
+                    byte[] value = store.get(key);
+                    return value == null ? null : new String(value, StandardCharsets.UTF_8);
+                }
+            });
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void interruptedSaveDoesNotBreakLaterSaves() throws Exception {
+        KeychainService service = new KeychainService(folder.newFolder("interrupted"));
+        try {
+            service.save("antes", "valor");
+            // com a interrupção pendente, o FileChannel do lock entre processos fecha ao ser usado
+            Thread.currentThread().interrupt();
+            try {
+                service.save("interrompida", "valor");
+            } catch (Exception e) {
+                // esperado: ClosedByInterruptException
+            } finally {
+                Thread.interrupted();
+            }
+            service.save("depois", "valor");
+            assertEquals("valor", service.retrieve("antes"));
+            assertEquals("valor", service.retrieve("depois"));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void operationsRacingCloseFailOnlyWithIllegalStateException() throws Exception {
+        final KeychainService service = new KeychainService(folder.newFolder("closing"));
+        final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        final CountDownLatch running = new CountDownLatch(WRITERS);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    String key = "key-" + writer;
+                    boolean first = true;
+                    try {
+                        while (true) {
+                            service.save(key, value(key, writer, 0));
+                            service.retrieve(key);
+                            service.delete(key);
+                            if (first) {
+                                running.countDown();
+                                first = false;
+                            }
+                        }
+                    } catch (IllegalStateException e) {
+                        // esperado depois de close()
+                    } catch (Exception e) {
+                        failures.add(e.toString());
+                    } finally {
+                        if (first) {
+                            running.countDown();
+                        }
+                    }
+                }
+            }, "closing-" + w));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        running.await();
+        service.close();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue("Falhas: " + failures, failures.isEmpty());
+    }
+
+    /**
+     * Grava um valor inicial em cada chave e depois solta WRITERS threads regravando as mesmas
+     * chaves enquanto READERS threads as leem sem parar. Cada valor tem tamanho diferente, para
+     * que uma leitura de uma gravação pela metade não coincida com um valor gravado.
+     */
+    private static void run(final Target target) throws Exception {
+        final Map<String, Set<String>> written = new ConcurrentHashMap<>();
+        for (int k = 0; k < KEYS; k++) {
+            String key = "key-" + k;
+            String value = value(key, -1, 0);
+            written.put(key, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+            written.get(key).add(value);
+            target.write(key, value);
+        }
+        final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        final long[] reads = new long[READERS];
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(writer);
+                    try {
+                        start.await();
+                        for (int i = 0; i < WRITES_PER_WRITER; i++) {
+                            String key = "key-" + random.nextInt(KEYS);
+                            String value = value(key, writer, i);
+                            // registrado antes de gravar: um leitor pode vê-lo assim que a gravação termina
+                            written.get(key).add(value);
+                            target.write(key, value);
+                        }
+                    } catch (Exception e) {
+                        failures.add("gravação: " + e);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            }, "writer-" + w));
+        }
+        for (int r = 0; r < READERS; r++) {
+            final int reader = r;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(100 + reader);
+                    try {
+                        start.await();
+                        while (writing.get()) {
+                            String key = "key-" + random.nextInt(KEYS);
+                            String value = target.read(key);
+                            if (value == null || !written.get(key).contains(value)) {
+                                failures.add("leitura de " + key + ": " + value);
+                            }
+                            reads[reader]++;
+                        }
+                    } catch (Exception e) {
+                        failures.add("leitura: " + e);
+                    }
+                }
+            }, "reader-" + r));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        start.countDown();
+        writersDone.await();
+        writing.set(false);
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertTrue("Falhas: " + failures, failures.isEmpty());
+        for (int r = 0; r < READERS; r++) {
+            assertTrue("O leitor " + r + " não chegou a ler", reads[r] > 0);
+        }
+        for (int k = 0; k < KEYS; k++) {
+            String key = "key-" + k;
+            String value = target.read(key);
+            assertNotNull(key, value);
+            assertTrue(key + ": " + value, written.get(key).contains(value));
+        }
+        int total = 0;
+        for (Set<String> values : written.values()) {
+            total += values.size();
+        }
+        assertEquals(KEYS + WRITERS * WRITES_PER_WRITER, total);
+    }
+
+    private static String value(String key, int writer, int seq) {
+        StringBuilder sb = new StringBuilder(key).append('|').append(writer).append('|').append(seq).append('|');
+        int padding = ((writer + 1) * 31 + seq * 17) % 200;
+        for (int i = 0; i < padding; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
+
+    private interface Target {
+        void write(String key, String value) throws Exception;
+
+        String read(String key) throws Exception;
+    }
+}
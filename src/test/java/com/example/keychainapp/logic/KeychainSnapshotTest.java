@@ -0,0 +1,170 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Snapshot completo seguido de incrementais, importado em outro host (KeyStore novo, com outra
+ * senha): os valores chegam recifrados, as remoções são aplicadas e uma cadeia inválida é
+ * recusada antes de qualquer gravação.
+ */
+public class KeychainSnapshotTest {
+    private static final String SOURCE_PASSWORD = "snapshot-origem";
+    private static final String TARGET_PASSWORD = "snapshot-destino";
+    // cabeçalho: ... | registros (int) | blobs (int) | bytes dos registros (long), seguido do KeyStore
+    private static final int HEADER_SIZE = 48;
+    private static final int RECORD_BYTES_OFFSET = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] blob = random(64 * 1024 + 5);
+    private File full;
+    private File incremental1;
+    private File incremental2;
+
+    @After
+    public void tearDown() {
+        SystemKeychain.setBackend(null);
+    }
+
+    @Test
+    public void fullSnapshotAndIncrementalChainImportIntoAFreshKeyStore() throws Exception {
+        exportChain();
+        KeychainService target = openTarget();
+        try {
+            target.save("local", "só no destino");
+            target.importSnapshot(SOURCE_PASSWORD.toCharArray(), full, incremental1, incremental2);
+            assertEquals("valor a", target.retrieve("a"));
+            assertEquals("valor b alterado", target.retrieve("b"));
+            assertNull("Chave removida depois do snapshot completo", target.retrieve("c"));
+            assertEquals("valor d", target.retrieve("d"));
+            assertNull("Chave criada e removida entre os incrementais", target.retrieve("temporaria"));
+            assertEquals("valor e", target.retrieve("e"));
+            assertEquals("Chaves que só existem no destino são mantidas", "só no destino", target.retrieve("local"));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(target.retrieve("blob", out));
+            assertArrayEquals(blob, out.toByteArray());
+        } finally {
+            target.close();
+        }
+    }
+
+    @Test
+    public void corruptedByteRejectsTheChainBeforeAnythingIsWritten() throws Exception {
+        exportChain();
+        // o byte corrompido está no último snapshot: nem o completo, que confere, pode ser gravado
+        flipRecordByte(incremental2);
+        KeychainService target = openTarget();
+        try {
+            try {
+                target.importSnapshot(SOURCE_PASSWORD.toCharArray(), full, incremental1, incremental2);
+                fail("O snapshot corrompido não podia ser importado");
+            } catch (IOException e) {
+                // esperado
+            }
+            assertNull(target.retrieve("a"));
+            assertNull(target.retrieve("b"));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(!target.retrieve("blob", out));
+        } finally {
+            target.close();
+        }
+    }
+
+    @Test
+    public void chainStartingWithAnIncrementalIsRejected() throws Exception {
+        exportChain();
+        KeychainService target = openTarget();
+        try {
+            try {
+                target.importSnapshot(SOURCE_PASSWORD.toCharArray(), incremental1, incremental2);
+                fail("Uma cadeia que começa por um incremental não podia ser importada");
+            } catch (IllegalArgumentException e) {
+                // esperado
+            }
+            assertNull(target.retrieve("d"));
+            assertNull(target.retrieve("e"));
+        } finally {
+            target.close();
+        }
+    }
+
+    /** Completo com a, b, c e o blob; o 1º incremental altera b, remove c e cria d; o 2º cria e. */
+    private void exportChain() throws Exception {
+        useKeyStorePassword(SOURCE_PASSWORD);
+        full = new File(folder.getRoot(), "completo.snap");
+        incremental1 = new File(folder.getRoot(), "incremental-1.snap");
+        incremental2 = new File(folder.getRoot(), "incremental-2.snap");
+        KeychainService source = new KeychainService(folder.newFolder("origem"));
+        try {
+            source.save("a", "valor a");
+            source.save("b", "valor b");
+            source.save("c", "valor c");
+            source.save("blob", new ByteArrayInputStream(blob));
+            source.exportSnapshot(full);
+            source.save("b", "valor b alterado");
+            assertTrue(source.delete("c"));
+            source.save("d", "valor d");
+            source.save("temporaria", "valor temporário");
+            source.exportSnapshot(incremental1, full);
+            assertTrue(source.delete("temporaria"));
+            source.save("e", "valor e");
+            source.exportSnapshot(incremental2, incremental1);
+        } finally {
+            source.close();
+        }
+    }
+
+    private KeychainService openTarget() throws Exception {
+        useKeyStorePassword(TARGET_PASSWORD);
+        return new KeychainService(folder.newFolder("destino"));
+    }
+
+    private static void useKeyStorePassword(String password) throws Exception {
+        InMemoryBackend backend = new InMemoryBackend();
+        backend.savePassword("JavaKeychainApp", "keystore-password", CryptoUtils.encrypt(password));
+        SystemKeychain.setBackend(backend);
+    }
+
+    /** Corrompe um byte no meio da seção de registros, logo depois do KeyStore. */
+    private static void flipRecordByte(File snapshot) throws IOException {
+        try (FileChannel ch = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4);
+            while (header.hasRemaining() && ch.read(header) >= 0) {
+                // lê o cabeçalho e o tamanho do KeyStore
+            }
+            long recordBytes = header.getLong(RECORD_BYTES_OFFSET);
+            assertTrue("O incremental devia ter registros", recordBytes > 0);
+            long position = HEADER_SIZE + 4 + header.getInt(HEADER_SIZE) + recordBytes / 2;
+            ByteBuffer b = ByteBuffer.allocate(1);
+            ch.read(b, position);
+            b.put(0, (byte) (b.get(0) ^ 0x01));
+            b.rewind();
+            ch.write(b, position);
+        }
+    }
+
+    private static byte[] random(int size) {
+        byte[] value = new byte[size];
+        new Random(size).nextBytes(value);
+        return value;
+    }
+}
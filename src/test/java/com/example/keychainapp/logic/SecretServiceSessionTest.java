@@ -0,0 +1,204 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+/**
+ * SecretServiceSession contra um auxiliar falso, indicado em keychain.secretservice.helper:
+ * respostas fora de ordem entregues pelo id, senha vazia, auxiliar travado morto depois do timeout
+ * e auxiliar que terminou reiniciado na chamada seguinte.
+ */
+public class SecretServiceSessionTest {
+    private static final long TIMEOUT_MS = 1500;
+
+    /**
+     * Mesmo protocolo de secret_service_helper.py, com senhas em memória. O usuário da requisição
+     * controla o comportamento: "slow-N" responde depois de N * 150 ms em outra thread, "hang" para
+     * de ler o stdin (só sai com kill), "die" encerra o processo e "pid" devolve o PID.
+     */
+    private static final String STUB = "import base64, os, sys, threading, time\n"
+        + "store = {}\n"
+        + "lock = threading.Lock()\n"
+        + "def out(line):\n"
+        + "    with lock:\n"
+        + "        sys.stdout.write(line + '\\n')\n"
+        + "        sys.stdout.flush()\n"
+        + "def later(delay, line):\n"
+        + "    time.sleep(delay)\n"
+        + "    out(line)\n"
+        + "out('READY')\n"
+        + "while True:\n"
+        + "    line = sys.stdin.readline()\n"
+        + "    if not line:\n"
+        + "        break\n"
+        + "    parts = line.rstrip('\\n').split(' ')\n"
+        + "    request_id, op, attrs = parts[0], parts[1], (parts[2], parts[3])\n"
+        + "    user = base64.b64decode(parts[3]).decode('utf-8')\n"
+        + "    if user == 'hang':\n"
+        + "        time.sleep(3600)\n"
+        + "    elif user == 'die':\n"
+        + "        sys.exit(3)\n"
+        + "    elif user == 'pid':\n"
+        + "        out(request_id + ' OK ' + base64.b64encode(str(os.getpid()).encode('ascii')).decode('ascii'))\n"
+        + "    elif op == 'STORE':\n"
+        + "        store[attrs] = parts[4]\n"
+        + "        out(request_id + ' OK')\n"
+        + "    elif op == 'LOOKUP':\n"
+        + "        value = store.get(attrs)\n"
+        + "        reply = request_id + (' NOTFOUND' if value is None else ' OK ' + value)\n"
+        + "        if user.startswith('slow-'):\n"
+        + "            t = threading.Thread(target=later, args=(int(user[5:]) * 0.15, reply))\n"
+        + "            t.daemon = True\n"
+        + "            t.start()\n"
+        + "        else:\n"
+        + "            out(reply)\n"
+        + "    elif op == 'CLEAR':\n"
+        + "        out(request_id + (' OK' if store.pop(attrs, None) is not None else ' NOTFOUND'))\n"
+        + "    else:\n"
+        + "        out(request_id + ' ERR')\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SecretServiceSession session;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("python3 não encontrado", SystemKeychain.isCommandAvailable("python3"));
+        File stub = folder.newFile("stub_secret_service_helper.py");
+        Files.write(stub.toPath(), STUB.getBytes(StandardCharsets.UTF_8));
+        System.setProperty("keychain.secretservice.helper", "python3 -u " + stub.getPath());
+        session = new SecretServiceSession(SecretServiceSession.helperCommand(), TIMEOUT_MS);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("keychain.secretservice.helper");
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    @Test
+    public void storeLookupAndClearGoThroughTheHelper() throws Exception {
+        assertNull(session.lookup("svc", "a"));
+        session.store("svc", "a", "valor com espaços e acentuação");
+        assertEquals("valor com espaços e acentuação", session.lookup("svc", "a"));
+        assertTrue(session.clear("svc", "a"));
+        assertFalse(session.clear("svc", "a"));
+        assertNull(session.lookup("svc", "a"));
+    }
+
+    @Test
+    public void emptyValueRoundTrips() throws Exception {
+        session.store("svc", "vazio", "");
+        assertEquals("", session.lookup("svc", "vazio"));
+        assertTrue(session.clear("svc", "vazio"));
+        assertNull(session.lookup("svc", "vazio"));
+    }
+
+    @Test
+    public void concurrentCallsGetTheirOwnResponsesWhenTheyArriveOutOfOrder() throws Exception {
+        final int calls = 4;
+        for (int n = 1; n <= calls; n++) {
+            session.store("svc", "slow-" + n, "valor " + n);
+        }
+        final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        // o mais lento é pedido primeiro: as respostas voltam na ordem inversa
+        for (int n = calls; n >= 1; n--) {
+            final int delay = n;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        String value = session.lookup("svc", "slow-" + delay);
+                        if (!("valor " + delay).equals(value)) {
+                            failures.add("slow-" + delay + ": " + value);
+                        }
+                    } catch (Exception e) {
+                        failures.add("slow-" + delay + ": " + e);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue("Falhas: " + failures, failures.isEmpty());
+    }
+
+    @Test
+    public void hungHelperIsKilledAfterTheTimeoutAndRestarted() throws Exception {
+        String pid = session.lookup("svc", "pid");
+        long start = System.currentTimeMillis();
+        try {
+            session.lookup("svc", "hang");
+            fail("A chamada deveria esgotar o tempo");
+        } catch (KeychainException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Tempo esgotado"));
+        }
+        assertTrue("Esperou menos que o timeout", System.currentTimeMillis() - start >= TIMEOUT_MS);
+        // o auxiliar travado não lê o stdin fechado: close() tem de matá-lo
+        assertProcessGone(pid);
+
+        session.store("svc", "depois", "ok");
+        assertEquals("ok", session.lookup("svc", "depois"));
+        assertNotEquals(pid, session.lookup("svc", "pid"));
+    }
+
+    @Test
+    public void helperThatExitsIsRestartedOnTheNextCall() throws Exception {
+        String pid = session.lookup("svc", "pid");
+        try {
+            session.lookup("svc", "die");
+            fail("A chamada deveria falhar com o auxiliar encerrado");
+        } catch (KeychainException e) {
+            // esperado
+        }
+        assertProcessGone(pid);
+
+        String restarted = session.lookup("svc", "pid");
+        assertNotEquals(pid, restarted);
+        session.store("svc", "depois", "ok");
+        assertEquals("ok", session.lookup("svc", "depois"));
+        assertEquals(restarted, session.lookup("svc", "pid"));
+    }
+
+    private static void assertProcessGone(String pid) throws InterruptedException {
+        File proc = new File("/proc/" + pid);
+        Assume.assumeTrue("Sem /proc neste sistema", new File("/proc/self").exists());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (proc.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse("Auxiliar " + pid + " ainda está rodando", proc.exists());
+    }
+}
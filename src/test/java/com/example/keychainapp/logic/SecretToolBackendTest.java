@@ -0,0 +1,44 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * SecretToolBackend sem sessão persistente, contra um secret-tool falso que escreve mais do que
+ * cabe no pipe: a saída tem de ser lida enquanto o processo roda, senão ele nunca termina.
+ */
+public class SecretToolBackendTest {
+    // bem acima dos 64 KB de um pipe no Linux
+    private static final int NOISE_BYTES = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void lookupWithLargeStderrAndStdoutDoesNotWaitForTheTimeout() throws Exception {
+        Assume.assumeTrue("sh não encontrado", SystemKeychain.isCommandAvailable("sh"));
+        File fake = folder.newFile("fake-secret-tool");
+        String script = "#!/bin/sh\n"
+            + "head -c " + NOISE_BYTES + " /dev/zero | tr '\\0' 'e' >&2\n"
+            + "echo 'senha'\n"
+            + "head -c " + NOISE_BYTES + " /dev/zero | tr '\\0' 'o'\n";
+        Files.write(fake.toPath(), script.getBytes(StandardCharsets.UTF_8));
+        Assume.assumeTrue(fake.setExecutable(true));
+
+        SecretToolBackend backend = new SecretToolBackend(null, fake.getPath());
+        long start = System.currentTimeMillis();
+        assertEquals("senha", backend.loadPassword("svc", "user"));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Esperou o timeout de " + SystemKeychain.PROCESS_TIMEOUT_MS + " ms: " + elapsed + " ms",
+            elapsed < SystemKeychain.PROCESS_TIMEOUT_MS);
+    }
+}
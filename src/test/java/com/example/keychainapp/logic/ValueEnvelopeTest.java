@@ -0,0 +1,116 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Formatos dos valores cifrados: todos os tamanhos voltam iguais em cada formato, o tamanho
+ * separa os valores legados dos demais, e um valor copiado para outra chave ou com a versão da
+ * chave alterada não decifra.
+ */
+public class ValueEnvelopeTest {
+    private static final char[] PASSWORD = "value-envelope-test".toCharArray();
+    private static final int MAX_SIZE = 200;
+
+    private KeyRing ring;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JCEKS");
+        keyStore.load(null, null);
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        keyStore.setKeyEntry(KeyRing.aliasFor(0), keyGen.generateKey(), PASSWORD, null);
+        keyStore.setKeyEntry(KeyRing.aliasFor(1), keyGen.generateKey(), PASSWORD, null);
+        ring = KeyRing.load(keyStore, PASSWORD);
+    }
+
+    @Test
+    public void legacyValuesRoundTrip() throws Exception {
+        for (int size = 0; size < MAX_SIZE; size++) {
+            byte[] plain = plain(size);
+            // gravado pelas versões anteriores: AES/ECB da versão 0, sem cabeçalho
+            byte[] stored = CryptoUtils.cipher(Cipher.ENCRYPT_MODE, ring.get(0)).doFinal(plain);
+            assertTrue(ValueEnvelope.isStoredValue(stored));
+            assertEquals(0, ValueEnvelope.keyVersion(stored));
+            assertArrayEquals("Tamanho " + size, plain, ValueEnvelope.open(ring, "chave", stored));
+        }
+    }
+
+    @Test
+    public void ecbTaggedValuesRoundTrip() throws Exception {
+        for (int size = 0; size < MAX_SIZE; size++) {
+            byte[] plain = plain(size);
+            byte[] stored = ValueEnvelope.seal(ring, "chave", plain, ValueEnvelope.FORMAT_ECB);
+            assertEquals(ValueEnvelope.FORMAT_ECB, stored[2]);
+            assertEquals("Um valor ECB com cabeçalho tem resto 7", 7, stored.length % 16);
+            assertEquals(1, ValueEnvelope.keyVersion(stored));
+            assertArrayEquals("Tamanho " + size, plain, ValueEnvelope.open(ring, "chave", stored));
+        }
+    }
+
+    @Test
+    public void gcmValuesRoundTripAndNeverLookLegacy() throws Exception {
+        int padded = 0;
+        for (int size = 0; size < MAX_SIZE; size++) {
+            byte[] plain = plain(size);
+            byte[] stored = ValueEnvelope.seal(ring, "chave", plain, ValueEnvelope.FORMAT_GCM);
+            assertTrue("Tamanho " + size + " confundido com um valor legado", stored.length % 16 != 0);
+            if (stored[2] != ValueEnvelope.FORMAT_GCM) {
+                padded++;
+            }
+            assertEquals(1, ValueEnvelope.keyVersion(stored));
+            assertArrayEquals("Tamanho " + size, plain, ValueEnvelope.open(ring, "chave", stored));
+        }
+        // com 35 bytes a mais, um em cada 16 tamanhos cai em múltiplo de 16 e ganha o byte de enchimento
+        assertEquals(MAX_SIZE / 16, padded);
+    }
+
+    @Test
+    public void valueCopiedToAnotherKeyIsRejected() throws Exception {
+        for (int size = 0; size < MAX_SIZE; size += 13) {
+            byte[] stored = ValueEnvelope.seal(ring, "origem", plain(size), ValueEnvelope.FORMAT_GCM);
+            assertRejected(stored, "destino");
+        }
+    }
+
+    @Test
+    public void flippedKeyVersionIsRejected() throws Exception {
+        for (int size = 0; size < MAX_SIZE; size += 13) {
+            byte[] stored = ValueEnvelope.seal(ring, "chave", plain(size), ValueEnvelope.FORMAT_GCM);
+            // bytes 3..6: versão da chave; o último bit leva a versão 1 para a 0, que existe no anel
+            for (int i = 3; i < ValueEnvelope.HEADER_BYTES; i++) {
+                byte[] tampered = stored.clone();
+                tampered[i] ^= 1;
+                assertRejected(tampered, "chave");
+            }
+        }
+    }
+
+    private void assertRejected(byte[] stored, String key) {
+        try {
+            ValueEnvelope.open(ring, key, stored);
+            fail("O valor não podia ser decifrado para '" + key + "'");
+        } catch (GeneralSecurityException e) {
+            // esperado
+        }
+    }
+
+    private static byte[] plain(int size) {
+        byte[] plain = new byte[size];
+        new Random(size).nextBytes(plain);
+        return plain;
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Cofre append-only: registros incompletos ou corrompidos na abertura, compactação com escritas
+ * concorrentes, migração dos .txt legados e threads interrompidas, que não podem deixar o cofre
+ * inutilizável para as outras.
+ */
+public class VaultStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private VaultStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryBackend backend = new InMemoryBackend();
+        backend.savePassword("JavaKeychainApp", "keystore-password", CryptoUtils.encrypt("vault-store-test"));
+        SystemKeychain.setBackend(backend);
+        file = new File(folder.getRoot(), VaultStore.FILE_NAME);
+        store = new VaultStore(file);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+        SystemKeychain.setBackend(null);
+    }
+
+    @Test
+    public void tornTailIsTruncatedOnReopen() throws Exception {
+        store.put("a", bytes("valor a"));
+        store.put("b", bytes("valor b"));
+        store.close();
+        long length = file.length();
+        // queda no meio da escrita: o tamanho do registro chegou ao disco, o resto não
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] {0, 0, 0, 40, 1, 0, 0, 0, 0});
+        }
+        store = new VaultStore(file);
+        assertEquals("O registro incompleto tinha de ser descartado", length, file.length());
+        assertArrayEquals(bytes("valor a"), store.get("a"));
+        assertArrayEquals(bytes("valor b"), store.get("b"));
+        store.put("c", bytes("valor c"));
+        store.close();
+        store = new VaultStore(file);
+        assertArrayEquals(bytes("valor c"), store.get("c"));
+    }
+
+    @Test
+    public void recordWithBadCrcFailsTheOpenUntilRepairIsRequested() throws Exception {
+        store.put("a", bytes("valor a"));
+        store.put("b", bytes("valor b"));
+        store.put("c", bytes("valor c"));
+        store.close();
+        flipByteOf(bytes("valor b"));
+        long length = file.length();
+        assertOpenFails();
+        assertEquals("Nada pode ser descartado sem keychain.vault.repair", length, file.length());
+
+        store = openWithRepair();
+        assertNull(store.get("b"));
+        assertArrayEquals(bytes("valor a"), store.get("a"));
+        assertArrayEquals("Registros depois do corrompido não podem ser perdidos", bytes("valor c"), store.get("c"));
+        assertEquals("O reparo tem de guardar uma cópia do arquivo", length, backup().length());
+        store.put("d", bytes("valor d"));
+        store.close();
+        // o reparo compacta o cofre: a próxima abertura não precisa mais da propriedade
+        store = new VaultStore(file);
+        assertArrayEquals(bytes("valor c"), store.get("c"));
+        assertArrayEquals(bytes("valor d"), store.get("d"));
+    }
+
+    @Test
+    public void corruptedLengthPrefixFailsTheOpenWithoutTruncating() throws Exception {
+        store.put("a", bytes("valor a"));
+        store.put("b", bytes("valor b"));
+        store.put("c", bytes("valor c"));
+        store.put("d", bytes("valor d"));
+        store.close();
+        long length = file.length();
+        // tamanho menor que um registro vazio e tamanho que aponta além do fim do arquivo
+        for (int corrupted : new int[] {3, 1 << 20}) {
+            setLengthOfRecordWith(bytes("valor b"), corrupted);
+            assertOpenFails();
+            assertEquals("Os registros válidos depois do corrompido foram descartados", length, file.length());
+        }
+
+        store = openWithRepair();
+        assertArrayEquals(bytes("valor a"), store.get("a"));
+        assertEquals("O reparo tem de guardar uma cópia do arquivo", length, backup().length());
+        store.close();
+        store = new VaultStore(file);
+        assertArrayEquals(bytes("valor a"), store.get("a"));
+    }
+
+    @Test
+    public void compactionWithConcurrentAppendsKeepsTheLatestValues() throws Exception {
+        final int keys = 50;
+        for (int round = 0; round < 5; round++) {
+            for (int k = 0; k < keys; k++) {
+                store.put("k" + k, bytes("inicial " + round + "-" + k));
+            }
+        }
+        final AtomicBoolean stop = new AtomicBoolean();
+        final ConcurrentLinkedQueue<Exception> failures = new ConcurrentLinkedQueue<>();
+        final int[][] last = new int[2][keys];
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 2; w++) {
+            final int writer = w;
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 1; !stop.get() || i <= keys / 2; i++) {
+                            // cada escritor tem as suas chaves: o último valor de cada uma é conhecido
+                            int k = writer + 2 * (i % (keys / 2));
+                            store.put("k" + k, bytes("escritor " + writer + " " + i));
+                            last[writer][k] = i;
+                        }
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread t : writers) {
+            t.start();
+        }
+        for (int i = 0; i < 5; i++) {
+            store.compact();
+        }
+        stop.set(true);
+        for (Thread t : writers) {
+            t.join();
+        }
+        assertTrue("Falhas: " + failures, failures.isEmpty());
+        assertExpected(store, last, keys);
+        store.close();
+        store = new VaultStore(file);
+        assertExpected(store, last, keys);
+    }
+
+    @Test
+    public void legacyTextFilesAreImportedOnFirstOpen() throws Exception {
+        File dir = folder.newFolder("keychain");
+        KeychainService service = new KeychainService(dir);
+        service.save("antiga", "valor legado");
+        service.close();
+        // o valor cifrado sai do cofre e vai para "antiga.txt", como as versões anteriores gravavam
+        File vaultFile = new File(dir, VaultStore.FILE_NAME);
+        VaultStore vault = new VaultStore(vaultFile);
+        byte[] stored = vault.get("antiga");
+        vault.close();
+        assertTrue(vaultFile.delete());
+        File legacyDir = folder.newFolder("legado");
+        try (Writer writer = Files.newBufferedWriter(new File(legacyDir, "antiga.txt").toPath(), StandardCharsets.UTF_8)) {
+            writer.write(Base64.getEncoder().encodeToString(stored));
+        }
+        Files.write(new File(legacyDir, "notas.txt").toPath(), bytes("não é um valor cifrado"));
+        String previous = System.getProperty("keychain.files.dir");
+        System.setProperty("keychain.files.dir", legacyDir.getPath());
+        try {
+            service = new KeychainService(dir);
+            try {
+                assertEquals("valor legado", service.retrieve("antiga"));
+                assertNull(service.retrieve("notas"));
+            } finally {
+                service.close();
+            }
+        } finally {
+            if (previous == null) {
+                System.clearProperty("keychain.files.dir");
+            } else {
+                System.setProperty("keychain.files.dir", previous);
+            }
+        }
+        assertTrue("Os .txt importados ficam onde estão", new File(legacyDir, "antiga.txt").exists());
+    }
+
+    @Test
+    public void retrieveOfMissingKeyReturnsNull() throws Exception {
+        KeychainService service = new KeychainService(folder.newFolder("keychain"));
+        try {
+            service.save("existe", "valor");
+            // antes do cofre, retrieve de uma chave inexistente lançava FileNotFoundException
+            assertNull(service.retrieve("nao-existe"));
+            assertNull(service.retrieveBytes("nao-existe"));
+            assertEquals("valor", service.retrieve("existe"));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void interruptedReadDoesNotCloseTheVaultForOtherThreads() throws Exception {
+        store.put("a", bytes("valor a"));
+        ConcurrentLinkedQueue<Exception> failures = runInterrupted(new Task() {
+            @Override
+            public void run() throws Exception {
+                store.get("a");
+            }
+        });
+        assertTrue("A leitura interrompida tinha de falhar", !failures.isEmpty());
+        assertArrayEquals(bytes("valor a"), store.get("a"));
+        store.put("b", bytes("valor b"));
+        assertArrayEquals(bytes("valor b"), store.get("b"));
+        assertTrue(store.keys().contains("b"));
+    }
+
+    @Test
+    public void writeAfterAnInterruptedReadReopensTheVault() throws Exception {
+        store.put("a", bytes("valor a"));
+        runInterrupted(new Task() {
+            @Override
+            public void run() throws Exception {
+                store.get("a");
+            }
+        });
+        // a primeira operação depois da interrupção é uma escrita, seguida do fsync
+        store.put("b", bytes("valor b"));
+        store.close();
+        store = new VaultStore(file);
+        assertArrayEquals(bytes("valor a"), store.get("a"));
+        assertArrayEquals(bytes("valor b"), store.get("b"));
+    }
+
+    @Test
+    public void interruptedWriteDoesNotCloseTheVaultForOtherThreads() throws Exception {
+        store.put("a", bytes("valor a"));
+        runInterrupted(new Task() {
+            @Override
+            public void run() throws Exception {
+                store.put("b", bytes("valor b"));
+            }
+        });
+        store.put("c", bytes("valor c"));
+        assertArrayEquals(bytes("valor a"), store.get("a"));
+        assertArrayEquals(bytes("valor c"), store.get("c"));
+        store.close();
+        store = new VaultStore(file);
+        assertArrayEquals(bytes("valor c"), store.get("c"));
+    }
+
+    private static void assertExpected(VaultStore store, int[][] last, int keys) throws Exception {
+        for (int k = 0; k < keys; k++) {
+            int writer = k % 2;
+            assertArrayEquals("Chave k" + k, bytes("escritor " + writer + " " + last[writer][k]), store.get("k" + k));
+        }
+    }
+
+    /** Corrompe um byte do primeiro trecho do arquivo igual a content. */
+    private void flipByteOf(byte[] content) throws Exception {
+        int i = indexOf(content);
+        byte[] data = Files.readAllBytes(file.toPath());
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(new byte[] {(byte) (data[i] ^ 0x20)}), i);
+        }
+    }
+
+    /**
+     * Sobrescreve o tamanho do registro cujo valor (de chave com um byte) é value: antes do valor
+     * vêm tamanho (4) | tipo (1) | flags (1) | seq (8) | tamanho da chave (2) | chave (1) | tamanho do valor (4).
+     */
+    private void setLengthOfRecordWith(byte[] value, int length) throws Exception {
+        ByteBuffer b = ByteBuffer.allocate(4).putInt(length);
+        b.flip();
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ch.write(b, indexOf(value) - 21);
+        }
+    }
+
+    private int indexOf(byte[] content) throws Exception {
+        byte[] data = Files.readAllBytes(file.toPath());
+        for (int i = 0; i + content.length <= data.length; i++) {
+            boolean match = true;
+            for (int j = 0; j < content.length && match; j++) {
+                match = data[i + j] == content[j];
+            }
+            if (match) {
+                return i;
+            }
+        }
+        throw new AssertionError("Trecho não encontrado no cofre");
+    }
+
+    private void assertOpenFails() {
+        try {
+            store = new VaultStore(file);
+        } catch (IOException e) {
+            // esperado: o arquivo fica como está
+            store = null;
+            return;
+        }
+        fail("O cofre corrompido não podia ser aberto");
+    }
+
+    private VaultStore openWithRepair() throws Exception {
+        String previous = System.getProperty("keychain.vault.repair");
+        System.setProperty("keychain.vault.repair", "true");
+        try {
+            return new VaultStore(file);
+        } finally {
+            if (previous == null) {
+                System.clearProperty("keychain.vault.repair");
+            } else {
+                System.setProperty("keychain.vault.repair", previous);
+            }
+        }
+    }
+
+    /** Cópia feita pelo reparo: keychain.vault.corrupt-<millis>. */
+    private File backup() {
+        File[] copies = folder.getRoot().listFiles();
+        File found = null;
+        for (File f : copies) {
+            if (f.getName().startsWith(VaultStore.FILE_NAME + ".corrupt-")) {
+                assertNull("Só uma cópia por reparo", found);
+                found = f;
+            }
+        }
+        assertNotNull("Cópia do cofre corrompido não encontrada", found);
+        return found;
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    /** Executa a tarefa numa thread já interrompida: a primeira operação no canal o fecha. */
+    private static ConcurrentLinkedQueue<Exception> runInterrupted(final Task task) throws InterruptedException {
+        final ConcurrentLinkedQueue<Exception> failures = new ConcurrentLinkedQueue<>();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Thread.currentThread().interrupt();
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    failures.add(e);
+                }
+            }
+        });
+        t.start();
+        t.join();
+        return failures;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.keychainapp.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.example.keychainapp.logic.SystemKeychain.KeychainException;
+
+public class WriteBehindBackendTest {
+    // longo o bastante para o flush em segundo plano nunca rodar durante um teste
+    private static final long NO_BACKGROUND_FLUSH_MS = 3600000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        SystemKeychain.setBackend(null);
+    }
+
+    @Test
+    public void generatedKeystorePasswordIsWrittenThroughBeforeInitializationEnds() throws Exception {
+        InMemoryBackend delegate = new InMemoryBackend();
+        SystemKeychain.setBackend(new WriteBehindBackend(delegate, NO_BACKGROUND_FLUSH_MS, 64, 1024));
+        KeychainService service = new KeychainService(folder.newFolder("keychain"));
+        try {
+            service.awaitInitialization();
+            assertNotNull(delegate.loadPassword("JavaKeychainApp", "keystore-password"));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void initializationFailsWhenTheGeneratedPasswordCannotBeWritten() throws Exception {
+        KeychainBackend failing = new KeychainBackend() {
+            @Override
+            public String getName() {
+                return "failing";
+            }
+
+            @Override
+            public void savePassword(String service, String user, String password) throws KeychainException {
+                throw new KeychainException("keychain indisponível");
+            }
+
+            @Override
+            public String loadPassword(String service, String user) throws KeychainException {
+                throw new KeychainException("Senha não encontrada");
+            }
+
+            @Override
+            public boolean deletePassword(String service, String user) {
+                return false;
+            }
+        };
+        SystemKeychain.setBackend(new WriteBehindBackend(failing, NO_BACKGROUND_FLUSH_MS, 64, 1024));
+        File dir = folder.newFolder("keychain");
+        KeychainService service = new KeychainService(dir);
+        try {
+            service.awaitInitialization();
+            fail("A inicialização deveria falhar");
+        } catch (KeychainException e) {
+            // esperado
+        } finally {
+            service.close();
+        }
+        assertFalse("KeyStore criado com uma senha que não foi gravada", new File(dir, "keychain.jks").exists());
+    }
+
+    /**
+     * Gravações concorrentes com close(): toda chamada que retornou sem erro tem de estar no
+     * backend depois do close, tenha ela caído no buffer antes do último flush ou ido direto.
+     */
+    @Test
+    public void savesRacingCloseAreNeverLost() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            final InMemoryBackend delegate = new InMemoryBackend();
+            final WriteBehindBackend writeBehind = new WriteBehindBackend(delegate, NO_BACKGROUND_FLUSH_MS, 1024, 4096);
+            final Queue<String> saved = new ConcurrentLinkedQueue<>();
+            final Queue<Exception> errors = new ConcurrentLinkedQueue<>();
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final String prefix = "t" + t + "-";
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            for (int i = 0; i < 200; i++) {
+                                writeBehind.savePassword("svc", prefix + i, "v" + i);
+                                saved.add(prefix + i);
+                            }
+                        } catch (Exception e) {
+                            errors.add(e);
+                        }
+                    }
+                }));
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            start.countDown();
+            Thread.yield();
+            writeBehind.close();
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertTrue("Erros: " + errors, errors.isEmpty());
+            assertEquals(0, writeBehind.getPending());
+            for (String user : saved) {
+                assertEquals(user, "v" + user.substring(user.indexOf('-') + 1), delegate.loadPassword("svc", user));
+            }
+        }
+    }
+}
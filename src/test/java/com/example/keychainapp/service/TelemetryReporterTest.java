@@ -0,0 +1,260 @@
+package com.example.keychainapp.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Envio dos relatórios para um servidor HTTP local: lotes compactados com gzip, novas tentativas
+ * só para 5xx, o circuito abrindo e fechando e report() sem bloquear a thread chamadora.
+ */
+public class TelemetryReporterTest {
+    private final Map<String, String> previous = new HashMap<>();
+    private HttpServer server;
+    private URL url;
+    private TelemetryReporter reporter;
+
+    // Respostas do servidor, na ordem; vazia = 200
+    private final BlockingQueue<Integer> statuses = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private volatile CountDownLatch gate;
+
+    private static final class Request {
+        final String encoding;
+        final String body;
+
+        Request(String encoding, String body) {
+            this.encoding = encoding;
+            this.body = body;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    CountDownLatch g = gate;
+                    if (g != null) {
+                        g.await(10, TimeUnit.SECONDS);
+                    }
+                    String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                    byte[] body = readAll(exchange.getRequestBody());
+                    if ("gzip".equals(encoding)) {
+                        body = readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+                    }
+                    requests.add(new Request(encoding, new String(body, StandardCharsets.UTF_8)));
+                    Integer status = statuses.poll();
+                    exchange.sendResponseHeaders(status == null ? 200 : status, -1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        set("keychain.telemetry.flushMs", "100");
+        set("keychain.telemetry.backoffMs", "10");
+        set("keychain.telemetry.retries", "3");
+        set("keychain.telemetry.readTimeoutMs", "15000");
+    }
+
+    @After
+    public void tearDown() {
+        CountDownLatch g = gate;
+        if (g != null) {
+            g.countDown();
+        }
+        if (reporter != null) {
+            reporter.close();
+        }
+        server.stop(0);
+        for (Map.Entry<String, String> e : previous.entrySet()) {
+            if (e.getValue() == null) {
+                System.clearProperty(e.getKey());
+            } else {
+                System.setProperty(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void reportsAreSentAsOneGzippedBatch() throws Exception {
+        set("keychain.telemetry.batchSize", "3");
+        reporter = new TelemetryReporter(url);
+        assertTrue(reporter.report("{\"n\":1}"));
+        assertTrue(reporter.report("{\"n\":2}"));
+        assertTrue(reporter.report("{\"n\":3}"));
+        Request request = next();
+        assertEquals("gzip", request.encoding);
+        assertEquals("[{\"n\":1},{\"n\":2},{\"n\":3}]", request.body);
+        awaitSent(3);
+        assertEquals(0, requests.size());
+    }
+
+    @Test
+    public void serverErrorIsRetried() throws Exception {
+        set("keychain.telemetry.batchSize", "1");
+        statuses.add(503);
+        statuses.add(500);
+        reporter = new TelemetryReporter(url);
+        reporter.report("{}");
+        next();
+        next();
+        next();
+        awaitSent(1);
+        assertEquals(0, reporter.getFailedBatches());
+    }
+
+    @Test
+    public void clientErrorIsNotRetried() throws Exception {
+        set("keychain.telemetry.batchSize", "1");
+        statuses.add(400);
+        reporter = new TelemetryReporter(url);
+        reporter.report("{}");
+        next();
+        awaitFailedBatches(1);
+        Thread.sleep(300);
+        assertEquals("Um 4xx não pode ser repetido", 0, requests.size());
+        assertEquals(0, reporter.getSent());
+    }
+
+    @Test
+    public void breakerOpensReopensAfterAFailedProbeAndClosesAfterADelivery() throws Exception {
+        set("keychain.telemetry.batchSize", "1");
+        set("keychain.telemetry.retries", "0");
+        set("keychain.telemetry.breakerFailures", "2");
+        set("keychain.telemetry.breakerCooldownMs", "500");
+        for (int i = 0; i < 3; i++) {
+            statuses.add(500);
+        }
+        reporter = new TelemetryReporter(url);
+        reporter.report("{\"n\":1}");
+        next();
+        awaitFailedBatches(1);
+        reporter.report("{\"n\":2}");
+        next();
+        awaitFailedBatches(2);
+        awaitCircuitOpen("Dois lotes perdidos seguidos têm de abrir o circuito");
+        assertFalse("Com o circuito aberto o relatório é descartado", reporter.report("{\"n\":3}"));
+
+        awaitCircuitClosed();
+        // o lote de teste falha: o circuito abre de novo, sem esperar mais breakerFailures lotes
+        reporter.report("{\"n\":4}");
+        next();
+        awaitFailedBatches(3);
+        awaitCircuitOpen("Um lote de teste perdido tem de reabrir o circuito");
+
+        awaitCircuitClosed();
+        reporter.report("{\"n\":5}");
+        assertEquals("[{\"n\":5}]", next().body);
+        awaitSent(1);
+        assertFalse(reporter.isCircuitOpen());
+        assertTrue(reporter.report("{\"n\":6}"));
+    }
+
+    @Test
+    public void reportDoesNotBlockWhileTheEndpointHangs() throws Exception {
+        set("keychain.telemetry.batchSize", "1");
+        set("keychain.telemetry.queueSize", "10");
+        gate = new CountDownLatch(1);
+        reporter = new TelemetryReporter(url);
+        long start = System.nanoTime();
+        int accepted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (reporter.report("{\"n\":" + i + "}")) {
+                accepted++;
+            }
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("report() demorou " + elapsedMs + " ms com o endpoint parado", elapsedMs < 1000);
+        assertTrue("A fila cheia tem de descartar relatórios", accepted <= 11);
+        assertEquals(1000 - accepted, reporter.getDropped());
+        gate.countDown();
+    }
+
+    private Request next() throws InterruptedException {
+        Request request = requests.poll(10, TimeUnit.SECONDS);
+        if (request == null) {
+            throw new AssertionError("O servidor não recebeu o POST esperado");
+        }
+        return request;
+    }
+
+    private void awaitSent(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (reporter.getSent() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, reporter.getSent());
+    }
+
+    private void awaitFailedBatches(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (reporter.getFailedBatches() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, reporter.getFailedBatches());
+    }
+
+    /** O circuito abre logo depois de o lote ser contado como perdido, na thread de envio. */
+    private void awaitCircuitOpen(String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 200;
+        while (!reporter.isCircuitOpen() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(message, reporter.isCircuitOpen());
+    }
+
+    private void awaitCircuitClosed() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (reporter.isCircuitOpen() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(reporter.isCircuitOpen());
+    }
+
+    private void set(String name, String value) {
+        if (!previous.containsKey(name)) {
+            previous.put(name, System.getProperty(name));
+        }
+        System.setProperty(name, value);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.keychainapp.startup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.example.keychainapp.logic.CryptoUtils;
+import com.example.keychainapp.logic.InMemoryBackend;
+import com.example.keychainapp.logic.SystemKeychain;
+import com.example.keychainapp.logic.WriteBehindBackend;
+import com.example.keychainapp.service.Json;
+
+/**
+ * Modo em lote do Main (--batch) de ponta a ponta: comandos JSON de um arquivo, um resultado por
+ * linha na saída padrão, na ordem da entrada, e o código de saída.
+ */
+public class BatchTest {
+    // longo o bastante para o flush em segundo plano nunca rodar durante um teste
+    private static final long NO_BACKGROUND_FLUSH_MS = 3600000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryBackend backend;
+    private File dir;
+    private int exitCode;
+    // linhas da saída como vieram: Json.parseObject não lê o array "keys" do list
+    private List<String> output;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new InMemoryBackend();
+        backend.savePassword("JavaKeychainApp", "keystore-password", CryptoUtils.encrypt("batch-test"));
+        SystemKeychain.setBackend(backend);
+        dir = folder.newFolder("keychain");
+    }
+
+    @After
+    public void tearDown() {
+        SystemKeychain.setBackend(null);
+    }
+
+    @Test
+    public void putGetDeleteAndListReturnOneResultPerLineInInputOrder() throws Exception {
+        List<Map<String, Object>> results = run(new String[] {"--threads=4"},
+            "{\"op\":\"put\",\"key\":\"db/password\",\"value\":\"s3cr3t\",\"id\":\"a\"}",
+            "{\"op\":\"put\",\"key\":\"db/user\",\"value\":\"app\",\"id\":7}",
+            "{\"op\":\"put\",\"key\":\"outro\",\"value\":\"x\"}",
+            "",
+            "{\"op\":\"get\",\"key\":\"db/password\"}",
+            "{\"op\":\"get\",\"key\":\"ausente\"}",
+            "{\"op\":\"list\",\"prefix\":\"db/\",\"limit\":10}",
+            "{\"op\":\"delete\",\"key\":\"db/user\"}",
+            "{\"op\":\"delete\",\"key\":\"db/user\"}");
+        assertEquals(0, exitCode);
+        assertEquals(8, results.size());
+        int[] lines = {1, 2, 3, 5, 6, 7, 8, 9};
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(lines[i], ((Number) results.get(i).get("line")).intValue());
+            assertEquals(results.get(i).toString(), Boolean.TRUE, results.get(i).get("ok"));
+        }
+        assertEquals("a", results.get(0).get("id"));
+        assertEquals(7, ((Number) results.get(1).get("id")).intValue());
+        assertEquals("s3cr3t", results.get(3).get("value"));
+        assertEquals(Boolean.FALSE, results.get(4).get("found"));
+        assertTrue(output.get(5), output.get(5).contains("\"keys\":[\"db/password\",\"db/user\"],\"next\":null"));
+        assertEquals(Boolean.TRUE, results.get(6).get("found"));
+        assertEquals(Boolean.FALSE, results.get(7).get("found"));
+    }
+
+    @Test
+    public void commandsForTheSameKeyRunInInputOrder() throws Exception {
+        List<String> input = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            input.add("{\"op\":\"put\",\"key\":\"k" + (i % 3) + "\",\"value\":\"v" + i + "\"}");
+            input.add("{\"op\":\"get\",\"key\":\"k" + (i % 3) + "\"}");
+        }
+        List<Map<String, Object>> results = run(new String[] {"--threads=8", "--window=16"}, input.toArray(new String[0]));
+        assertEquals(0, exitCode);
+        assertEquals(400, results.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals("linha " + (2 * i + 2), "v" + i, results.get(2 * i + 1).get("value"));
+        }
+    }
+
+    @Test
+    public void invalidLinesFailAloneAndSetTheExitCode() throws Exception {
+        List<Map<String, Object>> results = run(new String[0],
+            "não é JSON",
+            "{\"op\":\"put\",\"key\":\"a\"}",
+            "{\"op\":\"renomear\",\"key\":\"a\"}",
+            "{\"op\":\"get\",\"key\":\"a\",\"target\":\"outro\"}",
+            "{\"op\":\"put\",\"key\":\"a\",\"value\":\"ok\"}",
+            "{\"op\":\"get\",\"key\":\"a\"}");
+        assertEquals(1, exitCode);
+        assertEquals(6, results.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(results.get(i).toString(), Boolean.FALSE, results.get(i).get("ok"));
+            assertTrue(results.get(i).get("error") instanceof String);
+        }
+        assertEquals("Campo obrigatório ausente: value", results.get(1).get("error"));
+        assertEquals("ok", results.get(5).get("value"));
+    }
+
+    @Test
+    public void keychainPutIsWrittenThroughBeforeItReportsOk() throws Exception {
+        InMemoryBackend delegate = new InMemoryBackend();
+        SystemKeychain.setBackend(new WriteBehindBackend(delegate, NO_BACKGROUND_FLUSH_MS, 64, 1024));
+        List<Map<String, Object>> results = run(new String[] {"--target=keychain"},
+            "{\"op\":\"put\",\"service\":\"App\",\"key\":\"usuario\",\"value\":\"senha\"}",
+            "{\"op\":\"get\",\"service\":\"App\",\"key\":\"usuario\"}",
+            "{\"op\":\"list\",\"prefix\":\"\"}");
+        assertEquals(Boolean.TRUE, results.get(0).get("ok"));
+        // ok:true só depois que a senha saiu do buffer da gravação adiada
+        assertEquals("senha", delegate.loadPassword("App", "usuario"));
+        assertEquals("senha", results.get(1).get("value"));
+        assertEquals(Boolean.FALSE, results.get(2).get("ok"));
+        assertEquals(1, exitCode);
+        assertFalse("O modo keychain não deveria abrir o cofre", new File(dir, "keychain.jks").exists());
+    }
+
+    @Test
+    public void invalidOptionsExitWithTwo() {
+        assertEquals(2, Batch.run(new String[] {"--batch", "--threads=0"}));
+        assertEquals(2, Batch.run(new String[] {"--batch", "--target=outro"}));
+        assertEquals(2, Batch.run(new String[] {"--batch", "sem-igual"}));
+    }
+
+    /**
+     * Roda Batch.run com as linhas em um arquivo de entrada e devolve os resultados já lidos (sem
+     * o array "keys", que fica só em output).
+     */
+    private List<Map<String, Object>> run(String[] options, String... lines) throws Exception {
+        File input = folder.newFile();
+        Files.write(input.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        List<String> args = new ArrayList<>(Arrays.asList("--batch", "--input=" + input.getPath(), "--dir=" + dir.getPath()));
+        args.addAll(Arrays.asList(options));
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(captured, true, "UTF-8"));
+        try {
+            exitCode = Batch.run(args.toArray(new String[0]));
+        } finally {
+            System.setOut(stdout);
+        }
+        output = new ArrayList<>();
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (String line : new String(captured.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                output.add(line);
+                results.add(Json.parseObject(line.replaceFirst(",\"keys\":\\[[^\\]]*\\]", "")));
+            }
+        }
+        return results;
+    }
+}